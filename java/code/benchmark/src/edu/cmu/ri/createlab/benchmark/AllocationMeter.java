@@ -0,0 +1,75 @@
+package edu.cmu.ri.createlab.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>AllocationMeter</code> reports the total number of bytes allocated so far by all live threads, using the
+ * <code>getThreadAllocatedBytes(long[])</code> method of <code>com.sun.management.ThreadMXBean</code>.  That method
+ * isn't part of the standard API, so it's found by reflection and the meter simply reports that it's unsupported on
+ * JVMs which don't provide it.  Bytes allocated by threads which die between two readings are not counted.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class AllocationMeter
+   {
+   private static final Logger LOG = Logger.getLogger(AllocationMeter.class);
+
+   private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+   private final Method getThreadAllocatedBytesMethod;
+
+   AllocationMeter()
+      {
+      Method method = null;
+      try
+         {
+         final Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+         if (clazz.isInstance(threadMXBean))
+            {
+            method = clazz.getMethod("getThreadAllocatedBytes", long[].class);
+            clazz.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadMXBean, true);
+            }
+         }
+      catch (Exception e)
+         {
+         LOG.debug("AllocationMeter.AllocationMeter(): allocation measurement is not supported by this JVM: " + e);
+         method = null;
+         }
+      getThreadAllocatedBytesMethod = method;
+      }
+
+   boolean isSupported()
+      {
+      return getThreadAllocatedBytesMethod != null;
+      }
+
+   /** Returns the total number of bytes allocated by all live threads, or <code>-1</code> if unsupported. */
+   long getTotalAllocatedBytes()
+      {
+      if (getThreadAllocatedBytesMethod != null)
+         {
+         try
+            {
+            final long[] allocatedBytes = (long[])getThreadAllocatedBytesMethod.invoke(threadMXBean, threadMXBean.getAllThreadIds());
+            long total = 0;
+            for (final long bytes : allocatedBytes)
+               {
+               if (bytes > 0)
+                  {
+                  total += bytes;
+                  }
+               }
+            return total;
+            }
+         catch (Exception e)
+            {
+            LOG.debug("AllocationMeter.getTotalAllocatedBytes(): failed to read allocated bytes: " + e);
+            }
+         }
+      return -1;
+      }
+   }
@@ -0,0 +1,23 @@
+package edu.cmu.ri.createlab.benchmark;
+
+/**
+ * <p>
+ * <code>Benchmark</code> defines a single operation to be timed repeatedly by a {@link BenchmarkRunner}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface Benchmark
+   {
+   /** Returns a short, human-readable name for this benchmark. */
+   String getName();
+
+   /** Called once before any operations are run. */
+   void setUp() throws Exception;
+
+   /** Performs the operation being measured.  Called many times, always from the same thread. */
+   void runOperation() throws Exception;
+
+   /** Called once after all operations have been run. */
+   void tearDown();
+   }
@@ -0,0 +1,93 @@
+package edu.cmu.ri.createlab.benchmark;
+
+/**
+ * <p>
+ * <code>BenchmarkResult</code> holds the measurements for one run of a {@link Benchmark}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class BenchmarkResult
+   {
+   private final String name;
+   private final int numberOfOperations;
+   private final double operationsPerSecond;
+   private final double p50LatencyMicros;
+   private final double p99LatencyMicros;
+   private final double maxLatencyMicros;
+   private final double bytesAllocatedPerOperation;
+
+   BenchmarkResult(final String name,
+                   final int numberOfOperations,
+                   final double operationsPerSecond,
+                   final double p50LatencyMicros,
+                   final double p99LatencyMicros,
+                   final double maxLatencyMicros,
+                   final double bytesAllocatedPerOperation)
+      {
+      this.name = name;
+      this.numberOfOperations = numberOfOperations;
+      this.operationsPerSecond = operationsPerSecond;
+      this.p50LatencyMicros = p50LatencyMicros;
+      this.p99LatencyMicros = p99LatencyMicros;
+      this.maxLatencyMicros = maxLatencyMicros;
+      this.bytesAllocatedPerOperation = bytesAllocatedPerOperation;
+      }
+
+   public String getName()
+      {
+      return name;
+      }
+
+   public int getNumberOfOperations()
+      {
+      return numberOfOperations;
+      }
+
+   public double getOperationsPerSecond()
+      {
+      return operationsPerSecond;
+      }
+
+   public double getP50LatencyMicros()
+      {
+      return p50LatencyMicros;
+      }
+
+   public double getP99LatencyMicros()
+      {
+      return p99LatencyMicros;
+      }
+
+   public double getMaxLatencyMicros()
+      {
+      return maxLatencyMicros;
+      }
+
+   /**
+    * Returns the number of bytes allocated per operation, summed over all threads, or a negative number if the JVM
+    * doesn't support measuring allocation.
+    */
+   public double getBytesAllocatedPerOperation()
+      {
+      return bytesAllocatedPerOperation;
+      }
+
+   @Override
+   public String toString()
+      {
+      return String.format("%-48s %12.0f %10.1f %10.1f %10.1f %12s",
+                           name,
+                           operationsPerSecond,
+                           p50LatencyMicros,
+                           p99LatencyMicros,
+                           maxLatencyMicros,
+                           (bytesAllocatedPerOperation < 0) ? "n/a" : String.format("%.0f", bytesAllocatedPerOperation));
+      }
+
+   /** Returns a header line matching the format of {@link #toString()}. */
+   public static String getHeader()
+      {
+      return String.format("%-48s %12s %10s %10s %10s %12s", "benchmark", "ops/s", "p50 (us)", "p99 (us)", "max (us)", "bytes/op");
+      }
+   }
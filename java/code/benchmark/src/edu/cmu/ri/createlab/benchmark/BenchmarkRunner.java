@@ -0,0 +1,96 @@
+package edu.cmu.ri.createlab.benchmark;
+
+import java.util.Arrays;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>BenchmarkRunner</code> runs a {@link Benchmark} for a number of warm-up operations (so that the JIT has a
+ * chance to compile the code under test), and then times each of a number of measured operations individually.  It
+ * reports the throughput, the latency percentiles, and the number of bytes allocated per operation.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class BenchmarkRunner
+   {
+   private static final Logger LOG = Logger.getLogger(BenchmarkRunner.class);
+
+   private static final double NANOS_PER_MICRO = 1000.0;
+   private static final double NANOS_PER_SECOND = 1000000000.0;
+
+   private final int numberOfWarmUpOperations;
+   private final int numberOfMeasuredOperations;
+   private final AllocationMeter allocationMeter = new AllocationMeter();
+
+   /**
+    * Creates a <code>BenchmarkRunner</code> which runs the given numbers of warm-up and measured operations.
+    *
+    * @throws IllegalArgumentException if <code>numberOfWarmUpOperations</code> is negative or <code>numberOfMeasuredOperations</code> is not positive
+    */
+   public BenchmarkRunner(final int numberOfWarmUpOperations, final int numberOfMeasuredOperations)
+      {
+      if (numberOfWarmUpOperations < 0)
+         {
+         throw new IllegalArgumentException("The number of warm-up operations [" + numberOfWarmUpOperations + "] must not be negative");
+         }
+      if (numberOfMeasuredOperations <= 0)
+         {
+         throw new IllegalArgumentException("The number of measured operations [" + numberOfMeasuredOperations + "] must be positive");
+         }
+      this.numberOfWarmUpOperations = numberOfWarmUpOperations;
+      this.numberOfMeasuredOperations = numberOfMeasuredOperations;
+      }
+
+   /**
+    * Runs the given {@link Benchmark} and returns its {@link BenchmarkResult}.  The benchmark is always torn down, even
+    * if an operation throws.
+    */
+   public BenchmarkResult run(final Benchmark benchmark) throws Exception
+      {
+      LOG.debug("BenchmarkRunner.run(): running benchmark [" + benchmark.getName() + "]");
+
+      benchmark.setUp();
+      try
+         {
+         for (int i = 0; i < numberOfWarmUpOperations; i++)
+            {
+            benchmark.runOperation();
+            }
+
+         final long[] latencyNanos = new long[numberOfMeasuredOperations];
+         final long allocatedBytesBefore = allocationMeter.getTotalAllocatedBytes();
+         final long startTime = System.nanoTime();
+         for (int i = 0; i < numberOfMeasuredOperations; i++)
+            {
+            final long operationStartTime = System.nanoTime();
+            benchmark.runOperation();
+            latencyNanos[i] = System.nanoTime() - operationStartTime;
+            }
+         final long elapsedNanos = System.nanoTime() - startTime;
+         final long allocatedBytesAfter = allocationMeter.getTotalAllocatedBytes();
+
+         Arrays.sort(latencyNanos);
+         final double bytesAllocatedPerOperation = allocationMeter.isSupported() ? (allocatedBytesAfter - allocatedBytesBefore) / (double)numberOfMeasuredOperations : -1;
+
+         return new BenchmarkResult(benchmark.getName(),
+                                    numberOfMeasuredOperations,
+                                    numberOfMeasuredOperations * NANOS_PER_SECOND / elapsedNanos,
+                                    getPercentile(latencyNanos, 0.50) / NANOS_PER_MICRO,
+                                    getPercentile(latencyNanos, 0.99) / NANOS_PER_MICRO,
+                                    latencyNanos[latencyNanos.length - 1] / NANOS_PER_MICRO,
+                                    bytesAllocatedPerOperation);
+         }
+      finally
+         {
+         benchmark.tearDown();
+         }
+      }
+
+   /** Returns the value at the given percentile (between 0 and 1) of the given sorted array. */
+   private static long getPercentile(final long[] sortedValues, final double percentile)
+      {
+      final int index = (int)Math.ceil(percentile * sortedValues.length) - 1;
+      return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, index))];
+      }
+   }
@@ -0,0 +1,41 @@
+package edu.cmu.ri.createlab.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * <code>CommandPipelineBenchmarks</code> runs the serial and HID command pipeline benchmarks against in-memory
+ * loopback devices and prints the throughput, latency percentiles and allocation rate of each.  Run it with the
+ * <code>run-benchmark</code> ant target, or directly with an optional argument giving the number of measured
+ * operations per benchmark (the number of warm-up operations is the same).  Results are only comparable between runs
+ * on the same machine and JVM.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandPipelineBenchmarks
+   {
+   private static final int DEFAULT_NUMBER_OF_OPERATIONS = 20000;
+
+   public static void main(final String[] args) throws Exception
+      {
+      final int numberOfOperations = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUMBER_OF_OPERATIONS;
+
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      benchmarks.addAll(SerialCommandBenchmarks.create());
+      benchmarks.addAll(HIDCommandBenchmarks.create());
+
+      final BenchmarkRunner runner = new BenchmarkRunner(numberOfOperations, numberOfOperations);
+      System.out.println(BenchmarkResult.getHeader());
+      for (final Benchmark benchmark : benchmarks)
+         {
+         System.out.println(runner.run(benchmark));
+         }
+      }
+
+   private CommandPipelineBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
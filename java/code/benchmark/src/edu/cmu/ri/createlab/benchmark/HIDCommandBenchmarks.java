@@ -0,0 +1,123 @@
+package edu.cmu.ri.createlab.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandExecutionQueue;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
+import edu.cmu.ri.createlab.usb.hid.loopback.LoopbackHIDDevice;
+
+/**
+ * <p>
+ * <code>HIDCommandBenchmarks</code> creates the {@link Benchmark}s for the HID command pipeline.  Every benchmark talks
+ * to a {@link LoopbackHIDDevice}, so that what's being measured is the overhead of the strategies and the command queue
+ * rather than the USB link.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class HIDCommandBenchmarks
+   {
+   private static final HIDDeviceDescriptor DESCRIPTOR = new HIDDeviceDescriptor((short)0x2354, (short)0x1111, 19, 19, "Loopback");
+   private static final byte[] COMMAND = {'B', 1, 2, 3};
+   private static final int SIZE_OF_EXPECTED_RESPONSE = COMMAND.length;
+   private static final long TASK_EXECUTION_TIMEOUT_MILLIS = 1000;
+
+   static List<Benchmark> create()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      benchmarks.add(new DirectStrategyBenchmark());
+      benchmarks.add(new QueueExecuteBenchmark());
+      return benchmarks;
+      }
+
+   private static LoopbackHIDDevice createDevice()
+      {
+      final LoopbackHIDDevice device = new LoopbackHIDDevice(DESCRIPTOR);
+      device.connect();
+      return device;
+      }
+
+   private static void checkResponse(final HIDCommandResponse response)
+      {
+      if (response == null || !response.wasSuccessful())
+         {
+         throw new IllegalStateException("Command failed");
+         }
+      }
+
+   /** A strategy which sends {@link #COMMAND}, which the loopback device echoes back as the response. */
+   private static final class BenchmarkCommandStrategy extends CreateLabHIDCommandStrategy
+      {
+      protected byte[] getCommand()
+         {
+         return COMMAND.clone();
+         }
+
+      protected int getSizeOfExpectedResponse()
+         {
+         return SIZE_OF_EXPECTED_RESPONSE;
+         }
+      }
+
+   /** Executes the strategy directly on the device, bypassing the queue and its executor thread. */
+   private static final class DirectStrategyBenchmark implements Benchmark
+      {
+      private final BenchmarkCommandStrategy strategy = new BenchmarkCommandStrategy();
+      private LoopbackHIDDevice device;
+
+      public String getName()
+         {
+         return "hid: strategy.execute() on device";
+         }
+
+      public void setUp()
+         {
+         device = createDevice();
+         }
+
+      public void runOperation() throws Exception
+         {
+         checkResponse(strategy.execute(device));
+         }
+
+      public void tearDown()
+         {
+         device.disconnect();
+         }
+      }
+
+   /** Executes the strategy synchronously through the queue, one command at a time. */
+   private static final class QueueExecuteBenchmark implements Benchmark
+      {
+      private final BenchmarkCommandStrategy strategy = new BenchmarkCommandStrategy();
+      private HIDCommandExecutionQueue queue;
+
+      public String getName()
+         {
+         return "hid: queue.execute()";
+         }
+
+      public void setUp()
+         {
+         queue = new HIDCommandExecutionQueue(createDevice(), TASK_EXECUTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+         }
+
+      public void runOperation() throws Exception
+         {
+         checkResponse(queue.execute(strategy));
+         }
+
+      public void tearDown()
+         {
+         queue.shutdown();
+         }
+      }
+
+   private HIDCommandBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,269 @@
+package edu.cmu.ri.createlab.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.serial.DefaultSerialDeviceIOHelper;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandExecutionQueue;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.serial.loopback.LoopbackSerialDeviceTransport;
+import edu.cmu.ri.createlab.serial.loopback.ScriptedSerialDevice;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionMetrics;
+
+/**
+ * <p>
+ * <code>SerialCommandBenchmarks</code> creates the {@link Benchmark}s for the serial command pipeline.  Every
+ * benchmark talks to a {@link ScriptedSerialDevice} over a {@link LoopbackSerialDeviceTransport}, so that what's being
+ * measured is the overhead of the strategies, the I/O helper and the command queue rather than the serial link.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SerialCommandBenchmarks
+   {
+   private static final byte[] COMMAND = {'B', 1, 2, 3};
+   private static final byte[] RESPONSE = {4, 5, 6, 7, 8, 9, 10, 11};
+   private static final int NUMBER_OF_PIPELINED_COMMANDS = 16;
+   private static final long TASK_EXECUTION_TIMEOUT_MILLIS = 1000;
+
+   static List<Benchmark> create()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      benchmarks.add(new DirectStrategyBenchmark());
+      benchmarks.add(new QueueExecuteBenchmark(false));
+      benchmarks.add(new QueueExecuteBenchmark(true));
+      benchmarks.add(new QueuePipelinedSubmitBenchmark());
+      benchmarks.add(new ExecutorConvertBenchmark(new BenchmarkCommandStrategy(), "getData()"));
+      benchmarks.add(new ExecutorConvertBenchmark(new ZeroCopyBenchmarkCommandStrategy(), "zero-copy"));
+      return benchmarks;
+      }
+
+   private static LoopbackSerialDeviceTransport createTransport()
+      {
+      final ScriptedSerialDevice device = new ScriptedSerialDevice();
+      device.addResponse(COMMAND, RESPONSE);
+      return new LoopbackSerialDeviceTransport("loopback", device);
+      }
+
+   private static void checkResponse(final SerialDeviceCommandResponse response)
+      {
+      if (response == null || !response.wasSuccessful())
+         {
+         throw new IllegalStateException("Command failed");
+         }
+      }
+
+   /** A strategy which sends {@link #COMMAND} and expects {@link #RESPONSE} in reply. */
+   private static final class BenchmarkCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<byte[]>
+      {
+      protected int getSizeOfExpectedResponse()
+         {
+         return RESPONSE.length;
+         }
+
+      protected byte[] getCommand()
+         {
+         return COMMAND.clone();
+         }
+
+      public byte[] convertResponse(final SerialDeviceCommandResponse response)
+         {
+         return (response != null && response.wasSuccessful()) ? response.getData() : null;
+         }
+      }
+
+   /** Like {@link BenchmarkCommandStrategy}, but sums the response in place rather than copying it with getData(). */
+   private static final class ZeroCopyBenchmarkCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<Integer>
+      {
+      protected int getSizeOfExpectedResponse()
+         {
+         return RESPONSE.length;
+         }
+
+      protected byte[] getCommand()
+         {
+         return COMMAND.clone();
+         }
+
+      public Integer convertResponse(final SerialDeviceCommandResponse response)
+         {
+         if (response != null && response.wasSuccessful())
+            {
+            int sum = 0;
+            for (int i = 0; i < response.getDataLength(); i++)
+               {
+               sum += response.getUnsignedByte(i);
+               }
+            return sum;
+            }
+         return null;
+         }
+      }
+
+   /** Executes the strategy directly on an I/O helper, bypassing the queue and its executor thread. */
+   private static final class DirectStrategyBenchmark implements Benchmark
+      {
+      private final BenchmarkCommandStrategy strategy = new BenchmarkCommandStrategy();
+      private LoopbackSerialDeviceTransport transport;
+      private DefaultSerialDeviceIOHelper ioHelper;
+
+      public String getName()
+         {
+         return "serial: strategy.execute() on I/O helper";
+         }
+
+      public void setUp()
+         {
+         transport = createTransport();
+         ioHelper = new DefaultSerialDeviceIOHelper(new BufferedInputStream(transport.getInputStream()),
+                                                    new BufferedOutputStream(transport.getOutputStream()));
+         }
+
+      public void runOperation()
+         {
+         checkResponse(strategy.execute(ioHelper));
+         }
+
+      public void tearDown()
+         {
+         transport.close();
+         }
+      }
+
+   /**
+    * Executes the strategy synchronously through the queue, one command at a time, optionally with a
+    * {@link CommandExecutionMetrics} collecting metrics.
+    */
+   private static final class QueueExecuteBenchmark implements Benchmark
+      {
+      private final BenchmarkCommandStrategy strategy = new BenchmarkCommandStrategy();
+      private final boolean isInstrumented;
+      private SerialDeviceCommandExecutionQueue queue;
+
+      private QueueExecuteBenchmark(final boolean isInstrumented)
+         {
+         this.isInstrumented = isInstrumented;
+         }
+
+      public String getName()
+         {
+         return "serial: queue.execute()" + (isInstrumented ? " with metrics" : "");
+         }
+
+      public void setUp() throws Exception
+         {
+         queue = SerialDeviceCommandExecutionQueue.create(createTransport(), TASK_EXECUTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+         if (isInstrumented)
+            {
+            queue.setCommandExecutionListener(new CommandExecutionMetrics());
+            }
+         }
+
+      public void runOperation()
+         {
+         checkResponse(queue.execute(strategy));
+         }
+
+      public void tearDown()
+         {
+         queue.shutdown();
+         }
+      }
+
+   /**
+    * Executes the strategy through a {@link SerialDeviceReturnValueCommandExecutor}, which converts the response and
+    * then releases its pooled buffer.
+    */
+   private static final class ExecutorConvertBenchmark implements Benchmark
+      {
+      private final CreateLabSerialDeviceReturnValueCommandStrategy<?> strategy;
+      private final String description;
+      private SerialDeviceCommandExecutionQueue queue;
+      private SerialDeviceReturnValueCommandExecutor<Object> executor;
+
+      private ExecutorConvertBenchmark(final CreateLabSerialDeviceReturnValueCommandStrategy<?> strategy, final String description)
+         {
+         this.strategy = strategy;
+         this.description = description;
+         }
+
+      public String getName()
+         {
+         return "serial: executor.execute(), " + description;
+         }
+
+      public void setUp() throws Exception
+         {
+         queue = SerialDeviceCommandExecutionQueue.create(createTransport(), TASK_EXECUTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+         executor = new SerialDeviceReturnValueCommandExecutor<Object>(queue,
+                                                                       new CommandExecutionFailureHandler()
+                                                                       {
+                                                                       public void handleExecutionFailure()
+                                                                          {
+                                                                          throw new IllegalStateException("Command failed");
+                                                                          }
+                                                                       });
+         }
+
+      @SuppressWarnings({"unchecked"})
+      public void runOperation()
+         {
+         if (executor.execute((CreateLabSerialDeviceReturnValueCommandStrategy<Object>)strategy) == null)
+            {
+            throw new IllegalStateException("Command failed");
+            }
+         }
+
+      public void tearDown()
+         {
+         queue.shutdown();
+         }
+      }
+
+   /** Submits a burst of commands to the queue and then waits for all of them, so that each operation is one burst. */
+   private static final class QueuePipelinedSubmitBenchmark implements Benchmark
+      {
+      private final BenchmarkCommandStrategy strategy = new BenchmarkCommandStrategy();
+      private final List<Future<SerialDeviceCommandResponse>> futures = new ArrayList<Future<SerialDeviceCommandResponse>>(NUMBER_OF_PIPELINED_COMMANDS);
+      private SerialDeviceCommandExecutionQueue queue;
+
+      public String getName()
+         {
+         return "serial: queue.submit() x " + NUMBER_OF_PIPELINED_COMMANDS + ", then get()";
+         }
+
+      public void setUp() throws Exception
+         {
+         queue = SerialDeviceCommandExecutionQueue.create(createTransport(), TASK_EXECUTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+         }
+
+      public void runOperation() throws Exception
+         {
+         futures.clear();
+         for (int i = 0; i < NUMBER_OF_PIPELINED_COMMANDS; i++)
+            {
+            futures.add(queue.submit(strategy));
+            }
+         for (final Future<SerialDeviceCommandResponse> future : futures)
+            {
+            checkResponse(future.get());
+            }
+         }
+
+      public void tearDown()
+         {
+         queue.shutdown();
+         }
+      }
+
+   private SerialCommandBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
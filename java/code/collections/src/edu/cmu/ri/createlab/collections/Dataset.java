@@ -1,10 +1,14 @@
 package edu.cmu.ri.createlab.collections;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A <code>Dataset</code> is a data structure for storing numbers in a set of a fixed size.  When the dataset is full,
- * adding a new item forces the oldest item to be removed.  This class is thread safe.
+ * adding a new item forces the oldest item to be removed.  Summary statistics over the items in the dataset are
+ * maintained incrementally as items are added (see {@link WindowedStatistics}), so they can be queried without copying
+ * the data, and {@link #getDownsampledData(int)} returns a subset of the data suitable for plotting.  This class is
+ * thread safe.
  *
  * @author Chris Bartley (bartley@cmu.edu)
  */
@@ -12,6 +16,7 @@ public final class Dataset<E extends Number>
    {
    public static final int DEFAULT_SIZE = 256;
    private final CircularArray<E> data;
+   private final WindowedStatistics statistics;
    private final byte[] dataSynchronizationLock = new byte[0];
 
    /** Creates a dataset capable of storing at most {@link #DEFAULT_SIZE} values. */
@@ -32,6 +37,26 @@ public final class Dataset<E extends Number>
          throw new IllegalArgumentException("Size must be positive.");
          }
       data = new CircularArray<E>(size);
+      statistics = new WindowedStatistics(size);
+      }
+
+   /**
+    * Creates a dataset capable of storing at most <code>size</code> values, whose percentiles are estimated in constant
+    * time from a histogram having the given number of bins spanning the range [<code>histogramMin</code>,
+    * <code>histogramMax</code>), rather than computed exactly by sorting.
+    *
+    * @throws IllegalArgumentException if the given <code>size</code> or <code>numberOfBins</code> is not a positive
+    * integer, or if <code>histogramMax</code> is not greater than <code>histogramMin</code>
+    * @see WindowedStatistics#WindowedStatistics(int, double, double, int)
+    */
+   public Dataset(final int size, final double histogramMin, final double histogramMax, final int numberOfBins)
+      {
+      if (size <= 0)
+         {
+         throw new IllegalArgumentException("Size must be positive.");
+         }
+      data = new CircularArray<E>(size);
+      statistics = new WindowedStatistics(size, histogramMin, histogramMax, numberOfBins);
       }
 
    /**
@@ -45,6 +70,7 @@ public final class Dataset<E extends Number>
          synchronized (dataSynchronizationLock)
             {
             data.add(value);
+            statistics.add(value.doubleValue());
             }
          }
       }
@@ -90,6 +116,109 @@ public final class Dataset<E extends Number>
          }
       }
 
+   /**
+    * Returns a {@link List} containing at most <code>maxNumberOfPoints</code> of the elements in this dataset, chosen
+    * using the Largest-Triangle-Three-Buckets algorithm so that the list preserves the shape of the data when plotted.
+    * Like {@link #getData()}, the list is ordered such that the most recently added item will be at the beginning.
+    * If the dataset contains no more than <code>maxNumberOfPoints</code> items, this returns the same as
+    * {@link #getData()}.
+    *
+    * @throws IllegalArgumentException if <code>maxNumberOfPoints</code> is less than 2
+    * @see Downsampler#largestTriangleThreeBuckets(double[], int, int, int, int[])
+    */
+   public List<E> getDownsampledData(final int maxNumberOfPoints)
+      {
+      if (maxNumberOfPoints < 2)
+         {
+         throw new IllegalArgumentException("The max number of points [" + maxNumberOfPoints + "] must be at least 2");
+         }
+
+      synchronized (dataSynchronizationLock)
+         {
+         final int count = data.count();
+         if (count <= maxNumberOfPoints)
+            {
+            return data.get();
+            }
+
+         final double[] values = new double[count];
+         for (int i = 0; i < count; i++)
+            {
+            values[i] = data.get(i).doubleValue();
+            }
+         final int[] indices = new int[maxNumberOfPoints];
+         final int numSelected = Downsampler.largestTriangleThreeBuckets(values, 0, count, maxNumberOfPoints, indices);
+         final List<E> downsampledData = new ArrayList<E>(numSelected);
+         for (int i = 0; i < numSelected; i++)
+            {
+            downsampledData.add(data.get(indices[i]));
+            }
+         return downsampledData;
+         }
+      }
+
+   /** Returns the smallest item in the dataset, or {@link Double#NaN} if the dataset is empty. */
+   public double getMin()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getMin();
+         }
+      }
+
+   /** Returns the largest item in the dataset, or {@link Double#NaN} if the dataset is empty. */
+   public double getMax()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getMax();
+         }
+      }
+
+   /** Returns the mean of the items in the dataset, or {@link Double#NaN} if the dataset is empty. */
+   public double getMean()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getMean();
+         }
+      }
+
+   /** Returns the population variance of the items in the dataset, or {@link Double#NaN} if the dataset is empty. */
+   public double getVariance()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getVariance();
+         }
+      }
+
+   /**
+    * Returns the population standard deviation of the items in the dataset, or {@link Double#NaN} if the dataset is
+    * empty.
+    */
+   public double getStandardDeviation()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getStandardDeviation();
+         }
+      }
+
+   /**
+    * Returns the given percentile of the items in the dataset, or {@link Double#NaN} if the dataset is empty.
+    *
+    * @throws IllegalArgumentException if the percentile is not within the range [0, 100]
+    * @see WindowedStatistics#getPercentile(double)
+    */
+   public double getPercentile(final double percentile)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return statistics.getPercentile(percentile);
+         }
+      }
+
    /**
     * Returns the element at the given <code>index</code> or <code>null</code> if the index is invalid.  An index is
     * considered invalid if it is negative or greater than the number of elements which have been added to the array.
@@ -0,0 +1,322 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * <code>DoubleCircularArray</code> is a {@link CircularArray} specialized for <code>double</code> values.  Values are stored in a
+ * primitive array allocated up front, so adding values, reading them, copying them into a caller-supplied array, and
+ * computing summary statistics never allocate (and never box) anything, which makes it suitable for buffering sensor
+ * samples at high rates.  As with {@link CircularArray}, index 0 is the most recently added value, and once the array
+ * is full, adding a value removes the oldest one.  This class is not thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DoubleCircularArray
+   {
+   private final double[] data;
+   private int head = 0;
+   private int count = 0;
+
+   /** Creates a <code>DoubleCircularArray</code> capable of storing at most <code>size</code> elements. */
+   public DoubleCircularArray(final int size)
+      {
+      if (size <= 0)
+         {
+         throw new IllegalArgumentException("Size must be positive.");
+         }
+
+      data = new double[size];
+      }
+
+   /**
+    * Adds the given value to the array and returns the number of items stored in the array.  If the array already
+    * contains the maximum number of elements, the oldest element (i.e. the least recently added element) is removed.
+    */
+   public int add(final double value)
+      {
+      data[head] = value;
+      head++;
+      if (head >= data.length)
+         {
+         head = 0;
+         }
+      if (count < data.length)
+         {
+         count++;
+         }
+      return count;
+      }
+
+   /**
+    * Adds <code>length</code> values from the given array, starting at <code>offset</code>, in order (so that the last
+    * of them becomes the most recently added element), and returns the number of items stored in the array.
+    *
+    * @throws IndexOutOfBoundsException if <code>offset</code> or <code>length</code> is negative, or if
+    * <code>length</code> is greater than <code>values.length - offset</code>
+    */
+   public int add(final double[] values, final int offset, final int length)
+      {
+      if (offset < 0 || length < 0 || length > values.length - offset)
+         {
+         throw new IndexOutOfBoundsException("Invalid offset [" + offset + "] and length [" + length + "] for array of size [" + values.length + "]");
+         }
+
+      // only the last data.length values can survive, so skip the rest
+      final int numToAdd = Math.min(length, data.length);
+      int sourcePos = offset + length - numToAdd;
+      int remaining = numToAdd;
+      while (remaining > 0)
+         {
+         final int chunk = Math.min(remaining, data.length - head);
+         System.arraycopy(values, sourcePos, data, head, chunk);
+         sourcePos += chunk;
+         remaining -= chunk;
+         head += chunk;
+         if (head >= data.length)
+            {
+            head = 0;
+            }
+         }
+      count = Math.min(data.length, count + numToAdd);
+      return count;
+      }
+
+   /**
+    * Returns the maximum number of items this array can hold.  To get the current number of items stored in the array,
+    * use {@link #count()}.
+    *
+    * @see #count()
+    */
+   public int size()
+      {
+      return data.length;
+      }
+
+   /**
+    * Returns the current number of items stored in the array.  To get the maximum number of items which can be stored
+    * in the array, use {@link #size()}.
+    *
+    * @see #size()
+    */
+   public int count()
+      {
+      return count;
+      }
+
+   /** Removes all the elements from the array. */
+   public void clear()
+      {
+      head = 0;
+      count = 0;
+      }
+
+   /**
+    * Returns the element at the given <code>index</code>, where index 0 is the most recently added element.
+    *
+    * @throws IndexOutOfBoundsException if the index is negative or not less than {@link #count()}
+    */
+   public double get(final int index)
+      {
+      if (index < 0 || index >= count)
+         {
+         throw new IndexOutOfBoundsException("Index [" + index + "] must be within the range [0, " + count + ")");
+         }
+      final int pos = head - 1 - index;
+      return data[pos < 0 ? pos + data.length : pos];
+      }
+
+   /**
+    * Returns the most recently added item.  This is a convenience method which returns the same value as calling
+    * {@link #get(int) get(0) }.
+    *
+    * @throws IndexOutOfBoundsException if the array is empty
+    * @see #get(int)
+    */
+   public double head()
+      {
+      return get(0);
+      }
+
+   /**
+    * Copies the elements into the given array, starting at <code>offset</code>, ordered such that the most recently
+    * added item comes first, and returns the number of elements copied, which is the smaller of {@link #count()} and
+    * the space remaining in the destination array.
+    */
+   public int copyTo(final double[] destination, final int offset)
+      {
+      return copyTo(destination, offset, destination.length - offset);
+      }
+
+   /**
+    * Copies at most <code>maxCount</code> of the most recently added elements into the given array, starting at
+    * <code>offset</code>, ordered such that the most recently added item comes first, and returns the number of
+    * elements copied.
+    *
+    * @throws IndexOutOfBoundsException if <code>offset</code> or <code>maxCount</code> is negative, or if
+    * <code>maxCount</code> is greater than <code>destination.length - offset</code>
+    */
+   public int copyTo(final double[] destination, final int offset, final int maxCount)
+      {
+      if (offset < 0 || maxCount < 0 || maxCount > destination.length - offset)
+         {
+         throw new IndexOutOfBoundsException("Invalid offset [" + offset + "] and max count [" + maxCount + "] for array of size [" + destination.length + "]");
+         }
+      final int numToCopy = Math.min(count, maxCount);
+      int sourcePos = head;
+      for (int i = 0; i < numToCopy; i++)
+         {
+         sourcePos = (sourcePos == 0) ? data.length - 1 : sourcePos - 1;
+         destination[offset + i] = data[sourcePos];
+         }
+      return numToCopy;
+      }
+
+   /**
+    * Returns a new array containing all the elements ordered such that the most recently added item will be at the
+    * beginning of the array.  Use {@link #copyTo(double[], int)} to avoid the allocation.
+    */
+   public double[] toArray()
+      {
+      final double[] array = new double[count];
+      copyTo(array, 0);
+      return array;
+      }
+
+   /**
+    * Returns the smallest element.  As with {@link Math#min(double, double)}, the result is {@link Double#NaN} if any
+    * element is NaN.
+    *
+    * @throws NoSuchElementException if the array is empty
+    */
+   public double getMin()
+      {
+      checkNotEmpty();
+      double min = data[0];
+      for (int i = 1; i < count; i++)
+         {
+         min = Math.min(min, data[i]);
+         }
+      return min;
+      }
+
+   /**
+    * Returns the largest element.  As with {@link Math#max(double, double)}, the result is {@link Double#NaN} if any
+    * element is NaN.
+    *
+    * @throws NoSuchElementException if the array is empty
+    */
+   public double getMax()
+      {
+      checkNotEmpty();
+      double max = data[0];
+      for (int i = 1; i < count; i++)
+         {
+         max = Math.max(max, data[i]);
+         }
+      return max;
+      }
+
+   /** Returns the sum of the elements, or 0 if the array is empty. */
+   public double getSum()
+      {
+      double sum = 0;
+      for (int i = 0; i < count; i++)
+         {
+         sum += data[i];
+         }
+      return sum;
+      }
+
+   /** Returns the mean of the elements, or {@link Double#NaN} if the array is empty. */
+   public double getMean()
+      {
+      return (count == 0) ? Double.NaN : getSum() / count;
+      }
+
+   /**
+    * Returns the population standard deviation of the elements, or {@link Double#NaN} if the array is empty.
+    */
+   public double getStandardDeviation()
+      {
+      if (count == 0)
+         {
+         return Double.NaN;
+         }
+      final double mean = getMean();
+      double sumOfSquares = 0;
+      for (int i = 0; i < count; i++)
+         {
+         final double difference = data[i] - mean;
+         sumOfSquares += difference * difference;
+         }
+      return Math.sqrt(sumOfSquares / count);
+      }
+
+   private void checkNotEmpty()
+      {
+      if (count == 0)
+         {
+         throw new NoSuchElementException("The array is empty");
+         }
+      }
+
+   public boolean equals(final Object o)
+      {
+      if (this == o)
+         {
+         return true;
+         }
+      if (o == null || getClass() != o.getClass())
+         {
+         return false;
+         }
+
+      final DoubleCircularArray that = (DoubleCircularArray)o;
+
+      if (data.length != that.data.length || count != that.count)
+         {
+         return false;
+         }
+      for (int i = 0; i < count; i++)
+         {
+         if (Double.compare(get(i), that.get(i)) != 0)
+            {
+            return false;
+            }
+         }
+
+      return true;
+      }
+
+   public int hashCode()
+      {
+      int result = data.length;
+      for (int i = 0; i < count; i++)
+         {
+         result = 31 * result + hashDouble(get(i));
+         }
+      return result;
+      }
+
+   private static int hashDouble(final double value)
+      {
+      final long bits = Double.doubleToLongBits(value);
+      return (int)(bits ^ (bits >>> 32));
+      }
+
+   public String toString()
+      {
+      final StringBuilder s = new StringBuilder("DoubleCircularArray{");
+      for (int i = 0; i < count; i++)
+         {
+         if (i > 0)
+            {
+            s.append(",");
+            }
+         s.append(get(i));
+         }
+      return s.append("}").toString();
+      }
+   }
@@ -0,0 +1,156 @@
+package edu.cmu.ri.createlab.collections;
+
+/**
+ * <p>
+ * <code>Downsampler</code> selects a subset of at most a given number of points from a series of evenly-spaced values,
+ * e.g. so that a plot of a long history never draws more points than it has pixels.  Both methods write the indices of
+ * the selected values (relative to the given offset) in ascending order into a caller-supplied array and return the
+ * number selected, so they don't allocate anything.  If the series already has few enough values, all of their indices
+ * are returned.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class Downsampler
+   {
+   /**
+    * Selects at most <code>maxPoints</code> of the <code>count</code> values starting at <code>offset</code> using the
+    * Largest-Triangle-Three-Buckets algorithm (Steinarsson, 2013), which keeps the first and last values and, from each
+    * of the buckets in between, the value forming the largest triangle with the previously selected value and the
+    * average of the next bucket.  This preserves the visual shape of the series much better than picking every nth
+    * value.
+    *
+    * @throws IllegalArgumentException if <code>maxPoints</code> is less than 2, or if the <code>indices</code> array is
+    * shorter than the number of points which may be selected
+    * @throws IndexOutOfBoundsException if the range of values is out of bounds
+    */
+   public static int largestTriangleThreeBuckets(final double[] values, final int offset, final int count, final int maxPoints, final int[] indices)
+      {
+      if (selectAllIfFewEnough(values, offset, count, maxPoints, indices))
+         {
+         return count;
+         }
+
+      // the first and last values are always selected; the rest are divided into maxPoints - 2 buckets
+      final double bucketSize = (double)(count - 2) / (maxPoints - 2);
+      int numSelected = 0;
+      int selected = 0;
+      indices[numSelected++] = 0;
+
+      for (int bucket = 0; bucket < maxPoints - 2; bucket++)
+         {
+         // average the next bucket (or use the last value, for the last bucket)
+         final int nextBucketStart = (int)((bucket + 1) * bucketSize) + 1;
+         final int nextBucketEnd = Math.min((int)((bucket + 2) * bucketSize) + 1, count);
+         double averageX = 0;
+         double averageY = 0;
+         for (int i = nextBucketStart; i < nextBucketEnd; i++)
+            {
+            averageX += i;
+            averageY += values[offset + i];
+            }
+         final int nextBucketLength = nextBucketEnd - nextBucketStart;
+         averageX /= nextBucketLength;
+         averageY /= nextBucketLength;
+
+         // pick the value in this bucket which forms the largest triangle
+         final int bucketStart = (int)(bucket * bucketSize) + 1;
+         final int bucketEnd = (int)((bucket + 1) * bucketSize) + 1;
+         final double selectedY = values[offset + selected];
+         double maxArea = -1;
+         int next = bucketStart;
+         for (int i = bucketStart; i < bucketEnd; i++)
+            {
+            // twice the triangle's area, which is all that's needed for comparison
+            final double area = Math.abs((selected - averageX) * (values[offset + i] - selectedY) - (selected - i) * (averageY - selectedY));
+            if (area > maxArea)
+               {
+               maxArea = area;
+               next = i;
+               }
+            }
+         indices[numSelected++] = next;
+         selected = next;
+         }
+
+      indices[numSelected++] = count - 1;
+      return numSelected;
+      }
+
+   /**
+    * Selects at most <code>maxPoints</code> of the <code>count</code> values starting at <code>offset</code> by dividing
+    * them into <code>maxPoints / 2</code> buckets and selecting the min and the max of each bucket.  Unlike
+    * {@link #largestTriangleThreeBuckets}, this guarantees that every peak and trough of the series is kept, which
+    * matters when spikes must never disappear from a plot.
+    *
+    * @throws IllegalArgumentException if <code>maxPoints</code> is less than 2, or if the <code>indices</code> array is
+    * shorter than the number of points which may be selected
+    * @throws IndexOutOfBoundsException if the range of values is out of bounds
+    */
+   public static int minMax(final double[] values, final int offset, final int count, final int maxPoints, final int[] indices)
+      {
+      if (selectAllIfFewEnough(values, offset, count, maxPoints, indices))
+         {
+         return count;
+         }
+
+      final int numberOfBuckets = maxPoints / 2;
+      int numSelected = 0;
+      for (int bucket = 0; bucket < numberOfBuckets; bucket++)
+         {
+         final int bucketStart = (int)((long)bucket * count / numberOfBuckets);
+         final int bucketEnd = (int)((long)(bucket + 1) * count / numberOfBuckets);
+         int minIndex = bucketStart;
+         int maxIndex = bucketStart;
+         for (int i = bucketStart + 1; i < bucketEnd; i++)
+            {
+            final double value = values[offset + i];
+            if (value < values[offset + minIndex])
+               {
+               minIndex = i;
+               }
+            if (value > values[offset + maxIndex])
+               {
+               maxIndex = i;
+               }
+            }
+         indices[numSelected++] = Math.min(minIndex, maxIndex);
+         if (minIndex != maxIndex)
+            {
+            indices[numSelected++] = Math.max(minIndex, maxIndex);
+            }
+         }
+      return numSelected;
+      }
+
+   /** Validates the arguments, and if there are no more than <code>maxPoints</code> values, selects all of them. */
+   private static boolean selectAllIfFewEnough(final double[] values, final int offset, final int count, final int maxPoints, final int[] indices)
+      {
+      if (offset < 0 || count < 0 || count > values.length - offset)
+         {
+         throw new IndexOutOfBoundsException("Invalid offset [" + offset + "] and count [" + count + "] for array of size [" + values.length + "]");
+         }
+      if (maxPoints < 2)
+         {
+         throw new IllegalArgumentException("The max number of points [" + maxPoints + "] must be at least 2");
+         }
+      if (indices.length < Math.min(count, maxPoints))
+         {
+         throw new IllegalArgumentException("The indices array length [" + indices.length + "] must be at least [" + Math.min(count, maxPoints) + "]");
+         }
+      if (count <= maxPoints)
+         {
+         for (int i = 0; i < count; i++)
+            {
+            indices[i] = i;
+            }
+         return true;
+         }
+      return false;
+      }
+
+   private Downsampler()
+      {
+      // private to prevent instantiation
+      }
+   }
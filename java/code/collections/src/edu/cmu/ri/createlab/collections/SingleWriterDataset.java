@@ -0,0 +1,221 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A <code>SingleWriterDataset</code> is a lock-free alternative to {@link Dataset} for high-rate numeric telemetry,
+ * where a single thread (e.g. the one sampling a sensor) appends values while any number of other threads (e.g. a
+ * plotter) read them.  Like a {@link Dataset}, it stores a fixed number of values, and when full, appending a value
+ * removes the oldest one.  Values are stored as <code>double</code>s in an array allocated up front, so neither
+ * appending nor reading allocates anything.
+ * </p>
+ * <p>
+ * The writer never waits for readers: it merely claims the next slot, stores the value, and then publishes it.
+ * Readers copy values optimistically and then check whether the writer claimed any of the slots they copied in the
+ * meantime, so they never block the writer either.  Snapshots (see {@link #copyTo(double[], int, int)}) are always
+ * consistent, in that they contain consecutively appended values, newest first.  A snapshot taken while the writer is
+ * lapping the reader may be truncated, i.e. miss some of the oldest values, if retrying fails to produce a complete
+ * one.
+ * </p>
+ * <p>
+ * Only one thread may call {@link #append(double)} (or, more precisely, calls to it must not overlap, e.g. by being
+ * made from a single thread); all other methods may be called from any thread.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SingleWriterDataset
+   {
+   public static final int DEFAULT_SIZE = Dataset.DEFAULT_SIZE;
+
+   /** Number of times a read is attempted before settling for a truncated snapshot */
+   private static final int MAX_SNAPSHOT_ATTEMPTS = 4;
+
+   private final int size;
+
+   /** Values stored as raw long bits, so that every element access is a volatile read or write. */
+   private final AtomicLongArray data;
+
+   /** The number of slots the writer has claimed, i.e. the sequence number of the value being written, plus one. */
+   private volatile long numberOfValuesClaimed = 0;
+
+   /** The number of values which have been completely written, and are therefore visible to readers. */
+   private volatile long numberOfValuesAppended = 0;
+
+   /** Creates a dataset capable of storing at most {@link #DEFAULT_SIZE} values. */
+   public SingleWriterDataset()
+      {
+      this(DEFAULT_SIZE);
+      }
+
+   /**
+    * Creates a dataset capable of storing at most <code>size</code> values.
+    *
+    * @throws IllegalArgumentException if the given <code>size</code> is not a positive integer.
+    */
+   public SingleWriterDataset(final int size)
+      {
+      if (size <= 0)
+         {
+         throw new IllegalArgumentException("Size must be positive.");
+         }
+      this.size = size;
+      this.data = new AtomicLongArray(size);
+      }
+
+   /**
+    * Adds the given <code>value</code> to the dataset.  If the dataset already contains the maximum number of items,
+    * the least recently added item is removed.  Must only be called by the single writer thread.
+    */
+   public void append(final double value)
+      {
+      // only the writer writes these fields, so there's no need for an atomic increment
+      final long sequenceNumber = numberOfValuesAppended;
+      numberOfValuesClaimed = sequenceNumber + 1;
+      data.set((int)(sequenceNumber % size), Double.doubleToRawLongBits(value));
+      numberOfValuesAppended = sequenceNumber + 1;
+      }
+
+   /**
+    * Returns the current number of items stored in the dataset.  To get the maximum number of items which can be stored
+    * in the dataset, use {@link #size()}.
+    *
+    * @see #size()
+    */
+   public int count()
+      {
+      return (int)Math.min(numberOfValuesAppended, size);
+      }
+
+   /**
+    * Returns the maximum number of items this dataset can hold.  To get the current number of items stored in the
+    * dataset, use {@link #count()}.
+    *
+    * @see #count()
+    */
+   public int size()
+      {
+      return size;
+      }
+
+   /**
+    * Returns the total number of values ever appended to this dataset.  Readers can compare this with a previously
+    * returned value to cheaply determine whether anything has changed.
+    */
+   public long getNumberOfValuesAppended()
+      {
+      return numberOfValuesAppended;
+      }
+
+   /**
+    * Returns the element at the given <code>index</code>, where index 0 is the most recently added element.
+    *
+    * @throws IndexOutOfBoundsException if the index is negative or not less than {@link #count()}
+    */
+   public double get(final int index)
+      {
+      while (true)
+         {
+         final long end = numberOfValuesAppended;
+         if (index < 0 || index >= Math.min(end, size))
+            {
+            throw new IndexOutOfBoundsException("Index [" + index + "] must be within the range [0, " + Math.min(end, size) + ")");
+            }
+         final long sequenceNumber = end - 1 - index;
+         final long bits = data.get((int)(sequenceNumber % size));
+         if (isValid(sequenceNumber))
+            {
+            return Double.longBitsToDouble(bits);
+            }
+         }
+      }
+
+   /**
+    * Returns the most recently added item.  This is a convenience method which returns the same value as calling
+    * {@link #get(int) get(0) }.
+    *
+    * @throws IndexOutOfBoundsException if the dataset is empty
+    * @see #get(int)
+    */
+   public double head()
+      {
+      return get(0);
+      }
+
+   /**
+    * Copies the elements into the given array, starting at <code>offset</code>, ordered such that the most recently
+    * added item comes first, and returns the number of elements copied.
+    *
+    * @see #copyTo(double[], int, int)
+    */
+   public int copyTo(final double[] destination, final int offset)
+      {
+      return copyTo(destination, offset, destination.length - offset);
+      }
+
+   /**
+    * Copies at most <code>maxCount</code> of the most recently added elements into the given array, starting at
+    * <code>offset</code>, ordered such that the most recently added item comes first, and returns the number of
+    * elements copied.  The copied elements are always consecutively appended values.  Normally, the number copied is
+    * the smaller of <code>maxCount</code> and {@link #count()}, but it may be smaller if the writer repeatedly
+    * overwrote the oldest of the values being copied.
+    *
+    * @throws IndexOutOfBoundsException if <code>offset</code> or <code>maxCount</code> is negative, or if
+    * <code>maxCount</code> is greater than <code>destination.length - offset</code>
+    */
+   public int copyTo(final double[] destination, final int offset, final int maxCount)
+      {
+      if (offset < 0 || maxCount < 0 || maxCount > destination.length - offset)
+         {
+         throw new IndexOutOfBoundsException("Invalid offset [" + offset + "] and max count [" + maxCount + "] for array of size [" + destination.length + "]");
+         }
+
+      int numValid = 0;
+      for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++)
+         {
+         final long end = numberOfValuesAppended;
+         final int numToCopy = (int)Math.min(Math.min(end, size), maxCount);
+         long sequenceNumber = end - 1;
+         for (int i = 0; i < numToCopy; i++)
+            {
+            destination[offset + i] = Double.longBitsToDouble(data.get((int)(sequenceNumber % size)));
+            sequenceNumber--;
+            }
+
+         // Any slot the writer claimed while we were copying may have been overwritten.  Since we copied newest first,
+         // the values which are still valid form a prefix of what we copied.
+         numValid = (int)Math.max(0, Math.min(numToCopy, end + size - numberOfValuesClaimed));
+         if (numValid == numToCopy)
+            {
+            break;
+            }
+         }
+      return numValid;
+      }
+
+   /**
+    * Returns <code>true</code> if the value having the given sequence number, having just been read, can't have been
+    * overwritten by the writer before or during the read.
+    */
+   private boolean isValid(final long sequenceNumber)
+      {
+      return sequenceNumber >= numberOfValuesClaimed - size;
+      }
+
+   public String toString()
+      {
+      final double[] values = new double[size];
+      final int count = copyTo(values, 0);
+      final StringBuilder s = new StringBuilder("SingleWriterDataset{data={");
+      for (int i = 0; i < count; i++)
+         {
+         if (i > 0)
+            {
+            s.append(",");
+            }
+         s.append(values[i]);
+         }
+      return s.append("}}").toString();
+      }
+   }
@@ -0,0 +1,337 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * <code>WindowedStatistics</code> maintains summary statistics over a sliding window of the most recently added values,
+ * updating them incrementally as values are added (and the oldest ones drop out of the window) so that querying them
+ * never requires scanning the window:
+ * </p>
+ * <ul>
+ *    <li>the mean and variance are updated in O(1) using a sliding-window variant of Welford's algorithm, and are
+ *    periodically recomputed from scratch (amortized O(1)) to keep rounding errors from accumulating</li>
+ *    <li>the min and max are maintained in amortized O(1) using monotonic queues</li>
+ *    <li>percentiles are estimated in O(number of bins) from a histogram, if one was requested in the constructor, and
+ *    computed exactly by sorting a copy of the window otherwise</li>
+ * </ul>
+ * <p>
+ * NaN values propagate to the mean and variance for as long as they remain in the window.  This class is not thread
+ * safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class WindowedStatistics
+   {
+   private final double[] window;
+   private int head = 0;
+   private int count = 0;
+   private long numberOfValuesAdded = 0;
+
+   private double mean = 0;
+   private double sumOfSquaredDifferences = 0;
+   private int numberOfSlidingUpdates = 0;
+
+   private final MonotonicQueue minQueue;
+   private final MonotonicQueue maxQueue;
+
+   private final int[] histogram;
+   private final double histogramMin;
+   private final double histogramBinWidth;
+
+   /**
+    * Creates a <code>WindowedStatistics</code> over a window of the given size.  Percentiles will be computed exactly,
+    * in O(n log n).
+    *
+    * @throws IllegalArgumentException if the given <code>windowSize</code> is not a positive integer.
+    */
+   public WindowedStatistics(final int windowSize)
+      {
+      this(windowSize, null, 0, 0);
+      }
+
+   /**
+    * Creates a <code>WindowedStatistics</code> over a window of the given size, which estimates percentiles from a
+    * histogram having the given number of equal-width bins spanning the range [<code>histogramMin</code>,
+    * <code>histogramMax</code>).  Values outside that range are counted in the first or last bin.  The estimated
+    * percentiles are accurate to within one bin width (but never beyond the window's actual min and max).
+    *
+    * @throws IllegalArgumentException if the given <code>windowSize</code> or <code>numberOfBins</code> is not a
+    * positive integer, or if <code>histogramMax</code> is not greater than <code>histogramMin</code>
+    */
+   public WindowedStatistics(final int windowSize, final double histogramMin, final double histogramMax, final int numberOfBins)
+      {
+      this(windowSize, createHistogram(histogramMin, histogramMax, numberOfBins), histogramMin, (histogramMax - histogramMin) / numberOfBins);
+      }
+
+   private WindowedStatistics(final int windowSize, final int[] histogram, final double histogramMin, final double histogramBinWidth)
+      {
+      if (windowSize <= 0)
+         {
+         throw new IllegalArgumentException("Size must be positive.");
+         }
+      this.window = new double[windowSize];
+      this.minQueue = new MonotonicQueue(windowSize, true);
+      this.maxQueue = new MonotonicQueue(windowSize, false);
+      this.histogram = histogram;
+      this.histogramMin = histogramMin;
+      this.histogramBinWidth = histogramBinWidth;
+      }
+
+   private static int[] createHistogram(final double histogramMin, final double histogramMax, final int numberOfBins)
+      {
+      if (numberOfBins <= 0)
+         {
+         throw new IllegalArgumentException("The number of bins [" + numberOfBins + "] must be positive");
+         }
+      if (!(histogramMax > histogramMin))
+         {
+         throw new IllegalArgumentException("The histogram max [" + histogramMax + "] must be greater than the histogram min [" + histogramMin + "]");
+         }
+      return new int[numberOfBins];
+      }
+
+   /** Adds the given value to the window, removing the oldest value if the window is full. */
+   public void add(final double value)
+      {
+      final boolean isFull = count == window.length;
+      final double evictedValue = window[head];
+      if (isFull && histogram != null)
+         {
+         histogram[getBin(evictedValue)]--;
+         }
+
+      window[head] = value;
+      head = (head + 1 == window.length) ? 0 : head + 1;
+      final long sequenceNumber = numberOfValuesAdded++;
+
+      if (isFull)
+         {
+         // slide the window: replace the evicted value with the new one
+         final double previousMean = mean;
+         mean += (value - evictedValue) / count;
+         sumOfSquaredDifferences += (value - evictedValue) * (value - mean + evictedValue - previousMean);
+         numberOfSlidingUpdates++;
+         if (numberOfSlidingUpdates >= window.length)
+            {
+            recomputeMeanAndVariance();
+            }
+         }
+      else
+         {
+         count++;
+         final double difference = value - mean;
+         mean += difference / count;
+         sumOfSquaredDifferences += difference * (value - mean);
+         }
+
+      final long oldestSequenceNumber = numberOfValuesAdded - count;
+      minQueue.add(sequenceNumber, value, oldestSequenceNumber);
+      maxQueue.add(sequenceNumber, value, oldestSequenceNumber);
+
+      if (histogram != null)
+         {
+         histogram[getBin(value)]++;
+         }
+      }
+
+   /** Removes all values from the window. */
+   public void clear()
+      {
+      head = 0;
+      count = 0;
+      mean = 0;
+      sumOfSquaredDifferences = 0;
+      numberOfSlidingUpdates = 0;
+      minQueue.clear();
+      maxQueue.clear();
+      if (histogram != null)
+         {
+         Arrays.fill(histogram, 0);
+         }
+      }
+
+   /** Returns the number of values currently in the window. */
+   public int count()
+      {
+      return count;
+      }
+
+   /** Returns the maximum number of values in the window. */
+   public int size()
+      {
+      return window.length;
+      }
+
+   /** Returns the smallest value in the window, or {@link Double#NaN} if the window is empty. */
+   public double getMin()
+      {
+      return (count == 0) ? Double.NaN : minQueue.getFirstValue();
+      }
+
+   /** Returns the largest value in the window, or {@link Double#NaN} if the window is empty. */
+   public double getMax()
+      {
+      return (count == 0) ? Double.NaN : maxQueue.getFirstValue();
+      }
+
+   /** Returns the mean of the values in the window, or {@link Double#NaN} if the window is empty. */
+   public double getMean()
+      {
+      return (count == 0) ? Double.NaN : mean;
+      }
+
+   /** Returns the population variance of the values in the window, or {@link Double#NaN} if the window is empty. */
+   public double getVariance()
+      {
+      // rounding errors can make a tiny variance come out slightly negative
+      return (count == 0) ? Double.NaN : Math.max(0, sumOfSquaredDifferences / count);
+      }
+
+   /** Returns the population standard deviation of the values in the window, or {@link Double#NaN} if the window is empty. */
+   public double getStandardDeviation()
+      {
+      return Math.sqrt(getVariance());
+      }
+
+   /**
+    * Returns the given percentile (using the nearest-rank method) of the values in the window, or {@link Double#NaN}
+    * if the window is empty.  The result is an estimate if a histogram was requested in the constructor, and exact
+    * otherwise.
+    *
+    * @throws IllegalArgumentException if the percentile is not within the range [0, 100]
+    */
+   public double getPercentile(final double percentile)
+      {
+      if (!(percentile >= 0 && percentile <= 100))
+         {
+         throw new IllegalArgumentException("The percentile [" + percentile + "] must be within the range [0, 100]");
+         }
+      if (count == 0)
+         {
+         return Double.NaN;
+         }
+
+      final int rank = Math.max(1, (int)Math.ceil(percentile / 100 * count));
+      if (histogram == null)
+         {
+         // the window's values occupy [0, count) whether or not it's full
+         final double[] sorted = Arrays.copyOf(window, count);
+         Arrays.sort(sorted);
+         return sorted[rank - 1];
+         }
+
+      int cumulativeCount = 0;
+      for (int bin = 0; bin < histogram.length; bin++)
+         {
+         cumulativeCount += histogram[bin];
+         if (cumulativeCount >= rank)
+            {
+            final double binCenter = histogramMin + (bin + 0.5) * histogramBinWidth;
+            return Math.max(getMin(), Math.min(getMax(), binCenter));
+            }
+         }
+      return getMax();
+      }
+
+   private void recomputeMeanAndVariance()
+      {
+      double sum = 0;
+      for (int i = 0; i < count; i++)
+         {
+         sum += window[i];
+         }
+      mean = sum / count;
+      double sumOfSquares = 0;
+      for (int i = 0; i < count; i++)
+         {
+         final double difference = window[i] - mean;
+         sumOfSquares += difference * difference;
+         }
+      sumOfSquaredDifferences = sumOfSquares;
+      numberOfSlidingUpdates = 0;
+      }
+
+   private int getBin(final double value)
+      {
+      final double bin = Math.floor((value - histogramMin) / histogramBinWidth);
+      if (bin < 0 || Double.isNaN(bin))
+         {
+         return 0;
+         }
+      return (bin >= histogram.length) ? histogram.length - 1 : (int)bin;
+      }
+
+   public String toString()
+      {
+      return "WindowedStatistics{" +
+             "count=" + count +
+             ", min=" + getMin() +
+             ", max=" + getMax() +
+             ", mean=" + getMean() +
+             ", standardDeviation=" + getStandardDeviation() +
+             '}';
+      }
+
+   /**
+    * A queue of (sequence number, value) pairs whose values are kept monotonically increasing (for a min queue) or
+    * decreasing (for a max queue), so that the first entry is always the min (or max) of the window.  Each value is
+    * added and removed at most once, so maintaining the queue is amortized O(1) per value.
+    */
+   private static final class MonotonicQueue
+      {
+      private final long[] sequenceNumbers;
+      private final double[] values;
+      private final boolean isMinQueue;
+      private int first = 0;
+      private int size = 0;
+
+      private MonotonicQueue(final int capacity, final boolean isMinQueue)
+         {
+         this.sequenceNumbers = new long[capacity];
+         this.values = new double[capacity];
+         this.isMinQueue = isMinQueue;
+         }
+
+      private void add(final long sequenceNumber, final double value, final long oldestSequenceNumberInWindow)
+         {
+         // drop entries which have left the window
+         while (size > 0 && sequenceNumbers[first] < oldestSequenceNumberInWindow)
+            {
+            first = (first + 1) % values.length;
+            size--;
+            }
+
+         // drop entries which can never again be the min (or max), since the new value is newer and at least as extreme
+         while (size > 0)
+            {
+            final double lastValue = values[(first + size - 1) % values.length];
+            if (isMinQueue ? lastValue >= value : lastValue <= value)
+               {
+               size--;
+               }
+            else
+               {
+               break;
+               }
+            }
+
+         final int last = (first + size) % values.length;
+         sequenceNumbers[last] = sequenceNumber;
+         values[last] = value;
+         size++;
+         }
+
+      private double getFirstValue()
+         {
+         return values[first];
+         }
+
+      private void clear()
+         {
+         first = 0;
+         size = 0;
+         }
+      }
+   }
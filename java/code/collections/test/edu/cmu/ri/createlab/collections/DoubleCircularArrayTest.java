@@ -0,0 +1,70 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>DoubleCircularArrayTest</code> tests the {@link DoubleCircularArray} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DoubleCircularArrayTest extends TestCase
+   {
+   public DoubleCircularArrayTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testAddAndCopy()
+      {
+      final DoubleCircularArray a = new DoubleCircularArray(3);
+      for (int i = 1; i <= 5; i++)
+         {
+         a.add(i / 2.0);
+         }
+      assertEquals(3, a.count());
+      assertEquals(2.5, a.head(), 0);
+      assertTrue(Arrays.equals(new double[]{2.5, 2.0, 1.5}, a.toArray()));
+
+      final double[] values = {7.0, 8.0};
+      a.add(values, 0, values.length);
+      final double[] copy = new double[4];
+      assertEquals(3, a.copyTo(copy, 0));
+      assertTrue(Arrays.equals(new double[]{8.0, 7.0, 2.5, 0.0}, copy));
+      }
+
+   public void testStatistics()
+      {
+      final DoubleCircularArray a = new DoubleCircularArray(10);
+      a.add(-1.5);
+      a.add(0.5);
+      a.add(2.5);
+      assertEquals(-1.5, a.getMin(), 0);
+      assertEquals(2.5, a.getMax(), 0);
+      assertEquals(1.5, a.getSum(), 1e-12);
+      assertEquals(0.5, a.getMean(), 1e-12);
+      assertEquals(Math.sqrt(8.0 / 3.0), a.getStandardDeviation(), 1e-12);
+
+      a.add(Double.NaN);
+      assertTrue(Double.isNaN(a.getMax()));
+      }
+
+   public void testEquals()
+      {
+      final DoubleCircularArray a = new DoubleCircularArray(2);
+      final DoubleCircularArray b = new DoubleCircularArray(2);
+      a.add(1.0);
+      a.add(2.0);
+      a.add(3.0);
+      b.add(2.0);
+      b.add(3.0);
+      assertEquals(a, b);
+      assertEquals(a.hashCode(), b.hashCode());
+      assertEquals("DoubleCircularArray{3.0,2.0}", a.toString());
+
+      b.add(4.0);
+      assertFalse(a.equals(b));
+      }
+   }
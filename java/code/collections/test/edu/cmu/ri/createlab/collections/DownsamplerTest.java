@@ -0,0 +1,106 @@
+package edu.cmu.ri.createlab.collections;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>DownsamplerTest</code> tests the {@link Downsampler} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DownsamplerTest extends TestCase
+   {
+   public DownsamplerTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testFewEnoughValues()
+      {
+      final double[] values = {3, 1, 4};
+      final int[] indices = new int[10];
+      assertEquals(3, Downsampler.largestTriangleThreeBuckets(values, 0, values.length, 10, indices));
+      assertEquals(0, indices[0]);
+      assertEquals(2, indices[2]);
+      assertEquals(2, Downsampler.minMax(values, 1, 2, 2, indices));
+      assertEquals(0, indices[0]);
+      assertEquals(1, indices[1]);
+      }
+
+   public void testLargestTriangleThreeBuckets()
+      {
+      // a flat line with a single spike: the spike must survive downsampling
+      final double[] values = new double[1000];
+      values[637] = 100;
+      final int[] indices = new int[20];
+      final int n = Downsampler.largestTriangleThreeBuckets(values, 0, values.length, 20, indices);
+      assertEquals(20, n);
+      assertEquals(0, indices[0]);
+      assertEquals(999, indices[n - 1]);
+      boolean isSpikeSelected = false;
+      for (int i = 0; i < n; i++)
+         {
+         if (i > 0)
+            {
+            assertTrue("Indices must be strictly ascending", indices[i] > indices[i - 1]);
+            }
+         isSpikeSelected |= indices[i] == 637;
+         }
+      assertTrue("The spike should have been selected", isSpikeSelected);
+
+      assertEquals(2, Downsampler.largestTriangleThreeBuckets(values, 0, values.length, 2, indices));
+      assertEquals(0, indices[0]);
+      assertEquals(999, indices[1]);
+      }
+
+   public void testMinMax()
+      {
+      final double[] values = new double[100];
+      for (int i = 0; i < values.length; i++)
+         {
+         values[i] = Math.sin(i / 5.0);
+         }
+      values[42] = -7;
+      values[43] = 9;
+
+      final int[] indices = new int[10];
+      final int n = Downsampler.minMax(values, 0, values.length, 10, indices);
+      assertTrue(n <= 10);
+      boolean isMinSelected = false;
+      boolean isMaxSelected = false;
+      for (int i = 0; i < n; i++)
+         {
+         if (i > 0)
+            {
+            assertTrue("Indices must be strictly ascending", indices[i] > indices[i - 1]);
+            }
+         isMinSelected |= indices[i] == 42;
+         isMaxSelected |= indices[i] == 43;
+         }
+      assertTrue(isMinSelected);
+      assertTrue(isMaxSelected);
+      }
+
+   public void testIllegalArguments()
+      {
+      try
+         {
+         Downsampler.minMax(new double[5], 0, 5, 1, new int[5]);
+         fail("Downsampling to fewer than 2 points should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      try
+         {
+         Downsampler.largestTriangleThreeBuckets(new double[5], 2, 5, 3, new int[5]);
+         fail("Downsampling an out-of-bounds range should throw an IndexOutOfBoundsException");
+         }
+      catch (IndexOutOfBoundsException e)
+         {
+         // expected
+         }
+      }
+   }
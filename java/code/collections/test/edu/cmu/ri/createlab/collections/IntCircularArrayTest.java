@@ -0,0 +1,151 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>IntCircularArrayTest</code> tests the {@link IntCircularArray} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class IntCircularArrayTest extends TestCase
+   {
+   public IntCircularArrayTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testConstructor()
+      {
+      try
+         {
+         new IntCircularArray(0);
+         fail("Creating an IntCircularArray with a non-positive size should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+
+   public void testAddAndGet()
+      {
+      final IntCircularArray a = new IntCircularArray(3);
+      assertEquals(0, a.count());
+      assertEquals(3, a.size());
+
+      assertEquals(1, a.add(10));
+      assertEquals(2, a.add(20));
+      assertEquals(3, a.add(30));
+      assertEquals(3, a.add(40));
+
+      assertEquals(40, a.head());
+      assertEquals(40, a.get(0));
+      assertEquals(30, a.get(1));
+      assertEquals(20, a.get(2));
+      try
+         {
+         a.get(3);
+         fail("Getting an index beyond the count should throw an IndexOutOfBoundsException");
+         }
+      catch (IndexOutOfBoundsException e)
+         {
+         // expected
+         }
+      }
+
+   public void testMatchesCircularArray()
+      {
+      final int size = 7;
+      final IntCircularArray a = new IntCircularArray(size);
+      final CircularArray<Integer> expected = new CircularArray<Integer>(size);
+      final int[] copy = new int[size];
+      for (int i = 0; i < 25; i++)
+         {
+         a.add(i * 3);
+         expected.add(i * 3);
+
+         final int n = a.copyTo(copy, 0);
+         assertEquals(expected.count(), n);
+         for (int j = 0; j < n; j++)
+            {
+            assertEquals(expected.get(j).intValue(), copy[j]);
+            assertEquals(expected.get(j).intValue(), a.get(j));
+            }
+         }
+      }
+
+   public void testBulkAdd()
+      {
+      final int[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+      final IntCircularArray a = new IntCircularArray(4);
+      assertEquals(2, a.add(values, 0, 2));
+      assertTrue(Arrays.equals(new int[]{2, 1}, a.toArray()));
+      assertEquals(4, a.add(values, 2, 3));
+      assertTrue(Arrays.equals(new int[]{5, 4, 3, 2}, a.toArray()));
+
+      // more values than fit, wrapping around
+      assertEquals(4, a.add(values, 0, values.length));
+      assertTrue(Arrays.equals(new int[]{10, 9, 8, 7}, a.toArray()));
+
+      // must be identical to adding them one at a time
+      final IntCircularArray b = new IntCircularArray(4);
+      for (final int value : values)
+         {
+         b.add(value);
+         }
+      assertEquals(b, a);
+      }
+
+   public void testCopyTo()
+      {
+      final IntCircularArray a = new IntCircularArray(5);
+      for (int i = 1; i <= 8; i++)
+         {
+         a.add(i);
+         }
+      final int[] copy = {-1, -1, -1, -1};
+      assertEquals(2, a.copyTo(copy, 1, 2));
+      assertTrue(Arrays.equals(new int[]{-1, 8, 7, -1}, copy));
+      assertEquals(4, a.copyTo(copy, 0));
+      assertTrue(Arrays.equals(new int[]{8, 7, 6, 5}, copy));
+      }
+
+   public void testStatistics()
+      {
+      final IntCircularArray a = new IntCircularArray(4);
+      assertTrue(Double.isNaN(a.getMean()));
+      assertTrue(Double.isNaN(a.getStandardDeviation()));
+      assertEquals(0, a.getSum());
+      try
+         {
+         a.getMin();
+         fail("Getting the min of an empty array should throw a NoSuchElementException");
+         }
+      catch (NoSuchElementException e)
+         {
+         // expected
+         }
+
+      a.add(100);  // will be evicted
+      a.add(2);
+      a.add(4);
+      a.add(4);
+      a.add(6);
+      assertEquals(2, a.getMin());
+      assertEquals(6, a.getMax());
+      assertEquals(16, a.getSum());
+      assertEquals(4.0, a.getMean(), 1e-9);
+      assertEquals(Math.sqrt(2), a.getStandardDeviation(), 1e-9);
+
+      a.clear();
+      assertEquals(0, a.count());
+      a.add(Integer.MAX_VALUE);
+      a.add(Integer.MAX_VALUE);
+      assertEquals(2L * Integer.MAX_VALUE, a.getSum());
+      }
+   }
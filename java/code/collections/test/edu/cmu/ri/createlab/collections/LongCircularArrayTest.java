@@ -0,0 +1,187 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>LongCircularArrayTest</code> tests the {@link LongCircularArray} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class LongCircularArrayTest extends TestCase
+   {
+   public LongCircularArrayTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testConstructor()
+      {
+      try
+         {
+         new LongCircularArray(0);
+         fail("Creating a LongCircularArray with a non-positive size should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+
+   public void testAddAndGet()
+      {
+      final LongCircularArray a = new LongCircularArray(3);
+      assertEquals(0, a.count());
+      assertEquals(3, a.size());
+
+      assertEquals(1, a.add(10));
+      assertEquals(2, a.add(20));
+      assertEquals(3, a.add(30));
+      assertEquals(3, a.add(40));
+
+      assertEquals(40, a.head());
+      assertEquals(40, a.get(0));
+      assertEquals(30, a.get(1));
+      assertEquals(20, a.get(2));
+      try
+         {
+         a.get(3);
+         fail("Getting an index beyond the count should throw an IndexOutOfBoundsException");
+         }
+      catch (IndexOutOfBoundsException e)
+         {
+         // expected
+         }
+      }
+
+   public void testMatchesCircularArray()
+      {
+      final int size = 7;
+      final LongCircularArray a = new LongCircularArray(size);
+      final CircularArray<Long> expected = new CircularArray<Long>(size);
+      final long[] copy = new long[size];
+      for (int i = 0; i < 25; i++)
+         {
+         a.add(i * 3L);
+         expected.add(i * 3L);
+
+         final int n = a.copyTo(copy, 0);
+         assertEquals(expected.count(), n);
+         for (int j = 0; j < n; j++)
+            {
+            assertEquals(expected.get(j).longValue(), copy[j]);
+            assertEquals(expected.get(j).longValue(), a.get(j));
+            }
+         }
+      }
+
+   public void testBulkAdd()
+      {
+      final long[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+      final LongCircularArray a = new LongCircularArray(4);
+      assertEquals(2, a.add(values, 0, 2));
+      assertTrue(Arrays.equals(new long[]{2, 1}, a.toArray()));
+      assertEquals(4, a.add(values, 2, 3));
+      assertTrue(Arrays.equals(new long[]{5, 4, 3, 2}, a.toArray()));
+
+      // more values than fit, wrapping around
+      assertEquals(4, a.add(values, 0, values.length));
+      assertTrue(Arrays.equals(new long[]{10, 9, 8, 7}, a.toArray()));
+
+      // must be identical to adding them one at a time
+      final LongCircularArray b = new LongCircularArray(4);
+      for (final long value : values)
+         {
+         b.add(value);
+         }
+      assertEquals(b, a);
+      }
+
+   public void testBulkAddWrapsAroundMidCopy()
+      {
+      final long[] values = {11, 12, 13, 14, 15, 16};
+
+      // start the bulk add with the write position part way through the array, so that the copy wraps
+      final LongCircularArray a = new LongCircularArray(5);
+      a.add(1);
+      a.add(2);
+      a.add(3);
+      assertEquals(5, a.add(values, 1, 4));
+      assertTrue(Arrays.equals(new long[]{15, 14, 13, 12, 3}, a.toArray()));
+      assertEquals(15, a.head());
+
+      final long[] copy = new long[7];
+      Arrays.fill(copy, -1);
+      assertEquals(5, a.copyTo(copy, 2));
+      assertTrue(Arrays.equals(new long[]{-1, -1, 15, 14, 13, 12, 3}, copy));
+
+      // a zero-length add is a no-op
+      assertEquals(5, a.add(values, 6, 0));
+      assertTrue(Arrays.equals(new long[]{15, 14, 13, 12, 3}, a.toArray()));
+      }
+
+   public void testCopyTo()
+      {
+      final LongCircularArray a = new LongCircularArray(5);
+      for (int i = 1; i <= 8; i++)
+         {
+         a.add(i);
+         }
+      final long[] copy = {-1, -1, -1, -1};
+      assertEquals(2, a.copyTo(copy, 1, 2));
+      assertTrue(Arrays.equals(new long[]{-1, 8, 7, -1}, copy));
+      assertEquals(4, a.copyTo(copy, 0));
+      assertTrue(Arrays.equals(new long[]{8, 7, 6, 5}, copy));
+      }
+
+   public void testStatistics()
+      {
+      final LongCircularArray a = new LongCircularArray(4);
+      assertTrue(Double.isNaN(a.getMean()));
+      assertTrue(Double.isNaN(a.getStandardDeviation()));
+      assertEquals(0, a.getSum());
+      try
+         {
+         a.getMin();
+         fail("Getting the min of an empty array should throw a NoSuchElementException");
+         }
+      catch (NoSuchElementException e)
+         {
+         // expected
+         }
+
+      a.add(100);  // will be evicted
+      a.add(2);
+      a.add(4);
+      a.add(4);
+      a.add(6);
+      assertEquals(2, a.getMin());
+      assertEquals(6, a.getMax());
+      assertEquals(16, a.getSum());
+      assertEquals(4.0, a.getMean(), 1e-9);
+      assertEquals(Math.sqrt(2), a.getStandardDeviation(), 1e-9);
+
+      a.clear();
+      assertEquals(0, a.count());
+      a.add(Long.MAX_VALUE / 2 - 1);
+      a.add(Long.MIN_VALUE / 2);
+      assertEquals(Long.MIN_VALUE / 2, a.getMin());
+      assertEquals(Long.MAX_VALUE / 2 - 1, a.getMax());
+      assertEquals(-2, a.getSum());
+
+      // values well beyond the range of an int, such as timestamps
+      a.clear();
+      final long base = 1000L * Integer.MAX_VALUE;
+      a.add(base);
+      a.add(base + 2);
+      assertEquals(base, a.getMin());
+      assertEquals(base + 2, a.getMax());
+      assertEquals(2 * base + 2, a.getSum());
+      assertEquals(base + 1.0, a.getMean(), 1e-3);
+      assertEquals(1.0, a.getStandardDeviation(), 1e-3);
+      }
+   }
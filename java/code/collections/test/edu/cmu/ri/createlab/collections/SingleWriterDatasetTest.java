@@ -0,0 +1,196 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>SingleWriterDatasetTest</code> tests the {@link SingleWriterDataset} class, including stress tests in which
+ * reader threads continuously take snapshots while a writer thread appends as fast as it can.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SingleWriterDatasetTest extends TestCase
+   {
+   private static final int NUMBER_OF_READERS = 4;
+   private static final long STRESS_TEST_DURATION_MILLIS = 1000;
+
+   public SingleWriterDatasetTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testConstructor()
+      {
+      try
+         {
+         new SingleWriterDataset(0);
+         fail("Creating a SingleWriterDataset with a non-positive size should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+
+   public void testAppendAndRead()
+      {
+      final SingleWriterDataset dataset = new SingleWriterDataset(3);
+      assertEquals(0, dataset.count());
+      assertEquals(3, dataset.size());
+      try
+         {
+         dataset.head();
+         fail("Getting the head of an empty dataset should throw an IndexOutOfBoundsException");
+         }
+      catch (IndexOutOfBoundsException e)
+         {
+         // expected
+         }
+
+      for (int i = 1; i <= 5; i++)
+         {
+         dataset.append(i);
+         }
+      assertEquals(3, dataset.count());
+      assertEquals(5, dataset.getNumberOfValuesAppended());
+      assertEquals(5.0, dataset.head(), 0);
+      assertEquals(4.0, dataset.get(1), 0);
+      assertEquals(3.0, dataset.get(2), 0);
+
+      final double[] snapshot = {-1, -1, -1, -1, -1};
+      assertEquals(3, dataset.copyTo(snapshot, 1));
+      assertEquals(-1.0, snapshot[0], 0);
+      assertEquals(5.0, snapshot[1], 0);
+      assertEquals(4.0, snapshot[2], 0);
+      assertEquals(3.0, snapshot[3], 0);
+      assertEquals(-1.0, snapshot[4], 0);
+      assertEquals(2, dataset.copyTo(snapshot, 0, 2));
+      assertEquals("SingleWriterDataset{data={5.0,4.0,3.0}}", dataset.toString());
+      }
+
+   public void testSnapshotsAreConsistentUnderContention() throws Exception
+      {
+      // a small dataset makes it likely that the writer laps the readers
+      runStressTest(16);
+      }
+
+   public void testSnapshotsAreConsistentWithLargeDataset() throws Exception
+      {
+      runStressTest(4096);
+      }
+
+   /**
+    * Runs a writer which appends consecutive integers, and readers which check that every snapshot and every single
+    * element they read is consistent with that.
+    */
+   private void runStressTest(final int size) throws Exception
+      {
+      final SingleWriterDataset dataset = new SingleWriterDataset(size);
+      final AtomicBoolean isRunning = new AtomicBoolean(true);
+      final AtomicReference<String> failure = new AtomicReference<String>(null);
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final long[] numberOfSnapshots = new long[NUMBER_OF_READERS];
+
+      final List<Thread> readers = new ArrayList<Thread>();
+      for (int r = 0; r < NUMBER_OF_READERS; r++)
+         {
+         final int readerId = r;
+         readers.add(new Thread("SingleWriterDatasetTest.reader" + r)
+         {
+         public void run()
+            {
+            final double[] snapshot = new double[size];
+            try
+               {
+               startLatch.await();
+               }
+            catch (InterruptedException e)
+               {
+               return;
+               }
+            double previousHead = -1;
+            while (isRunning.get() && failure.get() == null)
+               {
+               final long appendedBefore = dataset.getNumberOfValuesAppended();
+               final int count = dataset.copyTo(snapshot, 0);
+               final long appendedAfter = dataset.getNumberOfValuesAppended();
+               if (count > 0)
+                  {
+                  // the newest value must have been appended during the snapshot, and never goes backwards
+                  if (snapshot[0] < appendedBefore - 1 || snapshot[0] > appendedAfter - 1 || snapshot[0] < previousHead)
+                     {
+                     failure.compareAndSet(null, "Snapshot head [" + snapshot[0] + "] is inconsistent with the number of values appended [" + appendedBefore + ", " + appendedAfter + "]");
+                     }
+                  for (int i = 1; i < count; i++)
+                     {
+                     if (snapshot[i] != snapshot[0] - i)
+                        {
+                        failure.compareAndSet(null, "Snapshot element " + i + " is [" + snapshot[i] + "] but the head is [" + snapshot[0] + "]");
+                        break;
+                        }
+                     }
+                  previousHead = snapshot[0];
+                  }
+
+               final int index = (int)(appendedAfter % size);
+               if (index < dataset.count())
+                  {
+                  final double value = dataset.get(index);
+                  final double head = dataset.head();
+                  if (value != Math.floor(value) || value > head - index)
+                     {
+                     failure.compareAndSet(null, "Element " + index + " is [" + value + "] but the head is [" + head + "]");
+                     }
+                  }
+               numberOfSnapshots[readerId]++;
+               }
+            }
+         });
+         }
+
+      final Thread writer = new Thread("SingleWriterDatasetTest.writer")
+      {
+      public void run()
+         {
+         double value = 0;
+         while (isRunning.get())
+            {
+            dataset.append(value);
+            value++;
+            }
+         }
+      };
+
+      for (final Thread reader : readers)
+         {
+         reader.start();
+         }
+      writer.start();
+      startLatch.countDown();
+      Thread.sleep(STRESS_TEST_DURATION_MILLIS);
+      isRunning.set(false);
+      writer.join();
+      for (final Thread reader : readers)
+         {
+         reader.join();
+         }
+
+      assertNull(failure.get(), failure.get());
+      assertTrue("The writer should have appended many values", dataset.getNumberOfValuesAppended() > size);
+      for (final long n : numberOfSnapshots)
+         {
+         assertTrue("Every reader should have taken snapshots", n > 0);
+         }
+
+      // once the writer has stopped, a snapshot must be complete
+      final double[] snapshot = new double[size];
+      assertEquals(size, dataset.copyTo(snapshot, 0));
+      assertEquals(dataset.getNumberOfValuesAppended() - 1, (long)snapshot[0]);
+      }
+   }
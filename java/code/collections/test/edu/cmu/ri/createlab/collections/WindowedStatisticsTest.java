@@ -0,0 +1,117 @@
+package edu.cmu.ri.createlab.collections;
+
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>WindowedStatisticsTest</code> tests the {@link WindowedStatistics} class by comparing its incrementally
+ * maintained statistics with ones computed from scratch.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class WindowedStatisticsTest extends TestCase
+   {
+   private static final double TOLERANCE = 1e-9;
+
+   public WindowedStatisticsTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testEmpty()
+      {
+      final WindowedStatistics statistics = new WindowedStatistics(4);
+      assertEquals(0, statistics.count());
+      assertTrue(Double.isNaN(statistics.getMin()));
+      assertTrue(Double.isNaN(statistics.getMax()));
+      assertTrue(Double.isNaN(statistics.getMean()));
+      assertTrue(Double.isNaN(statistics.getVariance()));
+      assertTrue(Double.isNaN(statistics.getPercentile(50)));
+      }
+
+   public void testMatchesBruteForce()
+      {
+      final int windowSize = 37;
+      final WindowedStatistics statistics = new WindowedStatistics(windowSize);
+      final DoubleCircularArray window = new DoubleCircularArray(windowSize);
+      final Random random = new Random(42);
+      for (int i = 0; i < 2000; i++)
+         {
+         // a slow drift plus noise, with an occasional spike, exercises both the sliding updates and the min/max queues
+         final double value = 1000 + i * 0.5 + random.nextGaussian() * 10 + (random.nextInt(50) == 0 ? 500 : 0);
+         statistics.add(value);
+         window.add(value);
+
+         assertEquals(window.count(), statistics.count());
+         assertEquals(window.getMin(), statistics.getMin(), 0);
+         assertEquals(window.getMax(), statistics.getMax(), 0);
+         assertEquals(window.getMean(), statistics.getMean(), TOLERANCE);
+         assertEquals(window.getStandardDeviation(), statistics.getStandardDeviation(), 1e-6);
+
+         final double[] sorted = window.toArray();
+         Arrays.sort(sorted);
+         assertEquals(sorted[0], statistics.getPercentile(0), 0);
+         assertEquals(sorted[(int)Math.ceil(0.5 * sorted.length) - 1], statistics.getPercentile(50), 0);
+         assertEquals(sorted[sorted.length - 1], statistics.getPercentile(100), 0);
+         }
+      }
+
+   public void testHistogramPercentiles()
+      {
+      final WindowedStatistics statistics = new WindowedStatistics(100, 0, 100, 100);
+      for (int i = 0; i < 300; i++)
+         {
+         statistics.add(i % 100);
+         }
+      assertEquals(100, statistics.count());
+      assertEquals(49.5, statistics.getPercentile(50), 1.0);
+      assertEquals(89.5, statistics.getPercentile(90), 1.0);
+      assertEquals(0.0, statistics.getPercentile(0), 1.0);
+
+      // estimates never go beyond the actual min and max
+      statistics.clear();
+      statistics.add(10.1);
+      statistics.add(10.2);
+      assertEquals(10.2, statistics.getPercentile(1), 0);
+      assertEquals(10.2, statistics.getPercentile(100), 0);
+      }
+
+   public void testClear()
+      {
+      final WindowedStatistics statistics = new WindowedStatistics(3);
+      statistics.add(10);
+      statistics.add(20);
+      statistics.clear();
+      statistics.add(5);
+      assertEquals(1, statistics.count());
+      assertEquals(5.0, statistics.getMin(), 0);
+      assertEquals(5.0, statistics.getMax(), 0);
+      assertEquals(5.0, statistics.getMean(), 0);
+      assertEquals(0.0, statistics.getVariance(), 0);
+      }
+
+   public void testIllegalArguments()
+      {
+      try
+         {
+         new WindowedStatistics(10, 5, 5, 10);
+         fail("Creating a WindowedStatistics with an empty histogram range should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      try
+         {
+         new WindowedStatistics(10).getPercentile(101);
+         fail("Getting a percentile greater than 100 should throw an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+   }
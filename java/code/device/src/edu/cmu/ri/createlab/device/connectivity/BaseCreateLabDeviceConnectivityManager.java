@@ -4,14 +4,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.SwingUtilities;
 import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
 import edu.cmu.ri.createlab.device.CreateLabDeviceProxy;
-import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -27,13 +28,14 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
 
    // Make the scan scheduler single threaded (since we definitely don't want concurrent scans!), but also make it a
    // daemon thread, so that it doesn't prevent the JVM from shutting down.
-   private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("BaseCreateLabDeviceConnectivityManager.executorService"));
+   private final ScheduledExecutorService executorService = SharedExecutors.newSingleThreadScheduledExecutor("BaseCreateLabDeviceConnectivityManager.executorService");
    private final DeviceScanner deviceScanner = new DeviceScanner();
 
-   // variable for synchronization
-   private final byte[] connectionStateChangeLock = new byte[0];
+   // a ReentrantLock rather than a monitor, since it's held while connecting and disconnecting, and a virtual thread
+   // blocked in a monitor is pinned to its carrier thread
+   private final Lock connectionStateChangeLock = new ReentrantLock();
 
-   // these variables must only ever be read/written from within a block synchronized on connectionStateChangeLock
+   // these variables must only ever be read/written by a thread holding the connectionStateChangeLock
    private CreateLabDeviceConnectionState connectionState = CreateLabDeviceConnectionState.DISCONNECTED;
    private ProxyClass proxy;
    private boolean isScanning = false;
@@ -52,11 +54,16 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
             // make sure we're not already trying to connect
             cancelConnecting();
 
-            synchronized (connectionStateChangeLock)
+            connectionStateChangeLock.lock();
+            try
                {
                // schedule a scan
                scheduleScan(0);
                }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
             }
          };
    private final Runnable disconnectWorkhorseRunnable = new DisconnectWorkhorseRunnable(true);
@@ -67,10 +74,15 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
          @Override
          public void run()
             {
-            synchronized (connectionStateChangeLock)
+            connectionStateChangeLock.lock();
+            try
                {
                isScanning = false;
                }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
             // we want to disconnect here (rather than just setting the connection state) to handle the case where the
             // user cancels the scan while the device handshake is taking place.  In that case, the handshake will
             // complete and the connection state will change to connected before the cancel gets to run (due to the
@@ -166,10 +178,15 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
    @Override
    public final ProxyClass getCreateLabDeviceProxy()
       {
-      synchronized (connectionStateChangeLock)
+      connectionStateChangeLock.lock();
+      try
          {
          return proxy;
          }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
       }
 
    @Override
@@ -193,17 +210,22 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
    @Override
    public final CreateLabDeviceConnectionState getConnectionState()
       {
-      synchronized (connectionStateChangeLock)
+      connectionStateChangeLock.lock();
+      try
          {
          return connectionState;
          }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
       }
 
    /**
     * Sets the {@link CreateLabDeviceConnectionState} for the given device port and notifies the {@link CreateLabDeviceConnectionEventListener}s.  A
     * {@link NullPointerException} is thrown if the given state and/or the device port name is <code>null</code>.
     */
-   // WARNING: this method must only ever be called from within a synchronized block
+   // WARNING: this method must only ever be called by a thread holding the connectionStateChangeLock
    private void setConnectionState(final CreateLabDeviceConnectionState newState, final String devicePortName)
       {
       LOG.trace("BaseCreateLabDeviceConnectivityManager.setConnectionState()");
@@ -289,7 +311,7 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
          }
       }
 
-   // WARNING: this method must only ever be called from within a synchronized block
+   // WARNING: this method must only ever be called by a thread holding the connectionStateChangeLock
    private void scheduleScan(final int delayInSeconds)
       {
       isScanning = true;
@@ -305,7 +327,8 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
          {
          LOG.debug("CreateLabDeviceConnectivityManagerImpl$DeviceScanner.run()");
 
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             // Make sure we're still in scan mode.  We might not be if the user clicked cancel AFTER this scan was
             // scheduled, but BEFORE it actually ran.
@@ -318,8 +341,13 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
                return;
                }
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
 
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             try
                {
@@ -354,9 +382,14 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
                LOG.error("Exception while trying to scan for and connect to a CREATE Lab device", e);
                }
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
 
          // If we got here, then we failed to connect.  So, schedule a new scan if the user didn't cancel the scan...
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             if (isScanning)
                {
@@ -364,6 +397,10 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
                scheduleScan(1);
                }
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
          }
       }
 
@@ -379,7 +416,8 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
       @Override
       public void run()
          {
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             LOG.debug("BaseCreateLabDeviceConnectivityManager.disconnect()");
 
@@ -390,6 +428,10 @@ public abstract class BaseCreateLabDeviceConnectivityManager<ProxyClass extends
             proxy = null;
             setConnectionState(CreateLabDeviceConnectionState.DISCONNECTED, "");
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
          }
       }
    }
@@ -1,14 +1,13 @@
 package edu.cmu.ri.createlab.display.character.menu;
 
 import java.util.Map;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.display.character.CharacterDisplay;
 import edu.cmu.ri.createlab.menu.MenuItem;
 import edu.cmu.ri.createlab.menu.MenuStatusManager;
-import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Logger;
 
 /**
@@ -40,7 +39,7 @@ public abstract class RepeatingActionCharacterDisplayMenuItemAction extends Char
    private final long initialDelay;
    private final long delay;
    private final TimeUnit timeUnit;
-   private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("RepeatingActionCharacterDisplayMenuItemAction"));
+   private final ScheduledExecutorService executor = SharedExecutors.newSingleThreadScheduledExecutor("RepeatingActionCharacterDisplayMenuItemAction");
    private ScheduledFuture<?> scheduledFuture = null;
    private final Runnable repeatedActionRunnable =
          new Runnable()
@@ -0,0 +1,127 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import edu.cmu.ri.createlab.util.RoundTripTimeEstimator;
+
+/**
+ * <p>
+ * <code>AdaptiveReadTimeouts</code> derives the read deadlines used by {@link CreateLabSerialDeviceCommandStrategy}
+ * from the round trip times observed on a single serial link, so that a dead device is detected after a few
+ * milliseconds on a healthy link rather than after the full (fixed) read timeout.  Round trip times are tracked
+ * separately for each strategy class and for each {@link Phase} of a command, since e.g. the echo of a short command
+ * and the response to a command which makes the device do real work take very different amounts of time.  The
+ * strategy's configured read timeout is always the upper bound.
+ * </p>
+ * <p>
+ * Adaptive timeouts are disabled by default, in which case the configured read timeout is always used (but round trip
+ * times are still recorded, so that the estimates are ready if adaptive timeouts are later enabled).
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class AdaptiveReadTimeouts
+   {
+   /** The shortest read timeout which will ever be used in adaptive mode. */
+   public static final long DEFAULT_MIN_TIMEOUT_MILLIS = 50;
+
+   /** The parts of a command exchange whose round trip times are tracked. */
+   public enum Phase
+      {
+         /** From writing the command until its echo has been read. */
+         ECHO,
+         /**
+          * From the start of a read of the command's response until the expected number of bytes has been read.  Reads
+          * of variable-length response bodies aren't tracked, and always use the configured read timeout.
+          */
+         RESPONSE
+      }
+
+   private final ConcurrentMap<Class<?>, RoundTripTimeEstimator[]> estimators = new ConcurrentHashMap<Class<?>, RoundTripTimeEstimator[]>();
+   private final long minTimeoutMillis;
+   private volatile boolean isEnabled = false;
+
+   public AdaptiveReadTimeouts()
+      {
+      this(DEFAULT_MIN_TIMEOUT_MILLIS);
+      }
+
+   public AdaptiveReadTimeouts(final long minTimeoutMillis)
+      {
+      this.minTimeoutMillis = minTimeoutMillis;
+      }
+
+   /** Enables or disables adaptive timeouts. */
+   public void setEnabled(final boolean isEnabled)
+      {
+      this.isEnabled = isEnabled;
+      }
+
+   public boolean isEnabled()
+      {
+      return isEnabled;
+      }
+
+   /**
+    * Returns the read timeout to use for the given phase of a command executed by a strategy of the given class.  This
+    * is the configured <code>maxTimeoutMillis</code> unless adaptive timeouts are enabled and enough round trips have
+    * been observed, in which case it's the estimated timeout, bounded above by <code>maxTimeoutMillis</code>.
+    */
+   public long getTimeoutMillis(final Class<?> strategyClass, final Phase phase, final long maxTimeoutMillis)
+      {
+      if (!isEnabled)
+         {
+         return maxTimeoutMillis;
+         }
+      final RoundTripTimeEstimator[] estimatorsForClass = estimators.get(strategyClass);
+      return (estimatorsForClass == null) ? maxTimeoutMillis : estimatorsForClass[phase.ordinal()].getTimeoutMillis(maxTimeoutMillis);
+      }
+
+   /** Records a successful round trip for the given phase of a command executed by a strategy of the given class. */
+   public void recordRoundTrip(final Class<?> strategyClass, final Phase phase, final long roundTripTimeNanos)
+      {
+      getEstimator(strategyClass, phase).recordRoundTrip(roundTripTimeNanos);
+      }
+
+   /** Records a timeout in the given phase of a command executed by a strategy of the given class. */
+   public void recordTimeout(final Class<?> strategyClass, final Phase phase)
+      {
+      getEstimator(strategyClass, phase).recordTimeout();
+      }
+
+   /**
+    * Returns a snapshot of the estimators for each strategy class and phase seen so far, keyed by the strategy class
+    * name followed by a colon and the phase, e.g. <code>com.example.GetSensorValueCommandStrategy:RESPONSE</code>.
+    */
+   public SortedMap<String, RoundTripTimeEstimator> getEstimators()
+      {
+      final SortedMap<String, RoundTripTimeEstimator> snapshot = new TreeMap<String, RoundTripTimeEstimator>();
+      for (final Map.Entry<Class<?>, RoundTripTimeEstimator[]> entry : estimators.entrySet())
+         {
+         for (final Phase phase : Phase.values())
+            {
+            snapshot.put(entry.getKey().getName() + ":" + phase, entry.getValue()[phase.ordinal()]);
+            }
+         }
+      return snapshot;
+      }
+
+   private RoundTripTimeEstimator getEstimator(final Class<?> strategyClass, final Phase phase)
+      {
+      RoundTripTimeEstimator[] estimatorsForClass = estimators.get(strategyClass);
+      if (estimatorsForClass == null)
+         {
+         final RoundTripTimeEstimator[] newEstimators = new RoundTripTimeEstimator[Phase.values().length];
+         for (int i = 0; i < newEstimators.length; i++)
+            {
+            newEstimators[i] = new RoundTripTimeEstimator(minTimeoutMillis);
+            }
+         final RoundTripTimeEstimator[] existingEstimators = estimators.putIfAbsent(strategyClass, newEstimators);
+         estimatorsForClass = (existingEstimators == null) ? newEstimators : existingEstimators;
+         }
+      return estimatorsForClass[phase.ordinal()];
+      }
+   }
@@ -2,8 +2,10 @@ package edu.cmu.ri.createlab.serial;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.ByteArrayPool;
 import edu.cmu.ri.createlab.util.ByteUtils;
 import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.InstrumentedCommand;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -28,6 +30,25 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
    /** Default maximum number of retries when writing a command */
    public static final int DEFAULT_MAX_NUMBER_OF_RETRIES = 5;
 
+   /** Largest response which will be read into a pooled buffer; larger responses get a buffer of their own */
+   private static final int MAX_POOLED_RESPONSE_SIZE = 64 * 1024;
+
+   /** Maximum number of idle buffers of each size kept in the response buffer pool */
+   private static final int MAX_POOLED_RESPONSE_BUFFERS_PER_SIZE = 16;
+
+   /** Pool of the buffers into which responses are read, shared by all strategies */
+   private static final ByteArrayPool RESPONSE_BUFFER_POOL = new ByteArrayPool(MAX_POOLED_RESPONSE_SIZE, MAX_POOLED_RESPONSE_BUFFERS_PER_SIZE);
+
+   /** Size of the scratch buffer used when slurping */
+   private static final int SLURP_BUFFER_SIZE = 256;
+
+   /**
+    * Helpers which implement only the plain {@link SerialDeviceIOHelper} interface have no link statistics or adaptive
+    * timeouts of their own, so they share these, which are never exposed (thus adaptive timeouts are never enabled).
+    */
+   private static final SerialLinkStatistics UNTRACKED_LINK_STATISTICS = new SerialLinkStatistics(null);
+   private static final AdaptiveReadTimeouts FIXED_READ_TIMEOUTS = new AdaptiveReadTimeouts();
+
    private final long readTimeoutMillis;
    private final long slurpTimeoutMillis;
    private final long maxNumberOfRetries;
@@ -137,8 +158,20 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
     *    <li>the sum of <code>numBytesToRead</code> and <code>offset</code> is larger than the size of the <code>data</code> array</li>
     * </ul>
     * @throws ArrayIndexOutOfBoundsException if the <code>offset</code> is negative or greater than or equal to the size of the <code>data</code> array
+    * @see #read(SerialDeviceIOHelper, int, byte[], int, boolean)
     */
    protected final Integer read(final SerialDeviceIOHelper ioHelper, final int numBytesToRead, final byte[] data, final int offset)
+      {
+      return read(ioHelper, numBytesToRead, data, offset, true);
+      }
+
+   /**
+    * Same as {@link #read(SerialDeviceIOHelper, int, byte[], int)}, but if <code>useAdaptiveTimeout</code> is
+    * <code>false</code>, the read always uses the configured read timeout, and its round trip time isn't recorded in
+    * the {@link AdaptiveReadTimeouts}.  Use this for reads whose size varies a lot from one command to the next (such
+    * as the body of a variable-length response) since a deadline learned from small reads would cut large ones short.
+    */
+   protected final Integer read(final SerialDeviceIOHelper ioHelper, final int numBytesToRead, final byte[] data, final int offset, final boolean useAdaptiveTimeout)
       {
       LOG.trace("CreateLabSerialDeviceCommandStrategy.read()");
 
@@ -165,41 +198,37 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
       try
          {
          // define the ending time
-         final long endTime = readTimeoutMillis + System.currentTimeMillis();
+         final AdaptiveReadTimeouts adaptiveReadTimeouts = getAdaptiveReadTimeouts(ioHelper);
+         final long startTime = System.nanoTime();
+         final long timeoutMillis = useAdaptiveTimeout ? adaptiveReadTimeouts.getTimeoutMillis(getClass(), AdaptiveReadTimeouts.Phase.RESPONSE, readTimeoutMillis) : readTimeoutMillis;
+         final long endTime = timeoutMillis + System.currentTimeMillis();
 
-         int numBytesRead = 0;
-         while ((numBytesRead < numBytesToRead) && (System.currentTimeMillis() <= endTime))
+         final int numBytesRead = readWithDeadline(ioHelper, data, offset, numBytesToRead, endTime);
+
+         if (useAdaptiveTimeout)
             {
-            if (ioHelper.isDataAvailable())
+            if (numBytesRead == numBytesToRead)
                {
-               try
-                  {
-                  final int c = ioHelper.read();
-
-                  if (LOG.isTraceEnabled())
-                     {
-                     LOG.trace("CreateLabSerialDeviceCommandStrategy.read():    read [" + (char)c + "|" + c + "]");
-                     }
-
-                  if (c >= 0)
-                     {
-                     data[offset + numBytesRead++] = (byte)c;
-                     }
-                  else
-                     {
-                     LOG.error("CreateLabSerialDeviceCommandStrategy.read(): End of stream reached while trying to read the data");
-                     return null;
-                     }
-                  }
-               catch (IOException e)
-                  {
-                  LOG.error("CreateLabSerialDeviceCommandStrategy.read(): IOException while trying to read the data", e);
-                  return null;
-                  }
+               adaptiveReadTimeouts.recordRoundTrip(getClass(), AdaptiveReadTimeouts.Phase.RESPONSE, System.nanoTime() - startTime);
+               }
+            else if (numBytesRead >= 0)
+               {
+               adaptiveReadTimeouts.recordTimeout(getClass(), AdaptiveReadTimeouts.Phase.RESPONSE);
                }
             }
 
-         return numBytesRead;
+         if (numBytesRead >= 0)
+            {
+            if (LOG.isTraceEnabled())
+               {
+               LOG.trace("CreateLabSerialDeviceCommandStrategy.read():    read " + bytesToString(data, offset, numBytesRead));
+               }
+            return numBytesRead;
+            }
+         else
+            {
+            LOG.error("CreateLabSerialDeviceCommandStrategy.read(): End of stream reached while trying to read the data");
+            }
          }
       catch (IOException e)
          {
@@ -213,7 +242,7 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
     * Tries to read <code>numBytesToRead</code> bytes from the serial port.  Returns <code>null</code> if an exception
     * occurred while reading.  If the read was successful, it returns an array of bytes having a length equal to the
     * number of bytes actually read, which is equal to or smaller than <code>numBytesToRead</code>, but is guaranteed to
-    * not be greater.
+    * not be greater.  The returned response's data is held in a pooled buffer (see {@link SerialDeviceCommandResponse}).
     */
    protected final SerialDeviceCommandResponse read(final SerialDeviceIOHelper ioHelper, final int numBytesToRead)
       {
@@ -224,8 +253,8 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
          throw new IllegalArgumentException("The number of bytes to read must be positive.");
          }
 
-      // create a buffer to read the data into
-      final byte[] data = new byte[numBytesToRead];
+      // borrow a buffer to read the data into
+      final byte[] data = acquireResponseBuffer(numBytesToRead);
 
       final Integer numBytesActuallyRead = read(ioHelper, numBytesToRead, data, 0);
 
@@ -234,22 +263,38 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
          // Now compare the amount of data read with what the caller expected.  If it's less, then return a response
          // containing only the bytes actually read and return that, but still mark the success as false.  This
          // allows the caller to compare the number of bytes read with the number expected and act accordingly.
-         if (numBytesActuallyRead == numBytesToRead)
-            {
-            return new SerialDeviceCommandResponse(data);
-            }
-         else
-            {
-            final byte[] dataSubset = new byte[numBytesActuallyRead];
-            System.arraycopy(data, 0, dataSubset, 0, numBytesActuallyRead);
-
-            return new SerialDeviceCommandResponse(false, dataSubset);
-            }
+         return createResponse(numBytesActuallyRead == numBytesToRead, data, numBytesActuallyRead);
          }
 
+      releaseResponseBuffer(data);
       return null;
       }
 
+   /**
+    * Returns a buffer of at least the given length from the pool of response buffers.  The buffer must be either
+    * passed to {@link #createResponse(boolean, byte[], int)} or returned with {@link #releaseResponseBuffer(byte[])}.
+    */
+   protected static byte[] acquireResponseBuffer(final int minLength)
+      {
+      return RESPONSE_BUFFER_POOL.acquire(minLength);
+      }
+
+   /** Returns a buffer obtained from {@link #acquireResponseBuffer(int)} to the pool. */
+   protected static void releaseResponseBuffer(final byte[] buffer)
+      {
+      RESPONSE_BUFFER_POOL.release(buffer);
+      }
+
+   /**
+    * Creates a {@link SerialDeviceCommandResponse} whose data is the first <code>length</code> bytes of the given
+    * buffer, which must have been obtained from {@link #acquireResponseBuffer(int)}.  The response takes ownership of
+    * the buffer.
+    */
+   protected static SerialDeviceCommandResponse createResponse(final boolean wasSuccessful, final byte[] buffer, final int length)
+      {
+      return new SerialDeviceCommandResponse(wasSuccessful, buffer, length, RESPONSE_BUFFER_POOL);
+      }
+
    /**
     * Writes the given <code>command</code> to the serial port and then reads from it to verify that the device
     * correctly echoed the command.  Will read a most <code>command.length</code> bytes.  Aborts reading upon reading
@@ -273,41 +318,44 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
                LOG.warn("CreateLabSerialDeviceCommandStrategy.writeCommand(): failed to write command, will" + (numWrites < maxNumberOfRetries ? " " : " not ") + "retry");
                }
             slurp(ioHelper);
+            if (numWrites < maxNumberOfRetries)
+               {
+               InstrumentedCommand.recordRetry();
+               }
             }
          }
       while (!echoDetected && numWrites < maxNumberOfRetries);
 
+      getLinkStatistics(ioHelper).recordCommand(numWrites - 1, echoDetected);
+
       return echoDetected;
       }
 
    protected final void slurp(final SerialDeviceIOHelper ioHelper)
       {
-      final long endTime = slurpTimeoutMillis + System.currentTimeMillis();
+      final long startTime = System.currentTimeMillis();
+      final long endTime = slurpTimeoutMillis + startTime;
+      long numBytesSlurped = 0;
 
+      // borrow the scratch buffer from the pool so that slurping between retries doesn't allocate
+      final byte[] buffer = acquireResponseBuffer(SLURP_BUFFER_SIZE);
       try
          {
          // read until we exhaust the available data, or until we run out of time
          while (ioHelper.isDataAvailable() && System.currentTimeMillis() <= endTime)
             {
-            try
+            final int numBytesRead = readWithDeadline(ioHelper, buffer, 0, Math.min(SLURP_BUFFER_SIZE, ioHelper.available()), endTime);
+            if (numBytesRead >= 0)
                {
-               final int c = ioHelper.read();
-               if (c >= 0)
-                  {
-                  if (LOG.isTraceEnabled())
-                     {
-                     LOG.trace("CreateLabSerialDeviceCommandStrategy.slurp():    read [" + (char)c + "|" + c + "]");
-                     }
-                  }
-               else
+               numBytesSlurped += numBytesRead;
+               if (LOG.isTraceEnabled())
                   {
-                  LOG.error("CreateLabSerialDeviceCommandStrategy.slurp(): End of stream reached while slurping--THIS MAY BE GOOD!");
-                  break;
+                  LOG.trace("CreateLabSerialDeviceCommandStrategy.slurp():    read " + bytesToString(buffer, 0, numBytesRead));
                   }
                }
-            catch (IOException e)
+            else
                {
-               LOG.error("CreateLabSerialDeviceCommandStrategy.slurp(): IOException while trying to slurp", e);
+               LOG.error("CreateLabSerialDeviceCommandStrategy.slurp(): End of stream reached while slurping--THIS MAY BE GOOD!");
                break;
                }
             }
@@ -316,23 +364,28 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
          {
          LOG.error("CreateLabSerialDeviceCommandStrategy.slurp(): IOException while trying to slurp", e);
          }
+      finally
+         {
+         releaseResponseBuffer(buffer);
+         }
+
+      getLinkStatistics(ioHelper).recordSlurp(numBytesSlurped, System.currentTimeMillis() - startTime);
       }
 
    private boolean writeCommandWorkhorse(final SerialDeviceIOHelper ioHelper, final byte[] command)
       {
+      // the echo is only needed for the duration of this call, so borrow it from the pool rather than allocating it anew
+      // for every command and retry
+      final byte[] echo = acquireResponseBuffer(command.length);
       try
          {
          if (LOG.isTraceEnabled())
             {
-            final StringBuffer s = new StringBuffer("[");
-            for (final byte b : command)
-               {
-               s.append("(").append((char)b).append("|").append(ByteUtils.unsignedByteToInt(b)).append(")");
-               }
-            s.append("]");
-            LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Writing the command [" + s + "]...");
+            LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Writing the command [" + bytesToString(command, 0, command.length) + "]...");
             }
 
+         final AdaptiveReadTimeouts adaptiveReadTimeouts = getAdaptiveReadTimeouts(ioHelper);
+         final long writeTime = System.nanoTime();
          ioHelper.write(command);
 
          LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Listening for command echo...");
@@ -344,44 +397,58 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
          boolean isMatch = true;
 
          // define the ending time
-         final long endTime = readTimeoutMillis + System.currentTimeMillis();
-         while ((pos < command.length) && (System.currentTimeMillis() <= endTime))
+         final long endTime = adaptiveReadTimeouts.getTimeoutMillis(getClass(), AdaptiveReadTimeouts.Phase.ECHO, readTimeoutMillis) + System.currentTimeMillis();
+
+         // Read the echo in chunks of whatever is available so that we can still abort upon the first mismatch
+         // without having to wait for the entire echo to arrive.
+         while (isMatch && (pos < command.length))
             {
-            if (ioHelper.isDataAvailable())
+            final int numBytesToRead = Math.max(1, Math.min(command.length - pos, ioHelper.available()));
+            final int numBytesRead = readWithDeadline(ioHelper, echo, pos, numBytesToRead, endTime);
+
+            if (numBytesRead < 0)
                {
-               final byte expected = command[pos];
-               final int actual = ioHelper.read();
-               pos++;                                 // increment the read counter
+               LOG.error("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): End of stream reached while trying to read the command");
+               break;
+               }
+            if (numBytesRead == 0)
+               {
+               // timed out
+               getLinkStatistics(ioHelper).recordEchoTimeout();
+               adaptiveReadTimeouts.recordTimeout(getClass(), AdaptiveReadTimeouts.Phase.ECHO);
+               break;
+               }
 
-               if (LOG.isTraceEnabled())
-                  {
-                  LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse():    read [" + (char)actual + "|" + actual + "]");
-                  }
+            if (LOG.isTraceEnabled())
+               {
+               LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse():    read " + bytesToString(echo, pos, numBytesRead));
+               }
 
-               // see if we reached the end of the stream
-               if (actual >= 0)
+            // make sure the characters in the command match; break if not
+            final int chunkEnd = pos + numBytesRead;
+            while (pos < chunkEnd)
+               {
+               final byte expected = command[pos];
+               final byte actual = echo[pos];
+               pos++;                                 // increment the read counter
+               if (expected != actual)
                   {
-                  final byte actualAsByte = (byte)actual;
-                  // make sure this character in the command matches; break if not
-                  if (expected != actualAsByte)
+                  if (LOG.isEnabledFor(Level.WARN))
                      {
-                     if (LOG.isEnabledFor(Level.WARN))
-                        {
-                        LOG.warn("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Mismatch detected: expected [" + ByteUtils.unsignedByteToInt(expected) + "], but read [" + ByteUtils.unsignedByteToInt(actualAsByte) + "]");
-                        }
-                     isMatch = false;
-                     break;
+                     LOG.warn("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Mismatch detected: expected [" + ByteUtils.unsignedByteToInt(expected) + "], but read [" + ByteUtils.unsignedByteToInt(actual) + "]");
                      }
-                  }
-               else
-                  {
-                  LOG.error("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): End of stream reached while trying to read the command");
+                  getLinkStatistics(ioHelper).recordEchoMismatch();
+                  isMatch = false;
                   break;
                   }
                }
             }
 
          final boolean echoDetected = (pos == command.length) && isMatch;
+         if (echoDetected)
+            {
+            adaptiveReadTimeouts.recordRoundTrip(getClass(), AdaptiveReadTimeouts.Phase.ECHO, System.nanoTime() - writeTime);
+            }
          if (LOG.isTraceEnabled())
             {
             LOG.trace("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): Command echo detected = " + echoDetected + " (isMatch=[" + isMatch + "], expected length=[" + command.length + "], actual length=[" + pos + "])");
@@ -393,6 +460,10 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
          {
          LOG.error("CreateLabSerialDeviceCommandStrategy.writeCommandWorkhorse(): IOException while trying to read the command", e);
          }
+      finally
+         {
+         releaseResponseBuffer(echo);
+         }
 
       return false;
       }
@@ -416,33 +487,30 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
 
          // read until we run out of time, or we find the first character in the pattern
          boolean foundStartCharacter = false;
-         while (!foundStartCharacter && (System.currentTimeMillis() <= slurpEndTime))
+         while (!foundStartCharacter && waitForData(ioHelper, slurpEndTime))
             {
-            if (ioHelper.isDataAvailable())
+            try
                {
-               try
+               final int c = ioHelper.read();
+               if (c >= 0)
                   {
-                  final int c = ioHelper.read();
-                  if (c >= 0)
-                     {
-                     if (LOG.isTraceEnabled())
-                        {
-                        LOG.trace("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern():    read [" + (char)c + "|" + c + "]");
-                        }
-                     foundStartCharacter = (c == firstCharacter);
-                     }
-                  else
+                  if (LOG.isTraceEnabled())
                      {
-                     LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): End of stream reached while trying to read the pattern");
-                     break;
+                     LOG.trace("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern():    read [" + (char)c + "|" + c + "]");
                      }
+                  foundStartCharacter = (c == firstCharacter);
                   }
-               catch (IOException e)
+               else
                   {
-                  LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): IOException while trying to read the pattern", e);
+                  LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): End of stream reached while trying to read the pattern");
                   break;
                   }
                }
+            catch (IOException e)
+               {
+               LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): IOException while trying to read the pattern", e);
+               break;
+               }
             }
 
          // if we found the start character, then try to read the remaining characters in the pattern
@@ -453,43 +521,40 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
             int characterPositionToRead = 1;// we already read the zeroth character, so start reading at position 1
             while ((numMatchedCharacters < pattern.length) &&
                    (characterPositionToRead < pattern.length) &&
-                   (System.currentTimeMillis() <= readEndTime))
+                   waitForData(ioHelper, readEndTime))
                {
-               if (ioHelper.isDataAvailable())
-                  {
-                  final byte targetCharacter = pattern[characterPositionToRead++];
+               final byte targetCharacter = pattern[characterPositionToRead++];
 
-                  try
+               try
+                  {
+                  final int c = ioHelper.read();
+                  if (c >= 0)
                      {
-                     final int c = ioHelper.read();
-                     if (c >= 0)
+                     if (LOG.isTraceEnabled())
+                        {
+                        LOG.trace("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern():    read [" + (char)c + "|" + c + "]");
+                        }
+                     if (c == targetCharacter)
                         {
-                        if (LOG.isTraceEnabled())
-                           {
-                           LOG.trace("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern():    read [" + (char)c + "|" + c + "]");
-                           }
-                        if (c == targetCharacter)
-                           {
-                           numMatchedCharacters++;
-                           }
-                        else
-                           {
-                           // quit trying to read the pattern if we detect a mis-match
-                           break;
-                           }
+                        numMatchedCharacters++;
                         }
                      else
                         {
-                        LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): End of stream reached while trying to read the pattern");
+                        // quit trying to read the pattern if we detect a mis-match
                         break;
                         }
                      }
-                  catch (IOException e)
+                  else
                      {
-                     LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): IOException while trying to read the pattern", e);
+                     LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): End of stream reached while trying to read the pattern");
                      break;
                      }
                   }
+               catch (IOException e)
+                  {
+                  LOG.error("CreateLabSerialDeviceCommandStrategy.slurpAndMatchPattern(): IOException while trying to read the pattern", e);
+                  break;
+                  }
                }
 
             foundPattern = (numMatchedCharacters == pattern.length);
@@ -510,4 +575,71 @@ public abstract class CreateLabSerialDeviceCommandStrategy implements CommandStr
 
       return foundPattern;
       }
+
+   private static SerialLinkStatistics getLinkStatistics(final SerialDeviceIOHelper ioHelper)
+      {
+      return (ioHelper instanceof ExtendedSerialDeviceIOHelper) ? ((ExtendedSerialDeviceIOHelper)ioHelper).getLinkStatistics() : UNTRACKED_LINK_STATISTICS;
+      }
+
+   private static AdaptiveReadTimeouts getAdaptiveReadTimeouts(final SerialDeviceIOHelper ioHelper)
+      {
+      return (ioHelper instanceof ExtendedSerialDeviceIOHelper) ? ((ExtendedSerialDeviceIOHelper)ioHelper).getAdaptiveReadTimeouts() : FIXED_READ_TIMEOUTS;
+      }
+
+   /**
+    * Waits for data until the given deadline, parking if the helper is an {@link ExtendedSerialDeviceIOHelper}, or
+    * polling otherwise.
+    */
+   private static boolean waitForData(final SerialDeviceIOHelper ioHelper, final long deadlineMillis) throws IOException
+      {
+      if (ioHelper instanceof ExtendedSerialDeviceIOHelper)
+         {
+         return ((ExtendedSerialDeviceIOHelper)ioHelper).waitForData(deadlineMillis);
+         }
+      while (!ioHelper.isDataAvailable())
+         {
+         if (System.currentTimeMillis() > deadlineMillis)
+            {
+            return false;
+            }
+         }
+      return true;
+      }
+
+   /**
+    * Reads up to <code>length</code> bytes before the given deadline, as described by
+    * {@link ExtendedSerialDeviceIOHelper#read(byte[], int, int, long)}.  Helpers which aren't
+    * {@link ExtendedSerialDeviceIOHelper}s are read a byte at a time.
+    */
+   private static int readWithDeadline(final SerialDeviceIOHelper ioHelper, final byte[] buffer, final int offset, final int length, final long deadlineMillis) throws IOException
+      {
+      if (ioHelper instanceof ExtendedSerialDeviceIOHelper)
+         {
+         return ((ExtendedSerialDeviceIOHelper)ioHelper).read(buffer, offset, length, deadlineMillis);
+         }
+
+      int numBytesRead = 0;
+      while ((numBytesRead < length) && waitForData(ioHelper, deadlineMillis))
+         {
+         final int c = ioHelper.read();
+         if (c < 0)
+            {
+            return -1;
+            }
+         buffer[offset + numBytesRead++] = (byte)c;
+         }
+      return numBytesRead;
+      }
+
+   private static String bytesToString(final byte[] data, final int offset, final int length)
+      {
+      final StringBuilder s = new StringBuilder("[");
+      for (int i = offset; i < offset + length; i++)
+         {
+         final int c = ByteUtils.unsignedByteToInt(data[i]);
+         s.append("(").append((char)c).append("|").append(c).append(")");
+         }
+      s.append("]");
+      return s.toString();
+      }
    }
@@ -107,6 +107,10 @@ public abstract class CreateLabSerialDeviceReturnValueCommandStrategy<DesiredCla
             }
          else
             {
+            if (response != null)
+               {
+               response.release();
+               }
             if (LOG.isEnabledFor(Level.ERROR))
                {
                final StringBuffer s = new StringBuffer("[");
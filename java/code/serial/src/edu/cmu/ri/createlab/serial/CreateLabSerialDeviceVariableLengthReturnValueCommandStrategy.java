@@ -1,6 +1,5 @@
 package edu.cmu.ri.createlab.serial;
 
-import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.util.ByteUtils;
 import org.apache.log4j.Level;
@@ -111,44 +110,33 @@ public abstract class CreateLabSerialDeviceVariableLengthReturnValueCommandStrat
          // check whether reading the header was successful
          if (headerResponse != null && headerResponse.wasSuccessful())
             {
-            // now get the size of the variable-length response
+            // now get the size of the variable-length response (getData() copies the small header and recycles its buffer)
             final byte[] headerData = headerResponse.getData();
             final int numBytesExpectedInVariableLengthResponse = getSizeOfVariableLengthResponse(headerData);
 
-            final byte[] data;
-            final Integer numBytesActuallyReadOfVariableLengthResponse;
             if (numBytesExpectedInVariableLengthResponse == 0)
                {
-               data = headerData;
-               numBytesActuallyReadOfVariableLengthResponse = 0;
+               return new SerialDeviceCommandResponse(headerData);
                }
-            else
-               {
-               // create a buffer large enough to store both the header data and the variable length data
-               data = Arrays.copyOf(headerData, headerData.length + numBytesExpectedInVariableLengthResponse);
 
-               // check whether reading the variable-length data was successful
-               numBytesActuallyReadOfVariableLengthResponse = read(ioHelper, numBytesExpectedInVariableLengthResponse, data, headerData.length);
-               }
+            // borrow a buffer large enough to store both the header data and the variable length data
+            final byte[] data = acquireResponseBuffer(headerData.length + numBytesExpectedInVariableLengthResponse);
+            System.arraycopy(headerData, 0, data, 0, headerData.length);
+
+            // Check whether reading the variable-length data was successful.  The body's size varies from one command to the
+            // next, so the read uses the fixed read timeout rather than one learned from (typically small) past reads.
+            final Integer numBytesActuallyReadOfVariableLengthResponse = read(ioHelper, numBytesExpectedInVariableLengthResponse, data, headerData.length, false);
 
             if (numBytesActuallyReadOfVariableLengthResponse != null)
                {
-               if (numBytesActuallyReadOfVariableLengthResponse == numBytesExpectedInVariableLengthResponse)
-                  {
-                  // Success! return the data
-                  return new SerialDeviceCommandResponse(data);
-                  }
-               else
-                  {
-                  // Failure...
-                  final byte[] dataSubset = Arrays.copyOf(headerData, headerData.length + numBytesExpectedInVariableLengthResponse);
-                  System.arraycopy(data, headerData.length, dataSubset, 0, numBytesActuallyReadOfVariableLengthResponse);
-
-                  return new SerialDeviceCommandResponse(false, dataSubset);
-                  }
+               // on failure, the response contains only the bytes actually read
+               return createResponse(numBytesActuallyReadOfVariableLengthResponse == numBytesExpectedInVariableLengthResponse,
+                                     data,
+                                     headerData.length + numBytesActuallyReadOfVariableLengthResponse);
                }
             else
                {
+               releaseResponseBuffer(data);
                if (LOG.isEnabledFor(Level.ERROR))
                   {
                   LOG.error("CreateLabSerialDeviceVariableLengthReturnValueCommandStrategy.execute(): Failed to read variable-length response for command " + getCommandAsString(command) + ".");
@@ -157,6 +145,10 @@ public abstract class CreateLabSerialDeviceVariableLengthReturnValueCommandStrat
             }
          else
             {
+            if (headerResponse != null)
+               {
+               headerResponse.release();
+               }
             if (LOG.isEnabledFor(Level.ERROR))
                {
                LOG.error("CreateLabSerialDeviceVariableLengthReturnValueCommandStrategy.execute(): Failed to read header response for command " + getCommandAsString(command) + ".");
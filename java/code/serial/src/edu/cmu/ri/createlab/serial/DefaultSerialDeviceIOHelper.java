@@ -3,23 +3,60 @@ package edu.cmu.ri.createlab.serial;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class DefaultSerialDeviceIOHelper implements SerialDeviceIOHelper
+public final class DefaultSerialDeviceIOHelper implements ExtendedSerialDeviceIOHelper
    {
    private static final Logger LOG = Logger.getLogger(DefaultSerialDeviceIOHelper.class);
 
+   /**
+    * Maximum number of milliseconds to park in {@link #waitForData(long)} before checking the input stream again when
+    * data-available notifications are <i>not</i> enabled.
+    */
+   private static final long POLLING_INTERVAL_MILLIS = 1;
+
+   /**
+    * Maximum number of milliseconds to park in {@link #waitForData(long)} before checking the input stream again when
+    * data-available notifications are enabled.  This is merely a safety net in case a notification is ever missed.
+    */
+   private static final long NOTIFICATION_SAFETY_INTERVAL_MILLIS = 50;
+
    private final InputStream in;
    private final OutputStream out;
+   private final SerialLinkStatistics linkStatistics;
+   private final AdaptiveReadTimeouts adaptiveReadTimeouts = new AdaptiveReadTimeouts();
+   private final Lock dataAvailableLock = new ReentrantLock();
+   private final Condition dataAvailableCondition = dataAvailableLock.newCondition();
+   private volatile boolean isDataAvailableNotificationEnabled = false;
 
    public DefaultSerialDeviceIOHelper(final InputStream in, final OutputStream out)
       {
+      this(in, out, new SerialLinkStatistics(null));
+      }
+
+   /**
+    * Creates a <code>DefaultSerialDeviceIOHelper</code> which records the health of the link in the given
+    * {@link SerialLinkStatistics}.
+    *
+    * @throws IllegalArgumentException if the <code>linkStatistics</code> is <code>null</code>
+    */
+   public DefaultSerialDeviceIOHelper(final InputStream in, final OutputStream out, final SerialLinkStatistics linkStatistics)
+      {
+      if (linkStatistics == null)
+         {
+         throw new IllegalArgumentException("The SerialLinkStatistics cannot be null");
+         }
       this.in = in;
       this.out = out;
+      this.linkStatistics = linkStatistics;
       }
 
    public int available() throws IOException
@@ -32,6 +69,63 @@ public final class DefaultSerialDeviceIOHelper implements SerialDeviceIOHelper
       return in.available() > 0;
       }
 
+   public boolean waitForData(final long deadlineMillis) throws IOException
+      {
+      dataAvailableLock.lock();
+      try
+         {
+         while (in.available() <= 0)
+            {
+            final long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis < 0)
+               {
+               return false;
+               }
+
+            final long maxWaitMillis = isDataAvailableNotificationEnabled ? NOTIFICATION_SAFETY_INTERVAL_MILLIS : POLLING_INTERVAL_MILLIS;
+            try
+               {
+               dataAvailableCondition.await(Math.max(1, Math.min(remainingMillis, maxWaitMillis)), TimeUnit.MILLISECONDS);
+               }
+            catch (InterruptedException e)
+               {
+               LOG.debug("DefaultSerialDeviceIOHelper.waitForData(): Interrupted while waiting for data");
+               Thread.currentThread().interrupt();
+               return in.available() > 0;
+               }
+            }
+         return true;
+         }
+      finally
+         {
+         dataAvailableLock.unlock();
+         }
+      }
+
+   /**
+    * Tells this helper whether {@link #notifyDataAvailable()} will be called whenever new data arrives.  When enabled,
+    * {@link #waitForData(long)} relies on those notifications to wake up rather than checking the input stream every
+    * millisecond.
+    */
+   void setDataAvailableNotificationEnabled(final boolean isEnabled)
+      {
+      isDataAvailableNotificationEnabled = isEnabled;
+      }
+
+   /** Wakes up any thread parked in {@link #waitForData(long)}.  Typically called from a serial port event listener. */
+   void notifyDataAvailable()
+      {
+      dataAvailableLock.lock();
+      try
+         {
+         dataAvailableCondition.signalAll();
+         }
+      finally
+         {
+         dataAvailableLock.unlock();
+         }
+      }
+
    public InputStream getInputStream()
       {
       return in;
@@ -52,6 +146,29 @@ public final class DefaultSerialDeviceIOHelper implements SerialDeviceIOHelper
       return in.read(buffer);
       }
 
+   public int read(final byte[] buffer, final int offset, final int length, final long deadlineMillis) throws IOException
+      {
+      if (offset < 0 || length < 0 || length > buffer.length - offset)
+         {
+         throw new IndexOutOfBoundsException("Invalid offset [" + offset + "] and length [" + length + "] for buffer of size [" + buffer.length + "]");
+         }
+
+      int numBytesRead = 0;
+      while ((numBytesRead < length) && waitForData(deadlineMillis))
+         {
+         // only ask for what's already available so that the read never blocks past the deadline
+         final int numBytesToRead = Math.max(1, Math.min(length - numBytesRead, in.available()));
+         final int n = in.read(buffer, offset + numBytesRead, numBytesToRead);
+         if (n < 0)
+            {
+            return -1;
+            }
+         numBytesRead += n;
+         }
+
+      return numBytesRead;
+      }
+
    public void write(final byte[] data) throws IOException
       {
       try
@@ -74,6 +191,16 @@ public final class DefaultSerialDeviceIOHelper implements SerialDeviceIOHelper
          }
       }
 
+   public SerialLinkStatistics getLinkStatistics()
+      {
+      return linkStatistics;
+      }
+
+   public AdaptiveReadTimeouts getAdaptiveReadTimeouts()
+      {
+      return adaptiveReadTimeouts;
+      }
+
    public boolean equals(final Object o)
       {
       if (this == o)
@@ -0,0 +1,44 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * <code>ExtendedSerialDeviceIOHelper</code> is a {@link SerialDeviceIOHelper} which can park the calling thread while
+ * waiting for data, read blocks of data with a deadline, and keeps statistics about the link.
+ * {@link CreateLabSerialDeviceCommandStrategy} uses these abilities when the helper it's given has them, and otherwise
+ * falls back to polling and reading a byte at a time, so implementations of the plain {@link SerialDeviceIOHelper}
+ * interface continue to work unchanged.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface ExtendedSerialDeviceIOHelper extends SerialDeviceIOHelper
+   {
+   /**
+    * Blocks until data is available to be read, or until the given <code>deadlineMillis</code> (as measured by
+    * {@link System#currentTimeMillis()}) has passed, whichever comes first.  Returns <code>true</code> if data is
+    * available; <code>false</code> if the deadline passed or the calling thread was interrupted before any data arrived.
+    * Unlike repeatedly calling {@link #isDataAvailable()}, this method parks the calling thread while it waits.
+    */
+   boolean waitForData(final long deadlineMillis) throws IOException;
+
+   /**
+    * Reads up to <code>length</code> bytes from the input stream into the given <code>buffer</code>, starting at
+    * <code>offset</code>.  This method blocks until <code>length</code> bytes have been read, the given
+    * <code>deadlineMillis</code> (as measured by {@link System#currentTimeMillis()}) has passed, or the end of the
+    * stream is detected.  Returns the number of bytes actually read, which will be less than <code>length</code> if the
+    * deadline passed first, or <code>-1</code> if the end of the stream was reached before <code>length</code> bytes
+    * could be read.
+    *
+    * @throws IndexOutOfBoundsException if <code>offset</code> or <code>length</code> is negative, or if
+    * <code>length</code> is greater than <code>buffer.length - offset</code>
+    */
+   int read(final byte[] buffer, final int offset, final int length, final long deadlineMillis) throws IOException;
+
+   /** Returns the {@link SerialLinkStatistics} for the link this helper communicates over.  Never <code>null</code>. */
+   SerialLinkStatistics getLinkStatistics();
+
+   /** Returns the {@link AdaptiveReadTimeouts} for the link this helper communicates over.  Never <code>null</code>. */
+   AdaptiveReadTimeouts getAdaptiveReadTimeouts();
+   }
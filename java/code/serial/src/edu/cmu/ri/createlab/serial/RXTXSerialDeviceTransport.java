@@ -0,0 +1,74 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TooManyListenersException;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+import org.apache.log4j.Logger;
+
+/**
+ * <code>RXTXSerialDeviceTransport</code> is a {@link SerialDeviceTransport} for an open and configured RXTX
+ * {@link SerialPort}.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class RXTXSerialDeviceTransport implements SerialDeviceTransport
+   {
+   private static final Logger LOG = Logger.getLogger(RXTXSerialDeviceTransport.class);
+
+   private final SerialPort port;
+
+   RXTXSerialDeviceTransport(final SerialPort port)
+      {
+      this.port = port;
+      }
+
+   public String getPortName()
+      {
+      return port.getName();
+      }
+
+   public InputStream getInputStream() throws IOException
+      {
+      return port.getInputStream();
+      }
+
+   public OutputStream getOutputStream() throws IOException
+      {
+      return port.getOutputStream();
+      }
+
+   public boolean setDataAvailableListener(final Runnable listener)
+      {
+      try
+         {
+         port.addEventListener(
+               new SerialPortEventListener()
+               {
+               public void serialEvent(final SerialPortEvent event)
+                  {
+                  if (event.getEventType() == SerialPortEvent.DATA_AVAILABLE)
+                     {
+                     listener.run();
+                     }
+                  }
+               });
+         port.notifyOnDataAvailable(true);
+         return true;
+         }
+      catch (TooManyListenersException e)
+         {
+         LOG.warn("RXTXSerialDeviceTransport.setDataAvailableListener(): TooManyListenersException while trying to register for data available events.", e);
+         }
+      return false;
+      }
+
+   public void close()
+      {
+      port.removeEventListener();
+      port.close();
+      }
+   }
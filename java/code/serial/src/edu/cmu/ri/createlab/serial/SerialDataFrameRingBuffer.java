@@ -0,0 +1,150 @@
+package edu.cmu.ri.createlab.serial;
+
+/**
+ * <p>
+ * <code>SerialDataFrameRingBuffer</code> is a {@link SerialDataStreamListener} which copies each frame into one of a
+ * fixed number of preallocated slots, from which consumers can then {@link #poll(byte[]) poll} the frames at their own
+ * pace without producing any garbage.  When the buffer is full, the oldest frame is overwritten (and counted as
+ * dropped), since for streamed sensor data the newest frames are the ones which matter.  Frames longer than the slot
+ * size are dropped.  Instances are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialDataFrameRingBuffer implements SerialDataStreamListener
+   {
+   private final byte[] dataSynchronizationLock = new byte[0];
+   private final byte[][] slots;
+   private final int[] frameLengths;
+
+   // these variables must only ever be read/written from within a block synchronized on dataSynchronizationLock
+   private int head = 0;
+   private int size = 0;
+   private long numberOfFramesReceived = 0;
+   private long numberOfFramesDropped = 0;
+
+   /**
+    * Creates a <code>SerialDataFrameRingBuffer</code> which holds up to <code>capacity</code> frames of at most
+    * <code>maxFrameLength</code> bytes each.
+    *
+    * @throws IllegalArgumentException if either argument is not positive
+    */
+   public SerialDataFrameRingBuffer(final int capacity, final int maxFrameLength)
+      {
+      if (capacity <= 0 || maxFrameLength <= 0)
+         {
+         throw new IllegalArgumentException("The capacity [" + capacity + "] and max frame length [" + maxFrameLength + "] must be positive");
+         }
+      this.slots = new byte[capacity][maxFrameLength];
+      this.frameLengths = new int[capacity];
+      }
+
+   public void handleFrame(final byte[] buffer, final int offset, final int length)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         numberOfFramesReceived++;
+         if (length > slots[0].length)
+            {
+            numberOfFramesDropped++;
+            return;
+            }
+         if (size == slots.length)
+            {
+            // overwrite the oldest frame
+            head = (head + 1) % slots.length;
+            size--;
+            numberOfFramesDropped++;
+            }
+         final int tail = (head + size) % slots.length;
+         System.arraycopy(buffer, offset, slots[tail], 0, length);
+         frameLengths[tail] = length;
+         size++;
+         dataSynchronizationLock.notifyAll();
+         }
+      }
+
+   /**
+    * Removes the oldest frame, copies it into the given array, and returns its length.  Returns <code>-1</code> if the
+    * buffer is empty.
+    *
+    * @throws IllegalArgumentException if the destination array is shorter than the oldest frame
+    */
+   public int poll(final byte[] destination)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         if (size == 0)
+            {
+            return -1;
+            }
+         final int length = frameLengths[head];
+         if (destination.length < length)
+            {
+            throw new IllegalArgumentException("The destination array length [" + destination.length + "] is shorter than the frame length [" + length + "]");
+            }
+         System.arraycopy(slots[head], 0, destination, 0, length);
+         head = (head + 1) % slots.length;
+         size--;
+         return length;
+         }
+      }
+
+   /**
+    * Like {@link #poll(byte[])}, but waits up to <code>timeoutMillis</code> for a frame to arrive if the buffer is
+    * empty.  Returns <code>-1</code> if no frame arrived in time.
+    *
+    * @throws InterruptedException if the calling thread is interrupted while waiting
+    */
+   public int poll(final byte[] destination, final long timeoutMillis) throws InterruptedException
+      {
+      final long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+      synchronized (dataSynchronizationLock)
+         {
+         long remainingMillis = timeoutMillis;
+         while (size == 0 && remainingMillis > 0)
+            {
+            dataSynchronizationLock.wait(remainingMillis);
+            remainingMillis = deadlineMillis - System.currentTimeMillis();
+            }
+         return poll(destination);
+         }
+      }
+
+   /** Returns the number of frames currently in the buffer. */
+   public int size()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return size;
+         }
+      }
+
+   /** Removes all frames from the buffer. */
+   public void clear()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         head = 0;
+         size = 0;
+         }
+      }
+
+   /** Returns the total number of frames handed to this buffer, including those which were dropped. */
+   public long getNumberOfFramesReceived()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return numberOfFramesReceived;
+         }
+      }
+
+   /** Returns the number of frames which were overwritten before being polled, or were too long to fit in a slot. */
+   public long getNumberOfFramesDropped()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return numberOfFramesDropped;
+         }
+      }
+   }
@@ -0,0 +1,40 @@
+package edu.cmu.ri.createlab.serial;
+
+/**
+ * <p>
+ * <code>SerialDataStreamDecoder</code> splits the bytes pushed unsolicited by a streaming serial device into frames.
+ * While a {@link SerialDeviceCommandExecutionQueue} is streaming (see
+ * {@link SerialDeviceCommandExecutionQueue#startStreaming(SerialDataStreamDecoder)}), every byte received from the
+ * device is first offered to the decoder.  Complete frames are published to the queue's
+ * {@link SerialDataStreamListener}s, and bytes which the decoder says aren't part of a frame are passed through to the
+ * command strategies, so that request/response commands (e.g. the echo and return value of a command) keep working in
+ * between frames.  Decoders are only ever called from the stream reader thread, so they need not be thread safe.
+ * </p>
+ * <p>
+ * Since command responses and frames share the same byte stream, the device's frame format must be distinguishable
+ * from its command responses, typically by means of a start byte which never begins a response.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface SerialDataStreamDecoder
+   {
+   /** Returned by {@link #decode(byte[], int, int)} when the bytes could be the start of a frame, but it's incomplete. */
+   int NEED_MORE_DATA = 0;
+
+   /** Returned by {@link #decode(byte[], int, int)} when the first byte isn't the start of a frame. */
+   int NOT_A_FRAME = -1;
+
+   /**
+    * Examines the <code>length</code> bytes starting at <code>offset</code> in the given buffer, which are the oldest
+    * bytes received from the device which haven't yet been consumed, and returns one of the following:
+    * <ul>
+    *    <li>a positive number <code>n</code> if the first <code>n</code> bytes are a complete frame</li>
+    *    <li>{@link #NEED_MORE_DATA} if the bytes are the start of a frame which hasn't been completely received yet</li>
+    *    <li>{@link #NOT_A_FRAME} if the first byte isn't the start of a frame, in which case it's passed through to the
+    *    command strategies</li>
+    * </ul>
+    * The decoder must not modify the buffer.
+    */
+   int decode(final byte[] buffer, final int offset, final int length);
+   }
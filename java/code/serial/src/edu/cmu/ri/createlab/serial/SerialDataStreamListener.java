@@ -0,0 +1,20 @@
+package edu.cmu.ri.createlab.serial;
+
+/**
+ * <p>
+ * <code>SerialDataStreamListener</code> receives the frames decoded from the data streamed by a serial device.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ *
+ * @see SerialDeviceCommandExecutionQueue#addSerialDataStreamListener(SerialDataStreamListener)
+ */
+public interface SerialDataStreamListener
+   {
+   /**
+    * Handles the frame occupying the <code>length</code> bytes starting at <code>offset</code> in the given buffer.
+    * This method is called on the stream reader thread, and the buffer is reused once it returns, so implementations
+    * must copy any bytes they wish to keep and should return quickly.  {@link SerialDataFrameRingBuffer} does both.
+    */
+   void handleFrame(final byte[] buffer, final int offset, final int length);
+   }
@@ -0,0 +1,320 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SerialDataStreamReader</code> continuously reads the bytes received from a streaming serial device on a
+ * dedicated thread.  It splits them into frames using a {@link SerialDataStreamDecoder}, publishes the frames to
+ * {@link SerialDataStreamListener}s, and passes all other bytes through to an {@link InputStream} from which the
+ * command strategies read their echoes and responses.  A partial frame which doesn't grow for
+ * {@link #PARTIAL_FRAME_TIMEOUT_MILLIS} is assumed to not be a frame after all, and is passed through too.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SerialDataStreamReader
+   {
+   private static final Logger LOG = Logger.getLogger(SerialDataStreamReader.class);
+
+   /** Size of the buffer in which bytes wait to be decoded, which is also the maximum frame size */
+   private static final int BUFFER_SIZE = 4096;
+
+   /** Maximum number of milliseconds to wait for data before checking whether the reader has been stopped */
+   private static final long READ_WAIT_MILLIS = 50;
+
+   /** Number of milliseconds after which an incomplete frame is passed through to the command strategies */
+   static final long PARTIAL_FRAME_TIMEOUT_MILLIS = 100;
+
+   private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+   private final DefaultSerialDeviceIOHelper deviceIOHelper;
+   private final DefaultSerialDeviceIOHelper commandIOHelper;
+   private final SerialDataStreamDecoder decoder;
+   private final Collection<SerialDataStreamListener> listeners;
+   private final PassThroughInputStream passThroughInputStream = new PassThroughInputStream();
+   // the reader only ever reads bytes which are already available, parking while it waits for more, so it's safe to run
+   // it on a virtual thread
+   private final ExecutorService executor = Executors.newSingleThreadExecutor(SharedExecutors.newThreadFactory("SerialDataStreamReader.executor"));
+   private final byte[] buffer = new byte[BUFFER_SIZE];
+   private volatile boolean isRunning = false;
+
+   /**
+    * Creates a <code>SerialDataStreamReader</code> which reads from the device via the given
+    * <code>deviceIOHelper</code>, publishes frames to the given (thread safe) collection of listeners, and wakes the
+    * given <code>commandIOHelper</code> whenever bytes are passed through.
+    */
+   SerialDataStreamReader(final DefaultSerialDeviceIOHelper deviceIOHelper,
+                          final DefaultSerialDeviceIOHelper commandIOHelper,
+                          final SerialDataStreamDecoder decoder,
+                          final Collection<SerialDataStreamListener> listeners)
+      {
+      this.deviceIOHelper = deviceIOHelper;
+      this.commandIOHelper = commandIOHelper;
+      this.decoder = decoder;
+      this.listeners = listeners;
+      }
+
+   /** Returns the stream of bytes which weren't part of a frame. */
+   InputStream getPassThroughInputStream()
+      {
+      return passThroughInputStream;
+      }
+
+   void start()
+      {
+      isRunning = true;
+      executor.execute(
+            new Runnable()
+            {
+            public void run()
+               {
+               readLoop();
+               }
+            });
+      }
+
+   /** Wakes the reader thread if it's waiting for data. */
+   void notifyDataAvailable()
+      {
+      deviceIOHelper.notifyDataAvailable();
+      }
+
+   /**
+    * Stops the reader thread and waits (briefly) for it to terminate.  Bytes which have been received but not yet
+    * decoded are discarded.
+    */
+   void stop()
+      {
+      isRunning = false;
+      deviceIOHelper.notifyDataAvailable();
+      executor.shutdown();
+      try
+         {
+         if (!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+            {
+            LOG.error("SerialDataStreamReader.stop(): Timed out while waiting for the reader thread to terminate");
+            }
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("SerialDataStreamReader.stop(): Interrupted while waiting for the reader thread to terminate");
+         Thread.currentThread().interrupt();
+         }
+      passThroughInputStream.close();
+      }
+
+   private void readLoop()
+      {
+      LOG.debug("SerialDataStreamReader.readLoop(): Starting");
+      int start = 0;
+      int end = 0;
+      long lastDataTimeMillis = System.currentTimeMillis();
+      try
+         {
+         while (isRunning)
+            {
+            if (deviceIOHelper.waitForData(System.currentTimeMillis() + READ_WAIT_MILLIS))
+               {
+               // move any undecoded bytes to the front of the buffer to make room for the new ones
+               if (start > 0)
+                  {
+                  System.arraycopy(buffer, start, buffer, 0, end - start);
+                  end -= start;
+                  start = 0;
+                  }
+               final int numBytesToRead = Math.max(1, Math.min(buffer.length - end, deviceIOHelper.available()));
+               final int numBytesRead = deviceIOHelper.read(buffer, end, numBytesToRead, System.currentTimeMillis());
+               if (numBytesRead < 0)
+                  {
+                  LOG.info("SerialDataStreamReader.readLoop(): End of stream reached");
+                  break;
+                  }
+               end += numBytesRead;
+               lastDataTimeMillis = System.currentTimeMillis();
+               start = decode(start, end, false);
+               }
+            else if (start < end && System.currentTimeMillis() - lastDataTimeMillis >= PARTIAL_FRAME_TIMEOUT_MILLIS)
+               {
+               start = decode(start, end, true);
+               }
+            }
+         }
+      catch (IOException e)
+         {
+         LOG.error("SerialDataStreamReader.readLoop(): IOException while reading from the device, stopping", e);
+         }
+      catch (Exception e)
+         {
+         LOG.error("SerialDataStreamReader.readLoop(): Unexpected exception, stopping", e);
+         }
+      LOG.debug("SerialDataStreamReader.readLoop(): Done");
+      }
+
+   /**
+    * Decodes as many frames as possible from the bytes in the range [<code>start</code>, <code>end</code>) of the
+    * buffer, passes through the bytes which aren't part of a frame, and returns the index of the first byte which
+    * remains to be decoded.  If <code>isStale</code> is <code>true</code>, incomplete frames are passed through too.
+    */
+   private int decode(final int start, final int end, final boolean isStale)
+      {
+      int position = start;
+      int passThroughStart = start;
+      while (position < end)
+         {
+         final int length = end - position;
+         final int result = decoder.decode(buffer, position, length);
+         if (result > 0 && result <= length)
+            {
+            passThrough(passThroughStart, position);
+            publish(position, result);
+            position += result;
+            passThroughStart = position;
+            }
+         else if (result == SerialDataStreamDecoder.NEED_MORE_DATA && !isStale && length < buffer.length)
+            {
+            break;
+            }
+         else
+            {
+            // not a frame, or an incomplete frame which will never be completed
+            position++;
+            }
+         }
+      passThrough(passThroughStart, position);
+      return position;
+      }
+
+   private void publish(final int offset, final int length)
+      {
+      for (final SerialDataStreamListener listener : listeners)
+         {
+         try
+            {
+            listener.handleFrame(buffer, offset, length);
+            }
+         catch (Exception e)
+            {
+            LOG.error("SerialDataStreamReader.publish(): Exception while notifying SerialDataStreamListener [" + listener + "]", e);
+            }
+         }
+      }
+
+   private void passThrough(final int from, final int to)
+      {
+      if (to > from)
+         {
+         passThroughInputStream.append(buffer, from, to - from);
+         commandIOHelper.notifyDataAvailable();
+         }
+      }
+
+   /** An input stream fed with the bytes which weren't part of a frame. */
+   private static final class PassThroughInputStream extends InputStream
+      {
+      private final byte[] lock = new byte[0];
+
+      // these variables must only ever be read/written from within a block synchronized on lock
+      private byte[] data = new byte[256];
+      private int head = 0;
+      private int tail = 0;
+      private boolean isClosed = false;
+
+      private void append(final byte[] bytes, final int offset, final int length)
+         {
+         synchronized (lock)
+            {
+            if (tail + length > data.length)
+               {
+               // compact, and then grow if necessary
+               final int size = tail - head;
+               final byte[] newData = (size + length > data.length) ? new byte[Math.max(data.length * 2, size + length)] : data;
+               System.arraycopy(data, head, newData, 0, size);
+               data = newData;
+               head = 0;
+               tail = size;
+               }
+            System.arraycopy(bytes, offset, data, tail, length);
+            tail += length;
+            lock.notifyAll();
+            }
+         }
+
+      @Override
+      public int available()
+         {
+         synchronized (lock)
+            {
+            return tail - head;
+            }
+         }
+
+      @Override
+      public int read() throws IOException
+         {
+         synchronized (lock)
+            {
+            return waitForData() ? data[head++] & 0xff : -1;
+            }
+         }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException
+         {
+         if (off < 0 || len < 0 || len > b.length - off)
+            {
+            throw new IndexOutOfBoundsException();
+            }
+         if (len == 0)
+            {
+            return 0;
+            }
+         synchronized (lock)
+            {
+            if (!waitForData())
+               {
+               return -1;
+               }
+            final int numBytesToRead = Math.min(len, tail - head);
+            System.arraycopy(data, head, b, off, numBytesToRead);
+            head += numBytesToRead;
+            return numBytesToRead;
+            }
+         }
+
+      @Override
+      public void close()
+         {
+         synchronized (lock)
+            {
+            isClosed = true;
+            lock.notifyAll();
+            }
+         }
+
+      /** Blocks until data is available or the stream is closed.  Callers must hold the <code>lock</code>. */
+      private boolean waitForData() throws IOException
+         {
+         while (head == tail && !isClosed)
+            {
+            try
+               {
+               lock.wait();
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               throw new IOException("Interrupted while waiting for data");
+               }
+            }
+         return head < tail;
+         }
+      }
+   }
@@ -3,11 +3,15 @@ package edu.cmu.ri.createlab.serial;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -15,9 +19,16 @@ import java.util.concurrent.TimeoutException;
 import edu.cmu.ri.createlab.serial.config.FlowControl;
 import edu.cmu.ri.createlab.serial.config.Parity;
 import edu.cmu.ri.createlab.serial.config.SerialIOConfiguration;
-import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.AsynchronousCommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CoalescableCommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.CommandCoalescer;
+import edu.cmu.ri.createlab.util.commandexecution.CommandCompletionHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionListener;
+import edu.cmu.ri.createlab.util.commandexecution.CommandFutureTask;
 import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.InstrumentedCommand;
 import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import gnu.io.CommPortIdentifier;
 import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
@@ -27,11 +38,13 @@ import org.apache.log4j.Logger;
 /**
  * The SerialDeviceCommandExecutionQueue serializes communication commands with a serial port to ensure that they are
  * executed in the order received, without the possibility of one command's inputs or response conflicting with
- * another's.
+ * another's.  For devices which also push data unsolicited, the queue can additionally run in streaming mode (see
+ * {@link #startStreaming(SerialDataStreamDecoder)}), in which frames are decoded from the incoming data and published
+ * to {@link SerialDataStreamListener}s while commands continue to be executed in between.
  *
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class SerialDeviceCommandExecutionQueue implements CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse>
+public final class SerialDeviceCommandExecutionQueue implements AsynchronousCommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse>
    {
    private static final Logger LOG = Logger.getLogger(SerialDeviceCommandExecutionQueue.class);
    private static final int OPEN_PORT_TIMEOUT_MILLIS = 1000;
@@ -118,7 +131,7 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
                   }
 
                // now that the port is opened and configured, create the queue
-               return new SerialDeviceCommandExecutionQueue(port, taskExecutionTimeout, taskExecutionTimeoutTimeUnit);
+               return create(new RXTXSerialDeviceTransport(port), taskExecutionTimeout, taskExecutionTimeoutTimeUnit);
                }
             }
          catch (PortInUseException e)
@@ -135,6 +148,24 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
       throw new SerialPortException("Failed to obtain the serial port [" + config.getPortDeviceName() + "].  Make sure that it exists and is not in use by another process.");
       }
 
+   /**
+    * Creates a SerialDeviceCommandExecutionQueue which communicates over the given, already-connected
+    * {@link SerialDeviceTransport}.  This allows the queue to be used with transports other than a physical serial port,
+    * such as a simulated device.  The timeout used is specified by the <code>taskExecutionTimeout</code> and
+    * <code>taskExecutionTimeoutTimeUnit</code> parameters.  To specify no timeout (i.e. block until complete), pass in
+    * a <code>null</code> {@link TimeUnit}.
+    *
+    * @throws IOException if an error occurs while obtaining the transport's input or output streams
+    */
+   public static SerialDeviceCommandExecutionQueue create(final SerialDeviceTransport transport, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit) throws IOException
+      {
+      if (transport == null)
+         {
+         throw new IllegalArgumentException("The SerialDeviceTransport cannot be null");
+         }
+      return new SerialDeviceCommandExecutionQueue(transport, taskExecutionTimeout, taskExecutionTimeoutTimeUnit);
+      }
+
    private static int convertParity(final Parity parity)
       {
       switch (parity)
@@ -151,24 +182,215 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
          }
       }
 
-   private final SerialPort port;
+   private final SerialDeviceTransport transport;
    private final long taskExecutionTimeout;
    private final TimeUnit taskExecutionTimeoutTimeUnit;
+   private final InputStream deviceInputStream;
+   private final SwitchableInputStream commandInputStream;
    private final DefaultSerialDeviceIOHelper ioHelper;
-   private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("SerialDeviceCommandExecutionQueue.executor"));
+   private final boolean isDataAvailableNotificationSupported;
+   private final List<SerialDataStreamListener> serialDataStreamListeners = new CopyOnWriteArrayList<SerialDataStreamListener>();
+   private final CommandCoalescer<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandCoalescer = new CommandCoalescer<SerialDeviceIOHelper, SerialDeviceCommandResponse>();
+   private final ExecutorService executor = SharedExecutors.newSingleThreadExecutor("SerialDeviceCommandExecutionQueue.executor");
+   private volatile CommandExecutionListener commandExecutionListener = null;
+
+   // only ever written on the executor's thread (or during shutdown, once the executor has terminated)
+   private volatile SerialDataStreamReader serialDataStreamReader = null;
 
    /**
-    * Creates a new SerialDeviceCommandExecutionQueue for the given {@link SerialPort}.
+    * Creates a new SerialDeviceCommandExecutionQueue for the given {@link SerialDeviceTransport}.
     *
-    * @throws IOException if an error occurs while obtaining the port's input or output streams
+    * @throws IOException if an error occurs while obtaining the transport's input or output streams
     */
-   private SerialDeviceCommandExecutionQueue(final SerialPort port, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit) throws IOException
+   private SerialDeviceCommandExecutionQueue(final SerialDeviceTransport transport, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit) throws IOException
       {
-      this.port = port;
+      this.transport = transport;
       this.taskExecutionTimeout = taskExecutionTimeout;
       this.taskExecutionTimeoutTimeUnit = taskExecutionTimeoutTimeUnit;
-      this.ioHelper = new DefaultSerialDeviceIOHelper(new BufferedInputStream(port.getInputStream()),
-                                                      new BufferedOutputStream(port.getOutputStream()));
+      this.deviceInputStream = new BufferedInputStream(transport.getInputStream());
+      this.commandInputStream = new SwitchableInputStream(deviceInputStream);
+      this.ioHelper = new DefaultSerialDeviceIOHelper(commandInputStream,
+                                                      new BufferedOutputStream(transport.getOutputStream()),
+                                                      new SerialLinkStatistics(transport.getPortName()));
+
+      // register for data available events so that command strategies waiting for data can park rather than spin
+      this.isDataAvailableNotificationSupported = transport.setDataAvailableListener(
+            new Runnable()
+            {
+            public void run()
+               {
+               ioHelper.notifyDataAvailable();
+               final SerialDataStreamReader reader = serialDataStreamReader;
+               if (reader != null)
+                  {
+                  reader.notifyDataAvailable();
+                  }
+               }
+            });
+      if (isDataAvailableNotificationSupported)
+         {
+         ioHelper.setDataAvailableNotificationEnabled(true);
+         }
+      else
+         {
+         LOG.warn("SerialDeviceCommandExecutionQueue.SerialDeviceCommandExecutionQueue(): Failed to register for data available events.  Reads will fall back to polling.");
+         }
+      }
+
+   /**
+    * Returns the {@link SerialLinkStatistics} for this queue's serial port.  Call
+    * {@link SerialLinkStatistics#registerMBean()} to also expose them via JMX; they're unregistered automatically upon
+    * {@link #shutdown()}.
+    */
+   public SerialLinkStatistics getLinkStatistics()
+      {
+      return ioHelper.getLinkStatistics();
+      }
+
+   /**
+    * Enables or disables adaptive read timeouts for the commands executed by this queue.  When enabled,
+    * {@link CreateLabSerialDeviceCommandStrategy} derives its read deadlines from the round trip times observed on this
+    * port, using each strategy's configured read timeout as the upper bound, so that an unresponsive device is detected
+    * quickly.  Disabled by default.  The queue's task execution timeout is unaffected, and remains the upper bound on
+    * how long a caller of {@link #execute(CommandStrategy)} will wait.
+    *
+    * @see AdaptiveReadTimeouts
+    */
+   public void setAdaptiveTimeoutsEnabled(final boolean isEnabled)
+      {
+      ioHelper.getAdaptiveReadTimeouts().setEnabled(isEnabled);
+      }
+
+   /** Returns the {@link AdaptiveReadTimeouts} for this queue's serial port, e.g. to inspect the round trip time estimates. */
+   public AdaptiveReadTimeouts getAdaptiveReadTimeouts()
+      {
+      return ioHelper.getAdaptiveReadTimeouts();
+      }
+
+   /**
+    * Sets the {@link CommandExecutionListener} to be notified about the execution of commands submitted from now on,
+    * e.g. a {@link edu.cmu.ri.createlab.util.commandexecution.CommandExecutionMetrics}.  Pass <code>null</code> to stop collecting metrics.  When no listener is
+    * set, commands are not instrumented at all.
+    */
+   public void setCommandExecutionListener(final CommandExecutionListener commandExecutionListener)
+      {
+      this.commandExecutionListener = commandExecutionListener;
+      commandCoalescer.setCommandExecutionListener(commandExecutionListener);
+      }
+
+   /**
+    * Starts streaming mode, in which a dedicated thread continuously reads the data received from the device, splits it
+    * into frames with the given {@link SerialDataStreamDecoder}, and publishes the frames to this queue's
+    * {@link SerialDataStreamListener}s.  Bytes which the decoder doesn't recognize as part of a frame are passed
+    * through to the command strategies, so commands may still be executed while streaming.  Streaming begins once the
+    * commands already in the queue have been executed.  If the queue is already streaming, the current decoder is
+    * replaced.  Returns <code>true</code> if streaming was started; <code>false</code> otherwise.  This method blocks,
+    * so it must not be called from a {@link CommandCompletionHandler}.
+    *
+    * @throws IllegalArgumentException if the <code>decoder</code> is <code>null</code>
+    * @throws RejectedExecutionException if the queue has been shut down
+    */
+   public boolean startStreaming(final SerialDataStreamDecoder decoder)
+      {
+      if (decoder == null)
+         {
+         throw new IllegalArgumentException("The SerialDataStreamDecoder cannot be null");
+         }
+      return runOnExecutor(
+            new Runnable()
+            {
+            public void run()
+               {
+               stopStreamReader();
+
+               final DefaultSerialDeviceIOHelper deviceIOHelper = new DefaultSerialDeviceIOHelper(deviceInputStream, ioHelper.getOutputStream(), ioHelper.getLinkStatistics());
+               deviceIOHelper.setDataAvailableNotificationEnabled(isDataAvailableNotificationSupported);
+               final SerialDataStreamReader reader = new SerialDataStreamReader(deviceIOHelper, ioHelper, decoder, serialDataStreamListeners);
+               commandInputStream.setInputStream(reader.getPassThroughInputStream());
+               serialDataStreamReader = reader;
+               reader.start();
+               LOG.debug("SerialDeviceCommandExecutionQueue.startStreaming(): Streaming started");
+               }
+            });
+      }
+
+   /**
+    * Stops streaming mode, once the commands already in the queue have been executed, or does nothing if the queue
+    * isn't streaming.  Any partial frame received at the time is discarded.  Returns <code>true</code> if streaming is
+    * no longer active; <code>false</code> otherwise.  This method blocks, so it must not be called from a
+    * {@link CommandCompletionHandler}.
+    *
+    * @throws RejectedExecutionException if the queue has been shut down
+    */
+   public boolean stopStreaming()
+      {
+      return runOnExecutor(
+            new Runnable()
+            {
+            public void run()
+               {
+               stopStreamReader();
+               }
+            });
+      }
+
+   /** Returns <code>true</code> if the queue is in streaming mode; <code>false</code> otherwise. */
+   public boolean isStreaming()
+      {
+      return serialDataStreamReader != null;
+      }
+
+   /** Adds the given {@link SerialDataStreamListener}, which will receive the frames decoded while streaming. */
+   public void addSerialDataStreamListener(final SerialDataStreamListener listener)
+      {
+      if (listener != null)
+         {
+         serialDataStreamListeners.add(listener);
+         }
+      }
+
+   public void removeSerialDataStreamListener(final SerialDataStreamListener listener)
+      {
+      if (listener != null)
+         {
+         serialDataStreamListeners.remove(listener);
+         }
+      }
+
+   /** Stops the stream reader (if any) and points the command strategies back at the device's input stream. */
+   private void stopStreamReader()
+      {
+      final SerialDataStreamReader reader = serialDataStreamReader;
+      if (reader != null)
+         {
+         serialDataStreamReader = null;
+         reader.stop();
+         commandInputStream.setInputStream(deviceInputStream);
+         LOG.debug("SerialDeviceCommandExecutionQueue.stopStreamReader(): Streaming stopped");
+         }
+      }
+
+   /**
+    * Runs the given {@link Runnable} on the executor's thread, in between commands, and waits for it to complete.
+    * Returns <code>true</code> if it completed successfully; <code>false</code> otherwise.
+    */
+   private boolean runOnExecutor(final Runnable runnable)
+      {
+      try
+         {
+         executor.submit(runnable).get();
+         return true;
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("SerialDeviceCommandExecutionQueue.runOnExecutor(): InterruptedException while waiting for the task to complete", e);
+         Thread.currentThread().interrupt();
+         }
+      catch (ExecutionException e)
+         {
+         LOG.error("SerialDeviceCommandExecutionQueue.runOnExecutor(): ExecutionException while executing the task [" + e.getCause() + "]", e);
+         }
+      return false;
       }
 
    /**
@@ -196,17 +418,11 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
          LOG.trace("SerialDeviceCommandExecutionQueue.execute(" + commandStrategy + ")");
          }
 
-      // create the command
-      final SerialDeviceCommand command = new SerialDeviceCommand(commandStrategy, ioHelper);
-
-      // create the future task
-      final FutureTask<SerialDeviceCommandResponse> task = new FutureTask<SerialDeviceCommandResponse>(command);
-
       try
          {
-         // execute the task
-         LOG.trace("SerialDeviceCommandExecutionQueue.execute():   Calling execute()");
-         executor.execute(task);
+         // submit the task
+         LOG.trace("SerialDeviceCommandExecutionQueue.execute():   Calling submit()");
+         final Future<SerialDeviceCommandResponse> task = submit(commandStrategy);
 
          if (LOG.isTraceEnabled())
             {
@@ -238,6 +454,10 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
          {
          LOG.error("SerialDeviceCommandExecutionQueue.execute():InterruptedException while trying to get the SerialDeviceCommandResponse", e);
          }
+      catch (CancellationException e)
+         {
+         LOG.error("SerialDeviceCommandExecutionQueue.execute():CancellationException while trying to get the SerialDeviceCommandResponse", e);
+         }
       catch (ExecutionException e)
          {
          LOG.error("SerialDeviceCommandExecutionQueue.execute():ExecutionException while trying to get the SerialDeviceCommandResponse [" + e.getCause() + "]", e);
@@ -245,12 +465,60 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
       catch (TimeoutException e)
          {
          LOG.error("SerialDeviceCommandExecutionQueue.execute():TimeoutException while trying to get the SerialDeviceCommandResponse [" + e.getCause() + "]", e);
+         final CommandExecutionListener listener = commandExecutionListener;
+         if (listener != null)
+            {
+            listener.handleCommandTimedOut(commandStrategy.getClass());
+            }
          }
 
       LOG.trace("SerialDeviceCommandExecutionQueue.execute():   Returning null response");
       return null;
       }
 
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link SerialDeviceCommandResponse}.  Commands are executed in the order received.
+    *
+    * @throws RejectedExecutionException if the queue has been shut down
+    */
+   @Override
+   public Future<SerialDeviceCommandResponse> submit(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy)
+      {
+      return submit(commandStrategy, null);
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link SerialDeviceCommandResponse}.  The given {@link CommandCompletionHandler} (if non-<code>null</code>) is
+    * notified on the queue's execution thread once the command completes.  Commands are executed in the order received, except that a
+    * {@link CoalescableCommandStrategy} replaces any still-waiting command having the same coalescing key.
+    *
+    * @throws RejectedExecutionException if the queue has been shut down
+    */
+   @Override
+   public Future<SerialDeviceCommandResponse> submit(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy,
+                                                     final CommandCompletionHandler<SerialDeviceCommandResponse> completionHandler)
+      {
+      if (LOG.isTraceEnabled())
+         {
+         LOG.trace("SerialDeviceCommandExecutionQueue.submit(" + commandStrategy + ")");
+         }
+
+      if (CommandCoalescer.isCoalescable(commandStrategy))
+         {
+         return commandCoalescer.submit(commandStrategy, ioHelper, completionHandler, executor);
+         }
+
+      final CommandExecutionListener listener = commandExecutionListener;
+      final Callable<SerialDeviceCommandResponse> command = new SerialDeviceCommand(commandStrategy, ioHelper);
+      final CommandFutureTask<SerialDeviceCommandResponse> task = new CommandFutureTask<SerialDeviceCommandResponse>(
+            (listener == null) ? command : new InstrumentedCommand<SerialDeviceCommandResponse>(command, commandStrategy.getClass(), listener),
+            completionHandler);
+      executor.execute(task);
+      return task;
+      }
+
    /**
     * Adds the given {@link CommandStrategy} to the queue, blocks until its execution is complete, and then
     * returns only the status of the result.  This is merely a convenience method which delegates to
@@ -284,8 +552,8 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
       }
 
    /**
-    * Shuts down the command queue and then closes the serial port.  Commands in the queue are allowed to execute before
-    * shutdown, but no new commands will be accepted.
+    * Shuts down the command queue and then closes the serial port.  Commands still waiting in the queue are cancelled,
+    * so their futures and completion handlers are notified, and no new commands will be accepted.
     */
    @Override
    public void shutdown()
@@ -296,6 +564,8 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
          LOG.debug("SerialDeviceCommandExecutionQueue.shutdown(): Shutting down the serial port command execution queue");
          final List<Runnable> unexecutedTasks = executor.shutdownNow();
          LOG.debug("SerialDeviceCommandExecutionQueue.shutdown(): Unexecuted tasks: " + (unexecutedTasks == null ? 0 : unexecutedTasks.size()));
+         final int numCancelled = CommandFutureTask.cancelAll(unexecutedTasks);
+         LOG.debug("SerialDeviceCommandExecutionQueue.shutdown(): Cancelled [" + numCancelled + "] unexecuted tasks");
          LOG.debug("SerialDeviceCommandExecutionQueue.shutdown(): Waiting for the serial port command execution queue to shutdown.");
          executor.awaitTermination(10, TimeUnit.SECONDS);
          LOG.debug("SerialDeviceCommandExecutionQueue.shutdown(): Serial port command execution queue successfully shutdown");
@@ -305,8 +575,11 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
          LOG.error("SerialDeviceCommandExecutionQueue.shutdown(): Exception while trying to shut down the serial port command execution queue", e);
          }
 
+      // stop streaming (if necessary) now that no more commands will run
+      stopStreamReader();
+
       // Shut down the serial port.  We use an executor here with a timeout on the call to get() from the FutureTask because
-      // port.close() just hangs if the serial port isn't there, etc.
+      // closing the port just hangs if the serial port isn't there, etc.
       ExecutorService closeSerialPortExecutor = null;
       try
          {
@@ -317,7 +590,7 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
                {
                public Boolean call() throws Exception
                   {
-                  port.close();
+                  transport.close();
                   return Boolean.TRUE;
                   }
                });
@@ -348,5 +621,7 @@ public final class SerialDeviceCommandExecutionQueue implements CommandExecution
                }
             }
          }
+
+      ioHelper.getLinkStatistics().unregisterMBean();
       }
    }
@@ -1,17 +1,35 @@
 package edu.cmu.ri.createlab.serial;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.ByteArrayPool;
+import edu.cmu.ri.createlab.util.commandexecution.ReleasableCommandResponse;
 
 /**
+ * <p>
+ * Responses created by the command strategies in this package hold their data in a buffer borrowed from a
+ * {@link ByteArrayPool}.  Converters can read such data in place, without copying, via {@link #getDataLength()},
+ * {@link #getByte(int)}, {@link #getUnsignedByte(int)}, {@link #copyData(int, byte[], int, int)} and
+ * {@link #asByteBuffer()}, and the buffer is returned to the pool when {@link #release()} is called (which the
+ * {@link edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandExecutor} does once the response has been
+ * converted).  Calling {@link #getData()} on a pooled response copies the data into a new array of the exact length
+ * and returns the buffer to the pool right away, so code which only uses {@link #getData()} works just as before.
+ * </p>
+ *
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class SerialDeviceCommandResponse implements CommandResponse
+public final class SerialDeviceCommandResponse implements ReleasableCommandResponse
    {
    private static final String EOL = System.getProperty("line.separator", "\n");
 
    private final boolean success;
-   private final byte[] data;
+   private final int length;
+   private final byte[] dataSynchronizationLock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on dataSynchronizationLock
+   private byte[] data;
+   private byte[] pooledBuffer;
+   private ByteArrayPool pool;
 
    /** Creates a new SerialDeviceCommandResponse having the given success and <code>null</code> data. */
    public SerialDeviceCommandResponse(final boolean success)
@@ -27,7 +45,28 @@ public final class SerialDeviceCommandResponse implements CommandResponse
    public SerialDeviceCommandResponse(final boolean success, final byte[] data)
       {
       this.success = success;
+      this.length = (data == null) ? 0 : data.length;
       this.data = data;
+      this.pooledBuffer = null;
+      this.pool = null;
+      }
+
+   /**
+    * Creates a new SerialDeviceCommandResponse having the given success and whose data is the first
+    * <code>length</code> bytes of the given buffer, which was acquired from the given pool.  Ownership of the buffer
+    * passes to the response, which returns it to the pool upon {@link #release()} or {@link #getData()}.
+    */
+   SerialDeviceCommandResponse(final boolean success, final byte[] buffer, final int length, final ByteArrayPool pool)
+      {
+      if (length < 0 || length > buffer.length)
+         {
+         throw new IllegalArgumentException("The length [" + length + "] must be within the range [0, " + buffer.length + "]");
+         }
+      this.success = success;
+      this.length = length;
+      this.data = null;
+      this.pooledBuffer = buffer;
+      this.pool = pool;
       }
 
    /**
@@ -52,13 +91,136 @@ public final class SerialDeviceCommandResponse implements CommandResponse
 
    /**
     * Returns the data as an array of bytes.  May return null.  Note that the underlying array is returned, so changes
-    * to the array will change the instance.
+    * to the array will change the instance.  If the data is held in a pooled buffer, it is first copied into a new
+    * array (which is returned by this and all subsequent calls) and the buffer is returned to the pool.
+    *
+    * @throws IllegalStateException if the response was released before its data was ever copied
     */
    @SuppressWarnings({"ReturnOfCollectionOrArrayField"})
    @Override
    public byte[] getData()
       {
-      return data;
+      synchronized (dataSynchronizationLock)
+         {
+         if (data == null && pooledBuffer != null)
+            {
+            data = Arrays.copyOf(pooledBuffer, length);
+            releaseBuffer();
+            }
+         else if (data == null && pool != null)
+            {
+            throw new IllegalStateException("The response's data cannot be accessed after it has been released");
+            }
+         return data;
+         }
+      }
+
+   /** Returns the number of bytes of data, without copying them.  Returns 0 if the data is <code>null</code>. */
+   public int getDataLength()
+      {
+      return length;
+      }
+
+   /**
+    * Returns the data byte at the given index, without copying the data.
+    *
+    * @throws IndexOutOfBoundsException if the index is not within the range [0, {@link #getDataLength()})
+    * @throws IllegalStateException if the response was released before its data was ever copied
+    */
+   public byte getByte(final int index)
+      {
+      if (index < 0 || index >= length)
+         {
+         throw new IndexOutOfBoundsException("The index [" + index + "] must be within the range [0, " + length + ")");
+         }
+      synchronized (dataSynchronizationLock)
+         {
+         return getDataArray()[index];
+         }
+      }
+
+   /**
+    * Returns the data byte at the given index as an unsigned value in the range [0, 255], without copying the data.
+    *
+    * @throws IndexOutOfBoundsException if the index is not within the range [0, {@link #getDataLength()})
+    * @throws IllegalStateException if the response was released before its data was ever copied
+    */
+   public int getUnsignedByte(final int index)
+      {
+      return getByte(index) & 0xff;
+      }
+
+   /**
+    * Copies <code>numBytes</code> bytes of data, starting at <code>sourceOffset</code>, into the given array, starting
+    * at <code>destinationOffset</code>.
+    *
+    * @throws IndexOutOfBoundsException if the source or destination range is out of bounds
+    * @throws IllegalStateException if the response was released before its data was ever copied
+    */
+   public void copyData(final int sourceOffset, final byte[] destination, final int destinationOffset, final int numBytes)
+      {
+      if (sourceOffset < 0 || numBytes < 0 || sourceOffset > length - numBytes)
+         {
+         throw new IndexOutOfBoundsException("The source range [" + sourceOffset + ", " + sourceOffset + " + " + numBytes + ") must be within the range [0, " + length + ")");
+         }
+      synchronized (dataSynchronizationLock)
+         {
+         System.arraycopy(getDataArray(), sourceOffset, destination, destinationOffset, numBytes);
+         }
+      }
+
+   /**
+    * Returns a read-only {@link ByteBuffer} view of the data, without copying it, or <code>null</code> if the data is
+    * <code>null</code>.  The view must not be used after the response has been released.
+    *
+    * @throws IllegalStateException if the response was released before its data was ever copied
+    */
+   public ByteBuffer asByteBuffer()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         final byte[] array = getDataArray();
+         return (array == null) ? null : ByteBuffer.wrap(array, 0, length).slice().asReadOnlyBuffer();
+         }
+      }
+
+   /** Returns the pooled buffer to its pool, unless it has already been returned.  Does nothing for unpooled responses. */
+   public void release()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         releaseBuffer();
+         }
+      }
+
+   /** Equivalent to {@link #release()}. */
+   public void close()
+      {
+      release();
+      }
+
+   /** Returns the array currently holding the data.  Callers must hold the <code>dataSynchronizationLock</code>. */
+   private byte[] getDataArray()
+      {
+      if (data != null)
+         {
+         return data;
+         }
+      if (pooledBuffer == null && pool != null)
+         {
+         throw new IllegalStateException("The response's data cannot be accessed after it has been released");
+         }
+      return pooledBuffer;
+      }
+
+   /** Callers must hold the <code>dataSynchronizationLock</code>. */
+   private void releaseBuffer()
+      {
+      if (pooledBuffer != null)
+         {
+         pool.release(pooledBuffer);
+         pooledBuffer = null;
+         }
       }
 
    /**
@@ -86,7 +248,7 @@ public final class SerialDeviceCommandResponse implements CommandResponse
          {
          return false;
          }
-      if (!Arrays.equals(data, that.data))
+      if (!Arrays.equals(getData(), that.getData()))
          {
          return false;
          }
@@ -96,6 +258,7 @@ public final class SerialDeviceCommandResponse implements CommandResponse
 
    public int hashCode()
       {
+      final byte[] data = getData();
       int result = (success ? 1 : 0);
       result = 31 * result + (data != null ? Arrays.hashCode(data) : 0);
       return result;
@@ -103,15 +266,17 @@ public final class SerialDeviceCommandResponse implements CommandResponse
 
    public String toString()
       {
-      final String dataSize = data == null ? "null" : data.length + " byte(s)";
       final StringBuilder s = new StringBuilder("SerialDeviceCommandResponse{" + EOL);
       s.append("   success: ").append(success).append(EOL);
-      s.append("   data:    ").append(dataSize).append(EOL);
-      if ((data != null) && (data.length > 0))
+      synchronized (dataSynchronizationLock)
          {
-         for (final byte b : data)
+         final boolean isReleased = data == null && pooledBuffer == null && pool != null;
+         final byte[] array = isReleased ? null : getDataArray();
+         final String dataSize = isReleased ? "released" : (array == null ? "null" : length + " byte(s)");
+         s.append("   data:    ").append(dataSize).append(EOL);
+         for (int i = 0; array != null && i < length; i++)
             {
-            final int theByte = b & 0xff;
+            final int theByte = array[i] & 0xff;
             s.append("      ").append(theByte).append(EOL);
             }
          }
@@ -0,0 +1,37 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * <code>SerialDeviceTransport</code> is the connection underlying a {@link SerialDeviceCommandExecutionQueue}.
+ * Normally this is an open RXTX serial port, but other implementations (such as the in-memory simulated devices in
+ * the <code>edu.cmu.ri.createlab.serial.loopback</code> package) allow the queue and command strategies to be run and
+ * measured without any hardware.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface SerialDeviceTransport
+   {
+   /** Returns the name of the port (or other endpoint) to which this transport is connected. */
+   String getPortName();
+
+   /** Returns the stream from which data sent by the device is read. */
+   InputStream getInputStream() throws IOException;
+
+   /** Returns the stream to which data for the device is written. */
+   OutputStream getOutputStream() throws IOException;
+
+   /**
+    * Registers the given {@link Runnable} to be run whenever new data arrives from the device.  Returns
+    * <code>true</code> if registration succeeded, or <code>false</code> if the transport doesn't support data available
+    * notifications (in which case readers must poll).
+    */
+   boolean setDataAvailableListener(final Runnable listener);
+
+   /** Closes the transport.  This method may block if the underlying connection is unresponsive. */
+   void close();
+   }
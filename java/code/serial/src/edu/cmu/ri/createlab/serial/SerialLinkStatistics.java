@@ -0,0 +1,225 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import edu.cmu.ri.createlab.util.Histogram;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SerialLinkStatistics</code> tracks the health of the link to a single serial device: how often command echoes
+ * fail to match or to arrive, how often commands are retried, and how much data and time is lost to slurping between
+ * retries.  A steadily growing retry or slurp count usually means a degraded link (e.g. a flaky cable) which will
+ * eventually cause timeouts.  Each {@link ExtendedSerialDeviceIOHelper} has its own <code>SerialLinkStatistics</code>, which
+ * {@link CreateLabSerialDeviceCommandStrategy} updates as it executes.  Updates are lock free.
+ * </p>
+ * <p>
+ * The statistics may be queried directly, e.g. via
+ * {@link SerialDeviceCommandExecutionQueue#getLinkStatistics()}, or over JMX once {@link #registerMBean()} has been
+ * called, under the name <code>edu.cmu.ri.createlab:type=SerialLinkStatistics,port="&lt;port name&gt;"</code>.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialLinkStatistics implements SerialLinkStatisticsMBean
+   {
+   private static final Logger LOG = Logger.getLogger(SerialLinkStatistics.class);
+
+   private final String portName;
+   private final AtomicLong commandCount = new AtomicLong(0);
+   private final AtomicLong failedCommandCount = new AtomicLong(0);
+   private final AtomicLong echoMismatchCount = new AtomicLong(0);
+   private final AtomicLong echoTimeoutCount = new AtomicLong(0);
+   private final Histogram retriesPerCommand = new Histogram();
+   private final Histogram slurpedBytes = new Histogram();
+   private final Histogram slurpMillis = new Histogram();
+   private final byte[] mbeanLock = new byte[0];
+
+   // this variable must only ever be read/written from within a block synchronized on mbeanLock
+   private ObjectName mbeanName = null;
+
+   /** Creates a <code>SerialLinkStatistics</code> for the given serial port, which may be <code>null</code> if unknown. */
+   public SerialLinkStatistics(final String portName)
+      {
+      this.portName = portName;
+      }
+
+   void recordCommand(final int numberOfRetries, final boolean wasEchoDetected)
+      {
+      commandCount.incrementAndGet();
+      retriesPerCommand.record(numberOfRetries);
+      if (!wasEchoDetected)
+         {
+         failedCommandCount.incrementAndGet();
+         }
+      }
+
+   void recordEchoMismatch()
+      {
+      echoMismatchCount.incrementAndGet();
+      }
+
+   void recordEchoTimeout()
+      {
+      echoTimeoutCount.incrementAndGet();
+      }
+
+   void recordSlurp(final long numberOfBytes, final long millis)
+      {
+      slurpedBytes.record(numberOfBytes);
+      slurpMillis.record(millis);
+      }
+
+   public String getPortName()
+      {
+      return portName;
+      }
+
+   public long getCommandCount()
+      {
+      return commandCount.get();
+      }
+
+   public long getFailedCommandCount()
+      {
+      return failedCommandCount.get();
+      }
+
+   public long getRetryCount()
+      {
+      return retriesPerCommand.getSum();
+      }
+
+   public long getEchoMismatchCount()
+      {
+      return echoMismatchCount.get();
+      }
+
+   public long getEchoTimeoutCount()
+      {
+      return echoTimeoutCount.get();
+      }
+
+   public long getSlurpCount()
+      {
+      return slurpMillis.getCount();
+      }
+
+   public long getSlurpedByteCount()
+      {
+      return slurpedBytes.getSum();
+      }
+
+   public long getSlurpMillis()
+      {
+      return slurpMillis.getSum();
+      }
+
+   public long getSlurpMillisP99()
+      {
+      return slurpMillis.getPercentile(99);
+      }
+
+   public String getRetriesPerCommandHistogram()
+      {
+      return retriesPerCommand.toString();
+      }
+
+   public String getSlurpedBytesHistogram()
+      {
+      return slurpedBytes.toString();
+      }
+
+   public String getSlurpMillisHistogram()
+      {
+      return slurpMillis.toString();
+      }
+
+   /** Returns the histogram of the number of retries per command. */
+   public Histogram getRetriesPerCommand()
+      {
+      return retriesPerCommand;
+      }
+
+   /** Returns the histogram of the number of bytes discarded per slurp. */
+   public Histogram getSlurpedBytes()
+      {
+      return slurpedBytes;
+      }
+
+   /** Returns the histogram of the time, in milliseconds, spent per slurp. */
+   public Histogram getSlurpTimes()
+      {
+      return slurpMillis;
+      }
+
+   public void reset()
+      {
+      commandCount.set(0);
+      failedCommandCount.set(0);
+      echoMismatchCount.set(0);
+      echoTimeoutCount.set(0);
+      retriesPerCommand.reset();
+      slurpedBytes.reset();
+      slurpMillis.reset();
+      }
+
+   /** Registers these statistics with the platform MBean server.  Does nothing if already registered. */
+   public void registerMBean()
+      {
+      synchronized (mbeanLock)
+         {
+         if (mbeanName == null)
+            {
+            try
+               {
+               final ObjectName name = new ObjectName("edu.cmu.ri.createlab:type=SerialLinkStatistics,port=" + ObjectName.quote(String.valueOf(portName)));
+               ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+               mbeanName = name;
+               }
+            catch (JMException e)
+               {
+               LOG.error("SerialLinkStatistics.registerMBean(): JMException while registering the MBean for port [" + portName + "]", e);
+               }
+            }
+         }
+      }
+
+   /** Unregisters these statistics from the platform MBean server.  Does nothing if not registered. */
+   public void unregisterMBean()
+      {
+      synchronized (mbeanLock)
+         {
+         if (mbeanName != null)
+            {
+            try
+               {
+               ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+               }
+            catch (JMException e)
+               {
+               LOG.error("SerialLinkStatistics.unregisterMBean(): JMException while unregistering the MBean for port [" + portName + "]", e);
+               }
+            mbeanName = null;
+            }
+         }
+      }
+
+   @Override
+   public String toString()
+      {
+      return "SerialLinkStatistics{" +
+             "portName='" + portName + '\'' +
+             ", commands=" + getCommandCount() +
+             ", failedCommands=" + getFailedCommandCount() +
+             ", retries=" + getRetryCount() +
+             ", echoMismatches=" + getEchoMismatchCount() +
+             ", echoTimeouts=" + getEchoTimeoutCount() +
+             ", slurps=" + getSlurpCount() +
+             ", slurpedBytes=" + getSlurpedByteCount() +
+             ", slurpMillis=" + getSlurpMillis() +
+             '}';
+      }
+   }
@@ -0,0 +1,53 @@
+package edu.cmu.ri.createlab.serial;
+
+/**
+ * <p>
+ * <code>SerialLinkStatisticsMBean</code> is the JMX management interface for {@link SerialLinkStatistics}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface SerialLinkStatisticsMBean
+   {
+   /** Returns the name of the serial port, or <code>null</code> if unknown. */
+   String getPortName();
+
+   /** Returns the number of commands written, not counting retries. */
+   long getCommandCount();
+
+   /** Returns the number of commands which were never echoed correctly, even after retrying. */
+   long getFailedCommandCount();
+
+   /** Returns the number of times a command was retried. */
+   long getRetryCount();
+
+   /** Returns the number of command echoes which didn't match the command. */
+   long getEchoMismatchCount();
+
+   /** Returns the number of command echoes which didn't arrive completely before the read timeout. */
+   long getEchoTimeoutCount();
+
+   /** Returns the number of times the input was slurped to resynchronize with the device. */
+   long getSlurpCount();
+
+   /** Returns the total number of bytes discarded by slurping. */
+   long getSlurpedByteCount();
+
+   /** Returns the total number of milliseconds spent slurping. */
+   long getSlurpMillis();
+
+   /** Returns an upper bound on the 99th percentile of the time, in milliseconds, spent in a single slurp. */
+   long getSlurpMillisP99();
+
+   /** Returns a description of the histogram of the number of retries per command. */
+   String getRetriesPerCommandHistogram();
+
+   /** Returns a description of the histogram of the number of bytes discarded per slurp. */
+   String getSlurpedBytesHistogram();
+
+   /** Returns a description of the histogram of the time, in milliseconds, spent per slurp. */
+   String getSlurpMillisHistogram();
+
+   /** Resets all the counters and histograms. */
+   void reset();
+   }
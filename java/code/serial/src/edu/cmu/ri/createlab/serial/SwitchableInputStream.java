@@ -0,0 +1,27 @@
+package edu.cmu.ri.createlab.serial;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * <code>SwitchableInputStream</code> is an {@link InputStream} which delegates to an underlying stream that can be
+ * replaced at any time.  The {@link SerialDeviceCommandExecutionQueue} uses it to switch its command strategies
+ * between reading directly from the device and reading the bytes passed through by a {@link SerialDataStreamReader}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SwitchableInputStream extends FilterInputStream
+   {
+   SwitchableInputStream(final InputStream in)
+      {
+      super(in);
+      }
+
+   /** Makes the given stream the one from which all subsequent reads are made. */
+   void setInputStream(final InputStream in)
+      {
+      this.in = in;
+      }
+   }
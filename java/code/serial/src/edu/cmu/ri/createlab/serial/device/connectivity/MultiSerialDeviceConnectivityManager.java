@@ -0,0 +1,44 @@
+package edu.cmu.ri.createlab.serial.device.connectivity;
+
+import java.util.SortedMap;
+import edu.cmu.ri.createlab.serial.device.SerialDeviceProxy;
+
+/**
+ * <p>
+ * <code>MultiSerialDeviceConnectivityManager</code> discovers and maintains connections to any number of serial
+ * devices at once, rather than just one as a {@link SerialDeviceConnectivityManager} does.  Devices are keyed by the
+ * name of the serial port to which they're connected, and connection events published to
+ * {@link SerialDeviceConnectionEventListener}s are likewise reported per serial port.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface MultiSerialDeviceConnectivityManager extends SerialDeviceConnectionEventPublisher
+   {
+   /**
+    * Periodically scans the serial ports which aren't already connected and connects to every target serial device it
+    * finds.  Does nothing if already scanning.
+    */
+   void startScanning();
+
+   /** Stops scanning, or does nothing if not scanning.  Existing connections are left open. */
+   void stopScanning();
+
+   /** Returns <code>true</code> if the manager is scanning for new devices; <code>false</code> otherwise. */
+   boolean isScanning();
+
+   /** Returns a snapshot of the currently connected devices, keyed by serial port name. */
+   SortedMap<String, SerialDeviceProxy> getSerialDeviceProxies();
+
+   /** Returns the {@link SerialDeviceProxy} connected to the given serial port, or <code>null</code> if none is. */
+   SerialDeviceProxy getSerialDeviceProxy(final String serialPortName);
+
+   /** Returns the current {@link SerialDeviceConnectionState} of the given serial port. */
+   SerialDeviceConnectionState getConnectionState(final String serialPortName);
+
+   /** Disconnects from the device on the given serial port, or does nothing if no device is connected there. */
+   void disconnect(final String serialPortName);
+
+   /** Stops scanning and disconnects from all devices. */
+   void disconnectAll();
+   }
@@ -0,0 +1,448 @@
+package edu.cmu.ri.createlab.serial.device.connectivity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.swing.SwingUtilities;
+import edu.cmu.ri.createlab.serial.SerialPortEnumerator;
+import edu.cmu.ri.createlab.serial.device.SerialDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.serial.device.SerialDeviceProxy;
+import edu.cmu.ri.createlab.serial.device.SerialDeviceProxyCreator;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>MultiSerialDeviceConnectivityManagerImpl</code> is a {@link MultiSerialDeviceConnectivityManager} which uses
+ * a single scheduled scan to discover devices on every serial port which isn't already connected.  Each scan probes the
+ * unconnected ports concurrently, so the cost of a scan is proportional to the number of ports rather than the number
+ * of devices being managed.  The scan scheduler may be shared with other managers.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class MultiSerialDeviceConnectivityManagerImpl implements MultiSerialDeviceConnectivityManager
+   {
+   private static final Logger LOG = Logger.getLogger(MultiSerialDeviceConnectivityManagerImpl.class);
+
+   private static final int DEFAULT_DELAY_BETWEEN_SCANS_IN_SECONDS = 1;
+
+   private final Collection<SerialDeviceConnectionEventListener> serialDeviceConnectionEventListeners = new HashSet<SerialDeviceConnectionEventListener>();
+
+   private final ScheduledExecutorService executorService;
+   private final SerialPortProber serialPortProber;
+   private final long delayBetweenScans;
+   private final TimeUnit delayBetweenScansTimeUnit;
+   private final SerialPortScanner serialPortScanner = new SerialPortScanner();
+
+   // not a monitor, so that scanning on virtual threads never pins their carrier threads
+   private final Lock connectionStateChangeLock = new ReentrantLock();
+
+   // these variables must only ever be read/written by a thread holding the connectionStateChangeLock
+   private final SortedMap<String, SerialDeviceProxy> proxies = new TreeMap<String, SerialDeviceProxy>();
+   private final Map<String, SerialDeviceConnectionState> connectionStates = new TreeMap<String, SerialDeviceConnectionState>();
+   private ScheduledFuture<?> scanFuture = null;
+
+   private final SerialPortProber.ProbeListener probeListener =
+         new SerialPortProber.ProbeListener()
+         {
+         public boolean willProbe(final String portName)
+            {
+            connectionStateChangeLock.lock();
+            try
+               {
+               if (scanFuture != null && !proxies.containsKey(portName))
+                  {
+                  setConnectionState(SerialDeviceConnectionState.SCANNING, portName);
+                  return true;
+                  }
+               return false;
+               }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
+            }
+         };
+
+   /**
+    * Creates a <code>MultiSerialDeviceConnectivityManagerImpl</code> with its own scan scheduler which probes up to 8
+    * serial ports concurrently and waits one second between scans.
+    */
+   public MultiSerialDeviceConnectivityManagerImpl(final SerialDeviceProxyCreator serialDeviceProxyCreator)
+      {
+      // Make the scan scheduler single threaded (since we definitely don't want concurrent scans!), but also make it a
+      // daemon thread, so that it doesn't prevent the JVM from shutting down.
+      this(serialDeviceProxyCreator,
+           SharedExecutors.newSingleThreadScheduledExecutor("MultiSerialDeviceConnectivityManagerImpl.executorService"),
+           SerialPortProber.DEFAULT_MAX_CONCURRENT_PROBES,
+           DEFAULT_DELAY_BETWEEN_SCANS_IN_SECONDS,
+           TimeUnit.SECONDS);
+      }
+
+   /**
+    * Creates a <code>MultiSerialDeviceConnectivityManagerImpl</code> which schedules its scans on the given
+    * {@link ScheduledExecutorService} (which may be shared with other managers), probes up to
+    * <code>maxConcurrentPortProbes</code> serial ports concurrently, and waits the given delay between the end of one
+    * scan and the start of the next.
+    *
+    * @throws IllegalArgumentException if the <code>executorService</code> or <code>delayBetweenScansTimeUnit</code> is <code>null</code>, or if <code>maxConcurrentPortProbes</code> is not positive
+    */
+   public MultiSerialDeviceConnectivityManagerImpl(final SerialDeviceProxyCreator serialDeviceProxyCreator,
+                                                   final ScheduledExecutorService executorService,
+                                                   final int maxConcurrentPortProbes,
+                                                   final long delayBetweenScans,
+                                                   final TimeUnit delayBetweenScansTimeUnit)
+      {
+      if (executorService == null)
+         {
+         throw new IllegalArgumentException("The ScheduledExecutorService cannot be null");
+         }
+      if (delayBetweenScansTimeUnit == null)
+         {
+         throw new IllegalArgumentException("The TimeUnit cannot be null");
+         }
+      this.executorService = executorService;
+      this.serialPortProber = new SerialPortProber(serialDeviceProxyCreator, maxConcurrentPortProbes);
+      this.delayBetweenScans = delayBetweenScans;
+      this.delayBetweenScansTimeUnit = delayBetweenScansTimeUnit;
+      }
+
+   public void addConnectionEventListener(final SerialDeviceConnectionEventListener listener)
+      {
+      if (listener != null)
+         {
+         serialDeviceConnectionEventListeners.add(listener);
+         }
+      }
+
+   public void removeConnectionEventListener(final SerialDeviceConnectionEventListener listener)
+      {
+      if (listener != null)
+         {
+         serialDeviceConnectionEventListeners.remove(listener);
+         }
+      }
+
+   public void startScanning()
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         if (scanFuture == null)
+            {
+            LOG.debug("MultiSerialDeviceConnectivityManagerImpl.startScanning()");
+            scanFuture = executorService.scheduleWithFixedDelay(serialPortScanner, 0, delayBetweenScans, delayBetweenScansTimeUnit);
+            }
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public void stopScanning()
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         if (scanFuture != null)
+            {
+            LOG.debug("MultiSerialDeviceConnectivityManagerImpl.stopScanning()");
+            scanFuture.cancel(false);
+            scanFuture = null;
+            }
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public boolean isScanning()
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         return scanFuture != null;
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public SortedMap<String, SerialDeviceProxy> getSerialDeviceProxies()
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         return new TreeMap<String, SerialDeviceProxy>(proxies);
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public SerialDeviceProxy getSerialDeviceProxy(final String serialPortName)
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         return proxies.get(serialPortName);
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public SerialDeviceConnectionState getConnectionState(final String serialPortName)
+      {
+      connectionStateChangeLock.lock();
+      try
+         {
+         final SerialDeviceConnectionState connectionState = connectionStates.get(serialPortName);
+         return (connectionState == null) ? SerialDeviceConnectionState.DISCONNECTED : connectionState;
+         }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
+      }
+
+   public void disconnect(final String serialPortName)
+      {
+      runNotInGUIThread(new DisconnectWorkhorseRunnable(serialPortName));
+      }
+
+   public void disconnectAll()
+      {
+      runNotInGUIThread(
+            new Runnable()
+            {
+            public void run()
+               {
+               final List<String> serialPortNames;
+               connectionStateChangeLock.lock();
+               try
+                  {
+                  stopScanning();
+                  serialPortNames = new ArrayList<String>(proxies.keySet());
+                  }
+               finally
+                  {
+                  connectionStateChangeLock.unlock();
+                  }
+               for (final String serialPortName : serialPortNames)
+                  {
+                  new DisconnectWorkhorseRunnable(serialPortName).run();
+                  }
+               }
+            });
+      }
+
+   /**
+    * Sets the {@link SerialDeviceConnectionState} for the given serial port and notifies the
+    * {@link SerialDeviceConnectionEventListener}s if the state changed.
+    */
+   // WARNING: this method must only ever be called by a thread holding the connectionStateChangeLock
+   private void setConnectionState(final SerialDeviceConnectionState newState, final String serialPortName)
+      {
+      final SerialDeviceConnectionState previousState = connectionStates.get(serialPortName);
+      final SerialDeviceConnectionState oldState = (previousState == null) ? SerialDeviceConnectionState.DISCONNECTED : previousState;
+      if (SerialDeviceConnectionState.DISCONNECTED.equals(newState))
+         {
+         connectionStates.remove(serialPortName);
+         }
+      else
+         {
+         connectionStates.put(serialPortName, newState);
+         }
+
+      if (oldState.equals(newState))
+         {
+         return;
+         }
+
+      // notify listeners
+      if (LOG.isTraceEnabled())
+         {
+         LOG.trace("MultiSerialDeviceConnectivityManagerImpl.setConnectionState(): notifying listeners of state change from [" + oldState.getStateName() + "] to [" + newState.getStateName() + "] on serial port [" + serialPortName + "]...");
+         }
+      for (final SerialDeviceConnectionEventListener serialDeviceConnectionEventListener : serialDeviceConnectionEventListeners)
+         {
+         try
+            {
+            serialDeviceConnectionEventListener.handleConnectionStateChange(oldState, newState, serialPortName);
+            }
+         catch (Exception e)
+            {
+            if (LOG.isEnabledFor(Level.ERROR))
+               {
+               LOG.error("MultiSerialDeviceConnectivityManagerImpl.setConnectionState(): Exception while notifying listener " +
+                         "[" + serialDeviceConnectionEventListener + "] of connection state change from " +
+                         "[" + oldState + "] to [" + newState + "] on serial port [" + serialPortName + "]", e);
+               }
+            }
+         }
+      }
+
+   private void runNotInGUIThread(final Runnable runnable)
+      {
+      if (SwingUtilities.isEventDispatchThread())
+         {
+         executorService.execute(runnable);
+         }
+      else
+         {
+         runnable.run();
+         }
+      }
+
+   private class SerialPortScanner implements Runnable
+      {
+      public void run()
+         {
+         LOG.trace("MultiSerialDeviceConnectivityManagerImpl$SerialPortScanner.run()");
+
+         try
+            {
+            // only probe the ports which aren't already connected
+            final SortedSet<String> portsToProbe = new TreeSet<String>();
+            final SortedSet<String> availableSerialPorts = SerialPortEnumerator.getAvailableSerialPorts();
+            if (availableSerialPorts != null)
+               {
+               portsToProbe.addAll(availableSerialPorts);
+               }
+            connectionStateChangeLock.lock();
+            try
+               {
+               if (scanFuture == null)
+                  {
+                  return;
+                  }
+               portsToProbe.removeAll(proxies.keySet());
+               }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
+
+            if (portsToProbe.isEmpty())
+               {
+               LOG.trace("MultiSerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): No unconnected serial ports.");
+               return;
+               }
+
+            final List<SerialPortProber.ProbeResult> probeResults = serialPortProber.findAll(portsToProbe, probeListener);
+
+            connectionStateChangeLock.lock();
+            try
+               {
+               for (final SerialPortProber.ProbeResult probeResult : probeResults)
+                  {
+                  final String portName = probeResult.getPortName();
+                  if (scanFuture != null && !proxies.containsKey(portName))
+                     {
+                     LOG.debug("MultiSerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection established on port [" + portName + "]");
+                     final SerialDeviceProxy proxy = probeResult.getProxy();
+                     proxies.put(portName, proxy);
+                     proxy.addSerialDevicePingFailureEventListener(
+                           new SerialDevicePingFailureEventListener()
+                           {
+                           public void handlePingFailureEvent()
+                              {
+                              // if the ping failed, then assume the proxy has already called disconnect, so we
+                              // don't need to tell the proxy to disconnect again.  Make sure we only forget about
+                              // this proxy, and not some other one which has since connected on the same port.
+                              connectionStateChangeLock.lock();
+                              try
+                                 {
+                                 if (proxies.get(portName) == proxy)
+                                    {
+                                    proxies.remove(portName);
+                                    setConnectionState(SerialDeviceConnectionState.DISCONNECTED, portName);
+                                    }
+                                 }
+                              finally
+                                 {
+                                 connectionStateChangeLock.unlock();
+                                 }
+                              }
+                           });
+                     setConnectionState(SerialDeviceConnectionState.CONNECTED, portName);
+                     }
+                  else
+                     {
+                     // scanning was stopped while the handshake was taking place, so don't keep the connection
+                     LOG.debug("MultiSerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection established on port [" + portName + "], but scanning was stopped, so disconnecting");
+                     probeResult.getProxy().disconnect();
+                     }
+                  }
+
+               // any port still in the scanning state failed to connect
+               for (final String portName : portsToProbe)
+                  {
+                  if (SerialDeviceConnectionState.SCANNING.equals(connectionStates.get(portName)))
+                     {
+                     setConnectionState(SerialDeviceConnectionState.DISCONNECTED, portName);
+                     }
+                  }
+               }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
+            }
+         catch (Exception e)
+            {
+            // don't let the exception propagate, since that would cancel all future scans
+            LOG.error("MultiSerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): Exception while scanning", e);
+            }
+         }
+      }
+
+   private class DisconnectWorkhorseRunnable implements Runnable
+      {
+      private final String serialPortName;
+
+      private DisconnectWorkhorseRunnable(final String serialPortName)
+         {
+         this.serialPortName = serialPortName;
+         }
+
+      public void run()
+         {
+         connectionStateChangeLock.lock();
+         try
+            {
+            LOG.debug("MultiSerialDeviceConnectivityManagerImpl.disconnect(): disconnecting from port [" + serialPortName + "]");
+
+            final SerialDeviceProxy proxy = proxies.remove(serialPortName);
+            if (proxy != null)
+               {
+               proxy.disconnect();
+               setConnectionState(SerialDeviceConnectionState.DISCONNECTED, serialPortName);
+               }
+            }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
+         }
+      }
+   }
@@ -1,19 +1,18 @@
 package edu.cmu.ri.createlab.serial.device.connectivity;
 
-import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.SortedSet;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.SwingUtilities;
 import edu.cmu.ri.createlab.serial.SerialPortEnumerator;
-import edu.cmu.ri.createlab.serial.SerialPortException;
 import edu.cmu.ri.createlab.serial.device.SerialDevicePingFailureEventListener;
 import edu.cmu.ri.createlab.serial.device.SerialDeviceProxy;
 import edu.cmu.ri.createlab.serial.device.SerialDeviceProxyCreator;
-import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -24,19 +23,18 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
    {
    private static final Logger LOG = Logger.getLogger(SerialDeviceConnectivityManagerImpl.class);
 
-   private final SerialDeviceProxyCreator serialDeviceProxyCreator;
-
    private final Collection<SerialDeviceConnectionEventListener> serialDeviceConnectionEventListeners = new HashSet<SerialDeviceConnectionEventListener>();
 
    // Make the scan scheduler single threaded (since we definitely don't want concurrent scans!), but also make it a
    // daemon thread, so that it doesn't prevent the JVM from shutting down.
-   private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SerialDeviceConnectivityManagerImpl.executorService"));
+   private final ScheduledExecutorService executorService = SharedExecutors.newSingleThreadScheduledExecutor("SerialDeviceConnectivityManagerImpl.executorService");
    private final SerialPortScanner serialPortScanner = new SerialPortScanner();
+   private final SerialPortProber serialPortProber;
 
-   // variable for synchronization
-   private final byte[] connectionStateChangeLock = new byte[0];
+   // held during the handshake, so it's a Lock (which, unlike a monitor, never pins a waiting virtual thread)
+   private final Lock connectionStateChangeLock = new ReentrantLock();
 
-   // these variables must only ever be read/written from within a block synchronized on connectionStateChangeLock
+   // these variables must only ever be read/written by a thread holding the connectionStateChangeLock
    private SerialDeviceConnectionState connectionState = SerialDeviceConnectionState.DISCONNECTED;
    private SerialDeviceProxy proxy;
    private boolean isScanning = false;
@@ -54,11 +52,16 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
             // make sure we're not already scanning
             cancelScanning();
 
-            synchronized (connectionStateChangeLock)
+            connectionStateChangeLock.lock();
+            try
                {
                // schedule a scan
                scheduleScan(0);
                }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
             }
          };
    private final Runnable disconnectWorkhorseRunnable = new DisconnectWorkhorseRunnable(true);
@@ -68,10 +71,15 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
          {
          public void run()
             {
-            synchronized (connectionStateChangeLock)
+            connectionStateChangeLock.lock();
+            try
                {
                isScanning = false;
                }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
             // we want to disconnect here (rather than just setting the connection state) to handle the case where the
             // user cancels the scan while the serial device handshake is taking place.  In that case, the handshake will
             // complete and the connection state will change to connected before the cancel gets to run (due to the
@@ -80,17 +88,59 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
             }
          };
 
+   private final SerialPortProber.ProbeListener probeListener =
+         new SerialPortProber.ProbeListener()
+         {
+         public boolean willProbe(final String portName)
+            {
+            connectionStateChangeLock.lock();
+            try
+               {
+               if (isScanning)
+                  {
+                  setConnectionState(SerialDeviceConnectionState.SCANNING, portName);
+                  return true;
+                  }
+               return false;
+               }
+            finally
+               {
+               connectionStateChangeLock.unlock();
+               }
+            }
+         };
+
+   /**
+    * Creates a <code>SerialDeviceConnectivityManagerImpl</code> which probes up to 8 serial ports concurrently while
+    * scanning.
+    */
    public SerialDeviceConnectivityManagerImpl(final SerialDeviceProxyCreator serialDeviceProxyCreator)
       {
-      this.serialDeviceProxyCreator = serialDeviceProxyCreator;
+      this(serialDeviceProxyCreator, SerialPortProber.DEFAULT_MAX_CONCURRENT_PROBES);
+      }
+
+   /**
+    * Creates a <code>SerialDeviceConnectivityManagerImpl</code> which probes up to <code>maxConcurrentPortProbes</code>
+    * serial ports concurrently while scanning.  Use <code>1</code> to probe the ports one at a time.
+    *
+    * @throws IllegalArgumentException if <code>maxConcurrentPortProbes</code> is not positive
+    */
+   public SerialDeviceConnectivityManagerImpl(final SerialDeviceProxyCreator serialDeviceProxyCreator, final int maxConcurrentPortProbes)
+      {
+      this.serialPortProber = new SerialPortProber(serialDeviceProxyCreator, maxConcurrentPortProbes);
       }
 
    public SerialDeviceProxy getSerialDeviceProxy()
       {
-      synchronized (connectionStateChangeLock)
+      connectionStateChangeLock.lock();
+      try
          {
          return proxy;
          }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
       }
 
    public void addConnectionEventListener(final SerialDeviceConnectionEventListener listener)
@@ -111,17 +161,22 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
 
    public SerialDeviceConnectionState getConnectionState()
       {
-      synchronized (connectionStateChangeLock)
+      connectionStateChangeLock.lock();
+      try
          {
          return connectionState;
          }
+      finally
+         {
+         connectionStateChangeLock.unlock();
+         }
       }
 
    /**
     * Sets the {@link SerialDeviceConnectionState} for the given serial port and notifies the {@link SerialDeviceConnectionEventListener}s.  A
     * {@link NullPointerException} is thrown if the given state and/or the serial port name is <code>null</code>.
     */
-   // WARNING: this method must only ever be called from within a synchronized block
+   // WARNING: this method must only ever be called by a thread holding the connectionStateChangeLock
    private void setConnectionState(final SerialDeviceConnectionState newState, final String serialPortName)
       {
       LOG.trace("SerialDeviceConnectivityManagerImpl.setConnectionState()");
@@ -204,7 +259,7 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
          }
       }
 
-   // WARNING: this method must only ever be called from within a synchronized block
+   // WARNING: this method must only ever be called by a thread holding the connectionStateChangeLock
    private void scheduleScan(final int delayInSeconds)
       {
       isScanning = true;
@@ -217,7 +272,8 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
          {
          LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run()");
 
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             // Make sure we're still in scan mode.  We might not be if the user clicked cancel AFTER this scan was
             // scheduled, but BEFORE it actually ran.
@@ -230,57 +286,50 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
                return;
                }
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
 
-         // check each available serial port for the target serial device, and connect to the first one found
+         // probe all the available serial ports concurrently for the target serial device, and connect to the first one found
          final SortedSet<String> availableSerialPorts = SerialPortEnumerator.getAvailableSerialPorts();
          if ((availableSerialPorts != null) && (!availableSerialPorts.isEmpty()))
             {
-            for (final String portName : availableSerialPorts)
+            final SerialPortProber.ProbeResult probeResult = serialPortProber.findFirst(availableSerialPorts, probeListener);
+            if (probeResult != null)
                {
-               synchronized (connectionStateChangeLock)
+               connectionStateChangeLock.lock();
+               try
                   {
-                  if (isScanning && portName != null)
+                  if (isScanning)
                      {
-                     try
-                        {
-                        LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): Attempting connection to port [" + portName + "]...");
-                        setConnectionState(SerialDeviceConnectionState.SCANNING, portName);
+                     LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection established!");
 
-                        proxy = serialDeviceProxyCreator.createSerialDeviceProxy(portName);
-                        if (proxy == null)
+                     isScanning = false;
+                     proxy = probeResult.getProxy();
+                     proxy.addSerialDevicePingFailureEventListener(
+                           new SerialDevicePingFailureEventListener()
                            {
-                           LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection failed");
-                           }
-                        else
-                           {
-                           LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection established!");
-
-                           isScanning = false;
-                           proxy.addSerialDevicePingFailureEventListener(
-                                 new SerialDevicePingFailureEventListener()
-                                 {
-                                 public void handlePingFailureEvent()
-                                    {
-                                    // if the ping failed, then assume the proxy has already called disconnect,
-                                    // so we don't need to tell the proxy to disconnect again.
-                                    disconnect(false);
-                                    }
-                                 });
-                           setConnectionState(SerialDeviceConnectionState.CONNECTED, portName);
-
-                           return;
-                           }
-                        }
-                     catch (IOException e)
-                        {
-                        LOG.error("IOException while trying to connect to create SerialDeviceProxy for port [" + portName + "]", e);
-                        }
-                     catch (SerialPortException e)
-                        {
-                        LOG.error("SerialPortException while trying to connect to create SerialDeviceProxy for port [" + portName + "]", e);
-                        }
+                           public void handlePingFailureEvent()
+                              {
+                              // if the ping failed, then assume the proxy has already called disconnect,
+                              // so we don't need to tell the proxy to disconnect again.
+                              disconnect(false);
+                              }
+                           });
+                     setConnectionState(SerialDeviceConnectionState.CONNECTED, probeResult.getPortName());
+
+                     return;
                      }
                   }
+               finally
+                  {
+                  connectionStateChangeLock.unlock();
+                  }
+
+               // the user cancelled the scan while the handshake was taking place, so don't keep the connection
+               LOG.debug("SerialDeviceConnectivityManagerImpl$SerialPortScanner.run(): connection established, but scanning was cancelled, so disconnecting");
+               probeResult.getProxy().disconnect();
                }
             }
          else
@@ -289,7 +338,8 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
             }
 
          // If we got here, then we failed to connect.  So, schedule a new scan if the user didn't cancel the scan...
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             if (isScanning)
                {
@@ -297,6 +347,10 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
                scheduleScan(1);
                }
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
          }
       }
 
@@ -311,7 +365,8 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
 
       public void run()
          {
-         synchronized (connectionStateChangeLock)
+         connectionStateChangeLock.lock();
+         try
             {
             LOG.debug("SerialDeviceConnectivityManagerImpl.disconnect()");
 
@@ -322,6 +377,10 @@ public final class SerialDeviceConnectivityManagerImpl implements SerialDeviceCo
             proxy = null;
             setConnectionState(SerialDeviceConnectionState.DISCONNECTED, "");
             }
+         finally
+            {
+            connectionStateChangeLock.unlock();
+            }
          }
       }
    }
@@ -0,0 +1,322 @@
+package edu.cmu.ri.createlab.serial.device.connectivity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.serial.SerialPortException;
+import edu.cmu.ri.createlab.serial.device.SerialDeviceProxy;
+import edu.cmu.ri.createlab.serial.device.SerialDeviceProxyCreator;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SerialPortProber</code> tries to create a {@link SerialDeviceProxy} on each of a collection of serial ports
+ * concurrently, using a bounded pool of daemon threads.  Since each failed handshake can take as long as the read and
+ * slurp timeouts of the handshake command, probing the ports in parallel makes a scan take roughly as long as the
+ * slowest single port rather than the sum of all of them.  Threads are only kept alive while a scan is in progress,
+ * so a prober never needs to be shut down.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SerialPortProber
+   {
+   private static final Logger LOG = Logger.getLogger(SerialPortProber.class);
+
+   /** The default maximum number of ports which will be probed at the same time. */
+   static final int DEFAULT_MAX_CONCURRENT_PROBES = 8;
+
+   private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+   /** Notified immediately before each port is probed. */
+   interface ProbeListener
+      {
+      /** Returns <code>false</code> if the given port should be skipped, e.g. because the scan has been cancelled. */
+      boolean willProbe(final String portName);
+      }
+
+   /** The result of a successful probe. */
+   static final class ProbeResult
+      {
+      private final String portName;
+      private final SerialDeviceProxy proxy;
+
+      private ProbeResult(final String portName, final SerialDeviceProxy proxy)
+         {
+         this.portName = portName;
+         this.proxy = proxy;
+         }
+
+      String getPortName()
+         {
+         return portName;
+         }
+
+      SerialDeviceProxy getProxy()
+         {
+         return proxy;
+         }
+      }
+
+   private final SerialDeviceProxyCreator serialDeviceProxyCreator;
+   private final ThreadPoolExecutor executor;
+
+   /**
+    * Creates a <code>SerialPortProber</code> which uses the given {@link SerialDeviceProxyCreator} to probe at most
+    * <code>maxConcurrentProbes</code> ports at a time.  Threads in the pool are only kept alive while a scan is in
+    * progress, and are virtual threads if {@link SharedExecutors#isUsingVirtualThreads() virtual threads are in use}.
+    *
+    * @throws IllegalArgumentException if <code>maxConcurrentProbes</code> is not positive
+    */
+   SerialPortProber(final SerialDeviceProxyCreator serialDeviceProxyCreator, final int maxConcurrentProbes)
+      {
+      if (maxConcurrentProbes <= 0)
+         {
+         throw new IllegalArgumentException("The max number of concurrent probes [" + maxConcurrentProbes + "] must be positive");
+         }
+      this.serialDeviceProxyCreator = serialDeviceProxyCreator;
+      this.executor = new ThreadPoolExecutor(maxConcurrentProbes, maxConcurrentProbes,
+                                             IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(),
+                                             SharedExecutors.newThreadFactory("SerialPortProber.executor"));
+      this.executor.allowCoreThreadTimeOut(true);
+      }
+
+   /**
+    * Probes the given ports concurrently and returns the {@link ProbeResult} for the first port on which a
+    * {@link SerialDeviceProxy} was successfully created, or <code>null</code> if none were.  Probes which haven't yet
+    * started once a winner is found are cancelled, and probes which are still handshaking are interrupted so that they
+    * give up (and close their ports) promptly.  Any proxy created by a probe which was already running is disconnected,
+    * so only the winning connection is left open.
+    */
+   ProbeResult findFirst(final Collection<String> portNames, final ProbeListener listener)
+      {
+      final List<ProbeResult> results = probe(portNames, listener, true);
+      return results.isEmpty() ? null : results.get(0);
+      }
+
+   /**
+    * Probes the given ports concurrently, waits for all the probes to complete, and returns a {@link ProbeResult} for
+    * every port on which a {@link SerialDeviceProxy} was successfully created.  Returns an empty list if none were.
+    */
+   List<ProbeResult> findAll(final Collection<String> portNames, final ProbeListener listener)
+      {
+      return probe(portNames, listener, false);
+      }
+
+   private List<ProbeResult> probe(final Collection<String> portNames, final ProbeListener listener, final boolean willStopAtFirst)
+      {
+      final ProbeRound round = new ProbeRound(willStopAtFirst);
+      final CompletionService<SerialDeviceProxy> completionService = new ExecutorCompletionService<SerialDeviceProxy>(executor);
+      final List<Future<SerialDeviceProxy>> futures = new ArrayList<Future<SerialDeviceProxy>>(portNames.size());
+      for (final String portName : portNames)
+         {
+         if (portName != null)
+            {
+            futures.add(completionService.submit(new PortProbe(portName, round, listener)));
+            }
+         }
+
+      try
+         {
+         for (int i = 0; i < futures.size(); i++)
+            {
+            try
+               {
+               if (completionService.take().get() != null && willStopAtFirst)
+                  {
+                  break;
+                  }
+               }
+            catch (ExecutionException e)
+               {
+               LOG.error("SerialPortProber.probe(): ExecutionException while probing a serial port", e);
+               }
+            }
+         }
+      catch (InterruptedException e)
+         {
+         LOG.debug("SerialPortProber.probe(): interrupted while waiting for the probes to complete");
+         Thread.currentThread().interrupt();
+         }
+      finally
+         {
+         for (final Future<SerialDeviceProxy> future : futures)
+            {
+            future.cancel(false);
+            }
+         }
+
+      return round.finish();
+      }
+
+   /**
+    * Collects the results of a single call to {@link #findFirst} or {@link #findAll}.  Once the round is finished, any
+    * further proxies offered to it are rejected (and must be disconnected by the caller).  The round also keeps track of
+    * the threads of the probes which are handshaking, and interrupts them once the round is decided.  Interrupts are
+    * only ever delivered between {@link #startHandshake()} and {@link #endHandshake()}, so a probe can't be interrupted
+    * while, e.g., disconnecting a rejected proxy.
+    */
+   private static final class ProbeRound
+      {
+      private final boolean willStopAtFirst;
+      private final byte[] lock = new byte[0];
+      private final List<ProbeResult> results = new ArrayList<ProbeResult>();
+      private final Set<Thread> handshakingThreads = new HashSet<Thread>();
+      private boolean isFinished = false;
+
+      private ProbeRound(final boolean willStopAtFirst)
+         {
+         this.willStopAtFirst = willStopAtFirst;
+         }
+
+      /**
+       * Returns <code>true</code> if the given proxy was accepted as one of this round's results.  Returns
+       * <code>false</code> if the caller must discard it.
+       */
+      private boolean offer(final String portName, final SerialDeviceProxy proxy)
+         {
+         synchronized (lock)
+            {
+            if (isDecided())
+               {
+               return false;
+               }
+            results.add(new ProbeResult(portName, proxy));
+            if (isDecided())
+               {
+               interruptHandshakes();
+               }
+            return true;
+            }
+         }
+
+      /**
+       * Registers the calling thread as handshaking, unless the round is already decided, in which case it returns
+       * <code>false</code> and the probe should be skipped.  Must be followed by a call to {@link #endHandshake()}.
+       */
+      private boolean startHandshake()
+         {
+         synchronized (lock)
+            {
+            if (isDecided())
+               {
+               return false;
+               }
+            handshakingThreads.add(Thread.currentThread());
+            return true;
+            }
+         }
+
+      /** Unregisters the calling thread, and clears any interrupt the round delivered to it. */
+      private void endHandshake()
+         {
+         synchronized (lock)
+            {
+            handshakingThreads.remove(Thread.currentThread());
+            }
+         Thread.interrupted();
+         }
+
+      // must only be called by a thread holding the lock
+      private void interruptHandshakes()
+         {
+         for (final Thread thread : handshakingThreads)
+            {
+            if (thread != Thread.currentThread())
+               {
+               thread.interrupt();
+               }
+            }
+         }
+
+      private boolean isDecided()
+         {
+         synchronized (lock)
+            {
+            return isFinished || (willStopAtFirst && !results.isEmpty());
+            }
+         }
+
+      private List<ProbeResult> finish()
+         {
+         synchronized (lock)
+            {
+            isFinished = true;
+            interruptHandshakes();
+            return new ArrayList<ProbeResult>(results);
+            }
+         }
+      }
+
+   private final class PortProbe implements Callable<SerialDeviceProxy>
+      {
+      private final String portName;
+      private final ProbeRound round;
+      private final ProbeListener listener;
+
+      private PortProbe(final String portName, final ProbeRound round, final ProbeListener listener)
+         {
+         this.portName = portName;
+         this.round = round;
+         this.listener = listener;
+         }
+
+      public SerialDeviceProxy call()
+         {
+         if (round.isDecided() || (listener != null && !listener.willProbe(portName)) || !round.startHandshake())
+            {
+            return null;
+            }
+
+         try
+            {
+            LOG.debug("SerialPortProber$PortProbe.call(): Attempting connection to port [" + portName + "]...");
+            final SerialDeviceProxy proxy;
+            try
+               {
+               proxy = serialDeviceProxyCreator.createSerialDeviceProxy(portName);
+               }
+            finally
+               {
+               round.endHandshake();
+               }
+            if (proxy == null)
+               {
+               LOG.debug("SerialPortProber$PortProbe.call(): connection to port [" + portName + "] failed");
+               }
+            else if (round.offer(portName, proxy))
+               {
+               LOG.debug("SerialPortProber$PortProbe.call(): connection to port [" + portName + "] established!");
+               return proxy;
+               }
+            else
+               {
+               LOG.debug("SerialPortProber$PortProbe.call(): connection to port [" + portName + "] established, but the probe round is already over, so disconnecting");
+               proxy.disconnect();
+               }
+            }
+         catch (IOException e)
+            {
+            LOG.error("IOException while trying to connect to create SerialDeviceProxy for port [" + portName + "]", e);
+            }
+         catch (SerialPortException e)
+            {
+            LOG.error("SerialPortException while trying to connect to create SerialDeviceProxy for port [" + portName + "]", e);
+            }
+         return null;
+         }
+      }
+   }
@@ -0,0 +1,298 @@
+package edu.cmu.ri.createlab.serial.loopback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.serial.SerialDeviceTransport;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>LoopbackSerialDeviceTransport</code> is an in-memory {@link SerialDeviceTransport} connected to a
+ * {@link SimulatedSerialDevice}.  Every flushed write is handed to the simulated device, and its reply is delivered to
+ * the transport's input stream after a configurable latency plus a uniformly-distributed random jitter.  Replies are
+ * always delivered in the order in which the writes were made.  Pass the transport to
+ * {@link edu.cmu.ri.createlab.serial.SerialDeviceCommandExecutionQueue#create(SerialDeviceTransport, long, TimeUnit)}
+ * to exercise the command queue and strategies without any hardware, e.g. to measure throughput and latency.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class LoopbackSerialDeviceTransport implements SerialDeviceTransport
+   {
+   private static final Logger LOG = Logger.getLogger(LoopbackSerialDeviceTransport.class);
+
+   private final String portName;
+   private final SimulatedSerialDevice device;
+   private final long latencyNanos;
+   private final long jitterNanos;
+   private final Random random = new Random();
+   private final LoopbackInputStream inputStream = new LoopbackInputStream();
+   private final LoopbackOutputStream outputStream = new LoopbackOutputStream();
+   private final ScheduledExecutorService deliveryExecutor;
+
+   // variable for synchronization
+   private final byte[] deliveryLock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on deliveryLock
+   private long lastDeliveryTimeNanos = 0;
+   private Runnable dataAvailableListener = null;
+
+   /** Creates a <code>LoopbackSerialDeviceTransport</code> which delivers the device's replies immediately. */
+   public LoopbackSerialDeviceTransport(final String portName, final SimulatedSerialDevice device)
+      {
+      this(portName, device, 0, 0, TimeUnit.MILLISECONDS);
+      }
+
+   /**
+    * Creates a <code>LoopbackSerialDeviceTransport</code> which delivers each of the device's replies after the given
+    * latency plus a random jitter of between zero and <code>jitter</code>.
+    *
+    * @throws IllegalArgumentException if the <code>device</code> or <code>timeUnit</code> is <code>null</code>, or if the latency or jitter is negative
+    */
+   public LoopbackSerialDeviceTransport(final String portName, final SimulatedSerialDevice device, final long latency, final long jitter, final TimeUnit timeUnit)
+      {
+      if (device == null)
+         {
+         throw new IllegalArgumentException("The SimulatedSerialDevice cannot be null");
+         }
+      if (timeUnit == null)
+         {
+         throw new IllegalArgumentException("The TimeUnit cannot be null");
+         }
+      if (latency < 0 || jitter < 0)
+         {
+         throw new IllegalArgumentException("The latency [" + latency + "] and jitter [" + jitter + "] must not be negative");
+         }
+      this.portName = portName;
+      this.device = device;
+      this.latencyNanos = timeUnit.toNanos(latency);
+      this.jitterNanos = timeUnit.toNanos(jitter);
+      this.deliveryExecutor = (latencyNanos > 0 || jitterNanos > 0) ? Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("LoopbackSerialDeviceTransport.deliveryExecutor")) : null;
+
+      deliver(device.getStartupBytes());
+      }
+
+   public String getPortName()
+      {
+      return portName;
+      }
+
+   public InputStream getInputStream()
+      {
+      return inputStream;
+      }
+
+   public OutputStream getOutputStream()
+      {
+      return outputStream;
+      }
+
+   public boolean setDataAvailableListener(final Runnable listener)
+      {
+      synchronized (deliveryLock)
+         {
+         dataAvailableListener = listener;
+         }
+      return true;
+      }
+
+   /**
+    * Delivers the given bytes to the input stream (after the configured latency and jitter) as though the device had
+    * sent them unsolicited, e.g. to simulate a device which streams sensor data.
+    */
+   public void push(final byte[] data)
+      {
+      deliver(data == null ? null : data.clone());
+      }
+
+   public void close()
+      {
+      LOG.debug("LoopbackSerialDeviceTransport.close()");
+      if (deliveryExecutor != null)
+         {
+         deliveryExecutor.shutdownNow();
+         }
+      inputStream.close();
+      }
+
+   /** Delivers the given reply to the input stream, either immediately or after the configured latency and jitter. */
+   private void deliver(final byte[] reply)
+      {
+      if (reply == null || reply.length == 0)
+         {
+         return;
+         }
+
+      if (deliveryExecutor == null)
+         {
+         inputStream.append(reply);
+         notifyDataAvailable();
+         }
+      else
+         {
+         final long delayNanos;
+         synchronized (deliveryLock)
+            {
+            final long jitter = (jitterNanos > 0) ? (long)(random.nextDouble() * jitterNanos) : 0;
+
+            // never deliver a reply before the previous one, so that jitter can't reorder the bytes
+            final long deliveryTimeNanos = Math.max(lastDeliveryTimeNanos, System.nanoTime() + latencyNanos + jitter);
+            lastDeliveryTimeNanos = deliveryTimeNanos;
+            delayNanos = deliveryTimeNanos - System.nanoTime();
+            }
+         deliveryExecutor.schedule(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  inputStream.append(reply);
+                  notifyDataAvailable();
+                  }
+               },
+               delayNanos,
+               TimeUnit.NANOSECONDS);
+         }
+      }
+
+   private void notifyDataAvailable()
+      {
+      final Runnable listener;
+      synchronized (deliveryLock)
+         {
+         listener = dataAvailableListener;
+         }
+      if (listener != null)
+         {
+         listener.run();
+         }
+      }
+
+   /** Hands each flushed write to the simulated device. */
+   private final class LoopbackOutputStream extends ByteArrayOutputStream
+      {
+      @Override
+      public synchronized void flush()
+         {
+         if (size() > 0)
+            {
+            final byte[] bytesReceived = toByteArray();
+            reset();
+            deliver(device.handleBytesReceived(bytesReceived));
+            }
+         }
+      }
+
+   /** An input stream fed by the simulated device's replies. */
+   private static final class LoopbackInputStream extends InputStream
+      {
+      private final byte[] lock = new byte[0];
+      private byte[] buffer = new byte[256];
+      private int head = 0;
+      private int tail = 0;
+      private boolean isClosed = false;
+
+      private void append(final byte[] data)
+         {
+         synchronized (lock)
+            {
+            if (tail + data.length > buffer.length)
+               {
+               // compact, and then grow if necessary
+               final int size = tail - head;
+               final byte[] newBuffer = (size + data.length > buffer.length) ? new byte[Math.max(buffer.length * 2, size + data.length)] : buffer;
+               System.arraycopy(buffer, head, newBuffer, 0, size);
+               buffer = newBuffer;
+               head = 0;
+               tail = size;
+               }
+            System.arraycopy(data, 0, buffer, tail, data.length);
+            tail += data.length;
+            lock.notifyAll();
+            }
+         }
+
+      @Override
+      public int available()
+         {
+         synchronized (lock)
+            {
+            return tail - head;
+            }
+         }
+
+      @Override
+      public int read() throws IOException
+         {
+         synchronized (lock)
+            {
+            if (!waitForData())
+               {
+               return -1;
+               }
+            return buffer[head++] & 0xff;
+            }
+         }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException
+         {
+         if (off < 0 || len < 0 || len > b.length - off)
+            {
+            throw new IndexOutOfBoundsException();
+            }
+         if (len == 0)
+            {
+            return 0;
+            }
+         synchronized (lock)
+            {
+            if (!waitForData())
+               {
+               return -1;
+               }
+            final int numBytesToRead = Math.min(len, tail - head);
+            System.arraycopy(buffer, head, b, off, numBytesToRead);
+            head += numBytesToRead;
+            return numBytesToRead;
+            }
+         }
+
+      @Override
+      public void close()
+         {
+         synchronized (lock)
+            {
+            isClosed = true;
+            lock.notifyAll();
+            }
+         }
+
+      /**
+       * Blocks until data is available or the stream is closed, and returns <code>true</code> if data is available.
+       * Callers must hold the <code>lock</code>.
+       */
+      private boolean waitForData() throws IOException
+         {
+         while (head == tail && !isClosed)
+            {
+            try
+               {
+               lock.wait();
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               throw new IOException("Interrupted while waiting for data");
+               }
+            }
+         return head < tail;
+         }
+      }
+   }
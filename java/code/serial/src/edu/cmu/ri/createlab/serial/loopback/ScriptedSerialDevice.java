@@ -0,0 +1,123 @@
+package edu.cmu.ri.createlab.serial.loopback;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * <code>ScriptedSerialDevice</code> is a {@link SimulatedSerialDevice} which behaves like a typical CREATE Lab serial
+ * device: it echoes every command it receives and then sends a scripted response.  Responses are chosen by matching the
+ * start of the command against the prefixes registered with {@link #addResponse(byte[], byte[])}, with the longest
+ * matching prefix winning.  Commands which match no prefix get the default response, which is empty unless set with
+ * {@link #setDefaultResponse(byte[])}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class ScriptedSerialDevice implements SimulatedSerialDevice
+   {
+   private final byte[] dataSynchronizationLock = new byte[0];
+   private final Map<String, byte[]> responses = new LinkedHashMap<String, byte[]>();
+   private final byte[] startupBytes;
+   private byte[] defaultResponse = new byte[0];
+   private int maxPrefixLength = 0;
+   private boolean isEchoEnabled = true;
+   private long numberOfCommandsReceived = 0;
+
+   /** Creates a <code>ScriptedSerialDevice</code> which sends nothing upon connection. */
+   public ScriptedSerialDevice()
+      {
+      this(null);
+      }
+
+   /**
+    * Creates a <code>ScriptedSerialDevice</code> which sends the given bytes upon connection, e.g. the startup mode
+    * characters a handshake listens for.
+    */
+   public ScriptedSerialDevice(final byte[] startupBytes)
+      {
+      this.startupBytes = (startupBytes == null) ? null : startupBytes.clone();
+      }
+
+   /** Sends the given response (after the echo) for any command beginning with the given prefix. */
+   public void addResponse(final byte[] commandPrefix, final byte[] response)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         responses.put(toKey(commandPrefix, commandPrefix.length), response.clone());
+         maxPrefixLength = Math.max(maxPrefixLength, commandPrefix.length);
+         }
+      }
+
+   /** Sets the response sent (after the echo) for commands which don't match any registered prefix. */
+   public void setDefaultResponse(final byte[] response)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         defaultResponse = (response == null) ? new byte[0] : response.clone();
+         }
+      }
+
+   /** Sets whether commands are echoed back before the response.  Echo is enabled by default. */
+   public void setEchoEnabled(final boolean isEchoEnabled)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         this.isEchoEnabled = isEchoEnabled;
+         }
+      }
+
+   /** Returns the number of commands (i.e. writes) the device has received. */
+   public long getNumberOfCommandsReceived()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return numberOfCommandsReceived;
+         }
+      }
+
+   public byte[] getStartupBytes()
+      {
+      return (startupBytes == null) ? null : startupBytes.clone();
+      }
+
+   public byte[] handleBytesReceived(final byte[] bytesReceived)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         numberOfCommandsReceived++;
+
+         // find the response registered for the longest matching prefix
+         byte[] response = defaultResponse;
+         for (int prefixLength = Math.min(bytesReceived.length, maxPrefixLength); prefixLength > 0; prefixLength--)
+            {
+            final byte[] candidate = responses.get(toKey(bytesReceived, prefixLength));
+            if (candidate != null)
+               {
+               response = candidate;
+               break;
+               }
+            }
+
+         if (!isEchoEnabled)
+            {
+            return response.clone();
+            }
+
+         final byte[] reply = Arrays.copyOf(bytesReceived, bytesReceived.length + response.length);
+         System.arraycopy(response, 0, reply, bytesReceived.length, response.length);
+         return reply;
+         }
+      }
+
+   private static String toKey(final byte[] bytes, final int length)
+      {
+      final char[] chars = new char[length];
+      for (int i = 0; i < length; i++)
+         {
+         chars[i] = (char)(bytes[i] & 0xff);
+         }
+      return new String(chars);
+      }
+   }
@@ -0,0 +1,25 @@
+package edu.cmu.ri.createlab.serial.loopback;
+
+/**
+ * <p>
+ * <code>SimulatedSerialDevice</code> defines the behavior of a fake serial device connected via a
+ * {@link LoopbackSerialDeviceTransport}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface SimulatedSerialDevice
+   {
+   /**
+    * Returns the bytes which the device sends as soon as the connection is opened (for example, the startup mode
+    * characters expected by a handshake), or <code>null</code> if it sends nothing.
+    */
+   byte[] getStartupBytes();
+
+   /**
+    * Handles the bytes written (and flushed) by the host in a single write, and returns the bytes the device sends back
+    * in reply, including any echo of the command.  Returns <code>null</code> or an empty array if the device sends
+    * nothing.  This method is called from whichever thread performed the write.
+    */
+   byte[] handleBytesReceived(final byte[] bytesReceived);
+   }
@@ -2,7 +2,6 @@ package edu.cmu.ri.createlab.speech;
 
 import java.io.ByteArrayOutputStream;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import com.sun.speech.freetts.Voice;
@@ -10,7 +9,7 @@ import com.sun.speech.freetts.VoiceManager;
 import com.sun.speech.freetts.audio.AudioPlayer;
 import edu.cmu.ri.createlab.util.runtime.ShutdownHook;
 import edu.cmu.ri.createlab.util.runtime.Shutdownable;
-import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Logger;
 
 /**
@@ -27,7 +26,7 @@ public abstract class AbstractMouth implements Shutdownable
 
    private final Voice voice;
    private final Lock lock = new ReentrantLock();
-   private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory(this.getClass().getName() + ".executor"));
+   private final ExecutorService executor = SharedExecutors.newSingleThreadExecutor(this.getClass().getName() + ".executor");
 
    /** Creates an <code>AbstractMouth</code> using the {@link #DEFAULT_VOICE_NAME default voice} */
    protected AbstractMouth()
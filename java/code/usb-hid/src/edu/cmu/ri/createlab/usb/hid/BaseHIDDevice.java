@@ -1,5 +1,11 @@
 package edu.cmu.ri.createlab.usb.hid;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * <p>
  * <code>BaseHIDDevice</code> provides base functionality for HID devices.
@@ -7,13 +13,21 @@ package edu.cmu.ri.createlab.usb.hid;
  *
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public abstract class BaseHIDDevice implements HIDDevice
+public abstract class BaseHIDDevice implements ExtendedHIDDevice
    {
-   private static final int MAX_COMMAND_ID = 255;
+   private static final long POLLING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
    private final HIDDeviceDescriptor hidDeviceDescriptor;
-   private byte commandId = 0;
-   private final byte[] dataSynchronizationLock = new byte[0];
+
+   /** Only the low byte is used, so command IDs wrap from 255 to 0.  Atomic so that incrementing it never blocks. */
+   private final AtomicInteger commandId = new AtomicInteger(0);
+
+   /**
+    * Scratch buffer which {@link CreateLabHIDCommandStrategy} reads responses into.  Commands for a device are normally
+    * executed one at a time by its queue, so the buffer is almost never contended, but it's checked out atomically so
+    * that concurrent commands each get a buffer of their own.
+    */
+   private final AtomicReference<ByteBuffer> commandReadBuffer = new AtomicReference<ByteBuffer>();
 
    protected BaseHIDDevice(final HIDDeviceDescriptor hidDeviceDescriptor)
       {
@@ -35,16 +49,63 @@ public abstract class BaseHIDDevice implements HIDDevice
       return hidDeviceDescriptor.getProductId();
       }
 
-   protected final byte getCommandId()
+   /**
+    * Reads by delegating to {@link #read()} and copying the result into the given buffer.  Subclasses which can read
+    * directly into a reusable buffer should override this method to avoid the allocation done by {@link #read()}.
+    */
+   public int read(final ByteBuffer buffer) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
       {
-      synchronized (dataSynchronizationLock)
+      final byte[] data = read();
+      if (data == null)
          {
-         commandId++;
-         if (commandId > MAX_COMMAND_ID)
+         return 0;
+         }
+      buffer.put(data);
+      return data.length;
+      }
+
+   /**
+    * Waits for data by repeatedly calling {@link #read(ByteBuffer)}, parking the thread briefly between attempts.
+    * Subclasses which have access to a native blocking read with a timeout should override this method.
+    */
+   public int read(final ByteBuffer buffer, final int timeoutMillis) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      final long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+      while (true)
+         {
+         final int numBytesRead = read(buffer);
+         if (numBytesRead > 0 || System.nanoTime() >= endTime)
             {
-            commandId = 0;
+            return numBytesRead;
             }
-         return commandId;
+         LockSupport.parkNanos(POLLING_INTERVAL_NANOS);
          }
       }
+
+   /**
+    * Checks out this device's (cleared) scratch buffer for reading command responses, allocating a new one if it's
+    * already checked out or is smaller than the given capacity.  The buffer should be returned with
+    * {@link #releaseCommandReadBuffer(ByteBuffer)}.
+    */
+   final ByteBuffer acquireCommandReadBuffer(final int capacity)
+      {
+      final ByteBuffer buffer = commandReadBuffer.getAndSet(null);
+      if (buffer == null || buffer.capacity() < capacity)
+         {
+         return ByteBuffer.allocate(capacity);
+         }
+      buffer.clear();
+      return buffer;
+      }
+
+   /** Returns a buffer obtained from {@link #acquireCommandReadBuffer(int)}, so that the next command can reuse it. */
+   final void releaseCommandReadBuffer(final ByteBuffer buffer)
+      {
+      commandReadBuffer.set(buffer);
+      }
+
+   protected final byte getCommandId()
+      {
+      return (byte)commandId.incrementAndGet();
+      }
    }
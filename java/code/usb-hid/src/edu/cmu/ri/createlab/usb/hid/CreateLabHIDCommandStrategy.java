@@ -1,5 +1,9 @@
 package edu.cmu.ri.createlab.usb.hid;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.util.ByteUtils;
 import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
 import org.apache.log4j.Level;
@@ -16,14 +20,120 @@ public abstract class CreateLabHIDCommandStrategy implements CommandStrategy<HID
    private static final Logger LOG = Logger.getLogger(CreateLabHIDCommandStrategy.class);
    private static final int TIMEOUT_IN_NANOSECONDS = 1000000000;
 
+   /**
+    * Returns a (cleared) buffer to read responses from the given device into.  A {@link BaseHIDDevice} lends out its
+    * own scratch buffer, which is reused by every command for that device no matter which thread executes it (each
+    * command may run on a different thread, e.g. on a new virtual thread).  Other devices get a new buffer.
+    */
+   private static ByteBuffer acquireReadBuffer(final HIDDevice hidDevice, final int capacity)
+      {
+      if (hidDevice instanceof BaseHIDDevice)
+         {
+         return ((BaseHIDDevice)hidDevice).acquireCommandReadBuffer(capacity);
+         }
+      return ByteBuffer.allocate(capacity);
+      }
+
+   private static void releaseReadBuffer(final HIDDevice hidDevice, final ByteBuffer readBuffer)
+      {
+      if (hidDevice instanceof BaseHIDDevice)
+         {
+         ((BaseHIDDevice)hidDevice).releaseCommandReadBuffer(readBuffer);
+         }
+      }
+
+   /**
+    * Reads a single input report into the given buffer, waiting up to <code>timeoutMillis</code> for it if the device
+    * is an {@link ExtendedHIDDevice}.  Otherwise, it falls back to a single (non-waiting) call to
+    * {@link HIDDevice#read()}, copying as much of the report as fits into the buffer.  Returns the number of bytes read.
+    */
+   private static int readReport(final HIDDevice hidDevice, final ByteBuffer buffer, final int timeoutMillis) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      if (hidDevice instanceof ExtendedHIDDevice)
+         {
+         return ((ExtendedHIDDevice)hidDevice).read(buffer, timeoutMillis);
+         }
+
+      final byte[] data = hidDevice.read();
+      if (data == null)
+         {
+         return 0;
+         }
+      final int numBytesRead = Math.min(data.length, buffer.remaining());
+      buffer.put(data, 0, numBytesRead);
+      return numBytesRead;
+      }
+
    @Override
    public final HIDCommandResponse execute(final HIDDevice hidDevice) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
       {
       LOG.trace("CreateLabHIDCommandStrategy.execute()");
 
-      // get the command to be written
-      final byte[] command = getCommand();
+      return writeCommandAndReadResponse(hidDevice, getCommand(), getSizeOfExpectedResponse());
+      }
+
+   /**
+    * Executes the given strategies as a single batch by concatenating their commands into a single output report and
+    * then splitting the single input report received in response into one {@link HIDCommandResponse} per strategy.
+    * The responses are assumed to be concatenated in the same order as the commands, each consisting of exactly
+    * {@link #getSizeOfExpectedResponse()} bytes.  The given <code>commands</code> must be the values previously
+    * returned by each strategy's {@link #getCommand()} method, and must, in total, fit within a single output report.
+    * The returned list contains the responses in the same order as the given strategies.
+    */
+   static List<HIDCommandResponse> executeBatch(final HIDDevice hidDevice,
+                                                final List<? extends CreateLabHIDCommandStrategy> strategies,
+                                                final List<byte[]> commands) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      if (LOG.isTraceEnabled())
+         {
+         LOG.trace("CreateLabHIDCommandStrategy.executeBatch(): executing a batch of [" + strategies.size() + "] commands");
+         }
+
+      // concatenate the commands and sum the sizes of the expected responses
+      int totalCommandLength = 0;
+      int totalSizeOfExpectedResponse = 0;
+      for (int i = 0; i < strategies.size(); i++)
+         {
+         totalCommandLength += commands.get(i).length;
+         totalSizeOfExpectedResponse += strategies.get(i).getSizeOfExpectedResponse();
+         }
+      final byte[] batchedCommand = new byte[totalCommandLength];
+      int position = 0;
+      for (final byte[] command : commands)
+         {
+         System.arraycopy(command, 0, batchedCommand, position, command.length);
+         position += command.length;
+         }
+
+      final HIDCommandResponse batchedResponse = writeCommandAndReadResponse(hidDevice, batchedCommand, totalSizeOfExpectedResponse);
+
+      // now split the response, being careful about a response which is shorter than expected
+      final byte[] data = batchedResponse.getData();
+      final int dataLength = (data == null) ? 0 : data.length;
+      final List<HIDCommandResponse> responses = new ArrayList<HIDCommandResponse>(strategies.size());
+      position = 0;
+      for (final CreateLabHIDCommandStrategy strategy : strategies)
+         {
+         final int sizeOfExpectedResponse = strategy.getSizeOfExpectedResponse();
+         final int numBytesToCopy = Math.max(0, Math.min(sizeOfExpectedResponse, dataLength - position));
+         final byte[] responseData = new byte[numBytesToCopy];
+         if (numBytesToCopy > 0)
+            {
+            System.arraycopy(data, position, responseData, 0, numBytesToCopy);
+            }
+         position += sizeOfExpectedResponse;
+
+         final boolean wasReadSuccessful = batchedResponse.wasReadSuccessful() && numBytesToCopy == sizeOfExpectedResponse;
+         responses.add(new HIDCommandResponse(batchedResponse.wasWriteSuccessful(), wasReadSuccessful, responseData, false));
+         }
+
+      return responses;
+      }
 
+   private static HIDCommandResponse writeCommandAndReadResponse(final HIDDevice hidDevice,
+                                                                 final byte[] command,
+                                                                 final int sizeOfExpectedResponse) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
       // write the command
       final HIDWriteStatus writeStatus = hidDevice.write(command);
 
@@ -45,72 +155,98 @@ public abstract class CreateLabHIDCommandStrategy implements CommandStrategy<HID
       else
          {
          // now read until we get the response with the matching command ID, or until we timeout
+         final ByteBuffer readBuffer = acquireReadBuffer(hidDevice, hidDevice.getHidDeviceDescriptor().getInputReportByteLength());
          final long startTime = System.nanoTime();
          final long endTime = startTime + TIMEOUT_IN_NANOSECONDS;
          int numReads = 0;
 
-         do
+         try
             {
-            final byte[] data = hidDevice.read();
-            numReads++;
-
-            // check the data (the length must be at least one or two since the first byte is the report ID (if present)
-            // and the last is the command ID)
-            final int numberOfIgnoredBytes = (hidDevice.isReportIDIncludedInReadData() ? 2 : 1);
-            if (data == null || data.length < numberOfIgnoredBytes)
+            do
                {
-               LOG.trace("CreateLabHIDCommandStrategy.execute(): data read is null or empty, ignoring read");
-               continue;
-               }
+               // block until a report arrives or we time out, rather than spinning (if the device is an ExtendedHIDDevice)
+               final int remainingMillis = (int)Math.max(1, TimeUnit.NANOSECONDS.toMillis(endTime - System.nanoTime()));
+               readBuffer.clear();
+               final int numBytesRead = readReport(hidDevice, readBuffer, remainingMillis);
+               numReads++;
+
+               // check the data (the length must be at least one or two since the first byte is the report ID (if present)
+               // and the last is the command ID)
+               final int numberOfIgnoredBytes = (hidDevice.isReportIDIncludedInReadData() ? 2 : 1);
+               if (numBytesRead < numberOfIgnoredBytes)
+                  {
+                  LOG.trace("CreateLabHIDCommandStrategy.execute(): no data read, ignoring read");
+                  continue;
+                  }
 
-            // the last element of the read data is the command ID
-            final int returnedCommandId = ByteUtils.unsignedByteToInt(data[data.length - 1]);
+               // the last element of the read data is the command ID
+               final int returnedCommandId = ByteUtils.unsignedByteToInt(readBuffer.get(numBytesRead - 1));
 
-            // see if we found our desired command ID
-            if (writeStatus.getCommandId() == returnedCommandId)
-               {
-               // we found our response!
-               readWasSuccessful = true;
-
-               // the returned data array from an HID device is a fixed size, but a command will probably only care about
-               // a subset of the bytes.  Do a copy of the bytes we care about, being careful about AIOOBEs.  We subtract
-               // numberOfIgnoredBytes from the data.length here because we don't care about the report ID (if present)
-               // or the command ID.
-               final int numBytesToCopy = Math.min(getSizeOfExpectedResponse(), data.length - numberOfIgnoredBytes);
-               if (LOG.isEnabledFor(Level.WARN))
+               // see if we found our desired command ID
+               if (writeStatus.getCommandId() == returnedCommandId)
                   {
-                  if (numBytesToCopy != getSizeOfExpectedResponse())
+                  // we found our response!
+                  readWasSuccessful = true;
+
+                  // the returned data array from an HID device is a fixed size, but a command will probably only care about
+                  // a subset of the bytes.  Do a copy of the bytes we care about, being careful about AIOOBEs.  We subtract
+                  // numberOfIgnoredBytes from the numBytesRead here because we don't care about the report ID (if present)
+                  // or the command ID.
+                  final int numBytesToCopy = Math.min(sizeOfExpectedResponse, numBytesRead - numberOfIgnoredBytes);
+                  if (LOG.isEnabledFor(Level.WARN))
                      {
-                     LOG.warn("CreateLabHIDCommandStrategy.execute(): size of expected response [" + getSizeOfExpectedResponse() + "] does not match num bytes we're actually allowed to copy [" + numBytesToCopy + "]");
+                     if (numBytesToCopy != sizeOfExpectedResponse)
+                        {
+                        LOG.warn("CreateLabHIDCommandStrategy.execute(): size of expected response [" + sizeOfExpectedResponse + "] does not match num bytes we're actually allowed to copy [" + numBytesToCopy + "]");
+                        }
                      }
-                  }
-               dataRead = new byte[numBytesToCopy];
-               final int startingCopyPosition = (hidDevice.isReportIDIncludedInReadData() ? 1 : 0); // start copying at array position 1 instead of 0 to skip the report ID, if present
-               System.arraycopy(data, startingCopyPosition, dataRead, 0, numBytesToCopy);
+                  dataRead = new byte[numBytesToCopy];
+                  final int startingCopyPosition = (hidDevice.isReportIDIncludedInReadData() ? 1 : 0); // start copying at array position 1 instead of 0 to skip the report ID, if present
+                  readBuffer.position(startingCopyPosition);
+                  readBuffer.get(dataRead);
 
-               if (LOG.isTraceEnabled())
-                  {
-                  final long currentTime = System.nanoTime();
-                  final double elapsedTimeInMillis = (double)(currentTime - startTime) / 1000000.0;
-                  LOG.trace("CreateLabHIDCommandStrategy.execute(): read successful -- it took [" + numReads + "] reads and [" + elapsedTimeInMillis + "] ms to find the response to the write command.");
+                  if (LOG.isTraceEnabled())
+                     {
+                     final long currentTime = System.nanoTime();
+                     final double elapsedTimeInMillis = (double)(currentTime - startTime) / 1000000.0;
+                     LOG.trace("CreateLabHIDCommandStrategy.execute(): read successful -- it took [" + numReads + "] reads and [" + elapsedTimeInMillis + "] ms to find the response to the write command.");
+                     }
                   }
-               }
-            else
-               {
-               if (LOG.isEnabledFor(Level.ERROR))
+               else
                   {
-                  LOG.error("CreateLabHIDCommandStrategy.execute(): unexpected command ID in the data read.  Found [" + returnedCommandId + "], was expecting [" + writeStatus.getCommandId() + "]");
+                  if (LOG.isEnabledFor(Level.ERROR))
+                     {
+                     LOG.error("CreateLabHIDCommandStrategy.execute(): unexpected command ID in the data read.  Found [" + returnedCommandId + "], was expecting [" + writeStatus.getCommandId() + "]");
+                     }
                   }
                }
+            while (!readWasSuccessful && System.nanoTime() < endTime);
+            }
+         finally
+            {
+            releaseReadBuffer(hidDevice, readBuffer);
             }
-         while (!readWasSuccessful && System.nanoTime() < endTime);
          }
 
-      return new HIDCommandResponse(writeStatus.wasSuccessful(), readWasSuccessful, dataRead);
+      // the data read was freshly allocated above, so the response can take ownership of it rather than copying it
+      return new HIDCommandResponse(writeStatus.wasSuccessful(), readWasSuccessful, dataRead, false);
       }
 
    protected abstract byte[] getCommand();
 
+   /**
+    * Returns whether this command may be packed together with other batchable commands into a single output report when
+    * batching is enabled on the {@link HIDCommandExecutionQueue}.  This should return <code>true</code> only if the
+    * device firmware parses consecutive commands from a single report and returns their responses concatenated, in the
+    * same order, in a single input report.  Returns <code>false</code> by default.
+    *
+    * @see HIDCommandExecutionQueue#setBatchingEnabled(boolean)
+    */
+   protected boolean isBatchable()
+      {
+      return false;
+      }
+
    /** Returns the number of bytes of the expected response. */
    protected abstract int getSizeOfExpectedResponse();
    }
@@ -0,0 +1,38 @@
+package edu.cmu.ri.createlab.usb.hid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * <code>ExtendedHIDDevice</code> is an {@link HIDDevice} which can read input reports into a caller-supplied buffer,
+ * optionally waiting for a report to arrive.  {@link CreateLabHIDCommandStrategy} uses these methods when the device
+ * it's given has them, and otherwise falls back to repeatedly calling {@link #read()}, so implementations of the plain
+ * {@link HIDDevice} interface continue to work unchanged.  {@link BaseHIDDevice} implements this interface.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface ExtendedHIDDevice extends HIDDevice
+   {
+   /**
+    * Reads a single input report from the device into the given buffer, starting at the buffer's current position, and
+    * returns the number of bytes read.  The buffer's position is advanced by the number of bytes read.  Returns zero if
+    * no data was read (including the case where a read is attempted before a connection has been established).  As
+    * with {@link #read()}, the report ID is included in the data only if {@link #isReportIDIncludedInReadData()} returns
+    * <code>true</code>, and an exception is thrown if the connection had been established but the device has since
+    * failed or been unplugged.  Unlike {@link #read()}, implementations should avoid allocating memory in this method,
+    * so callers which poll frequently can reuse the same buffer for every read.
+    *
+    * @throws java.nio.BufferOverflowException if the buffer doesn't have room for an entire input report
+    */
+   int read(final ByteBuffer buffer) throws HIDDeviceNotConnectedException, HIDDeviceFailureException;
+
+   /**
+    * Same as {@link #read(ByteBuffer)}, except that this method waits up to <code>timeoutMillis</code> milliseconds
+    * for an input report to arrive.  Implementations should block (rather than busy wait) while waiting.  Returns zero
+    * if no data was read before the timeout expired.
+    *
+    * @throws java.nio.BufferOverflowException if the buffer doesn't have room for an entire input report
+    */
+   int read(final ByteBuffer buffer, final int timeoutMillis) throws HIDDeviceNotConnectedException, HIDDeviceFailureException;
+   }
@@ -1,16 +1,32 @@
 package edu.cmu.ri.createlab.usb.hid;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.AsynchronousCommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CoalescableCommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.CommandCoalescer;
+import edu.cmu.ri.createlab.util.commandexecution.CommandCompletionHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionListener;
+import edu.cmu.ri.createlab.util.commandexecution.CommandFutureTask;
+import edu.cmu.ri.createlab.util.commandexecution.CommandQueueOverflowPolicy;
 import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.InstrumentedCommand;
 import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.util.thread.SerialExecutor;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Logger;
 
 /**
@@ -20,14 +36,19 @@ import org.apache.log4j.Logger;
  *
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class HIDCommandExecutionQueue implements CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse>
+public final class HIDCommandExecutionQueue implements AsynchronousCommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse>
    {
    private static final Logger LOG = Logger.getLogger(HIDCommandExecutionQueue.class);
 
    private final HIDDevice hidDevice;
-   private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("HIDCommandExecutionQueue.executor"));
+   private final CommandCoalescer<HIDDevice, HIDCommandResponse> commandCoalescer = new CommandCoalescer<HIDDevice, HIDCommandResponse>();
+   private final SerialExecutor executor;
+   private final ExecutorService dedicatedWorker;
    private final long taskExecutionTimeout;
    private final TimeUnit taskExecutionTimeoutTimeUnit;
+   private final int maxQueueDepth;
+   private volatile boolean isBatchingEnabled = false;
+   private volatile CommandExecutionListener commandExecutionListener = null;
 
    /**
     * Creates a <code>HIDCommandExecutionQueue</code> for the given {@link HIDDevice} with no task execution timeout
@@ -43,14 +64,102 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
     * specified by the <code>taskExecutionTimeout</code> and <code>taskExecutionTimeoutTimeUnit</code> parameters.
     */
    public HIDCommandExecutionQueue(final HIDDevice hidDevice, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit)
+      {
+      this(hidDevice, taskExecutionTimeout, taskExecutionTimeoutTimeUnit, Integer.MAX_VALUE, CommandQueueOverflowPolicy.REJECT);
+      }
+
+   /**
+    * Creates a <code>HIDCommandExecutionQueue</code> for the given {@link HIDDevice} with a task execution timeout
+    * specified by the <code>taskExecutionTimeout</code> and <code>taskExecutionTimeoutTimeUnit</code> parameters.  At
+    * most <code>maxQueueDepth</code> commands may be waiting for execution at any time; what happens when a command is
+    * added to a full queue is determined by the given {@link CommandQueueOverflowPolicy}.
+    *
+    * @throws IllegalArgumentException if the <code>hidDevice</code> or <code>overflowPolicy</code> is <code>null</code>, or if <code>maxQueueDepth</code> is not positive
+    */
+   public HIDCommandExecutionQueue(final HIDDevice hidDevice, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit, final int maxQueueDepth, final CommandQueueOverflowPolicy overflowPolicy)
+      {
+      this(hidDevice, taskExecutionTimeout, taskExecutionTimeoutTimeUnit, maxQueueDepth, overflowPolicy, null);
+      }
+
+   /**
+    * Creates a <code>HIDCommandExecutionQueue</code> for the given {@link HIDDevice} which executes its commands on
+    * the given worker pool rather than on a thread of its own, so that many queues can share a few threads.  Commands
+    * are still executed one at a time, in order.  A <code>null</code> worker pool gives the queue a dedicated thread,
+    * unless {@link SharedExecutors} are enabled, in which case the shared worker pool is used.  The worker pool is not
+    * shut down when the queue is.
+    *
+    * @throws IllegalArgumentException if the <code>hidDevice</code> or <code>overflowPolicy</code> is <code>null</code>, or if <code>maxQueueDepth</code> is not positive
+    * @see HIDConnectionPool
+    */
+   public HIDCommandExecutionQueue(final HIDDevice hidDevice, final long taskExecutionTimeout, final TimeUnit taskExecutionTimeoutTimeUnit, final int maxQueueDepth, final CommandQueueOverflowPolicy overflowPolicy, final Executor workerPool)
       {
       if (hidDevice == null)
          {
          throw new IllegalArgumentException("The HIDDevice cannot be null");
          }
+      if (overflowPolicy == null)
+         {
+         throw new IllegalArgumentException("The CommandQueueOverflowPolicy cannot be null");
+         }
+      if (maxQueueDepth <= 0)
+         {
+         throw new IllegalArgumentException("The max queue depth [" + maxQueueDepth + "] must be positive");
+         }
       this.hidDevice = hidDevice;
       this.taskExecutionTimeout = taskExecutionTimeout;
       this.taskExecutionTimeoutTimeUnit = taskExecutionTimeoutTimeUnit;
+      this.maxQueueDepth = maxQueueDepth;
+
+      final BlockingQueue<Runnable> workQueue = (maxQueueDepth == Integer.MAX_VALUE) ? new LinkedBlockingQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(maxQueueDepth);
+      this.dedicatedWorker = (workerPool == null && !SharedExecutors.isEnabled()) ? Executors.newSingleThreadExecutor(new DaemonThreadFactory("HIDCommandExecutionQueue.executor")) : null;
+      this.executor = new SerialExecutor((workerPool != null) ? workerPool : ((dedicatedWorker != null) ? dedicatedWorker : SharedExecutors.getWorkerPool()),
+                                         workQueue,
+                                         overflowPolicy.getRejectedTaskHandler());
+      }
+
+   /**
+    * Returns the number of commands currently waiting for execution, not including the one being executed (if any).
+    * Producers may use this to shed load before the queue fills up.
+    */
+   public int getQueueDepth()
+      {
+      return executor.getQueue().size();
+      }
+
+   /** Returns the maximum number of commands which may be waiting for execution at any one time. */
+   public int getMaxQueueDepth()
+      {
+      return maxQueueDepth;
+      }
+
+   /**
+    * Enables or disables command batching.  When enabled, consecutive waiting commands whose strategies are
+    * {@link CreateLabHIDCommandStrategy batchable} are packed into a single output report (as many as will fit in both
+    * the output and input reports), and the single response is split back out to each command.  Batching requires
+    * firmware support (see {@link CreateLabHIDCommandStrategy#isBatchable()}), so it is disabled by default.  Only
+    * commands submitted while batching is enabled are eligible to be batched.
+    */
+   public void setBatchingEnabled(final boolean isBatchingEnabled)
+      {
+      this.isBatchingEnabled = isBatchingEnabled;
+      }
+
+   /** Returns whether command batching is enabled. */
+   public boolean isBatchingEnabled()
+      {
+      return isBatchingEnabled;
+      }
+
+   /**
+    * Sets the {@link CommandExecutionListener} to be notified about the execution of commands submitted from now on,
+    * e.g. a {@link edu.cmu.ri.createlab.util.commandexecution.CommandExecutionMetrics}.  Pass <code>null</code> to stop
+    * collecting metrics.  When no listener is set, commands are not instrumented at all.  Commands which ride along in
+    * another command's batch are reported as having waited in the queue until the whole batch was executed.
+    */
+   public void setCommandExecutionListener(final CommandExecutionListener commandExecutionListener)
+      {
+      this.commandExecutionListener = commandExecutionListener;
+      commandCoalescer.setCommandExecutionListener(commandExecutionListener);
       }
 
    /**
@@ -74,17 +183,11 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
       {
       LOG.trace("HIDCommandExecutionQueue.execute()");
 
-      // create the command
-      final HIDCommand command = new HIDCommand(commandStrategy, hidDevice);
-
-      // create the future task
-      final FutureTask<HIDCommandResponse> task = new FutureTask<HIDCommandResponse>(command);
-
       try
          {
-         // execute the task
-         LOG.trace("HIDCommandExecutionQueue.execute():   Calling execute()");
-         executor.execute(task);
+         // submit the task
+         LOG.trace("HIDCommandExecutionQueue.execute():   Calling submit()");
+         final Future<HIDCommandResponse> task = submit(commandStrategy);
 
          // block and wait for the return value
          if (timeoutTimeUnit == null)
@@ -109,6 +212,10 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
          {
          LOG.error("HIDCommandExecutionQueue.execute():InterruptedException while trying to get the HIDCommandResponse", e);
          }
+      catch (CancellationException e)
+         {
+         LOG.error("HIDCommandExecutionQueue.execute():CancellationException while trying to get the HIDCommandResponse", e);
+         }
       catch (ExecutionException e)
          {
          final Throwable cause = e.getCause();
@@ -131,12 +238,72 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
       catch (TimeoutException e)
          {
          LOG.error("HIDCommandExecutionQueue.execute():TimeoutException while trying to get the HIDCommandResponse", e);
+         final CommandExecutionListener listener = commandExecutionListener;
+         if (listener != null)
+            {
+            listener.handleCommandTimedOut(commandStrategy.getClass());
+            }
          }
 
       LOG.trace("HIDCommandExecutionQueue.execute():   Returning null response");
       return null;
       }
 
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link HIDCommandResponse}.  Commands are executed in the order received.
+    *
+    * @throws RejectedExecutionException if the queue has been shut down
+    */
+   @Override
+   public Future<HIDCommandResponse> submit(final CommandStrategy<HIDDevice, HIDCommandResponse> commandStrategy)
+      {
+      return submit(commandStrategy, null);
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link HIDCommandResponse}.  The given {@link CommandCompletionHandler} (if non-<code>null</code>) is notified on
+    * the queue's execution thread once the command completes.  Commands are executed in the order received, except that a
+    * {@link CoalescableCommandStrategy} replaces any still-waiting command having the same coalescing key.  If the
+    * queue is full, the behavior depends on the {@link CommandQueueOverflowPolicy} given to the constructor.
+    *
+    * @throws RejectedExecutionException if the queue has been shut down, or if the queue is full and the overflow policy rejects the command
+    */
+   @Override
+   public Future<HIDCommandResponse> submit(final CommandStrategy<HIDDevice, HIDCommandResponse> commandStrategy,
+                                            final CommandCompletionHandler<HIDCommandResponse> completionHandler)
+      {
+      LOG.trace("HIDCommandExecutionQueue.submit()");
+
+      if (CommandCoalescer.isCoalescable(commandStrategy))
+         {
+         return commandCoalescer.submit(commandStrategy, hidDevice, completionHandler, executor);
+         }
+
+      final CommandExecutionListener listener = commandExecutionListener;
+      final CommandFutureTask<HIDCommandResponse> task;
+      if (isBatchingEnabled && commandStrategy instanceof CreateLabHIDCommandStrategy && ((CreateLabHIDCommandStrategy)commandStrategy).isBatchable())
+         {
+         final BatchableCommand command = new BatchableCommand((CreateLabHIDCommandStrategy)commandStrategy);
+         task = new BatchableTask(command, instrument(command, commandStrategy, listener), completionHandler);
+         }
+      else
+         {
+         task = new CommandFutureTask<HIDCommandResponse>(instrument(new HIDCommand(commandStrategy, hidDevice), commandStrategy, listener), completionHandler);
+         }
+      executor.execute(task);
+      return task;
+      }
+
+   /** Wraps the given command in an {@link InstrumentedCommand} if the given listener is non-<code>null</code>. */
+   private static Callable<HIDCommandResponse> instrument(final Callable<HIDCommandResponse> command,
+                                                          final CommandStrategy<HIDDevice, HIDCommandResponse> commandStrategy,
+                                                          final CommandExecutionListener listener)
+      {
+      return (listener == null) ? command : new InstrumentedCommand<HIDCommandResponse>(command, commandStrategy.getClass(), listener);
+      }
+
    /**
     * Adds the given {@link CommandStrategy} to the queue, blocks until its execution is complete or times out
     * (depending on which constructor was used to create the instance), and then returns only the status of the result.
@@ -169,8 +336,8 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
       }
 
    /**
-    * Shuts down the command queue and then closes the HID device.  Commands in the queue are allowed to execute before
-    * shutdown, but no new commands will be accepted.
+    * Shuts down the command queue and then closes the HID device.  Commands still waiting in the queue are cancelled,
+    * so their futures and completion handlers are notified, and no new commands will be accepted.
     */
    @Override
    public void shutdown()
@@ -181,6 +348,8 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
          LOG.debug("HIDCommandExecutionQueue.shutdown(): Shutting down the HID device command execution queue");
          final List<Runnable> unexecutedTasks = executor.shutdownNow();
          LOG.debug("HIDCommandExecutionQueue.shutdown(): Unexecuted tasks: " + (unexecutedTasks == null ? 0 : unexecutedTasks.size()));
+         final int numCancelled = CommandFutureTask.cancelAll(unexecutedTasks);
+         LOG.debug("HIDCommandExecutionQueue.shutdown(): Cancelled [" + numCancelled + "] unexecuted tasks");
          LOG.debug("HIDCommandExecutionQueue.shutdown(): Waiting for the HID device command execution queue to shutdown.");
          executor.awaitTermination(10, TimeUnit.SECONDS);
          LOG.debug("HIDCommandExecutionQueue.shutdown(): HID device command execution queue successfully shutdown");
@@ -189,6 +358,10 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
          {
          LOG.error("HIDCommandExecutionQueue.shutdown(): Exception while trying to shut down the HID device command execution queue", e);
          }
+      if (dedicatedWorker != null)
+         {
+         dedicatedWorker.shutdown();
+         }
 
       // disconnect from the HID device
       try
@@ -208,4 +381,121 @@ public final class HIDCommandExecutionQueue implements CommandExecutionQueue<Com
          LOG.error("HIDCommandExecutionQueue.shutdown(): Exception while trying to disconnect from the HID device", e);
          }
       }
+
+   private final class BatchableTask extends CommandFutureTask<HIDCommandResponse>
+      {
+      private final BatchableCommand command;
+
+      private BatchableTask(final BatchableCommand command, final Callable<HIDCommandResponse> callable, final CommandCompletionHandler<HIDCommandResponse> completionHandler)
+         {
+         super(callable, completionHandler);
+         this.command = command;
+         }
+      }
+
+   /**
+    * A command which, when executed, removes as many consecutive {@link BatchableTask}s from the head of the work queue
+    * as will fit in a single report, executes them all in one batch, and then runs each removed task so that it
+    * completes with its share of the batched response.  This is only ever called by the executor, which runs one
+    * task at a time.
+    */
+   private final class BatchableCommand implements Callable<HIDCommandResponse>
+      {
+      private final CreateLabHIDCommandStrategy commandStrategy;
+      private boolean wasExecutedInBatch = false;
+      private HIDCommandResponse batchedResponse = null;
+      private Exception batchedFailure = null;
+
+      private BatchableCommand(final CreateLabHIDCommandStrategy commandStrategy)
+         {
+         this.commandStrategy = commandStrategy;
+         }
+
+      public HIDCommandResponse call() throws Exception
+         {
+         if (wasExecutedInBatch)
+            {
+            if (batchedFailure != null)
+               {
+               throw batchedFailure;
+               }
+            return batchedResponse;
+            }
+
+         // the report ID and command ID each take up one byte of both the output and input reports
+         final HIDDeviceDescriptor hidDeviceDescriptor = hidDevice.getHidDeviceDescriptor();
+         final int maxCommandLength = hidDeviceDescriptor.getOutputReportByteLength() - 2;
+         final int maxResponseLength = hidDeviceDescriptor.getInputReportByteLength() - 2;
+
+         final List<CreateLabHIDCommandStrategy> strategies = new ArrayList<CreateLabHIDCommandStrategy>();
+         final List<byte[]> commands = new ArrayList<byte[]>();
+         final List<BatchableTask> followers = new ArrayList<BatchableTask>();
+
+         final byte[] command = commandStrategy.getCommand();
+         strategies.add(commandStrategy);
+         commands.add(command);
+         int commandLength = command.length;
+         int responseLength = commandStrategy.getSizeOfExpectedResponse();
+
+         final BlockingQueue<Runnable> workQueue = executor.getQueue();
+         Runnable next;
+         while ((next = workQueue.peek()) instanceof BatchableTask)
+            {
+            final BatchableTask task = (BatchableTask)next;
+            final byte[] nextCommand = task.command.commandStrategy.getCommand();
+            final int nextResponseLength = task.command.commandStrategy.getSizeOfExpectedResponse();
+            if (commandLength + nextCommand.length > maxCommandLength || responseLength + nextResponseLength > maxResponseLength)
+               {
+               break;
+               }
+
+            // the remove will fail if the task was concurrently dropped by the overflow policy
+            if (workQueue.remove(task) && !task.isCancelled())
+               {
+               strategies.add(task.command.commandStrategy);
+               commands.add(nextCommand);
+               followers.add(task);
+               commandLength += nextCommand.length;
+               responseLength += nextResponseLength;
+               }
+            }
+
+         if (followers.isEmpty())
+            {
+            return commandStrategy.execute(hidDevice);
+            }
+
+         if (LOG.isTraceEnabled())
+            {
+            LOG.trace("HIDCommandExecutionQueue$BatchableCommand.call(): batching [" + strategies.size() + "] commands into a single report");
+            }
+
+         List<HIDCommandResponse> responses = null;
+         Exception failure = null;
+         try
+            {
+            responses = CreateLabHIDCommandStrategy.executeBatch(hidDevice, strategies, commands);
+            }
+         catch (Exception e)
+            {
+            failure = e;
+            }
+
+         // complete the followers, which have already been removed from the queue, so we must run them ourselves
+         for (int i = 0; i < followers.size(); i++)
+            {
+            final BatchableTask follower = followers.get(i);
+            follower.command.wasExecutedInBatch = true;
+            follower.command.batchedFailure = failure;
+            follower.command.batchedResponse = (responses == null) ? null : responses.get(i + 1);
+            follower.run();
+            }
+
+         if (failure != null)
+            {
+            throw failure;
+            }
+         return responses.get(0);
+         }
+      }
    }
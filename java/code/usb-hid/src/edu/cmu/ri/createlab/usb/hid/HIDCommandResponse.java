@@ -20,10 +20,19 @@ public final class HIDCommandResponse implements CommandResponse
     * array after calling this constructor without fear of mutating this object instance.
     */
    public HIDCommandResponse(final boolean writeSuccess, final boolean readSuccess, final byte[] data)
+      {
+      this(writeSuccess, readSuccess, data, true);
+      }
+
+   /**
+    * Same as the public constructor, except that if <code>copyData</code> is <code>false</code> the response takes
+    * ownership of the given array instead of copying it, so the caller must not modify the array afterwards.
+    */
+   HIDCommandResponse(final boolean writeSuccess, final boolean readSuccess, final byte[] data, final boolean copyData)
       {
       this.writeSuccess = writeSuccess;
       this.readSuccess = readSuccess;
-      this.data = (data == null) ? null : data.clone();
+      this.data = (data == null || !copyData) ? data : data.clone();
       }
 
    /**
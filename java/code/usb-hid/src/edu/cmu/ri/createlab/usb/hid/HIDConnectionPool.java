@@ -0,0 +1,391 @@
+package edu.cmu.ri.createlab.usb.hid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.commandexecution.CommandQueueOverflowPolicy;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>HIDConnectionPool</code> connects to every available device matching an {@link HIDDeviceDescriptor} in
+ * parallel, and returns a ready {@link HIDCommandExecutionQueue} for each one.  Rather than each queue having a thread
+ * of its own, all the queues created by a pool execute their commands on a shared worker pool (each queue still
+ * executes its own commands one at a time, in order).  Bringing up many identical devices thus takes roughly as long as
+ * connecting to the slowest one, and costs only as many threads as there are queues actually executing a command.
+ * </p>
+ * <p>
+ * By default, the queues use the unbounded {@link SharedExecutors#getWorkerPool() shared worker pool}.  A pool with a
+ * fixed number of worker threads may be requested instead, but beware that a command can hold a thread for up to a
+ * second while waiting for an unresponsive device to reply, so a few such devices can then stall the queues of all the
+ * others, whose commands may in turn time out.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class HIDConnectionPool
+   {
+   private static final Logger LOG = Logger.getLogger(HIDConnectionPool.class);
+
+   /** The default maximum number of devices to which the pool will try to connect at the same time. */
+   public static final int DEFAULT_MAX_CONCURRENT_CONNECTIONS = 32;
+
+   private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+   /** Creates an unconnected {@link HIDDevice} for each connection attempt. */
+   public interface HIDDeviceCreator
+      {
+      HIDDevice createHIDDevice(final HIDDeviceDescriptor hidDeviceDescriptor);
+      }
+
+   private static final HIDDeviceCreator DEFAULT_HID_DEVICE_CREATOR =
+         new HIDDeviceCreator()
+         {
+         public HIDDevice createHIDDevice(final HIDDeviceDescriptor hidDeviceDescriptor)
+            {
+            return HIDDeviceFactory.create(hidDeviceDescriptor);
+            }
+         };
+
+   private final HIDDeviceCreator hidDeviceCreator;
+   private final Executor workerPool;
+
+   /** The bounded worker pool created by this pool, if any, which must be shut down along with it */
+   private final ThreadPoolExecutor ownedWorkerPool;
+   private final ThreadPoolExecutor connectionExecutor;
+   private final int maxConcurrentConnections;
+
+   // variable for synchronization
+   private final byte[] lock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on lock
+   private final List<HIDCommandExecutionQueue> queues = new ArrayList<HIDCommandExecutionQueue>();
+   private boolean isShutdown = false;
+
+   /**
+    * Creates a <code>HIDConnectionPool</code> which uses the {@link HIDDeviceFactory} to create devices, the shared
+    * worker pool, and the default number of concurrent connections.
+    */
+   public HIDConnectionPool()
+      {
+      this(DEFAULT_HID_DEVICE_CREATOR, DEFAULT_MAX_CONCURRENT_CONNECTIONS);
+      }
+
+   /**
+    * Creates a <code>HIDConnectionPool</code> which uses the given {@link HIDDeviceCreator} to create devices, whose
+    * command queues use the {@link SharedExecutors#getWorkerPool() shared worker pool}, and which connects to at most
+    * <code>maxConcurrentConnections</code> devices at a time.
+    *
+    * @throws IllegalArgumentException if the <code>hidDeviceCreator</code> is <code>null</code>, or if
+    * <code>maxConcurrentConnections</code> is not positive
+    */
+   public HIDConnectionPool(final HIDDeviceCreator hidDeviceCreator, final int maxConcurrentConnections)
+      {
+      this(hidDeviceCreator, null, maxConcurrentConnections);
+      }
+
+   /**
+    * Creates a <code>HIDConnectionPool</code> which uses the given {@link HIDDeviceCreator} to create devices, whose
+    * command queues share a bounded pool of <code>numberOfWorkerThreads</code> threads, and which connects to at most
+    * <code>maxConcurrentConnections</code> devices at a time.  See the class documentation for why a bounded pool
+    * should only be used if every device is known to respond promptly.  Threads are only kept alive while in use, and
+    * are virtual threads if {@link SharedExecutors#isUsingVirtualThreads() virtual threads are in use}.
+    *
+    * @throws IllegalArgumentException if the <code>hidDeviceCreator</code> is <code>null</code>, or if either number is not positive
+    */
+   public HIDConnectionPool(final HIDDeviceCreator hidDeviceCreator, final int numberOfWorkerThreads, final int maxConcurrentConnections)
+      {
+      this(hidDeviceCreator, createBoundedWorkerPool(numberOfWorkerThreads), maxConcurrentConnections);
+      }
+
+   private HIDConnectionPool(final HIDDeviceCreator hidDeviceCreator, final ThreadPoolExecutor boundedWorkerPool, final int maxConcurrentConnections)
+      {
+      if (hidDeviceCreator == null)
+         {
+         throw new IllegalArgumentException("The HIDDeviceCreator cannot be null");
+         }
+      if (maxConcurrentConnections <= 0)
+         {
+         throw new IllegalArgumentException("The max number of concurrent connections [" + maxConcurrentConnections + "] must be positive");
+         }
+      this.hidDeviceCreator = hidDeviceCreator;
+      this.maxConcurrentConnections = maxConcurrentConnections;
+      this.ownedWorkerPool = boundedWorkerPool;
+      this.workerPool = (boundedWorkerPool == null) ? SharedExecutors.getWorkerPool() : boundedWorkerPool;
+      this.connectionExecutor = createThreadPool(maxConcurrentConnections, "HIDConnectionPool.connectionExecutor");
+      }
+
+   private static ThreadPoolExecutor createBoundedWorkerPool(final int numberOfWorkerThreads)
+      {
+      if (numberOfWorkerThreads <= 0)
+         {
+         throw new IllegalArgumentException("The number of worker threads [" + numberOfWorkerThreads + "] must be positive");
+         }
+      return createThreadPool(numberOfWorkerThreads, "HIDConnectionPool.workerPool");
+      }
+
+   private static ThreadPoolExecutor createThreadPool(final int numberOfThreads, final String name)
+      {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads,
+                                                                 IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue<Runnable>(),
+                                                                 SharedExecutors.newThreadFactory(name));
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+      }
+
+   /** Returns the worker pool shared by this pool's command queues.  It must not be shut down by the caller. */
+   public Executor getWorkerPool()
+      {
+      return workerPool;
+      }
+
+   /**
+    * Connects to every available device matching the given {@link HIDDeviceDescriptor}, and returns a
+    * {@link HIDCommandExecutionQueue} for each.  Equivalent to calling
+    * {@link #connectAll(HIDDeviceDescriptor, int, long, TimeUnit)} with no limit on the number of devices and no task
+    * execution timeout.
+    */
+   public List<HIDCommandExecutionQueue> connectAll(final HIDDeviceDescriptor hidDeviceDescriptor)
+      {
+      return connectAll(hidDeviceDescriptor, Integer.MAX_VALUE, -1, null);   // a null TimeUnit means no timeout
+      }
+
+   /**
+    * Connects to at most <code>maxNumberOfDevices</code> available devices matching the given
+    * {@link HIDDeviceDescriptor} in parallel, and returns a {@link HIDCommandExecutionQueue}, with the given task
+    * execution timeout, for each device connected.  Since the number of matching devices isn't known up front, new
+    * connection attempts are started as earlier ones succeed, and no more are started once one fails.  Returns an
+    * empty list if no devices were connected.  The queues are shut down when this pool is.
+    *
+    * @throws IllegalStateException if this pool has been shut down
+    */
+   public List<HIDCommandExecutionQueue> connectAll(final HIDDeviceDescriptor hidDeviceDescriptor,
+                                                    final int maxNumberOfDevices,
+                                                    final long taskExecutionTimeout,
+                                                    final TimeUnit taskExecutionTimeoutTimeUnit)
+      {
+      synchronized (lock)
+         {
+         if (isShutdown)
+            {
+            throw new IllegalStateException("The HIDConnectionPool has been shut down");
+            }
+         }
+
+      final ConnectionRound round = new ConnectionRound();
+      final CompletionService<HIDDevice> completionService = new ExecutorCompletionService<HIDDevice>(connectionExecutor);
+      int numberOfAttemptsStarted = 0;
+      int numberOfAttemptsOutstanding = 0;
+      boolean willStartMoreAttempts = true;
+
+      try
+         {
+         while (numberOfAttemptsStarted < Math.min(maxConcurrentConnections, maxNumberOfDevices))
+            {
+            completionService.submit(new ConnectionAttempt(hidDeviceDescriptor, round));
+            numberOfAttemptsStarted++;
+            numberOfAttemptsOutstanding++;
+            }
+
+         while (numberOfAttemptsOutstanding > 0)
+            {
+            HIDDevice device = null;
+            try
+               {
+               device = completionService.take().get();
+               }
+            catch (ExecutionException e)
+               {
+               LOG.error("HIDConnectionPool.connectAll(): ExecutionException while connecting to a device", e);
+               }
+            numberOfAttemptsOutstanding--;
+
+            if (device == null)
+               {
+               // most likely there are no more devices available, so stop looking
+               willStartMoreAttempts = false;
+               }
+            else
+               {
+               if (willStartMoreAttempts && numberOfAttemptsStarted < maxNumberOfDevices)
+                  {
+                  completionService.submit(new ConnectionAttempt(hidDeviceDescriptor, round));
+                  numberOfAttemptsStarted++;
+                  numberOfAttemptsOutstanding++;
+                  }
+               }
+            }
+         }
+      catch (InterruptedException e)
+         {
+         LOG.debug("HIDConnectionPool.connectAll(): interrupted while waiting for the connection attempts to complete");
+         Thread.currentThread().interrupt();
+         }
+
+      // Attempts which are still outstanding (only possible if we were interrupted) will find the round finished, and
+      // will disconnect any device they connect to, so that it isn't left claimed but unused.
+      final List<HIDDevice> devices = round.finish();
+
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("HIDConnectionPool.connectAll(): connected to [" + devices.size() + "] device(s) with vendor id [" + hidDeviceDescriptor.getVendorIdAsHexString() + "] and product id [" + hidDeviceDescriptor.getProductIdAsHexString() + "]");
+         }
+
+      final List<HIDCommandExecutionQueue> newQueues = new ArrayList<HIDCommandExecutionQueue>(devices.size());
+      for (final HIDDevice device : devices)
+         {
+         newQueues.add(new HIDCommandExecutionQueue(device, taskExecutionTimeout, taskExecutionTimeoutTimeUnit, Integer.MAX_VALUE, CommandQueueOverflowPolicy.REJECT, workerPool));
+         }
+
+      final boolean wasShutdown;
+      synchronized (lock)
+         {
+         wasShutdown = isShutdown;
+         if (!wasShutdown)
+            {
+            queues.addAll(newQueues);
+            }
+         }
+      if (wasShutdown)
+         {
+         // the pool was shut down while we were connecting, so don't leave the new connections open
+         for (final HIDCommandExecutionQueue queue : newQueues)
+            {
+            queue.shutdown();
+            }
+         throw new IllegalStateException("The HIDConnectionPool has been shut down");
+         }
+
+      return Collections.unmodifiableList(newQueues);
+      }
+
+   /**
+    * Shuts down every {@link HIDCommandExecutionQueue} created by this pool (thus disconnecting from the devices), and
+    * then the pool's threads.
+    */
+   public void shutdown()
+      {
+      final List<HIDCommandExecutionQueue> queuesToShutdown;
+      synchronized (lock)
+         {
+         isShutdown = true;
+         queuesToShutdown = new ArrayList<HIDCommandExecutionQueue>(queues);
+         queues.clear();
+         }
+
+      LOG.debug("HIDConnectionPool.shutdown(): shutting down [" + queuesToShutdown.size() + "] queue(s)");
+      for (final HIDCommandExecutionQueue queue : queuesToShutdown)
+         {
+         queue.shutdown();
+         }
+      connectionExecutor.shutdown();
+      if (ownedWorkerPool != null)
+         {
+         ownedWorkerPool.shutdown();
+         }
+      }
+
+   /**
+    * Collects the devices connected during a single call to {@link #connectAll}.  Once the round is finished, any further
+    * devices offered to it are rejected (and must be disconnected by the caller).
+    */
+   private static final class ConnectionRound
+      {
+      private final byte[] lock = new byte[0];
+      private final List<HIDDevice> devices = new ArrayList<HIDDevice>();
+      private boolean isFinished = false;
+
+      /**
+       * Returns <code>true</code> if the given device was accepted as one of this round's results.  Returns
+       * <code>false</code> if the caller must disconnect it.
+       */
+      private boolean offer(final HIDDevice device)
+         {
+         synchronized (lock)
+            {
+            if (isFinished)
+               {
+               return false;
+               }
+            devices.add(device);
+            return true;
+            }
+         }
+
+      private boolean isFinished()
+         {
+         synchronized (lock)
+            {
+            return isFinished;
+            }
+         }
+
+      private List<HIDDevice> finish()
+         {
+         synchronized (lock)
+            {
+            isFinished = true;
+            return new ArrayList<HIDDevice>(devices);
+            }
+         }
+      }
+
+   /**
+    * Creates a device and connects to it, returning the connected device, or <code>null</code> if the connection failed
+    * or the round was already finished.
+    */
+   private final class ConnectionAttempt implements Callable<HIDDevice>
+      {
+      private final HIDDeviceDescriptor hidDeviceDescriptor;
+      private final ConnectionRound round;
+
+      private ConnectionAttempt(final HIDDeviceDescriptor hidDeviceDescriptor, final ConnectionRound round)
+         {
+         this.hidDeviceDescriptor = hidDeviceDescriptor;
+         this.round = round;
+         }
+
+      public HIDDevice call()
+         {
+         if (round.isFinished())
+            {
+            return null;
+            }
+
+         try
+            {
+            final HIDDevice device = hidDeviceCreator.createHIDDevice(hidDeviceDescriptor);
+            device.connectExclusively();
+            if (round.offer(device))
+               {
+               return device;
+               }
+            LOG.debug("HIDConnectionPool$ConnectionAttempt.call(): connected to a device, but the connection round is already over, so disconnecting");
+            device.disconnect();
+            }
+         catch (HIDDeviceNotFoundException e)
+            {
+            LOG.debug("HIDConnectionPool$ConnectionAttempt.call(): no more devices found");
+            }
+         catch (HIDConnectionException e)
+            {
+            LOG.error("HIDConnectionPool$ConnectionAttempt.call(): HIDConnectionException while trying to connect to a device", e);
+            }
+         catch (UnsupportedOperationException e)
+            {
+            LOG.error("HIDConnectionPool$ConnectionAttempt.call(): UnsupportedOperationException while trying to create a device", e);
+            }
+         return null;
+         }
+      }
+   }
@@ -1,7 +1,6 @@
 package edu.cmu.ri.createlab.usb.hid;
 
-import edu.cmu.ri.createlab.usb.hid.hidapi.HIDAPIDeviceHelper;
-import edu.cmu.ri.createlab.usb.hid.hidapi.HIDAPILibrary;
+import edu.cmu.ri.createlab.usb.hid.hidapi.HIDDeviceDiscoveryService;
 import edu.cmu.ri.createlab.usb.hid.hidapi.linux.LinuxHIDDevice;
 import edu.cmu.ri.createlab.usb.hid.hidapi.mac.MacOSHIDDevice;
 import edu.cmu.ri.createlab.usb.hid.windows.WindowsHIDDevice;
@@ -65,21 +64,8 @@ public final class HIDDeviceFactory
          }
       else if (SystemUtils.IS_OS_MAC_OSX || SystemUtils.IS_OS_LINUX)
          {
-         final DeviceInfo<HIDAPILibrary.hid_device> deviceInfo = HIDAPIDeviceHelper.enumerateDevices(hidDeviceDescriptor,
-                                                                                                     new HIDAPIDeviceHelper.HIDDeviceEnumerationProcessor()
-                                                                                                     {
-                                                                                                     @Override
-                                                                                                     public boolean process(final String hidDeviceInfoPath)
-                                                                                                        {
-                                                                                                        // We always return false since this will only get called if
-                                                                                                        // the target device is actually plugged in, and that's all
-                                                                                                        // we care about here.  So, return false to signify that the
-                                                                                                        // enuerating should stop, and enumerateDevices() should
-                                                                                                        // return the device with this path.
-                                                                                                        return false;
-                                                                                                        }
-                                                                                                     });
-         return deviceInfo != null;
+         // answered from the discovery service's cache, since this is typically polled by reconnect loops
+         return HIDDeviceDiscoveryService.getInstance().isPluggedIn(hidDeviceDescriptor);
          }
 
       final String message = "HID support for this operating system (" + SystemUtils.OS_NAME + " " + SystemUtils.OS_VERSION + " [" + SystemUtils.OS_ARCH + "]) has not been implemented.";
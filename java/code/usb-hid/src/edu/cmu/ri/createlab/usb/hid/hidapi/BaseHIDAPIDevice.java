@@ -1,19 +1,25 @@
 package edu.cmu.ri.createlab.usb.hid.hidapi;
 
 import java.nio.ByteBuffer;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import com.ochafik.lang.jnaerator.runtime.NativeSize;
 import edu.cmu.ri.createlab.usb.hid.BaseHIDDevice;
 import edu.cmu.ri.createlab.usb.hid.DeviceInfo;
+import edu.cmu.ri.createlab.usb.hid.DeviceInfoImpl;
 import edu.cmu.ri.createlab.usb.hid.HIDConnectionException;
 import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
 import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotFoundException;
 import edu.cmu.ri.createlab.usb.hid.HIDWriteStatus;
 import edu.cmu.ri.createlab.util.ArrayUtils;
 import edu.cmu.ri.createlab.util.ByteUtils;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -26,84 +32,53 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
    {
    private static final Logger LOG = Logger.getLogger(BaseHIDAPIDevice.class);
 
-   private static final Lock LOCK = new ReentrantLock();
-   private static final Set<String> DEVICES_IN_USE = new HashSet<String>();
+   /** How long to park between non-blocking reads when polling on a virtual thread. */
+   private static final long POLLING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+   /**
+    * The paths of the devices claimed by instances of this class.  Each path is claimed atomically by adding it to the
+    * set, so claims and releases of different devices never block one another.
+    */
+   private static final Set<String> DEVICES_IN_USE = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
    private static DeviceInfo<HIDAPILibrary.hid_device> claimAvailableDevice(final HIDDeviceDescriptor hidDeviceDescriptor)
       {
-      LOG.trace("BaseHIDAPIDevice.claimAvailableDevice(): locking...");
-      LOCK.lock();  // block until condition holds
-
-      try
-         {
-         if (LOG.isDebugEnabled())
-            {
-            LOG.debug("BaseHIDAPIDevice.readDeviceInfo(): looking for device with vendor id [" + hidDeviceDescriptor.getVendorIdAsHexString() + "] and product id [" + hidDeviceDescriptor.getProductIdAsHexString() + "]");
-            }
-
-         return HIDAPIDeviceHelper.enumerateDevices(hidDeviceDescriptor,
-                                                    new HIDAPIDeviceHelper.HIDDeviceEnumerationProcessor()
-                                                    {
-                                                    @Override
-                                                    public boolean process(final String hidDeviceInfoPath)
-                                                       {
-                                                       if (DEVICES_IN_USE.contains(hidDeviceInfoPath))
-                                                          {
-                                                          if (LOG.isDebugEnabled())
-                                                             {
-                                                             LOG.debug("BaseHIDAPIDevice.process(): Device with path [" + hidDeviceInfoPath + "] already in use!");
-                                                             }
-                                                          return true;
-                                                          }
-                                                       else
-                                                          {
-                                                          if (LOG.isDebugEnabled())
-                                                             {
-                                                             LOG.debug("BaseHIDAPIDevice.process(): Device with path [" + hidDeviceInfoPath + "] NOT in use, so we'll use it");
-                                                             }
-                                                          DEVICES_IN_USE.add(hidDeviceInfoPath);   // mark the device as in use
-
-                                                          return false;
-                                                          }
-                                                       }
-                                                    });
-         }
-      finally
+      if (LOG.isDebugEnabled())
          {
-         LOG.trace("BaseHIDAPIDevice.claimAvailableDevice(): about to unlock!");
-         LOCK.unlock();
-         LOG.trace("BaseHIDAPIDevice.claimAvailableDevice(): done unlocking!");
+         LOG.debug("BaseHIDAPIDevice.claimAvailableDevice(): looking for device with vendor id [" + hidDeviceDescriptor.getVendorIdAsHexString() + "] and product id [" + hidDeviceDescriptor.getProductIdAsHexString() + "]");
          }
-      }
 
-   private static void releaseDevice(final String devicePath)
-      {
-      if (devicePath != null)
+      // the device list comes from the discovery service's cache, so this doesn't enumerate the devices every time
+      for (final String hidDeviceInfoPath : HIDDeviceDiscoveryService.getInstance().getDevicePaths(hidDeviceDescriptor))
          {
-         LOG.trace("BaseHIDAPIDevice.releaseDevice(): about to lock...");
-         LOCK.lock();  // block until condition holds
-         try
+         if (DEVICES_IN_USE.add(hidDeviceInfoPath))   // mark the device as in use, unless another thread already has
             {
             if (LOG.isDebugEnabled())
                {
-               LOG.debug("BaseHIDAPIDevice.releaseDevice(): about to release device [" + devicePath + "]");
-               }
-            DEVICES_IN_USE.remove(devicePath);  // mark the device as no longer in use
-            if (LOG.isDebugEnabled())
-               {
-               LOG.debug("BaseHIDAPIDevice.releaseDevice(): done releasing [" + devicePath + "]");
+               LOG.debug("BaseHIDAPIDevice.claimAvailableDevice(): Device with path [" + hidDeviceInfoPath + "] NOT in use, so we'll use it");
                }
+
+            final DeviceInfo<HIDAPILibrary.hid_device> deviceInfo = new DeviceInfoImpl<HIDAPILibrary.hid_device>();
+            deviceInfo.setDeviceFilenamePath(hidDeviceInfoPath);
+            return deviceInfo;
             }
-         catch (final Exception e)
+         else if (LOG.isDebugEnabled())
             {
-            LOG.error("Exception caught while trying to release device [" + devicePath + "]", e);
+            LOG.debug("BaseHIDAPIDevice.claimAvailableDevice(): Device with path [" + hidDeviceInfoPath + "] already in use!");
             }
-         finally
+         }
+      return null;
+      }
+
+   private static void releaseDevice(final String devicePath)
+      {
+      if (devicePath != null)
+         {
+         if (LOG.isDebugEnabled())
             {
-            LOG.trace("BaseHIDAPIDevice.releaseDevice(): about to unlock!");
-            LOCK.unlock();
-            LOG.trace("BaseHIDAPIDevice.releaseDevice(): done unlocking!");
+            LOG.debug("BaseHIDAPIDevice.releaseDevice(): releasing device [" + devicePath + "]");
             }
+         DEVICES_IN_USE.remove(devicePath);  // mark the device as no longer in use
          }
       }
 
@@ -114,6 +89,14 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
    private final NativeSize inputReportByteLengthAsNativeSize;
    private final NativeSize outputReportByteLengthAsNativeSize;
 
+   // reused for every read and write to avoid creating garbage when polling
+   private final ByteBuffer readBuffer;
+   private final byte[] writeBuffer;
+
+   // ReentrantLocks rather than monitors, so that a virtual thread waiting for one isn't pinned to its carrier thread
+   private final Lock readLock = new ReentrantLock();
+   private final Lock writeLock = new ReentrantLock();
+
    protected BaseHIDAPIDevice(final HIDDeviceDescriptor hidDeviceDescriptor)
       {
       super(hidDeviceDescriptor);
@@ -123,6 +106,8 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
       this.outputReportByteLength = hidDeviceDescriptor.getOutputReportByteLength();
       inputReportByteLengthAsNativeSize = new NativeSize(inputReportByteLength);
       outputReportByteLengthAsNativeSize = new NativeSize(outputReportByteLength);
+      readBuffer = ByteBuffer.allocateDirect(inputReportByteLength);
+      writeBuffer = new byte[outputReportByteLength];
       }
 
    public final void connect() throws HIDDeviceNotFoundException, HIDConnectionException
@@ -139,13 +124,18 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
             // record the device handle
             deviceInfo.setFileHandle(deviceHandle);
 
-            // set reads to non-blocking
+            // set reads to non-blocking (timed reads use hid_read_timeout(), which blocks regardless of this setting)
             HIDAPILibrary.INSTANCE.hid_set_nonblocking(deviceHandle, 1);
 
             this.hidDevice = deviceInfo;
             }
          else
             {
+            // the cached device list may be stale (e.g. the device was just unplugged), so give up the claim and make
+            // sure the next attempt enumerates the devices again
+            BaseHIDAPIDevice.releaseDevice(deviceInfo.getDeviceFilenamePath());
+            HIDDeviceDiscoveryService.getInstance().invalidate();
+
             LOG.error("BaseHIDAPIDevice.connect(): connection failed");
             throw new HIDConnectionException("Connection to device with vendor ID [" + Integer.toHexString(getVendorID()) + "] and product ID [" + Integer.toHexString(getProductID()) + "] failed.");
             }
@@ -172,16 +162,105 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
       }
 
    public final byte[] read()
+      {
+      readLock.lock();
+      try
+         {
+         if (readIntoReadBuffer(0) > 0)
+            {
+            final byte[] data = new byte[inputReportByteLength];
+            readBuffer.get(data);
+            return data;
+            }
+         }
+      finally
+         {
+         readLock.unlock();
+         }
+      return null;
+      }
+
+   @Override
+   public final int read(final ByteBuffer buffer)
+      {
+      return read(buffer, 0);
+      }
+
+   /**
+    * Blocks in the native <code>hid_read_timeout()</code> function for up to the given timeout.  On a virtual thread,
+    * however, it polls instead (parking between non-blocking reads), since a virtual thread blocked in native code
+    * pins its carrier thread.
+    */
+   @Override
+   public final int read(final ByteBuffer buffer, final int timeoutMillis)
+      {
+      if (timeoutMillis > 0 && SharedExecutors.isCurrentThreadVirtual())
+         {
+         return poll(buffer, timeoutMillis);
+         }
+
+      readLock.lock();
+      try
+         {
+         if (readIntoReadBuffer(timeoutMillis) > 0)
+            {
+            buffer.put(readBuffer);
+            return inputReportByteLength;
+            }
+         }
+      finally
+         {
+         readLock.unlock();
+         }
+      return 0;
+      }
+
+   /** Repeatedly tries a non-blocking read, parking the thread briefly between attempts, until data arrives or the timeout elapses. */
+   private int poll(final ByteBuffer buffer, final int timeoutMillis)
+      {
+      final long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      while (true)
+         {
+         final int numBytesRead = read(buffer, 0);
+         if (numBytesRead > 0 || System.nanoTime() >= endTime)
+            {
+            return numBytesRead;
+            }
+         LockSupport.parkNanos(POLLING_INTERVAL_NANOS);
+         }
+      }
+
+   /**
+    * Reads a report into the reusable read buffer and returns the number of bytes read.  Upon success, the read buffer
+    * is positioned at zero and its limit is set to the input report length, with any bytes not filled by the read set
+    * to zero.  If the given timeout is positive, this method blocks for up to that many milliseconds waiting for a
+    * report; otherwise it returns immediately.  Callers must hold the <code>readLock</code>.
+    */
+   private int readIntoReadBuffer(final int timeoutMillis)
       {
       if (hidDevice != null &&
           hidDevice.getFileHandle() != null &&
           hidDevice.getDeviceFilenamePath() != null)
          {
-         final ByteBuffer readBuffer = ByteBuffer.allocate(inputReportByteLength);
-         final int numBytesRead = HIDAPILibrary.INSTANCE.hid_read(hidDevice.getFileHandle(), readBuffer, inputReportByteLengthAsNativeSize);
+         readBuffer.clear();
+         final int numBytesRead;
+         if (timeoutMillis > 0)
+            {
+            numBytesRead = HIDAPILibrary.INSTANCE.hid_read_timeout(hidDevice.getFileHandle(), readBuffer, inputReportByteLengthAsNativeSize, timeoutMillis);
+            }
+         else
+            {
+            numBytesRead = HIDAPILibrary.INSTANCE.hid_read(hidDevice.getFileHandle(), readBuffer, inputReportByteLengthAsNativeSize);
+            }
 
          if (numBytesRead > 0)
             {
+            // don't let stale data from a previous read leak through if this read was short
+            for (int i = numBytesRead; i < inputReportByteLength; i++)
+               {
+               readBuffer.put(i, (byte)0);
+               }
+
             if (LOG.isTraceEnabled())
                {
                LOG.trace("BaseHIDAPIDevice.read(): Successfully read [" + numBytesRead + "] bytes!");
@@ -192,14 +271,14 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
                   }
                LOG.trace("BaseHIDAPIDevice.read(): Data read: [" + ArrayUtils.arrayToString(dataAsInts) + "]");
                }
-            return readBuffer.array();
+            return numBytesRead;
             }
          else
             {
             LOG.trace("BaseHIDAPIDevice.read(): zero bytes read");
             }
          }
-      return null;
+      return 0;
       }
 
    public final HIDWriteStatus write(final byte[] data)
@@ -210,54 +289,51 @@ public abstract class BaseHIDAPIDevice extends BaseHIDDevice
              hidDevice.getFileHandle() != null &&
              hidDevice.getDeviceFilenamePath() != null)
             {
-            final byte[] writeBuffer = new byte[outputReportByteLength];
+            writeLock.lock();
+            try
+               {
+               // clear out the previous command, since the write buffer is reused
+               Arrays.fill(writeBuffer, (byte)0);  // this also sets the report ID to 0
 
-            writeBuffer[0] = 0;  // set the report ID
-            final byte theCommandId = getCommandId();
-            writeBuffer[writeBuffer.length - 1] = theCommandId;  // set the request ID
+               final byte theCommandId = getCommandId();
+               writeBuffer[writeBuffer.length - 1] = theCommandId;  // set the request ID
 
-            // copy the data to the write buffer
-            for (int dataIndex = 0; dataIndex < data.length; dataIndex++)
-               {
-               final int writeBufferIndex = dataIndex + 1;
-               if (writeBufferIndex < writeBuffer.length - 1)
-                  {
-                  writeBuffer[writeBufferIndex] = data[dataIndex];
-                  }
-               else
-                  {
-                  break;
-                  }
-               }
+               // copy the data to the write buffer, truncating whatever won't fit between the report ID and request ID
+               System.arraycopy(data, 0, writeBuffer, 1, Math.min(data.length, writeBuffer.length - 2));
 
-            if (LOG.isTraceEnabled())
-               {
-               final int[] dataAsInts = new int[writeBuffer.length];
-               for (int i = 0; i < writeBuffer.length; i++)
+               if (LOG.isTraceEnabled())
                   {
-                  dataAsInts[i] = ByteUtils.unsignedByteToInt(writeBuffer[i]);
+                  final int[] dataAsInts = new int[writeBuffer.length];
+                  for (int i = 0; i < writeBuffer.length; i++)
+                     {
+                     dataAsInts[i] = ByteUtils.unsignedByteToInt(writeBuffer[i]);
+                     }
+                  LOG.trace("BaseHIDAPIDevice.write(): Writing data: [" + ArrayUtils.arrayToString(dataAsInts) + "]");
                   }
-               LOG.trace("BaseHIDAPIDevice.write(): Writing data: [" + ArrayUtils.arrayToString(dataAsInts) + "]");
-               }
 
-            final int bytesWritten = HIDAPILibrary.INSTANCE.hid_write(hidDevice.getFileHandle(), writeBuffer, outputReportByteLengthAsNativeSize);
+               final int bytesWritten = HIDAPILibrary.INSTANCE.hid_write(hidDevice.getFileHandle(), writeBuffer, outputReportByteLengthAsNativeSize);
 
-            if (bytesWritten > 0)
-               {
-               if (LOG.isTraceEnabled())
+               if (bytesWritten > 0)
                   {
-                  LOG.trace("BaseHIDAPIDevice.write(): Write successful, wrote [" + bytesWritten + "] bytes!");
+                  if (LOG.isTraceEnabled())
+                     {
+                     LOG.trace("BaseHIDAPIDevice.write(): Write successful, wrote [" + bytesWritten + "] bytes!");
+                     }
+                  return new HIDWriteStatus(data.length, bytesWritten, true, ByteUtils.unsignedByteToInt(theCommandId));
                   }
-               return new HIDWriteStatus(data.length, bytesWritten, true, ByteUtils.unsignedByteToInt(theCommandId));
-               }
-            else
-               {
-               if (LOG.isEnabledFor(Level.ERROR))
+               else
                   {
-                  LOG.error("BaseHIDAPIDevice.write(): Write failed.  Return was [" + bytesWritten + "]");
-                  }
+                  if (LOG.isEnabledFor(Level.ERROR))
+                     {
+                     LOG.error("BaseHIDAPIDevice.write(): Write failed.  Return was [" + bytesWritten + "]");
+                     }
 
-               return new HIDWriteStatus(data.length, bytesWritten, false, ByteUtils.unsignedByteToInt(theCommandId));
+                  return new HIDWriteStatus(data.length, bytesWritten, false, ByteUtils.unsignedByteToInt(theCommandId));
+                  }
+               }
+            finally
+               {
+               writeLock.unlock();
                }
             }
          }
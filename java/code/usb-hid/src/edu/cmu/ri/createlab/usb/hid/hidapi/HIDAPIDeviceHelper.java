@@ -1,5 +1,7 @@
 package edu.cmu.ri.createlab.usb.hid.hidapi;
 
+import java.util.ArrayList;
+import java.util.List;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import edu.cmu.ri.createlab.usb.hid.DeviceInfo;
@@ -37,8 +39,7 @@ public final class HIDAPIDeviceHelper
    public static DeviceInfo<HIDAPILibrary.hid_device> enumerateDevices(final HIDDeviceDescriptor targetDeviceDescriptor,
                                                                        final HIDDeviceEnumerationProcessor enumerationProcessor)
       {
-      LOG.trace("HIDAPIDeviceHelper.enumerateDevices(): locking...");
-
+      HIDDeviceInfo head = null;
       try
          {
          if (LOG.isDebugEnabled())
@@ -47,7 +48,8 @@ public final class HIDAPIDeviceHelper
             }
 
          // enumerate the devices, filtering on the one we care about and ignoring the ones already in use
-         HIDDeviceInfo hidDeviceInfo = HIDAPILibrary.INSTANCE.hid_enumerate(targetDeviceDescriptor.getVendorId(), targetDeviceDescriptor.getProductId());
+         head = HIDAPILibrary.INSTANCE.hid_enumerate(targetDeviceDescriptor.getVendorId(), targetDeviceDescriptor.getProductId());
+         HIDDeviceInfo hidDeviceInfo = head;
          if (hidDeviceInfo != null)
             {
             while (hidDeviceInfo != null)
@@ -123,9 +125,40 @@ public final class HIDAPIDeviceHelper
          {
          LOG.error("Exception caught while trying to enumerate devices with vendor id [" + targetDeviceDescriptor.getVendorIdAsHexString() + "] and product id [" + targetDeviceDescriptor.getProductIdAsHexString() + "].", e);
          }
+      finally
+         {
+         // the paths have already been copied into Java strings, so the native list can be freed
+         if (head != null)
+            {
+            HIDAPILibrary.INSTANCE.hid_free_enumeration(head.getPointer());
+            }
+         }
       return null;
       }
 
+   /**
+    * Enumerates all devices matching the specified {@link HIDDeviceDescriptor} and returns their paths, in the order
+    * in which HIDAPI reported them.  Returns an empty list if there are none.
+    */
+   public static List<String> enumerateDevicePaths(final HIDDeviceDescriptor targetDeviceDescriptor)
+      {
+      final List<String> paths = new ArrayList<String>();
+      enumerateDevices(targetDeviceDescriptor,
+                       new HIDDeviceEnumerationProcessor()
+                       {
+                       @Override
+                       public boolean process(final String hidDeviceInfoPath)
+                          {
+                          if (hidDeviceInfoPath != null)
+                             {
+                             paths.add(hidDeviceInfoPath);
+                             }
+                          return true;
+                          }
+                       });
+      return paths;
+      }
+
    private HIDAPIDeviceHelper()
       {
       // private to prevent instantiation
@@ -52,6 +52,16 @@ public interface HIDAPILibrary extends Library
    @Mangling({"_Z20hid_free_enumerationP15hid_device_info", "?hid_free_enumeration@@YAXPA15hid_device_info@Z"})
    void hid_free_enumeration(final HIDDeviceInfo devs);
 
+   /**
+    * Original signature : <code>hid_free_enumeration(hid_device_info*)</code><br>
+    * <i>native declaration : hidapi.h:141</i><br>
+    * Use this rather than {@link #hid_free_enumeration(HIDDeviceInfo)} to free a list returned by
+    * {@link #hid_enumerate(short, short)}, since passing the structure causes JNA to write its fields back to native
+    * memory first, replacing the native strings with ones allocated by JNA.
+    */
+   @Mangling({"_Z20hid_free_enumerationP15hid_device_info", "?hid_free_enumeration@@YAXPA15hid_device_info@Z"})
+   void hid_free_enumeration(final Pointer devs);
+
    /**
     * Original signature : <code>hid_device* hid_open(unsigned short, unsigned short, const wchar_t*)</code><br>
     * <i>native declaration : hidapi.h:159</i><br>
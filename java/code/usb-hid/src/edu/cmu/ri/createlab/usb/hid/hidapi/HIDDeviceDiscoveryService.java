@@ -0,0 +1,185 @@
+package edu.cmu.ri.createlab.usb.hid.hidapi;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>HIDDeviceDiscoveryService</code> caches the paths of the HID devices enumerated by HIDAPI, so that connecting
+ * to a device and checking whether one is plugged in don't each require a full walk of the host's HID devices.  A
+ * cached enumeration is discarded whenever a change to the host's HID devices is detected, and also once it's older
+ * than a maximum age, since not every change can be detected.
+ * </p>
+ * <p>
+ * On Linux, changes are detected by listing the <code>/dev/hidraw*</code> device nodes, which the kernel creates and
+ * removes as HID devices are plugged in and unplugged.  Listing a directory is far cheaper than enumerating the
+ * devices, so it's done on every request.  Elsewhere, the cache simply expires after a short polling interval.
+ * </p>
+ * <p>
+ * Each {@link HIDDeviceDescriptor} has its own cache entry and lock, so a request for one kind of device never waits
+ * on the enumeration of another kind, except inside HIDAPI itself: calls to <code>hid_enumerate</code> are
+ * serialized, since HIDAPI doesn't guarantee that it's safe to enumerate from multiple threads at once.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class HIDDeviceDiscoveryService
+   {
+   private static final Logger LOG = Logger.getLogger(HIDDeviceDiscoveryService.class);
+
+   private static final File LINUX_DEVICE_DIRECTORY = new File("/dev");
+   private static final String LINUX_HIDRAW_DEVICE_NODE_PREFIX = "hidraw";
+
+   /** The max age of a cached enumeration when changes to the host's HID devices can be detected. */
+   private static final long MAX_CACHE_AGE_WITH_HOTPLUG_DETECTION_MILLIS = 5000;
+
+   /** The max age of a cached enumeration when changes to the host's HID devices can't be detected. */
+   private static final long MAX_CACHE_AGE_WITHOUT_HOTPLUG_DETECTION_MILLIS = 500;
+
+   /** Serializes calls into HIDAPI's enumeration. */
+   private static final Lock ENUMERATION_LOCK = new ReentrantLock();
+
+   private static final HIDDeviceDiscoveryService INSTANCE = new HIDDeviceDiscoveryService(SystemUtils.IS_OS_LINUX);
+
+   public static HIDDeviceDiscoveryService getInstance()
+      {
+      return INSTANCE;
+      }
+
+   /** The cached enumeration of the devices matching a single {@link HIDDeviceDescriptor}. */
+   private static final class CacheEntry
+      {
+      private final Lock lock = new ReentrantLock();
+
+      // these variables must only ever be read/written by a thread holding the lock
+      private List<String> paths = null;
+      private long timestampNanos = 0;
+      private long generation = 0;
+      }
+
+   private final boolean isHotplugDetectionEnabled;
+   private final long maxCacheAgeNanos;
+   private final ConcurrentMap<Integer, CacheEntry> cache = new ConcurrentHashMap<Integer, CacheEntry>();
+
+   /** Incremented whenever all cached enumerations must be discarded. */
+   private final AtomicLong generation = new AtomicLong(0);
+   private final AtomicReference<String> hidrawDeviceNodes = new AtomicReference<String>(null);
+   private final FilenameFilter hidrawDeviceNodeFilter =
+         new FilenameFilter()
+         {
+         public boolean accept(final File dir, final String name)
+            {
+            return name.startsWith(LINUX_HIDRAW_DEVICE_NODE_PREFIX);
+            }
+         };
+
+   private HIDDeviceDiscoveryService(final boolean isHotplugDetectionEnabled)
+      {
+      this.isHotplugDetectionEnabled = isHotplugDetectionEnabled;
+      this.maxCacheAgeNanos = TimeUnit.MILLISECONDS.toNanos(isHotplugDetectionEnabled ? MAX_CACHE_AGE_WITH_HOTPLUG_DETECTION_MILLIS : MAX_CACHE_AGE_WITHOUT_HOTPLUG_DETECTION_MILLIS);
+      }
+
+   /**
+    * Returns the paths of the devices matching the given {@link HIDDeviceDescriptor}, enumerating them only if there's
+    * no valid cached enumeration.  The returned list is unmodifiable and is empty if there are no matching devices.
+    */
+   public List<String> getDevicePaths(final HIDDeviceDescriptor hidDeviceDescriptor)
+      {
+      detectHotplugEvents();
+
+      final Integer key = (hidDeviceDescriptor.getVendorId() & 0xffff) << 16 | (hidDeviceDescriptor.getProductId() & 0xffff);
+      CacheEntry entry = cache.get(key);
+      if (entry == null)
+         {
+         final CacheEntry newEntry = new CacheEntry();
+         entry = cache.putIfAbsent(key, newEntry);
+         if (entry == null)
+            {
+            entry = newEntry;
+            }
+         }
+
+      entry.lock.lock();
+      try
+         {
+         final long currentGeneration = generation.get();
+         final long now = System.nanoTime();
+         if (entry.paths == null || entry.generation != currentGeneration || now - entry.timestampNanos > maxCacheAgeNanos)
+            {
+            final List<String> paths;
+            ENUMERATION_LOCK.lock();
+            try
+               {
+               paths = HIDAPIDeviceHelper.enumerateDevicePaths(hidDeviceDescriptor);
+               }
+            finally
+               {
+               ENUMERATION_LOCK.unlock();
+               }
+            entry.paths = Collections.unmodifiableList(paths);
+            entry.timestampNanos = now;
+            entry.generation = currentGeneration;
+            }
+         else if (LOG.isTraceEnabled())
+            {
+            LOG.trace("HIDDeviceDiscoveryService.getDevicePaths(): using cached enumeration for vendor id [" + hidDeviceDescriptor.getVendorIdAsHexString() + "] and product id [" + hidDeviceDescriptor.getProductIdAsHexString() + "]");
+            }
+         return entry.paths;
+         }
+      finally
+         {
+         entry.lock.unlock();
+         }
+      }
+
+   /** Returns whether a device matching the given {@link HIDDeviceDescriptor} is plugged in. */
+   public boolean isPluggedIn(final HIDDeviceDescriptor hidDeviceDescriptor)
+      {
+      return !getDevicePaths(hidDeviceDescriptor).isEmpty();
+      }
+
+   /**
+    * Discards all cached enumerations, so that the next request enumerates the devices again.  Call this when the
+    * cache is known to be stale, e.g. when a device in the cache can't be opened.
+    */
+   public void invalidate()
+      {
+      generation.incrementAndGet();
+      }
+
+   /** Discards the cached enumerations if the HID device nodes have changed. */
+   private void detectHotplugEvents()
+      {
+      if (isHotplugDetectionEnabled)
+         {
+         final String[] deviceNodes = LINUX_DEVICE_DIRECTORY.list(hidrawDeviceNodeFilter);
+         if (deviceNodes != null)
+            {
+            Arrays.sort(deviceNodes);
+            final String deviceNodesAsString = Arrays.toString(deviceNodes);
+            final String previousDeviceNodesAsString = hidrawDeviceNodes.get();
+            if (!deviceNodesAsString.equals(previousDeviceNodesAsString) && hidrawDeviceNodes.compareAndSet(previousDeviceNodesAsString, deviceNodesAsString))
+               {
+               if (LOG.isDebugEnabled())
+                  {
+                  LOG.debug("HIDDeviceDiscoveryService.detectHotplugEvents(): HID device nodes changed from " + previousDeviceNodesAsString + " to " + deviceNodesAsString + ", discarding cached enumerations");
+                  }
+               invalidate();
+               }
+            }
+         }
+      }
+   }
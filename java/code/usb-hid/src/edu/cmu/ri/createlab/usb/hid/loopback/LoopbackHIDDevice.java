@@ -0,0 +1,156 @@
+package edu.cmu.ri.createlab.usb.hid.loopback;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import edu.cmu.ri.createlab.usb.hid.BaseHIDDevice;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
+import edu.cmu.ri.createlab.usb.hid.HIDWriteStatus;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>LoopbackHIDDevice</code> is an in-memory {@link edu.cmu.ri.createlab.usb.hid.HIDDevice} which answers every
+ * output report with an input report containing the same data bytes, followed by the command ID in the last byte, just
+ * as a CREATE Lab HID device does.  It allows the HID command queue and strategies to be exercised and measured without
+ * any hardware.  Like a real device, it holds only one pending input report: a write which is never read is simply
+ * replaced by the next one.  The report ID is not included in the read data.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class LoopbackHIDDevice extends BaseHIDDevice
+   {
+   private static final Logger LOG = Logger.getLogger(LoopbackHIDDevice.class);
+
+   private final byte[] dataSynchronizationLock = new byte[0];
+   private final byte[] pendingReport;
+   private final int outputReportByteLength;
+
+   // these variables must only ever be read/written from within a block synchronized on dataSynchronizationLock
+   private boolean isConnected = false;
+   private boolean isReportPending = false;
+
+   public LoopbackHIDDevice(final HIDDeviceDescriptor hidDeviceDescriptor)
+      {
+      super(hidDeviceDescriptor);
+
+      // input reports exclude the report ID, since isReportIDIncludedInReadData() returns false
+      this.pendingReport = new byte[hidDeviceDescriptor.getInputReportByteLength() - 1];
+      this.outputReportByteLength = hidDeviceDescriptor.getOutputReportByteLength();
+      }
+
+   public void connect()
+      {
+      LOG.debug("LoopbackHIDDevice.connect()");
+      synchronized (dataSynchronizationLock)
+         {
+         isConnected = true;
+         }
+      }
+
+   public void connectExclusively()
+      {
+      connect();
+      }
+
+   public String getDeviceFilename()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return isConnected ? "loopback" : null;
+         }
+      }
+
+   public byte[] read()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         if (isReportPending)
+            {
+            isReportPending = false;
+            return pendingReport.clone();
+            }
+         }
+      return null;
+      }
+
+   @Override
+   public int read(final ByteBuffer buffer)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         if (isReportPending)
+            {
+            isReportPending = false;
+            buffer.put(pendingReport);
+            return pendingReport.length;
+            }
+         }
+      return 0;
+      }
+
+   @Override
+   public int read(final ByteBuffer buffer, final int timeoutMillis)
+      {
+      final long endTime = System.currentTimeMillis() + timeoutMillis;
+      synchronized (dataSynchronizationLock)
+         {
+         long remainingMillis = timeoutMillis;
+         while (!isReportPending && remainingMillis > 0)
+            {
+            try
+               {
+               dataSynchronizationLock.wait(remainingMillis);
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               break;
+               }
+            remainingMillis = endTime - System.currentTimeMillis();
+            }
+         }
+      return read(buffer);
+      }
+
+   public boolean isReportIDIncludedInReadData()
+      {
+      return false;
+      }
+
+   public HIDWriteStatus write(final byte[] data)
+      {
+      if (data != null)
+         {
+         synchronized (dataSynchronizationLock)
+            {
+            if (isConnected)
+               {
+               final byte commandId = getCommandId();
+
+               // data is truncated to fit between the report ID and the command ID, just as in a real output report
+               Arrays.fill(pendingReport, (byte)0);
+               System.arraycopy(data, 0, pendingReport, 0, Math.min(data.length, Math.min(pendingReport.length - 1, outputReportByteLength - 2)));
+               pendingReport[pendingReport.length - 1] = commandId;
+               isReportPending = true;
+               dataSynchronizationLock.notifyAll();
+
+               return new HIDWriteStatus(data.length, outputReportByteLength, true, commandId & 0xff);
+               }
+            }
+         }
+      return HIDWriteStatus.WRITE_FAILED;
+      }
+
+   public boolean disconnect()
+      {
+      LOG.debug("LoopbackHIDDevice.disconnect()");
+      synchronized (dataSynchronizationLock)
+         {
+         final boolean wasConnected = isConnected;
+         isConnected = false;
+         isReportPending = false;
+         return wasConnected;
+         }
+      }
+   }
@@ -4,16 +4,14 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Point;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
-import edu.cmu.ri.createlab.collections.Dataset;
-import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import edu.cmu.ri.createlab.collections.SingleWriterDataset;
+import edu.cmu.ri.createlab.util.thread.SharedExecutors;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
@@ -27,14 +25,20 @@ public final class DatasetPlotter<T extends Number>
    public static final int REFRESH_PERIOD_MILLISECONDS = 50;
 
    private final Plot plot;
-   private Color defaultPlotColor = DEFAULT_PLOTTING_COLOR;
+   private volatile Color defaultPlotColor = DEFAULT_PLOTTING_COLOR;
 
-   private final Map<Integer, Dataset<T>> datasetMap = new HashMap<Integer, Dataset<T>>();
-   private final Map<Integer, Color> colorMap = new HashMap<Integer, Color>();
-   private final Map<Integer, T> latestValues = new HashMap<Integer, T>();
+   // The datasets are only ever appended to by the executorService's thread, and read by the plot's painting thread.
+   // Datasets are rarely added, so the list is copy-on-write, which lets both threads iterate over it without locking.
+   // A dataset's index is its position in the list.
+   private final List<PlottedDataset> datasets = new CopyOnWriteArrayList<PlottedDataset>();
+
+   // the latest values are replaced, never modified, so the executorService's thread can read them without locking
+   private volatile Number[] latestValues = new Number[0];
+
+   // guards additions to the datasets and updates to the latest values
    private final byte[] lock = new byte[0];
    private final int historyLength;
-   private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("DatasetPlotter.executorService"));
+   private final ScheduledExecutorService executorService = SharedExecutors.newSingleThreadScheduledExecutor("DatasetPlotter.executorService");
 
    /**
     * Creates a <code>DatasetPlotter</code> with a width of {@link #DEFAULT_WIDTH} and a height of
@@ -88,17 +92,19 @@ public final class DatasetPlotter<T extends Number>
 
    private void copyLatestValuesToDatasets()
       {
-      synchronized (lock)
+      final Number[] values = latestValues;
+      final int numDatasets = datasets.size();
+      if (numDatasets > 0)
          {
-         if (datasetMap.size() > 0)
+         for (int index = 0; index < numDatasets; index++)
             {
-            for (final Integer index : datasetMap.keySet())
+            final Number latestValue = (index < values.length) ? values[index] : null;
+            if (latestValue != null)
                {
-               final Dataset<T> dataset = datasetMap.get(index);
-               dataset.append(latestValues.get(index));
+               datasets.get(index).dataset.append(latestValue.doubleValue());
                }
-            plot.repaint();
             }
+         plot.repaint();
          }
       }
 
@@ -126,12 +132,12 @@ public final class DatasetPlotter<T extends Number>
     */
    public int addDataset(final Color color)
       {
-      final Dataset<T> dataset = new Dataset<T>(historyLength);
+      final SingleWriterDataset dataset = new SingleWriterDataset(historyLength);
 
       return addDataset(dataset, color);
       }
 
-   private int addDataset(final Dataset<T> dataset, final Color color)
+   private int addDataset(final SingleWriterDataset dataset, final Color color)
       {
       if (dataset == null)
          {
@@ -140,10 +146,8 @@ public final class DatasetPlotter<T extends Number>
 
       synchronized (lock)
          {
-         final int index = datasetMap.size();
-         datasetMap.put(index, dataset);
-         colorMap.put(index, color);
-         latestValues.put(index, null);
+         final int index = datasets.size();
+         datasets.add(new PlottedDataset(dataset, color));
 
          return index;
          }
@@ -160,10 +164,12 @@ public final class DatasetPlotter<T extends Number>
          {
          synchronized (lock)
             {
-            for (int index = 0; index < values.length; index++)
-               {
-               latestValues.put(index, values[index]);
-               }
+            // values for datasets beyond the end of the given values are kept
+            final Number[] previousValues = latestValues;
+            final Number[] newValues = new Number[Math.max(previousValues.length, values.length)];
+            System.arraycopy(previousValues, 0, newValues, 0, previousValues.length);
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            latestValues = newValues;
             }
          }
       }
@@ -177,12 +183,9 @@ public final class DatasetPlotter<T extends Number>
     */
    public void setDefaultPlottingColor(final Color color)
       {
-      synchronized (lock)
+      if (color != null)
          {
-         if (color != null)
-            {
-            defaultPlotColor = color;
-            }
+         defaultPlotColor = color;
          }
       }
 
@@ -198,17 +201,21 @@ public final class DatasetPlotter<T extends Number>
          }
       }
 
-   private Color getDatasetColor(final Integer index)
+   private Color getDatasetColor(final PlottedDataset plottedDataset)
+      {
+      return (plottedDataset.color == null) ? defaultPlotColor : plottedDataset.color;
+      }
+
+   private static final class PlottedDataset
       {
-      if (index != null)
+      private final SingleWriterDataset dataset;
+      private final Color color;
+
+      private PlottedDataset(final SingleWriterDataset dataset, final Color color)
          {
-         final Color color = colorMap.get(index);
-         if (color != null)
-            {
-            return color;
-            }
+         this.dataset = dataset;
+         this.color = color;
          }
-      return defaultPlotColor;
       }
 
    private final class Plot extends JPanel
@@ -220,12 +227,16 @@ public final class DatasetPlotter<T extends Number>
 
       private final double multiplier;
 
+      /** Reused for every dataset snapshot, so that painting doesn't allocate */
+      private final double[] data;
+
       private Plot(final T yMin, final T yMax, final int width, final int height)
          {
          super(true);
          this.width = width;
          size = new Dimension(width, height);
          this.yMax = yMax.doubleValue();
+         this.data = new double[width];
 
          multiplier = (double)height / (yMax.doubleValue() - yMin.doubleValue());
 
@@ -247,43 +258,37 @@ public final class DatasetPlotter<T extends Number>
          return size;
          }
 
-      @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext"})
       protected void paintComponent(final Graphics g)
          {
          super.paintComponent(g);
 
-         synchronized (lock)
+         final int numDatasets = datasets.size();
+         for (int index = 0; index < numDatasets; index++)
             {
-            if (datasetMap.size() > 0)
+            final PlottedDataset plottedDataset = datasets.get(index);
+            final int count = plottedDataset.dataset.copyTo(data, 0);
+
+            g.setColor(getDatasetColor(plottedDataset));
+
+            Point previousPoint = null;
+            int x = width - 1;
+            for (int i = 0; i < count; i++)
                {
-               for (final Integer index : datasetMap.keySet())
+               final int y = (int)((yMax - data[i]) * multiplier);
+
+               if (previousPoint != null)
                   {
-                  final Dataset<T> dataset = datasetMap.get(index);
-                  final List<T> data = dataset.getData();
-
-                  g.setColor(getDatasetColor(index));
-
-                  Point previousPoint = null;
-                  int x = width - 1;
-                  for (int i = 0; i < data.size(); i++)
-                     {
-                     final int y = (int)((yMax - data.get(i).doubleValue()) * multiplier);
-
-                     if (previousPoint != null)
-                        {
-                        g.drawLine(x, y, previousPoint.x, previousPoint.y);
-                        }
-                     else
-                        {
-                        previousPoint = new Point(x, y);
-                        g.fillRect(x, y, 1, 1);
-                        }
-                     previousPoint.x = x;
-                     previousPoint.y = y;
-
-                     x--;
-                     }
+                  g.drawLine(x, y, previousPoint.x, previousPoint.y);
                   }
+               else
+                  {
+                  previousPoint = new Point(x, y);
+                  g.fillRect(x, y, 1, 1);
+                  }
+               previousPoint.x = x;
+               previousPoint.y = y;
+
+               x--;
                }
             }
          }
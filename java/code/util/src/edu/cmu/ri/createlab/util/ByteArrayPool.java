@@ -0,0 +1,156 @@
+package edu.cmu.ri.createlab.util;
+
+/**
+ * <p>
+ * <code>ByteArrayPool</code> recycles byte arrays so that code which repeatedly needs short-lived buffers (e.g. to
+ * hold the response to each command sent to a device) doesn't produce a steady stream of garbage.  Arrays are pooled
+ * in power-of-two size classes between {@link #MIN_ARRAY_LENGTH} and a configurable maximum, with a bounded number of
+ * arrays kept per size class.  Requests for arrays larger than the maximum are simply allocated, and such arrays are
+ * silently dropped when released.
+ * </p>
+ * <p>
+ * Acquiring and releasing never allocate once the pool has warmed up.  Callers must not use an array after releasing
+ * it, and must release each array at most once; the pool cannot detect either mistake.  Arrays which are never
+ * released are simply garbage collected.  Instances are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class ByteArrayPool
+   {
+   /** The length of the smallest array handed out by the pool. */
+   public static final int MIN_ARRAY_LENGTH = 16;
+
+   private static final int MIN_SIZE_CLASS = Integer.numberOfTrailingZeros(MIN_ARRAY_LENGTH);
+
+   private final int maxArrayLength;
+   private final SizeClass[] sizeClasses;
+
+   /**
+    * Creates a <code>ByteArrayPool</code> which pools arrays of up to <code>maxArrayLength</code> bytes (rounded up to
+    * a power of two), keeping at most <code>maxArraysPerSizeClass</code> arrays of each size.
+    *
+    * @throws IllegalArgumentException if <code>maxArrayLength</code> is less than {@link #MIN_ARRAY_LENGTH} or greater than 2<sup>30</sup>, or if <code>maxArraysPerSizeClass</code> is not positive
+    */
+   public ByteArrayPool(final int maxArrayLength, final int maxArraysPerSizeClass)
+      {
+      if (maxArrayLength < MIN_ARRAY_LENGTH || maxArrayLength > (1 << 30))
+         {
+         throw new IllegalArgumentException("The max array length [" + maxArrayLength + "] must be within the range [" + MIN_ARRAY_LENGTH + ", 2^30]");
+         }
+      if (maxArraysPerSizeClass <= 0)
+         {
+         throw new IllegalArgumentException("The max number of arrays per size class [" + maxArraysPerSizeClass + "] must be positive");
+         }
+      final int maxSizeClass = getSizeClass(maxArrayLength);
+      this.maxArrayLength = 1 << maxSizeClass;
+      this.sizeClasses = new SizeClass[maxSizeClass - MIN_SIZE_CLASS + 1];
+      for (int i = 0; i < sizeClasses.length; i++)
+         {
+         sizeClasses[i] = new SizeClass(maxArraysPerSizeClass);
+         }
+      }
+
+   /** Returns the base-2 logarithm of the smallest power of two which is at least the given length. */
+   private static int getSizeClass(final int length)
+      {
+      return (length <= MIN_ARRAY_LENGTH) ? MIN_SIZE_CLASS : 32 - Integer.numberOfLeadingZeros(length - 1);
+      }
+
+   /** Returns the length of the largest array which will be pooled. */
+   public int getMaxArrayLength()
+      {
+      return maxArrayLength;
+      }
+
+   /**
+    * Returns an array of at least the given length.  The contents of the array are undefined.
+    *
+    * @throws IllegalArgumentException if <code>minLength</code> is negative
+    */
+   public byte[] acquire(final int minLength)
+      {
+      if (minLength < 0)
+         {
+         throw new IllegalArgumentException("The length [" + minLength + "] must not be negative");
+         }
+      if (minLength > maxArrayLength)
+         {
+         return new byte[minLength];
+         }
+      final int sizeClass = getSizeClass(minLength);
+      final byte[] array = sizeClasses[sizeClass - MIN_SIZE_CLASS].poll();
+      return (array == null) ? new byte[1 << sizeClass] : array;
+      }
+
+   /**
+    * Returns the given array to the pool.  Arrays which weren't acquired from a pool with the same size classes (i.e.
+    * whose length isn't a pooled power of two), and arrays released when their size class is full, are dropped.
+    * Does nothing if the array is <code>null</code>.
+    */
+   public void release(final byte[] array)
+      {
+      if (array == null || array.length < MIN_ARRAY_LENGTH || array.length > maxArrayLength || Integer.bitCount(array.length) != 1)
+         {
+         return;
+         }
+      sizeClasses[Integer.numberOfTrailingZeros(array.length) - MIN_SIZE_CLASS].offer(array);
+      }
+
+   /** Returns the number of arrays currently available in the pool. */
+   public int getNumberOfPooledArrays()
+      {
+      int count = 0;
+      for (final SizeClass sizeClass : sizeClasses)
+         {
+         count += sizeClass.size();
+         }
+      return count;
+      }
+
+   /** A bounded stack of arrays of a single size.  A plain array is used (rather than a collection) to avoid garbage. */
+   private static final class SizeClass
+      {
+      private final byte[] lock = new byte[0];
+      private final byte[][] arrays;
+      private int count = 0;
+
+      private SizeClass(final int capacity)
+         {
+         this.arrays = new byte[capacity][];
+         }
+
+      private byte[] poll()
+         {
+         synchronized (lock)
+            {
+            if (count == 0)
+               {
+               return null;
+               }
+            final byte[] array = arrays[--count];
+            arrays[count] = null;
+            return array;
+            }
+         }
+
+      private void offer(final byte[] array)
+         {
+         synchronized (lock)
+            {
+            if (count < arrays.length)
+               {
+               arrays[count++] = array;
+               }
+            }
+         }
+
+      private int size()
+         {
+         synchronized (lock)
+            {
+            return count;
+            }
+         }
+      }
+   }
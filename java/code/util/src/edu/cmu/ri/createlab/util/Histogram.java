@@ -0,0 +1,171 @@
+package edu.cmu.ri.createlab.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * <code>Histogram</code> records the distribution of non-negative <code>long</code> values in buckets whose bounds are
+ * powers of two: bucket 0 holds the value zero, and bucket <code>i</code> holds values in the range
+ * [2<sup>i-1</sup>, 2<sup>i</sup>).  The coarse buckets keep recording to a few lock-free atomic updates, so a
+ * <code>Histogram</code> is cheap enough to leave enabled in production, while still showing the shape of e.g. a
+ * latency distribution to within a factor of two.  Negative values are recorded as zero.
+ * </p>
+ * <p>
+ * Since each bucket is updated independently, a snapshot read while values are being recorded may be very slightly
+ * inconsistent, e.g. the count may not equal the sum of the bucket counts.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class Histogram
+   {
+   private static final int NUMBER_OF_BUCKETS = 64;
+
+   private final AtomicLongArray bucketCounts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+   private final AtomicLong count = new AtomicLong(0);
+   private final AtomicLong sum = new AtomicLong(0);
+   private final AtomicLong max = new AtomicLong(0);
+
+   /** Returns the index of the bucket holding the given value. */
+   static int getBucketIndex(final long value)
+      {
+      return (value <= 0) ? 0 : Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+      }
+
+   /** Returns the largest value held by the bucket with the given index. */
+   static long getBucketUpperBound(final int bucketIndex)
+      {
+      return (bucketIndex == 0) ? 0 : (bucketIndex >= NUMBER_OF_BUCKETS - 1) ? Long.MAX_VALUE : (1L << bucketIndex) - 1;
+      }
+
+   /** Records the given value. */
+   public void record(final long value)
+      {
+      final long clampedValue = Math.max(0, value);
+      bucketCounts.incrementAndGet(getBucketIndex(clampedValue));
+      count.incrementAndGet();
+      sum.addAndGet(clampedValue);
+
+      long currentMax = max.get();
+      while (clampedValue > currentMax && !max.compareAndSet(currentMax, clampedValue))
+         {
+         currentMax = max.get();
+         }
+      }
+
+   /** Returns the number of values recorded. */
+   public long getCount()
+      {
+      return count.get();
+      }
+
+   /** Returns the sum of the values recorded. */
+   public long getSum()
+      {
+      return sum.get();
+      }
+
+   /** Returns the largest value recorded, or zero if none have been. */
+   public long getMax()
+      {
+      return max.get();
+      }
+
+   /** Returns the mean of the values recorded, or zero if none have been. */
+   public double getMean()
+      {
+      final long n = count.get();
+      return (n == 0) ? 0 : sum.get() / (double)n;
+      }
+
+   /**
+    * Returns an upper bound for the given percentile (between 0 and 100) of the values recorded, accurate to within a
+    * factor of two, and never greater than the largest value recorded.  Returns zero if no values have been recorded.
+    *
+    * @throws IllegalArgumentException if the percentile is not within the range [0, 100]
+    */
+   public long getPercentile(final double percentile)
+      {
+      if (percentile < 0 || percentile > 100)
+         {
+         throw new IllegalArgumentException("The percentile [" + percentile + "] must be within the range [0, 100]");
+         }
+
+      final long[] counts = getBucketCounts();
+      long total = 0;
+      for (final long bucketCount : counts)
+         {
+         total += bucketCount;
+         }
+      if (total == 0)
+         {
+         return 0;
+         }
+
+      final long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+      long cumulativeCount = 0;
+      for (int i = 0; i < counts.length; i++)
+         {
+         cumulativeCount += counts[i];
+         if (cumulativeCount >= rank)
+            {
+            return Math.min(getBucketUpperBound(i), max.get());
+            }
+         }
+      return max.get();
+      }
+
+   /** Returns a snapshot of the counts in each bucket. */
+   public long[] getBucketCounts()
+      {
+      final long[] counts = new long[NUMBER_OF_BUCKETS];
+      for (int i = 0; i < counts.length; i++)
+         {
+         counts[i] = bucketCounts.get(i);
+         }
+      return counts;
+      }
+
+   /** Resets the histogram to its empty state. */
+   public void reset()
+      {
+      for (int i = 0; i < NUMBER_OF_BUCKETS; i++)
+         {
+         bucketCounts.set(i, 0);
+         }
+      count.set(0);
+      sum.set(0);
+      max.set(0);
+      }
+
+   /**
+    * Returns a compact description of the non-empty buckets, e.g. <code>{0:3, 1:5, 2-3:1, 4-7:2}</code>, where each
+    * entry gives the range of values held by a bucket and the number of values recorded in it.
+    */
+   @Override
+   public String toString()
+      {
+      final StringBuilder s = new StringBuilder("{");
+      final long[] counts = getBucketCounts();
+      for (int i = 0; i < counts.length; i++)
+         {
+         if (counts[i] > 0)
+            {
+            if (s.length() > 1)
+               {
+               s.append(", ");
+               }
+            final long lowerBound = (i == 0) ? 0 : getBucketUpperBound(i - 1) + 1;
+            final long upperBound = getBucketUpperBound(i);
+            s.append(lowerBound);
+            if (upperBound != lowerBound)
+               {
+               s.append('-').append(upperBound);
+               }
+            s.append(':').append(counts[i]);
+            }
+         }
+      return s.append('}').toString();
+      }
+   }
@@ -0,0 +1,142 @@
+package edu.cmu.ri.createlab.util;
+
+/**
+ * <p>
+ * <code>RoundTripTimeEstimator</code> estimates a timeout for a request/response exchange from the round trip times
+ * observed so far, using the same smoothed mean and mean deviation estimators TCP uses for its retransmission timeout
+ * (RFC 6298).  The timeout is the smoothed round trip time plus four times its deviation, so it tracks a healthy link
+ * closely while still allowing for ordinary jitter.  Each timeout doubles the estimate (up to a limit) until the next
+ * successful round trip, so that a link which has merely slowed down isn't repeatedly timed out.
+ * </p>
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class RoundTripTimeEstimator
+   {
+   /** The number of round trips which must be observed before the estimate is used. */
+   public static final int MIN_NUMBER_OF_SAMPLES = 4;
+
+   private static final double SMOOTHING_GAIN = 1.0 / 8;
+   private static final double DEVIATION_GAIN = 1.0 / 4;
+   private static final int DEVIATION_MULTIPLIER = 4;
+   private static final int MAX_BACKOFF_SHIFT = 6;
+   private static final double NANOS_PER_MILLI = 1000000.0;
+
+   private final long minTimeoutMillis;
+   private final byte[] dataSynchronizationLock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on dataSynchronizationLock
+   private int numberOfSamples = 0;
+   private double smoothedRoundTripTimeMillis = 0;
+   private double roundTripTimeDeviationMillis = 0;
+   private int backoffShift = 0;
+
+   /**
+    * Creates a <code>RoundTripTimeEstimator</code> which never estimates a timeout shorter than the given minimum.
+    *
+    * @throws IllegalArgumentException if <code>minTimeoutMillis</code> is negative
+    */
+   public RoundTripTimeEstimator(final long minTimeoutMillis)
+      {
+      if (minTimeoutMillis < 0)
+         {
+         throw new IllegalArgumentException("The minimum timeout [" + minTimeoutMillis + "] must not be negative");
+         }
+      this.minTimeoutMillis = minTimeoutMillis;
+      }
+
+   /** Records a successful round trip which took the given number of nanoseconds, and cancels any timeout backoff. */
+   public void recordRoundTrip(final long roundTripTimeNanos)
+      {
+      final double sampleMillis = Math.max(0, roundTripTimeNanos) / NANOS_PER_MILLI;
+      synchronized (dataSynchronizationLock)
+         {
+         if (numberOfSamples == 0)
+            {
+            smoothedRoundTripTimeMillis = sampleMillis;
+            roundTripTimeDeviationMillis = sampleMillis / 2;
+            }
+         else
+            {
+            roundTripTimeDeviationMillis += DEVIATION_GAIN * (Math.abs(smoothedRoundTripTimeMillis - sampleMillis) - roundTripTimeDeviationMillis);
+            smoothedRoundTripTimeMillis += SMOOTHING_GAIN * (sampleMillis - smoothedRoundTripTimeMillis);
+            }
+         if (numberOfSamples < Integer.MAX_VALUE)
+            {
+            numberOfSamples++;
+            }
+         backoffShift = 0;
+         }
+      }
+
+   /** Records a timeout, which doubles subsequent timeout estimates until the next successful round trip. */
+   public void recordTimeout()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         backoffShift = Math.min(MAX_BACKOFF_SHIFT, backoffShift + 1);
+         }
+      }
+
+   /**
+    * Returns the estimated timeout in milliseconds, bounded below by the minimum timeout and above by the given
+    * <code>maxTimeoutMillis</code>.  Returns <code>maxTimeoutMillis</code> until at least
+    * {@link #MIN_NUMBER_OF_SAMPLES} round trips have been recorded.
+    */
+   public long getTimeoutMillis(final long maxTimeoutMillis)
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         if (numberOfSamples < MIN_NUMBER_OF_SAMPLES)
+            {
+            return maxTimeoutMillis;
+            }
+         final double estimateMillis = (smoothedRoundTripTimeMillis + DEVIATION_MULTIPLIER * roundTripTimeDeviationMillis) * (1 << backoffShift);
+         return Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, (long)Math.ceil(estimateMillis)));
+         }
+      }
+
+   /** Returns the smoothed round trip time in milliseconds, or zero if none have been recorded. */
+   public double getSmoothedRoundTripTimeMillis()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return smoothedRoundTripTimeMillis;
+         }
+      }
+
+   /** Returns the mean deviation of the round trip time in milliseconds, or zero if none have been recorded. */
+   public double getRoundTripTimeDeviationMillis()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return roundTripTimeDeviationMillis;
+         }
+      }
+
+   /** Returns the number of round trips recorded. */
+   public int getNumberOfSamples()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return numberOfSamples;
+         }
+      }
+
+   @Override
+   public String toString()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return "RoundTripTimeEstimator{" +
+                "samples=" + numberOfSamples +
+                ", smoothedMillis=" + smoothedRoundTripTimeMillis +
+                ", deviationMillis=" + roundTripTimeDeviationMillis +
+                ", backoffShift=" + backoffShift +
+                '}';
+         }
+      }
+   }
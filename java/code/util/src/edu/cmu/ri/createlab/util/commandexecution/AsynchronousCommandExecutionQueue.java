@@ -0,0 +1,34 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * <code>AsynchronousCommandExecutionQueue</code> is a {@link CommandExecutionQueue} which also allows commands to be
+ * submitted without blocking the caller.  Submitted commands are executed in the order received, interleaved in that
+ * same order with any commands passed to the blocking <code>execute()</code> methods, so a single caller may have many
+ * commands in flight at once.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface AsynchronousCommandExecutionQueue<CommandStrategyClass extends CommandStrategy, ResponseClass extends CommandResponse> extends CommandExecutionQueue<CommandStrategyClass, ResponseClass>
+   {
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link CommandResponse}.
+    *
+    * @throws RejectedExecutionException if the command cannot be accepted, for example because the queue has been shut down
+    */
+   Future<ResponseClass> submit(final CommandStrategyClass commandStrategy);
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately with a {@link Future} for its
+    * {@link CommandResponse}.  The given {@link CommandCompletionHandler} (if non-<code>null</code>) is notified once
+    * the command completes, fails, or is cancelled.
+    *
+    * @throws RejectedExecutionException if the command cannot be accepted, for example because the queue has been shut down
+    */
+   Future<ResponseClass> submit(final CommandStrategyClass commandStrategy, final CommandCompletionHandler<ResponseClass> completionHandler);
+   }
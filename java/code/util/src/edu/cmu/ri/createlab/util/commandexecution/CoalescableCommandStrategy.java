@@ -0,0 +1,23 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+/**
+ * <p>
+ * <code>CoalescableCommandStrategy</code> is an optional interface for {@link CommandStrategy} implementations which
+ * are idempotent "set state" commands (e.g. "set LED 2 to value 255"), where only the most recently requested state
+ * matters.  If a command with a given coalescing key is added to a command queue supporting coalescing while an
+ * earlier command with an equal key is still waiting to be executed, the newer command replaces the older one in the
+ * queue (keeping the older command's position) so that intermediate values never go over the wire.  Everyone waiting
+ * on either command receives the newer command's response.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface CoalescableCommandStrategy
+   {
+   /**
+    * Returns the key which identifies the device state set by this command (e.g. the LED or motor port), or
+    * <code>null</code> if this particular instance should never be coalesced.  Keys must implement
+    * {@link Object#equals(Object)} and {@link Object#hashCode()} appropriately.
+    */
+   Object getCoalescingKey();
+   }
@@ -0,0 +1,216 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CommandCoalescer</code> helps command queues implement coalescing of {@link CoalescableCommandStrategy}
+ * commands.  It keeps track of which coalescable commands are still waiting to be executed and, when a new command
+ * with the same key is submitted, swaps the new strategy into the waiting command rather than adding another command
+ * to the queue.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandCoalescer<DeviceIOClass, ResponseClass extends CommandResponse>
+   {
+   private static final Logger LOG = Logger.getLogger(CommandCoalescer.class);
+
+   /**
+    * Returns <code>true</code> if the given {@link CommandStrategy} is a {@link CoalescableCommandStrategy} with a
+    * non-<code>null</code> coalescing key.
+    */
+   public static boolean isCoalescable(final CommandStrategy commandStrategy)
+      {
+      return commandStrategy instanceof CoalescableCommandStrategy &&
+             ((CoalescableCommandStrategy)commandStrategy).getCoalescingKey() != null;
+      }
+
+   private final Map<Object, PendingCommand> pendingCommands = new HashMap<Object, PendingCommand>();
+   private final byte[] dataSynchronizationLock = new byte[0];
+   private volatile CommandExecutionListener commandExecutionListener = null;
+
+   /**
+    * Sets the {@link CommandExecutionListener} to be notified about the execution of commands submitted from now on, or
+    * <code>null</code> for none.  Commands which are coalesced into a waiting command are reported only once, as an
+    * execution of the waiting command.
+    */
+   public void setCommandExecutionListener(final CommandExecutionListener commandExecutionListener)
+      {
+      this.commandExecutionListener = commandExecutionListener;
+      }
+
+   /**
+    * Submits the given coalescable {@link CommandStrategy} for execution on the given {@link Executor}, unless a
+    * command with an equal coalescing key is still waiting to be executed, in which case the given strategy replaces
+    * the waiting one.  Either way, the returned {@link Future} (and the given {@link CommandCompletionHandler}, if
+    * non-<code>null</code>) receives the response of whichever strategy is eventually executed.
+    *
+    * @throws IllegalArgumentException if the given strategy is not {@link #isCoalescable(CommandStrategy) coalescable}
+    * @throws RejectedExecutionException if the executor rejects the command
+    */
+   public Future<ResponseClass> submit(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy,
+                                       final DeviceIOClass deviceIO,
+                                       final CommandCompletionHandler<ResponseClass> completionHandler,
+                                       final Executor executor)
+      {
+      if (!isCoalescable(commandStrategy))
+         {
+         throw new IllegalArgumentException("The CommandStrategy must be a CoalescableCommandStrategy with a non-null coalescing key");
+         }
+      final Object key = ((CoalescableCommandStrategy)commandStrategy).getCoalescingKey();
+
+      final PendingCommand pendingCommand;
+      synchronized (dataSynchronizationLock)
+         {
+         final PendingCommand existingPendingCommand = pendingCommands.get(key);
+         if (existingPendingCommand != null)
+            {
+            // commands are removed from the map as soon as they start, so this one hasn't been sent yet
+            if (LOG.isTraceEnabled())
+               {
+               LOG.trace("CommandCoalescer.submit(): coalescing command with key [" + key + "]");
+               }
+            existingPendingCommand.commandStrategy = commandStrategy;
+            final CommandFutureTask<ResponseClass> follower = new CommandFutureTask<ResponseClass>(new Follower(existingPendingCommand.task), completionHandler);
+            existingPendingCommand.followers.add(follower);
+            return follower;
+            }
+
+         pendingCommand = new PendingCommand(key, commandStrategy, deviceIO, completionHandler);
+         pendingCommands.put(key, pendingCommand);
+         }
+
+      // execute outside of the lock since the executor may block if its queue is full
+      try
+         {
+         executor.execute(pendingCommand.task);
+         }
+      catch (RejectedExecutionException e)
+         {
+         // cancelling removes the command from the map and cancels anything which was coalesced into it in the meantime
+         pendingCommand.task.cancel(false);
+         throw e;
+         }
+      return pendingCommand.task;
+      }
+
+   /** Returns the number of coalescable commands which are currently waiting to be executed. */
+   public int getNumberOfPendingCommands()
+      {
+      synchronized (dataSynchronizationLock)
+         {
+         return pendingCommands.size();
+         }
+      }
+
+   private final class PendingCommand implements Callable<ResponseClass>
+      {
+      private final Object key;
+      private final DeviceIOClass deviceIO;
+      private final List<CommandFutureTask<ResponseClass>> followers = new ArrayList<CommandFutureTask<ResponseClass>>();
+      private final CommandFutureTask<ResponseClass> task;
+      private CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy;
+
+      private PendingCommand(final Object key,
+                             final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy,
+                             final DeviceIOClass deviceIO,
+                             final CommandCompletionHandler<ResponseClass> completionHandler)
+         {
+         this.key = key;
+         this.commandStrategy = commandStrategy;
+         this.deviceIO = deviceIO;
+         final CommandExecutionListener listener = commandExecutionListener;
+         final Callable<ResponseClass> callable = (listener == null) ? this : new InstrumentedCommand<ResponseClass>(this, commandStrategy.getClass(), listener);
+         this.task = new CommandFutureTask<ResponseClass>(callable, completionHandler)
+         {
+         @Override
+         protected void done()
+            {
+            super.done();
+            handleDone(isCancelled());
+            }
+         };
+         }
+
+      public ResponseClass call() throws Exception
+         {
+         final CommandStrategy<DeviceIOClass, ResponseClass> strategyToExecute;
+         synchronized (dataSynchronizationLock)
+            {
+            removeFromPendingCommands();
+            strategyToExecute = commandStrategy;
+            }
+         return strategyToExecute.execute(deviceIO);
+         }
+
+      private void handleDone(final boolean wasCancelled)
+         {
+         final List<CommandFutureTask<ResponseClass>> followersToComplete;
+         synchronized (dataSynchronizationLock)
+            {
+            // once removed from the map, no more followers can be added
+            removeFromPendingCommands();
+            followersToComplete = new ArrayList<CommandFutureTask<ResponseClass>>(followers);
+            followers.clear();
+            }
+
+         for (final CommandFutureTask<ResponseClass> follower : followersToComplete)
+            {
+            if (wasCancelled)
+               {
+               follower.cancel(false);
+               }
+            else
+               {
+               follower.run();
+               }
+            }
+         }
+
+      private void removeFromPendingCommands()
+         {
+         if (pendingCommands.get(key) == this)
+            {
+            pendingCommands.remove(key);
+            }
+         }
+      }
+
+   /** Returns the response of a completed command to a command which was coalesced into it. */
+   private final class Follower implements Callable<ResponseClass>
+      {
+      private final Future<ResponseClass> leader;
+
+      private Follower(final Future<ResponseClass> leader)
+         {
+         this.leader = leader;
+         }
+
+      public ResponseClass call() throws Exception
+         {
+         try
+            {
+            return leader.get();
+            }
+         catch (ExecutionException e)
+            {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+               {
+               throw (Exception)cause;
+               }
+            throw e;
+            }
+         }
+      }
+   }
@@ -0,0 +1,19 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+/**
+ * <p>
+ * <code>CommandCompletionHandler</code> is notified when a command submitted to an
+ * {@link AsynchronousCommandExecutionQueue} completes.  Handlers are called from the queue's execution thread, so
+ * implementations should return quickly and must not block waiting on other commands in the same queue.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface CommandCompletionHandler<ResponseClass extends CommandResponse>
+   {
+   /** Called with the response (which may be <code>null</code>) when the command completes normally. */
+   void handleCompletion(final ResponseClass response);
+
+   /** Called if the command threw an exception or was cancelled before it could complete. */
+   void handleFailure(final Throwable cause);
+   }
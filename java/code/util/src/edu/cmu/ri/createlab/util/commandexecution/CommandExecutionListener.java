@@ -0,0 +1,43 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+/**
+ * <p>
+ * <code>CommandExecutionListener</code> is notified about the execution of every command run by a command queue on
+ * which it has been registered, for collecting latency and throughput metrics.  Listeners are called from the queue's
+ * execution thread (except for {@link #handleCommandTimedOut(Class)}, which is called from the thread which was
+ * waiting for the response), so implementations must be thread safe and should return quickly.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ * @see CommandExecutionMetrics
+ */
+public interface CommandExecutionListener
+   {
+   /**
+    * Called after a command has been executed and returned a response.
+    *
+    * @param strategyClass the class of the {@link CommandStrategy} which was executed
+    * @param queueWaitNanos the time, in nanoseconds, the command spent waiting in the queue before execution began
+    * @param executionNanos the time, in nanoseconds, the command took to execute
+    * @param numberOfRetries the number of times the command was retried during execution
+    * @param wasSuccessful whether the response was non-<code>null</code> and {@link CommandResponse#wasSuccessful() successful}
+    */
+   void handleCommandExecuted(final Class<?> strategyClass, final long queueWaitNanos, final long executionNanos, final int numberOfRetries, final boolean wasSuccessful);
+
+   /**
+    * Called after a command has thrown an exception during execution.
+    *
+    * @param strategyClass the class of the {@link CommandStrategy} which was executed
+    * @param queueWaitNanos the time, in nanoseconds, the command spent waiting in the queue before execution began
+    * @param executionNanos the time, in nanoseconds, the command ran before throwing
+    * @param numberOfRetries the number of times the command was retried before throwing
+    * @param cause the exception thrown by the command
+    */
+   void handleCommandFailed(final Class<?> strategyClass, final long queueWaitNanos, final long executionNanos, final int numberOfRetries, final Throwable cause);
+
+   /**
+    * Called when a caller gives up waiting for the response to a command.  The command itself may still be waiting or
+    * executing, in which case it will later be reported to one of the other methods as well.
+    */
+   void handleCommandTimedOut(final Class<?> strategyClass);
+   }
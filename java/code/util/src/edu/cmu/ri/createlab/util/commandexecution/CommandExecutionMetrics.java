@@ -0,0 +1,183 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CommandExecutionMetrics</code> is a {@link CommandExecutionListener} which keeps {@link CommandStatistics} for
+ * all commands, as well as for each strategy class separately.  Register it with a command queue's
+ * <code>setCommandExecutionListener()</code> method, and then either query it directly or call
+ * {@link #registerMBeans(String)} to expose the statistics through JMX, where they appear under the
+ * <code>edu.cmu.ri.createlab</code> domain with the type <code>CommandExecutionMetrics</code>.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandExecutionMetrics implements CommandExecutionListener
+   {
+   private static final Logger LOG = Logger.getLogger(CommandExecutionMetrics.class);
+
+   private static final String JMX_DOMAIN = "edu.cmu.ri.createlab";
+   private static final String ALL_STRATEGIES_NAME = "all";
+
+   private final CommandStatistics totalStatistics = new CommandStatistics();
+   private final ConcurrentMap<Class<?>, CommandStatistics> statisticsByStrategyClass = new ConcurrentHashMap<Class<?>, CommandStatistics>();
+   private final byte[] mbeanLock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on mbeanLock
+   private String mbeanQueueName = null;
+   private final List<ObjectName> registeredMBeanNames = new ArrayList<ObjectName>();
+
+   public void handleCommandExecuted(final Class<?> strategyClass, final long queueWaitNanos, final long executionNanos, final int numberOfRetries, final boolean wasSuccessful)
+      {
+      totalStatistics.recordExecuted(queueWaitNanos, executionNanos, numberOfRetries, wasSuccessful);
+      getOrCreateStatistics(strategyClass).recordExecuted(queueWaitNanos, executionNanos, numberOfRetries, wasSuccessful);
+      }
+
+   public void handleCommandFailed(final Class<?> strategyClass, final long queueWaitNanos, final long executionNanos, final int numberOfRetries, final Throwable cause)
+      {
+      totalStatistics.recordFailed(queueWaitNanos, executionNanos, numberOfRetries);
+      getOrCreateStatistics(strategyClass).recordFailed(queueWaitNanos, executionNanos, numberOfRetries);
+      }
+
+   public void handleCommandTimedOut(final Class<?> strategyClass)
+      {
+      totalStatistics.recordTimedOut();
+      getOrCreateStatistics(strategyClass).recordTimedOut();
+      }
+
+   /** Returns the {@link CommandStatistics} for all commands. */
+   public CommandStatistics getTotalStatistics()
+      {
+      return totalStatistics;
+      }
+
+   /** Returns the {@link CommandStatistics} for the given strategy class, or <code>null</code> if none have been recorded. */
+   public CommandStatistics getStatistics(final Class<?> strategyClass)
+      {
+      return statisticsByStrategyClass.get(strategyClass);
+      }
+
+   /** Returns a snapshot of the {@link CommandStatistics} recorded so far, keyed by strategy class name. */
+   public SortedMap<String, CommandStatistics> getStatisticsByStrategyClassName()
+      {
+      final SortedMap<String, CommandStatistics> snapshot = new TreeMap<String, CommandStatistics>();
+      for (final Map.Entry<Class<?>, CommandStatistics> entry : statisticsByStrategyClass.entrySet())
+         {
+         snapshot.put(entry.getKey().getName(), entry.getValue());
+         }
+      return snapshot;
+      }
+
+   /** Resets all statistics to zero. */
+   public void reset()
+      {
+      totalStatistics.reset();
+      for (final CommandStatistics statistics : statisticsByStrategyClass.values())
+         {
+         statistics.reset();
+         }
+      }
+
+   /**
+    * Registers the statistics with the platform MBean server, under the given queue name (which should be unique
+    * within the JVM, e.g. include the port name).  Statistics for strategy classes seen for the first time after
+    * registration are registered as they appear.  Does nothing if already registered.
+    */
+   public void registerMBeans(final String queueName)
+      {
+      synchronized (mbeanLock)
+         {
+         if (mbeanQueueName != null)
+            {
+            return;
+            }
+         mbeanQueueName = queueName;
+         registerMBean(ALL_STRATEGIES_NAME, totalStatistics);
+         for (final Map.Entry<Class<?>, CommandStatistics> entry : statisticsByStrategyClass.entrySet())
+            {
+            registerMBean(entry.getKey().getName(), entry.getValue());
+            }
+         }
+      }
+
+   /** Unregisters any MBeans registered by {@link #registerMBeans(String)}. */
+   public void unregisterMBeans()
+      {
+      synchronized (mbeanLock)
+         {
+         final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+         for (final ObjectName name : registeredMBeanNames)
+            {
+            try
+               {
+               mbeanServer.unregisterMBean(name);
+               }
+            catch (JMException e)
+               {
+               LOG.error("CommandExecutionMetrics.unregisterMBeans(): JMException while unregistering MBean [" + name + "]", e);
+               }
+            }
+         registeredMBeanNames.clear();
+         mbeanQueueName = null;
+         }
+      }
+
+   private CommandStatistics getOrCreateStatistics(final Class<?> strategyClass)
+      {
+      final CommandStatistics statistics = statisticsByStrategyClass.get(strategyClass);
+      if (statistics != null)
+         {
+         return statistics;
+         }
+
+      final CommandStatistics newStatistics = new CommandStatistics();
+      final CommandStatistics existingStatistics = statisticsByStrategyClass.putIfAbsent(strategyClass, newStatistics);
+      if (existingStatistics != null)
+         {
+         return existingStatistics;
+         }
+
+      synchronized (mbeanLock)
+         {
+         if (mbeanQueueName != null)
+            {
+            registerMBean(strategyClass.getName(), newStatistics);
+            }
+         }
+      return newStatistics;
+      }
+
+   private void registerMBean(final String strategyName, final CommandStatistics statistics)
+      {
+      try
+         {
+         final ObjectName name = new ObjectName(JMX_DOMAIN + ":type=CommandExecutionMetrics" +
+                                                ",queue=" + ObjectName.quote(mbeanQueueName) +
+                                                ",strategy=" + ObjectName.quote(strategyName));
+
+         // a strategy class first seen during registration may be offered twice
+         if (registeredMBeanNames.contains(name))
+            {
+            return;
+            }
+         ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+         registeredMBeanNames.add(name);
+         }
+      catch (JMException e)
+         {
+         LOG.error("CommandExecutionMetrics.registerMBean(): JMException while registering the MBean for strategy [" + strategyName + "]", e);
+         }
+      }
+   }
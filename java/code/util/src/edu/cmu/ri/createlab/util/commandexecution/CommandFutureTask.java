@@ -0,0 +1,88 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CommandFutureTask</code> is a {@link FutureTask} which notifies an optional {@link CommandCompletionHandler}
+ * once the task is done.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public class CommandFutureTask<ResponseClass extends CommandResponse> extends FutureTask<ResponseClass>
+   {
+   private static final Logger LOG = Logger.getLogger(CommandFutureTask.class);
+
+   /**
+    * Cancels every {@link Future} in the given collection of tasks, such as the list returned by
+    * {@link java.util.concurrent.ExecutorService#shutdownNow()}, so that callers blocked in {@link Future#get()} and
+    * any {@link CommandCompletionHandler}s aren't left waiting for commands which will never run.  Tasks which aren't
+    * {@link Future}s are ignored.  Returns the number of tasks which were cancelled.
+    */
+   public static int cancelAll(final Collection<? extends Runnable> tasks)
+      {
+      int numCancelled = 0;
+      if (tasks != null)
+         {
+         for (final Runnable task : tasks)
+            {
+            if (task instanceof Future && ((Future<?>)task).cancel(false))
+               {
+               numCancelled++;
+               }
+            }
+         }
+      return numCancelled;
+      }
+
+   private final CommandCompletionHandler<ResponseClass> completionHandler;
+
+   public CommandFutureTask(final Callable<ResponseClass> callable, final CommandCompletionHandler<ResponseClass> completionHandler)
+      {
+      super(callable);
+      this.completionHandler = completionHandler;
+      }
+
+   @Override
+   protected void done()
+      {
+      if (completionHandler != null)
+         {
+         try
+            {
+            if (isCancelled())
+               {
+               completionHandler.handleFailure(new CancellationException("The command was cancelled"));
+               }
+            else
+               {
+               try
+                  {
+                  completionHandler.handleCompletion(get());
+                  }
+               catch (ExecutionException e)
+                  {
+                  completionHandler.handleFailure(e.getCause());
+                  }
+               }
+            }
+         catch (InterruptedException e)
+            {
+            // shouldn't ever happen since the task is already done
+            LOG.error("CommandFutureTask.done(): InterruptedException while getting the response", e);
+            Thread.currentThread().interrupt();
+            }
+         catch (Exception e)
+            {
+            LOG.error("CommandFutureTask.done(): Exception thrown by the CommandCompletionHandler", e);
+            }
+         }
+      }
+   }
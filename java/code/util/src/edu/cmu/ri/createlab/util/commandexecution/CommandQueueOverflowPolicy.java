@@ -0,0 +1,107 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import edu.cmu.ri.createlab.util.thread.SerialExecutor;
+import org.apache.log4j.Logger;
+
+/**
+ * Defines what a bounded command execution queue does when a command is submitted while the queue is full.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public enum CommandQueueOverflowPolicy
+   {
+      /** The submitting thread blocks until there is room in the queue. */
+      BLOCK("Block")
+         {
+         public SerialExecutor.RejectedTaskHandler getRejectedTaskHandler()
+            {
+            return new SerialExecutor.RejectedTaskHandler()
+            {
+            public void rejectedExecution(final Runnable runnable, final SerialExecutor executor)
+               {
+               if (executor.isShutdown())
+                  {
+                  throw new RejectedExecutionException("The queue has been shut down");
+                  }
+               try
+                  {
+                  executor.getQueue().put(runnable);
+                  }
+               catch (InterruptedException e)
+                  {
+                  Thread.currentThread().interrupt();
+                  throw new RejectedExecutionException("Interrupted while waiting for room in the queue", e);
+                  }
+
+               // make sure the executor wasn't shut down while we were waiting, otherwise the command will never run
+               if (executor.isShutdown() && executor.remove(runnable))
+                  {
+                  throw new RejectedExecutionException("The queue has been shut down");
+                  }
+               }
+            };
+            }
+         },
+
+      /** The submitted command is rejected with a {@link RejectedExecutionException}. */
+      REJECT("Reject")
+         {
+         public SerialExecutor.RejectedTaskHandler getRejectedTaskHandler()
+            {
+            return SerialExecutor.ABORT_POLICY;
+            }
+         },
+
+      /**
+       * The oldest command which is still waiting in the queue is cancelled (so anyone waiting on it will get a
+       * {@link java.util.concurrent.CancellationException}) to make room for the submitted command.
+       */
+      DROP_OLDEST("Drop Oldest")
+         {
+         public SerialExecutor.RejectedTaskHandler getRejectedTaskHandler()
+            {
+            return new SerialExecutor.RejectedTaskHandler()
+            {
+            public void rejectedExecution(final Runnable runnable, final SerialExecutor executor)
+               {
+               if (executor.isShutdown())
+                  {
+                  throw new RejectedExecutionException("The queue has been shut down");
+                  }
+
+               final Runnable oldest = executor.getQueue().poll();
+               if (oldest instanceof Future)
+                  {
+                  LOG.debug("CommandQueueOverflowPolicy.DROP_OLDEST: queue is full, cancelling the oldest command");
+                  ((Future)oldest).cancel(false);
+                  }
+               executor.execute(runnable);
+               }
+            };
+            }
+         };
+
+   private static final Logger LOG = Logger.getLogger(CommandQueueOverflowPolicy.class);
+
+   private final String name;
+
+   CommandQueueOverflowPolicy(final String name)
+      {
+      this.name = name;
+      }
+
+   public String getName()
+      {
+      return name;
+      }
+
+   /** Returns a {@link SerialExecutor.RejectedTaskHandler} which implements this policy for a {@link SerialExecutor} backed by a bounded queue. */
+   public abstract SerialExecutor.RejectedTaskHandler getRejectedTaskHandler();
+
+   public String toString()
+      {
+      return name;
+      }
+   }
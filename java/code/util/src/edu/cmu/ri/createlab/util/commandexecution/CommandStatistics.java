@@ -0,0 +1,148 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * <code>CommandStatistics</code> accumulates counts and timings of command executions.  All updates are lock free, so
+ * it's cheap enough to leave enabled in production.  Since each counter is updated independently, a set of values read
+ * while commands are executing may be very slightly inconsistent with one another.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandStatistics implements CommandStatisticsMBean
+   {
+   private static final double NANOS_PER_MICRO = 1000.0;
+
+   private final AtomicLong successfulCount = new AtomicLong(0);
+   private final AtomicLong unsuccessfulCount = new AtomicLong(0);
+   private final AtomicLong failedCount = new AtomicLong(0);
+   private final AtomicLong timedOutCount = new AtomicLong(0);
+   private final AtomicLong retryCount = new AtomicLong(0);
+   private final AtomicLong totalQueueWaitNanos = new AtomicLong(0);
+   private final AtomicLong maxQueueWaitNanos = new AtomicLong(0);
+   private final AtomicLong totalExecutionNanos = new AtomicLong(0);
+   private final AtomicLong maxExecutionNanos = new AtomicLong(0);
+
+   void recordExecuted(final long queueWaitNanos, final long executionNanos, final int numberOfRetries, final boolean wasSuccessful)
+      {
+      (wasSuccessful ? successfulCount : unsuccessfulCount).incrementAndGet();
+      recordTimings(queueWaitNanos, executionNanos, numberOfRetries);
+      }
+
+   void recordFailed(final long queueWaitNanos, final long executionNanos, final int numberOfRetries)
+      {
+      failedCount.incrementAndGet();
+      recordTimings(queueWaitNanos, executionNanos, numberOfRetries);
+      }
+
+   void recordTimedOut()
+      {
+      timedOutCount.incrementAndGet();
+      }
+
+   private void recordTimings(final long queueWaitNanos, final long executionNanos, final int numberOfRetries)
+      {
+      if (numberOfRetries > 0)
+         {
+         retryCount.addAndGet(numberOfRetries);
+         }
+      totalQueueWaitNanos.addAndGet(queueWaitNanos);
+      totalExecutionNanos.addAndGet(executionNanos);
+      updateMax(maxQueueWaitNanos, queueWaitNanos);
+      updateMax(maxExecutionNanos, executionNanos);
+      }
+
+   private static void updateMax(final AtomicLong max, final long value)
+      {
+      long currentMax = max.get();
+      while (value > currentMax && !max.compareAndSet(currentMax, value))
+         {
+         currentMax = max.get();
+         }
+      }
+
+   public long getExecutedCount()
+      {
+      return successfulCount.get() + unsuccessfulCount.get();
+      }
+
+   public long getSuccessfulCount()
+      {
+      return successfulCount.get();
+      }
+
+   public long getUnsuccessfulCount()
+      {
+      return unsuccessfulCount.get();
+      }
+
+   public long getFailedCount()
+      {
+      return failedCount.get();
+      }
+
+   public long getTimedOutCount()
+      {
+      return timedOutCount.get();
+      }
+
+   public long getRetryCount()
+      {
+      return retryCount.get();
+      }
+
+   public double getMeanQueueWaitMicros()
+      {
+      return getMeanMicros(totalQueueWaitNanos);
+      }
+
+   public double getMaxQueueWaitMicros()
+      {
+      return maxQueueWaitNanos.get() / NANOS_PER_MICRO;
+      }
+
+   public double getMeanExecutionMicros()
+      {
+      return getMeanMicros(totalExecutionNanos);
+      }
+
+   public double getMaxExecutionMicros()
+      {
+      return maxExecutionNanos.get() / NANOS_PER_MICRO;
+      }
+
+   private double getMeanMicros(final AtomicLong totalNanos)
+      {
+      final long count = getExecutedCount() + failedCount.get();
+      return (count == 0) ? 0 : totalNanos.get() / NANOS_PER_MICRO / count;
+      }
+
+   public void reset()
+      {
+      successfulCount.set(0);
+      unsuccessfulCount.set(0);
+      failedCount.set(0);
+      timedOutCount.set(0);
+      retryCount.set(0);
+      totalQueueWaitNanos.set(0);
+      maxQueueWaitNanos.set(0);
+      totalExecutionNanos.set(0);
+      maxExecutionNanos.set(0);
+      }
+
+   @Override
+   public String toString()
+      {
+      return "CommandStatistics{" +
+             "executed=" + getExecutedCount() +
+             ", successful=" + getSuccessfulCount() +
+             ", failed=" + getFailedCount() +
+             ", timedOut=" + getTimedOutCount() +
+             ", retries=" + getRetryCount() +
+             ", meanQueueWaitMicros=" + getMeanQueueWaitMicros() +
+             ", meanExecutionMicros=" + getMeanExecutionMicros() +
+             '}';
+      }
+   }
@@ -0,0 +1,44 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+/**
+ * <p>
+ * <code>CommandStatisticsMBean</code> is the JMX management interface for {@link CommandStatistics}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface CommandStatisticsMBean
+   {
+   /** Returns the number of commands which were executed and returned a response, whether successful or not. */
+   long getExecutedCount();
+
+   /** Returns the number of commands which returned a successful response. */
+   long getSuccessfulCount();
+
+   /** Returns the number of commands which returned an unsuccessful or <code>null</code> response. */
+   long getUnsuccessfulCount();
+
+   /** Returns the number of commands which threw an exception during execution. */
+   long getFailedCount();
+
+   /** Returns the number of times callers gave up waiting for a command's response. */
+   long getTimedOutCount();
+
+   /** Returns the total number of retries made by all commands. */
+   long getRetryCount();
+
+   /** Returns the mean time, in microseconds, commands spent waiting in the queue. */
+   double getMeanQueueWaitMicros();
+
+   /** Returns the longest time, in microseconds, any command spent waiting in the queue. */
+   double getMaxQueueWaitMicros();
+
+   /** Returns the mean time, in microseconds, commands took to execute. */
+   double getMeanExecutionMicros();
+
+   /** Returns the longest time, in microseconds, any command took to execute. */
+   double getMaxExecutionMicros();
+
+   /** Resets all the counters to zero. */
+   void reset();
+   }
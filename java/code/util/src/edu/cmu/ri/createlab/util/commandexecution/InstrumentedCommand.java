@@ -0,0 +1,106 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.concurrent.Callable;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>InstrumentedCommand</code> wraps the {@link Callable} a command queue uses to execute a {@link CommandStrategy}
+ * and reports the time the command spent waiting in the queue, the time it took to execute, and the number of
+ * retries it made to a {@link CommandExecutionListener}.  The queue wait is measured from the construction of the
+ * <code>InstrumentedCommand</code>, so queues should create it at the time the command is submitted.
+ * </p>
+ * <p>
+ * Strategies which retry internally report each retry by calling {@link #recordRetry()} from within their
+ * <code>execute()</code> method.  Retries are counted per thread, which works because a command queue executes only
+ * one command at a time on any given thread.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class InstrumentedCommand<ResponseClass extends CommandResponse> implements Callable<ResponseClass>
+   {
+   private static final Logger LOG = Logger.getLogger(InstrumentedCommand.class);
+
+   private static final ThreadLocal<int[]> RETRY_COUNTER = new ThreadLocal<int[]>()
+   {
+   @Override
+   protected int[] initialValue()
+      {
+      return new int[1];
+      }
+   };
+
+   /**
+    * Records a retry of the command currently being executed on the calling thread.  Does nothing useful (but is
+    * harmless) if the command isn't being executed by an <code>InstrumentedCommand</code>.
+    */
+   public static void recordRetry()
+      {
+      RETRY_COUNTER.get()[0]++;
+      }
+
+   private final Callable<ResponseClass> command;
+   private final Class<?> strategyClass;
+   private final CommandExecutionListener listener;
+   private final long submissionTimeNanos = System.nanoTime();
+
+   /**
+    * Creates an <code>InstrumentedCommand</code> which executes the given <code>command</code> and reports it to the
+    * given {@link CommandExecutionListener} as an execution of the given strategy class.
+    *
+    * @throws IllegalArgumentException if any argument is <code>null</code>
+    */
+   public InstrumentedCommand(final Callable<ResponseClass> command, final Class<?> strategyClass, final CommandExecutionListener listener)
+      {
+      if (command == null || strategyClass == null || listener == null)
+         {
+         throw new IllegalArgumentException("The command, strategy class, and listener cannot be null");
+         }
+      this.command = command;
+      this.strategyClass = strategyClass;
+      this.listener = listener;
+      }
+
+   public ResponseClass call() throws Exception
+      {
+      final int[] retryCounter = RETRY_COUNTER.get();
+      // the previous count is restored afterwards in case this command is executed from within another instrumented command
+      final int previousRetryCount = retryCounter[0];
+      retryCounter[0] = 0;
+
+      final long startTimeNanos = System.nanoTime();
+      final long queueWaitNanos = startTimeNanos - submissionTimeNanos;
+      final ResponseClass response;
+      try
+         {
+         response = command.call();
+         }
+      catch (Exception e)
+         {
+         final int numberOfRetries = retryCounter[0];
+         retryCounter[0] = previousRetryCount;
+         try
+            {
+            listener.handleCommandFailed(strategyClass, queueWaitNanos, System.nanoTime() - startTimeNanos, numberOfRetries, e);
+            }
+         catch (Exception listenerException)
+            {
+            LOG.error("InstrumentedCommand.call(): Exception thrown by the CommandExecutionListener", listenerException);
+            }
+         throw e;
+         }
+
+      final int numberOfRetries = retryCounter[0];
+      retryCounter[0] = previousRetryCount;
+      try
+         {
+         listener.handleCommandExecuted(strategyClass, queueWaitNanos, System.nanoTime() - startTimeNanos, numberOfRetries, response != null && response.wasSuccessful());
+         }
+      catch (Exception e)
+         {
+         LOG.error("InstrumentedCommand.call(): Exception thrown by the CommandExecutionListener", e);
+         }
+      return response;
+      }
+   }
@@ -0,0 +1,27 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.io.Closeable;
+
+/**
+ * <p>
+ * <code>ReleasableCommandResponse</code> is a {@link CommandResponse} whose data may be held in a pooled buffer, which
+ * should be returned to its pool once the response is no longer needed by calling {@link #release()} (or
+ * {@link #close()}, which is equivalent, so that the response can be used in a try-with-resources statement).  Failing
+ * to release a response is harmless, it just means its buffer gets garbage collected rather than reused.  The
+ * {@link ReturnValueCommandExecutor} releases responses automatically once they've been converted.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface ReleasableCommandResponse extends CommandResponse, Closeable
+   {
+   /**
+    * Returns the response's buffer (if any) to its pool.  Afterwards, the response's data may no longer be accessed,
+    * except that arrays previously returned by {@link #getData()} remain valid.  Calling this method more than once
+    * has no further effect.
+    */
+   void release();
+
+   /** Equivalent to {@link #release()}. */
+   void close();
+   }
@@ -29,7 +29,9 @@ public class ReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends Com
     * Executes the given {@link ReturnValueCommandStrategy}, converts the response (using
     * {@link ReturnValueCommandStrategy#convertResponse(CommandResponse)}), and then returns the result.  If the command
     * fails to execute, the {@link CommandExecutionFailureHandler#handleExecutionFailure()} method is called and
-    * <code>null</code> is returned.
+    * <code>null</code> is returned.  If the response is a {@link ReleasableCommandResponse}, it is released once it has
+    * been converted, so converters must not retain it (arrays returned by its {@link CommandResponse#getData()} method
+    * are safe to keep, though).
     *
     * @see CommandExecutionQueue#execute(CommandStrategy)
     */
@@ -38,7 +40,14 @@ public class ReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends Com
       try
          {
          final ResponseClass response = commandQueue.execute(commandStrategy);
-         return commandStrategy.convertResponse(response);
+         try
+            {
+            return commandStrategy.convertResponse(response);
+            }
+         finally
+            {
+            release(commandStrategy, response);
+            }
          }
       catch (Exception e)
          {
@@ -53,7 +62,9 @@ public class ReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends Com
     * Executes the given {@link ReturnValueCommandStrategy}, converts the response (using
     * {@link ReturnValueCommandStrategy#convertResponse(CommandResponse)}), and then returns the result.  If the command
     * fails to execute, the {@link CommandExecutionFailureHandler#handleExecutionFailure()} method is called and
-    * <code>null</code> is returned.
+    * <code>null</code> is returned.  If the response is a {@link ReleasableCommandResponse}, it is released once it has
+    * been converted, so converters must not retain it (arrays returned by its {@link CommandResponse#getData()} method
+    * are safe to keep, though).
     *
     * @see CommandExecutionQueue#execute(CommandStrategy, long, TimeUnit)
     */
@@ -62,7 +73,14 @@ public class ReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends Com
       try
          {
          final ResponseClass response = commandQueue.execute(commandStrategy, taskExecutionTimeout, taskExecutionTimeoutTimeUnit);
-         return commandStrategy.convertResponse(response);
+         try
+            {
+            return commandStrategy.convertResponse(response);
+            }
+         finally
+            {
+            release(commandStrategy, response);
+            }
          }
       catch (Exception e)
          {
@@ -72,4 +90,17 @@ public class ReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends Com
 
       return null;
       }
-   }
\ No newline at end of file
+
+   /**
+    * Releases the given response if it's a {@link ReleasableCommandResponse}.  Responses to
+    * {@link CoalescableCommandStrategy coalescable} commands are never released, since they may be shared with every
+    * command which was coalesced with the one that was executed.
+    */
+   private void release(final ReturnValueCommandStrategy<DeviceIOClass, ResponseClass, DesiredClass> commandStrategy, final ResponseClass response)
+      {
+      if (response instanceof ReleasableCommandResponse && !(commandStrategy instanceof CoalescableCommandStrategy))
+         {
+         ((ReleasableCommandResponse)response).release();
+         }
+      }
+   }
@@ -0,0 +1,336 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SerialExecutor</code> executes tasks one at a time, in the order in which they were submitted, but without a
+ * thread of its own.  Instead, whenever it has tasks waiting, it borrows a thread from a (typically shared) worker
+ * {@link Executor}, runs a limited number of tasks, and then gives the thread back.  Many serial executors can thus
+ * share a small worker pool while each still behaves like a single-threaded executor, which is what a device's command
+ * queue requires.
+ * </p>
+ * <p>
+ * Like a {@link java.util.concurrent.ThreadPoolExecutor}, a <code>SerialExecutor</code> exposes its work queue, and
+ * hands tasks which can't be queued (because the queue is full or the executor has been shut down) to a
+ * {@link RejectedTaskHandler}.  {@link #shutdownNow()} interrupts the task currently being run, if any, but never the
+ * worker thread once it has moved on to other work.
+ * </p>
+ * <p>
+ * Its state is guarded by a {@link ReentrantLock} rather than a monitor, so that a worker pool of virtual threads
+ * (see {@link SharedExecutors}) isn't pinned to its carrier threads while waiting for the lock.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialExecutor extends AbstractExecutorService
+   {
+   private static final Logger LOG = Logger.getLogger(SerialExecutor.class);
+
+   /** The max number of tasks run each time a worker thread is borrowed, so that busy executors can't starve idle ones. */
+   private static final int MAX_TASKS_PER_TURN = 16;
+
+   /** Handles a task which can't be queued by a {@link SerialExecutor}. */
+   public interface RejectedTaskHandler
+      {
+      void rejectedExecution(final Runnable runnable, final SerialExecutor executor);
+      }
+
+   /** A {@link RejectedTaskHandler} which throws a {@link RejectedExecutionException}. */
+   public static final RejectedTaskHandler ABORT_POLICY =
+         new RejectedTaskHandler()
+         {
+         public void rejectedExecution(final Runnable runnable, final SerialExecutor executor)
+            {
+            throw new RejectedExecutionException(executor.isShutdown() ? "The executor has been shut down" : "The queue is full");
+            }
+         };
+
+   private final Executor workerPool;
+   private final BlockingQueue<Runnable> workQueue;
+   private final RejectedTaskHandler rejectedTaskHandler;
+   private final Runnable turn =
+         new Runnable()
+         {
+         public void run()
+            {
+            takeTurn();
+            }
+         };
+
+   private final Lock lock = new ReentrantLock();
+   private final Condition stateChanged = lock.newCondition();
+
+   // these variables must only ever be read/written by a thread holding the lock
+   private boolean isShutdown = false;
+   private boolean isScheduled = false;
+   private Thread runningThread = null;
+
+   /** Creates a <code>SerialExecutor</code> with an unbounded work queue which runs its tasks on the given worker pool. */
+   public SerialExecutor(final Executor workerPool)
+      {
+      this(workerPool, new LinkedBlockingQueue<Runnable>(), ABORT_POLICY);
+      }
+
+   /**
+    * Creates a <code>SerialExecutor</code> which queues tasks in the given work queue and runs them on the given
+    * worker pool.  Tasks which can't be queued are given to the given {@link RejectedTaskHandler}.
+    *
+    * @throws IllegalArgumentException if any argument is <code>null</code>
+    */
+   public SerialExecutor(final Executor workerPool, final BlockingQueue<Runnable> workQueue, final RejectedTaskHandler rejectedTaskHandler)
+      {
+      if (workerPool == null || workQueue == null || rejectedTaskHandler == null)
+         {
+         throw new IllegalArgumentException("The worker pool, work queue, and RejectedTaskHandler cannot be null");
+         }
+      this.workerPool = workerPool;
+      this.workQueue = workQueue;
+      this.rejectedTaskHandler = rejectedTaskHandler;
+      }
+
+   /**
+    * Queues the given task for execution after all previously queued tasks.  If the task can't be queued, it's given
+    * to this executor's {@link RejectedTaskHandler}.
+    */
+   public void execute(final Runnable runnable)
+      {
+      if (runnable == null)
+         {
+         throw new NullPointerException();
+         }
+      if (isShutdown() || !workQueue.offer(runnable))
+         {
+         rejectedTaskHandler.rejectedExecution(runnable, this);
+         }
+      schedule();
+      }
+
+   /**
+    * Returns the work queue.  As with a {@link java.util.concurrent.ThreadPoolExecutor}, tasks may be inspected or
+    * removed, and a {@link RejectedTaskHandler} may add tasks directly, in which case they will be run once the
+    * handler returns.
+    */
+   public BlockingQueue<Runnable> getQueue()
+      {
+      return workQueue;
+      }
+
+   /** Removes the given task from the work queue, and returns <code>true</code> if it was there. */
+   public boolean remove(final Runnable runnable)
+      {
+      final boolean wasRemoved = workQueue.remove(runnable);
+      signalIfTerminated();
+      return wasRemoved;
+      }
+
+   public void shutdown()
+      {
+      lock.lock();
+      try
+         {
+         isShutdown = true;
+         stateChanged.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   public List<Runnable> shutdownNow()
+      {
+      final List<Runnable> unexecutedTasks = new ArrayList<Runnable>();
+      lock.lock();
+      try
+         {
+         isShutdown = true;
+         workQueue.drainTo(unexecutedTasks);
+         if (runningThread != null)
+            {
+            runningThread.interrupt();
+            }
+         stateChanged.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      return unexecutedTasks;
+      }
+
+   public boolean isShutdown()
+      {
+      lock.lock();
+      try
+         {
+         return isShutdown;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   public boolean isTerminated()
+      {
+      lock.lock();
+      try
+         {
+         return isShutdown && !isScheduled && workQueue.isEmpty();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+      {
+      long remainingNanos = unit.toNanos(timeout);
+      lock.lock();
+      try
+         {
+         while (!isTerminated())
+            {
+            if (remainingNanos <= 0)
+               {
+               return false;
+               }
+            remainingNanos = stateChanged.awaitNanos(remainingNanos);
+            }
+         return true;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+
+   /** Borrows a worker thread if there are tasks waiting and a turn isn't already scheduled. */
+   private void schedule()
+      {
+      lock.lock();
+      try
+         {
+         if (isScheduled || workQueue.isEmpty())
+            {
+            return;
+            }
+         isScheduled = true;
+         }
+      finally
+         {
+         lock.unlock();
+         }
+
+      try
+         {
+         workerPool.execute(turn);
+         }
+      catch (RuntimeException e)
+         {
+         lock.lock();
+         try
+            {
+            isScheduled = false;
+            stateChanged.signalAll();
+            }
+         finally
+            {
+            lock.unlock();
+            }
+         throw e;
+         }
+      }
+
+   /** Runs up to {@link #MAX_TASKS_PER_TURN} tasks on the borrowed worker thread. */
+   private void takeTurn()
+      {
+      try
+         {
+         for (int i = 0; i < MAX_TASKS_PER_TURN; i++)
+            {
+            final Runnable task;
+            lock.lock();
+            try
+               {
+               task = workQueue.poll();
+               if (task == null)
+                  {
+                  break;
+                  }
+               runningThread = Thread.currentThread();
+               }
+            finally
+               {
+               lock.unlock();
+               }
+
+            try
+               {
+               task.run();
+               }
+            catch (RuntimeException e)
+               {
+               LOG.error("SerialExecutor.takeTurn(): RuntimeException while running a task", e);
+               }
+            finally
+               {
+               lock.lock();
+               try
+                  {
+                  runningThread = null;
+
+                  // don't let an interrupt meant for this task leak into whatever the worker thread runs next
+                  Thread.interrupted();
+                  }
+               finally
+                  {
+                  lock.unlock();
+                  }
+               }
+            }
+         }
+      finally
+         {
+         lock.lock();
+         try
+            {
+            isScheduled = false;
+            stateChanged.signalAll();
+            }
+         finally
+            {
+            lock.unlock();
+            }
+
+         // tasks may have been queued after the last poll, in which case their submitters saw a turn already scheduled
+         schedule();
+         }
+      }
+
+   private void signalIfTerminated()
+      {
+      lock.lock();
+      try
+         {
+         stateChanged.signalAll();
+         }
+      finally
+         {
+         lock.unlock();
+         }
+      }
+   }
@@ -0,0 +1,264 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * <code>SerialScheduledExecutor</code> is a {@link ScheduledExecutorService} which behaves like one created by
+ * {@link java.util.concurrent.Executors#newSingleThreadScheduledExecutor()}, i.e. its tasks run one at a time, in
+ * order, but which has no thread of its own.  Tasks are run by a {@link SerialExecutor} on a (typically shared) worker
+ * pool, and delayed and periodic tasks are timed by a (typically shared) timer, which merely hands each task to the
+ * {@link SerialExecutor} once it's due.  The timer should therefore only ever run short tasks.
+ * </p>
+ * <p>
+ * Upon shutdown, delayed and periodic tasks which aren't yet due are cancelled.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService
+   {
+   private final SerialExecutor serialExecutor;
+   private final ScheduledExecutorService timer;
+
+   // variable for synchronization
+   private final byte[] lock = new byte[0];
+
+   // these variables must only ever be read/written from within a block synchronized on lock
+   private final Set<ScheduledTask<?>> scheduledTasks = new HashSet<ScheduledTask<?>>();
+   private boolean isShutdown = false;
+
+   /**
+    * Creates a <code>SerialScheduledExecutor</code> which runs its tasks on the given worker pool and times them with
+    * the given timer.
+    *
+    * @throws IllegalArgumentException if either argument is <code>null</code>
+    */
+   public SerialScheduledExecutor(final Executor workerPool, final ScheduledExecutorService timer)
+      {
+      if (workerPool == null || timer == null)
+         {
+         throw new IllegalArgumentException("The worker pool and timer cannot be null");
+         }
+      this.serialExecutor = new SerialExecutor(workerPool);
+      this.timer = timer;
+      }
+
+   public void execute(final Runnable runnable)
+      {
+      serialExecutor.execute(runnable);
+      }
+
+   public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit)
+      {
+      return schedule(new ScheduledTask<Object>(command, null, triggerTime(delay, unit), 0));
+      }
+
+   public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit)
+      {
+      return schedule(new ScheduledTask<V>(callable, triggerTime(delay, unit)));
+      }
+
+   public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period, final TimeUnit unit)
+      {
+      if (period <= 0)
+         {
+         throw new IllegalArgumentException("The period [" + period + "] must be positive");
+         }
+      return schedule(new ScheduledTask<Object>(command, null, triggerTime(initialDelay, unit), unit.toNanos(period)));
+      }
+
+   public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay, final long delay, final TimeUnit unit)
+      {
+      if (delay <= 0)
+         {
+         throw new IllegalArgumentException("The delay [" + delay + "] must be positive");
+         }
+      return schedule(new ScheduledTask<Object>(command, null, triggerTime(initialDelay, unit), -unit.toNanos(delay)));
+      }
+
+   public void shutdown()
+      {
+      cancelScheduledTasks();
+      serialExecutor.shutdown();
+      }
+
+   public List<Runnable> shutdownNow()
+      {
+      cancelScheduledTasks();
+      return serialExecutor.shutdownNow();
+      }
+
+   public boolean isShutdown()
+      {
+      return serialExecutor.isShutdown();
+      }
+
+   public boolean isTerminated()
+      {
+      return serialExecutor.isTerminated();
+      }
+
+   public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+      {
+      return serialExecutor.awaitTermination(timeout, unit);
+      }
+
+   private static long triggerTime(final long delay, final TimeUnit unit)
+      {
+      if (unit == null)
+         {
+         throw new NullPointerException();
+         }
+      return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+      }
+
+   /** Asks the timer to hand the given task to the serial executor once it's due. */
+   private <V> ScheduledTask<V> schedule(final ScheduledTask<V> task)
+      {
+      synchronized (lock)
+         {
+         if (isShutdown)
+            {
+            throw new RejectedExecutionException("The executor has been shut down");
+            }
+         scheduledTasks.add(task);
+         }
+
+      task.timerFuture = timer.schedule(
+            new Runnable()
+            {
+            public void run()
+               {
+               try
+                  {
+                  serialExecutor.execute(task);
+                  }
+               catch (RejectedExecutionException e)
+                  {
+                  task.cancel(false);
+                  }
+               }
+            },
+            task.getDelay(TimeUnit.NANOSECONDS),
+            TimeUnit.NANOSECONDS);
+      return task;
+      }
+
+   private void unschedule(final ScheduledTask<?> task)
+      {
+      synchronized (lock)
+         {
+         scheduledTasks.remove(task);
+         }
+      }
+
+   private void cancelScheduledTasks()
+      {
+      final List<ScheduledTask<?>> tasksToCancel;
+      synchronized (lock)
+         {
+         isShutdown = true;
+         tasksToCancel = new ArrayList<ScheduledTask<?>>(scheduledTasks);
+         scheduledTasks.clear();
+         }
+      for (final ScheduledTask<?> task : tasksToCancel)
+         {
+         task.cancel(false);
+         }
+      }
+
+   /**
+    * A delayed or periodic task.  A positive period means a fixed rate, a negative one a fixed delay, and zero means
+    * the task isn't periodic.
+    */
+   private final class ScheduledTask<V> extends FutureTask<V> implements ScheduledFuture<V>
+      {
+      private final long periodNanos;
+      private volatile long triggerTimeNanos;
+      private volatile Future<?> timerFuture = null;
+
+      private ScheduledTask(final Callable<V> callable, final long triggerTimeNanos)
+         {
+         super(callable);
+         this.periodNanos = 0;
+         this.triggerTimeNanos = triggerTimeNanos;
+         }
+
+      private ScheduledTask(final Runnable runnable, final V result, final long triggerTimeNanos, final long periodNanos)
+         {
+         super(runnable, result);
+         this.periodNanos = periodNanos;
+         this.triggerTimeNanos = triggerTimeNanos;
+         }
+
+      public long getDelay(final TimeUnit unit)
+         {
+         return unit.convert(triggerTimeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+         }
+
+      public int compareTo(final Delayed other)
+         {
+         if (other == this)
+            {
+            return 0;
+            }
+         final long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+         return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+         }
+
+      /** Runs on the serial executor once the task is due. */
+      @Override
+      public void run()
+         {
+         if (periodNanos == 0)
+            {
+            unschedule(this);
+            super.run();
+            }
+         else if (runAndReset())
+            {
+            triggerTimeNanos = (periodNanos > 0) ? triggerTimeNanos + periodNanos : System.nanoTime() - periodNanos;
+            unschedule(this);
+            try
+               {
+               schedule(this);
+               }
+            catch (RejectedExecutionException e)
+               {
+               cancel(false);
+               }
+            }
+         else
+            {
+            unschedule(this);
+            }
+         }
+
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning)
+         {
+         final boolean wasCancelled = super.cancel(mayInterruptIfRunning);
+         final Future<?> future = timerFuture;
+         if (future != null)
+            {
+            future.cancel(false);
+            }
+         unschedule(this);
+         return wasCancelled;
+         }
+      }
+   }
@@ -0,0 +1,267 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SharedExecutors</code> creates the single-threaded executors used throughout the CREATE Lab libraries, e.g. by
+ * command queues, connectivity managers, and plotters.  By default, each executor gets a daemon thread of its own, just
+ * as if it had been created by {@link Executors} with a {@link DaemonThreadFactory}.  With many devices, however, that
+ * means many mostly-idle threads, so the executors can instead be created as {@link SerialExecutor}s and
+ * {@link SerialScheduledExecutor}s which share one worker pool and one timer thread, while still running their own
+ * tasks one at a time, in order.  To do so, set the <code>{@value #SHARED_EXECUTORS_SYSTEM_PROPERTY_NAME}</code>
+ * system property to <code>true</code>.
+ * </p>
+ * <p>
+ * A task which blocks holds on to a worker thread until it's done, and some tasks block waiting for tasks on other
+ * executors: e.g. a connectivity manager's scanning and pinging tasks wait for commands on a device's command queue.
+ * With a fixed number of worker threads, enough such waiting tasks would starve the tasks they wait for and deadlock, so
+ * the worker pool is unbounded.  It only ever creates a thread when every existing one is busy, and idle threads soon
+ * exit, so the number of threads tracks the number of executors actually running a task, which is never more than the
+ * number of dedicated threads they'd otherwise have.  On
+ * runtimes which support virtual threads (Java 21 and later), setting the
+ * <code>{@value #VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME}</code> system property to <code>true</code> enables shared
+ * executors and makes the worker pool run each task on a virtual thread instead.  Threads created by
+ * {@link #newThreadFactory(String)}, e.g. for port scanning or stream reading, are then virtual too.  Thus thousands of
+ * device conversations which spend most of their time blocked cost only a few carrier threads.  Virtual threads are
+ * created by reflection, so this class still runs on older runtimes, where the property is simply ignored.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SharedExecutors
+   {
+   private static final Logger LOG = Logger.getLogger(SharedExecutors.class);
+
+   public static final String SHARED_EXECUTORS_SYSTEM_PROPERTY_NAME = "CreateLabSharedExecutors";
+   public static final String VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME = "CreateLabVirtualThreads";
+
+   private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+   private static final boolean IS_USING_VIRTUAL_THREADS = Boolean.getBoolean(VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME) && VirtualThreads.isSupported();
+   private static final boolean IS_ENABLED = IS_USING_VIRTUAL_THREADS || Boolean.getBoolean(SHARED_EXECUTORS_SYSTEM_PROPERTY_NAME);
+
+   /** Lazily creates the worker pool and timer, since they're not needed unless shared executors are used. */
+   private static final class LazyHolder
+      {
+      private static final Executor WORKER_POOL = IS_USING_VIRTUAL_THREADS ? VirtualThreads.newThreadPerTaskExecutor() : createWorkerPool();
+      private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("SharedExecutors.timer"));
+      }
+
+   /**
+    * Returns whether shared executors are enabled, either with the
+    * <code>{@value #SHARED_EXECUTORS_SYSTEM_PROPERTY_NAME}</code> system property or by virtual threads.
+    */
+   public static boolean isEnabled()
+      {
+      return IS_ENABLED;
+      }
+
+   /**
+    * Returns whether virtual threads have been enabled with the <code>{@value #VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME}</code>
+    * system property and are supported by the runtime.
+    */
+   public static boolean isUsingVirtualThreads()
+      {
+      return IS_USING_VIRTUAL_THREADS;
+      }
+
+   /**
+    * Returns the shared worker pool, creating it if necessary.  It may be used regardless of whether shared executors
+    * are enabled, e.g. to create {@link SerialExecutor}s explicitly.  Since it's unbounded, its tasks may block waiting
+    * for each other.  It must never be shut down.
+    */
+   public static Executor getWorkerPool()
+      {
+      return LazyHolder.WORKER_POOL;
+      }
+
+   /**
+    * Returns the shared timer, creating it if necessary.  It must only ever be used for short tasks, and must never be
+    * shut down.
+    */
+   public static ScheduledExecutorService getTimer()
+      {
+      return LazyHolder.TIMER;
+      }
+
+   /**
+    * Returns a single-threaded {@link ExecutorService}: a {@link SerialExecutor} on the shared worker pool if shared
+    * executors are enabled, or an executor with a dedicated daemon thread having the given name otherwise.  Either
+    * way, the caller is responsible for shutting it down.
+    */
+   public static ExecutorService newSingleThreadExecutor(final String name)
+      {
+      if (IS_ENABLED)
+         {
+         return new SerialExecutor(getWorkerPool());
+         }
+      return Executors.newSingleThreadExecutor(new DaemonThreadFactory(name));
+      }
+
+   /**
+    * Returns a single-threaded {@link ScheduledExecutorService}: a {@link SerialScheduledExecutor} on the shared worker
+    * pool and timer if shared executors are enabled, or an executor with a dedicated daemon thread having the given
+    * name otherwise.  Either way, the caller is responsible for shutting it down.
+    */
+   public static ScheduledExecutorService newSingleThreadScheduledExecutor(final String name)
+      {
+      if (IS_ENABLED)
+         {
+         return new SerialScheduledExecutor(getWorkerPool(), getTimer());
+         }
+      return Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name));
+      }
+
+   /**
+    * Returns a {@link ThreadFactory} for threads which spend most of their time blocked, e.g. probing serial ports or
+    * reading a stream.  It creates virtual threads if {@link #isUsingVirtualThreads() virtual threads are in use}, or
+    * daemon threads (using a {@link DaemonThreadFactory}) otherwise.  Either way, the threads are named after the
+    * given name.
+    */
+   public static ThreadFactory newThreadFactory(final String name)
+      {
+      if (IS_USING_VIRTUAL_THREADS)
+         {
+         final ThreadFactory threadFactory = VirtualThreads.newThreadFactory(name + "-thread-");
+         if (threadFactory != null)
+            {
+            return threadFactory;
+            }
+         }
+      return new DaemonThreadFactory(name);
+      }
+
+   /**
+    * Returns whether the current thread is a virtual thread.  Code which would otherwise block in a native call (which
+    * pins a virtual thread to its carrier thread) can use this to decide to poll instead.
+    */
+   public static boolean isCurrentThreadVirtual()
+      {
+      return IS_USING_VIRTUAL_THREADS && VirtualThreads.isVirtual(Thread.currentThread());
+      }
+
+   private static Executor createWorkerPool()
+      {
+      LOG.debug("SharedExecutors.createWorkerPool(): creating an unbounded worker pool");
+
+      // Tasks are handed directly to an idle thread, or to a new one if there are none, rather than queued, so a task
+      // never waits behind a blocked one.  Threads are only kept alive while there's work to do.
+      return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                                    IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                    new SynchronousQueue<Runnable>(),
+                                    new DaemonThreadFactory("SharedExecutors.workerPool"));
+      }
+
+   /**
+    * Creates virtual threads by reflection, since they're only available in Java 21 and later.  Virtual threads are
+    * only considered supported if a factory for them can actually be created, which isn't the case for runtimes in
+    * which they're a preview feature which hasn't been enabled.
+    */
+   private static final class VirtualThreads
+      {
+      private static final Method OF_VIRTUAL_METHOD;
+      private static final Method BUILDER_NAME_METHOD;
+      private static final Method BUILDER_FACTORY_METHOD;
+      private static final Method IS_VIRTUAL_METHOD;
+      private static final boolean IS_SUPPORTED;
+
+      static
+         {
+         Method ofVirtualMethod = null;
+         Method builderNameMethod = null;
+         Method builderFactoryMethod = null;
+         Method isVirtualMethod = null;
+         boolean isSupported = false;
+         try
+            {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            builderNameMethod = builderClass.getMethod("name", String.class, long.class);
+            builderFactoryMethod = builderClass.getMethod("factory");
+            isVirtualMethod = Thread.class.getMethod("isVirtual");
+            isSupported = builderFactoryMethod.invoke(ofVirtualMethod.invoke(null)) instanceof ThreadFactory;
+            }
+         catch (Exception e)
+            {
+            LOG.debug("SharedExecutors$VirtualThreads: virtual threads aren't supported by this runtime [" + e + "]");
+            }
+         catch (LinkageError e)
+            {
+            LOG.debug("SharedExecutors$VirtualThreads: virtual threads aren't supported by this runtime [" + e + "]");
+            }
+         OF_VIRTUAL_METHOD = ofVirtualMethod;
+         BUILDER_NAME_METHOD = builderNameMethod;
+         BUILDER_FACTORY_METHOD = builderFactoryMethod;
+         IS_VIRTUAL_METHOD = isVirtualMethod;
+         IS_SUPPORTED = isSupported;
+         if (Boolean.getBoolean(VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME))
+            {
+            LOG.info("SharedExecutors$VirtualThreads: virtual threads were requested, and " + (isSupported ? "will be used" : "aren't supported by this runtime, so platform threads will be used instead"));
+            }
+         }
+
+      private static boolean isSupported()
+         {
+         return IS_SUPPORTED;
+         }
+
+      private static boolean isVirtual(final Thread thread)
+         {
+         try
+            {
+            return Boolean.TRUE.equals(IS_VIRTUAL_METHOD.invoke(thread));
+            }
+         catch (Exception e)
+            {
+            return false;
+            }
+         }
+
+      /** Returns a factory for virtual threads named with the given prefix and a counter, or <code>null</code> upon failure. */
+      private static ThreadFactory newThreadFactory(final String namePrefix)
+         {
+         try
+            {
+            return (ThreadFactory)BUILDER_FACTORY_METHOD.invoke(BUILDER_NAME_METHOD.invoke(OF_VIRTUAL_METHOD.invoke(null), namePrefix, 1L));
+            }
+         catch (Exception e)
+            {
+            LOG.error("SharedExecutors$VirtualThreads.newThreadFactory(): failed to create a virtual thread factory", e);
+            return null;
+            }
+         }
+
+      /** Returns an executor which runs each task on a new virtual thread. */
+      private static Executor newThreadPerTaskExecutor()
+         {
+         final ThreadFactory threadFactory = newThreadFactory("SharedExecutors.workerPool-thread-");
+         if (threadFactory == null)
+            {
+            return createWorkerPool();
+            }
+         return new Executor()
+         {
+         public void execute(final Runnable runnable)
+            {
+            threadFactory.newThread(runnable).start();
+            }
+         };
+         }
+      }
+
+   private SharedExecutors()
+      {
+      // private to prevent instantiation
+      }
+   }
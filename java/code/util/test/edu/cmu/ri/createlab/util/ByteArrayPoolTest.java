@@ -0,0 +1,101 @@
+package edu.cmu.ri.createlab.util;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>ByteArrayPoolTest</code> tests the {@link ByteArrayPool} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class ByteArrayPoolTest extends TestCase
+   {
+   public ByteArrayPoolTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testSizeClasses()
+      {
+      final ByteArrayPool pool = new ByteArrayPool(1000, 4);
+      assertEquals(1024, pool.getMaxArrayLength());
+      assertEquals(ByteArrayPool.MIN_ARRAY_LENGTH, pool.acquire(0).length);
+      assertEquals(ByteArrayPool.MIN_ARRAY_LENGTH, pool.acquire(1).length);
+      assertEquals(16, pool.acquire(16).length);
+      assertEquals(32, pool.acquire(17).length);
+      assertEquals(1024, pool.acquire(513).length);
+      assertEquals(1024, pool.acquire(1024).length);
+
+      // oversize requests get exactly what they asked for
+      assertEquals(1025, pool.acquire(1025).length);
+      }
+
+   public void testReuse()
+      {
+      final ByteArrayPool pool = new ByteArrayPool(1024, 2);
+      final byte[] a = pool.acquire(100);
+      final byte[] b = pool.acquire(100);
+      final byte[] c = pool.acquire(100);
+      assertNotSame(a, b);
+      assertEquals(0, pool.getNumberOfPooledArrays());
+
+      pool.release(a);
+      pool.release(b);
+      pool.release(c);  // the size class is full, so this one is dropped
+      assertEquals(2, pool.getNumberOfPooledArrays());
+
+      final byte[] d = pool.acquire(65);
+      assertTrue(d == a || d == b);
+      assertEquals(1, pool.getNumberOfPooledArrays());
+
+      // arrays of other size classes aren't affected
+      assertNotSame(a, pool.acquire(200));
+      assertNotSame(b, pool.acquire(10));
+      }
+
+   public void testForeignArraysAreIgnored()
+      {
+      final ByteArrayPool pool = new ByteArrayPool(1024, 2);
+      pool.release(null);
+      pool.release(new byte[8]);
+      pool.release(new byte[100]);
+      pool.release(new byte[2048]);
+      assertEquals(0, pool.getNumberOfPooledArrays());
+
+      final byte[] array = new byte[128];
+      pool.release(array);
+      assertSame(array, pool.acquire(128));
+      }
+
+   public void testIllegalArguments()
+      {
+      try
+         {
+         new ByteArrayPool(8, 1);
+         fail("Expected an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      try
+         {
+         new ByteArrayPool(1024, 0);
+         fail("Expected an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      try
+         {
+         new ByteArrayPool(1024, 1).acquire(-1);
+         fail("Expected an IllegalArgumentException");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+   }
@@ -0,0 +1,98 @@
+package edu.cmu.ri.createlab.util;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>HistogramTest</code> tests the {@link Histogram} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class HistogramTest extends TestCase
+   {
+   public HistogramTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testBuckets()
+      {
+      assertEquals(0, Histogram.getBucketIndex(-5));
+      assertEquals(0, Histogram.getBucketIndex(0));
+      assertEquals(1, Histogram.getBucketIndex(1));
+      assertEquals(2, Histogram.getBucketIndex(2));
+      assertEquals(2, Histogram.getBucketIndex(3));
+      assertEquals(3, Histogram.getBucketIndex(4));
+      assertEquals(11, Histogram.getBucketIndex(1024));
+      assertEquals(63, Histogram.getBucketIndex(Long.MAX_VALUE));
+
+      assertEquals(0, Histogram.getBucketUpperBound(0));
+      assertEquals(1, Histogram.getBucketUpperBound(1));
+      assertEquals(3, Histogram.getBucketUpperBound(2));
+      assertEquals(2047, Histogram.getBucketUpperBound(11));
+      assertEquals(Long.MAX_VALUE, Histogram.getBucketUpperBound(63));
+      }
+
+   public void testEmpty()
+      {
+      final Histogram histogram = new Histogram();
+      assertEquals(0, histogram.getCount());
+      assertEquals(0, histogram.getSum());
+      assertEquals(0, histogram.getMax());
+      assertEquals(0.0, histogram.getMean(), 0.0);
+      assertEquals(0, histogram.getPercentile(50));
+      assertEquals("{}", histogram.toString());
+      }
+
+   public void testRecord()
+      {
+      final Histogram histogram = new Histogram();
+      histogram.record(0);
+      histogram.record(1);
+      histogram.record(3);
+      histogram.record(3);
+      histogram.record(100);
+      histogram.record(-1);
+
+      assertEquals(6, histogram.getCount());
+      assertEquals(107, histogram.getSum());
+      assertEquals(100, histogram.getMax());
+      assertEquals(107 / 6.0, histogram.getMean(), 0.0001);
+
+      final long[] counts = histogram.getBucketCounts();
+      assertEquals(2, counts[0]);
+      assertEquals(1, counts[1]);
+      assertEquals(2, counts[2]);
+      assertEquals(1, counts[7]);
+      assertEquals("{0:2, 1:1, 2-3:2, 64-127:1}", histogram.toString());
+
+      assertEquals(0, histogram.getPercentile(0));
+      assertEquals(0, histogram.getPercentile(33));
+      assertEquals(1, histogram.getPercentile(50));
+      assertEquals(3, histogram.getPercentile(66));
+
+      // the bucket's upper bound (127) is capped at the max
+      assertEquals(100, histogram.getPercentile(99));
+      assertEquals(100, histogram.getPercentile(100));
+
+      histogram.reset();
+      assertEquals(0, histogram.getCount());
+      assertEquals(0, histogram.getMax());
+      assertEquals("{}", histogram.toString());
+      }
+
+   public void testInvalidPercentile()
+      {
+      final Histogram histogram = new Histogram();
+      try
+         {
+         histogram.getPercentile(101);
+         fail("getPercentile() should throw an IllegalArgumentException for a percentile greater than 100");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+   }
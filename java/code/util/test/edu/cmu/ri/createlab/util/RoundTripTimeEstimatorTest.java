@@ -0,0 +1,112 @@
+package edu.cmu.ri.createlab.util;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>RoundTripTimeEstimatorTest</code> tests the {@link RoundTripTimeEstimator} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class RoundTripTimeEstimatorTest extends TestCase
+   {
+   private static final long NANOS_PER_MILLI = 1000000;
+
+   public RoundTripTimeEstimatorTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testMaxTimeoutIsUsedUntilEnoughSamples()
+      {
+      final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(1);
+      for (int i = 0; i < RoundTripTimeEstimator.MIN_NUMBER_OF_SAMPLES - 1; i++)
+         {
+         estimator.recordRoundTrip(10 * NANOS_PER_MILLI);
+         assertEquals(1000, estimator.getTimeoutMillis(1000));
+         }
+      estimator.recordRoundTrip(10 * NANOS_PER_MILLI);
+      assertTrue(estimator.getTimeoutMillis(1000) < 1000);
+      }
+
+   public void testConstantRoundTripTime()
+      {
+      final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(1);
+      for (int i = 0; i < 100; i++)
+         {
+         estimator.recordRoundTrip(10 * NANOS_PER_MILLI);
+         }
+      assertEquals(10.0, estimator.getSmoothedRoundTripTimeMillis(), 0.001);
+
+      // the deviation decays towards zero, so the timeout approaches the round trip time
+      assertTrue(estimator.getRoundTripTimeDeviationMillis() < 0.01);
+      assertEquals(11, estimator.getTimeoutMillis(1000));
+      assertEquals(100, estimator.getNumberOfSamples());
+      }
+
+   public void testJitterWidensTheTimeout()
+      {
+      final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(1);
+      for (int i = 0; i < 100; i++)
+         {
+         estimator.recordRoundTrip(((i % 2 == 0) ? 5 : 15) * NANOS_PER_MILLI);
+         }
+      final long timeout = estimator.getTimeoutMillis(1000);
+      assertTrue("timeout [" + timeout + "] should allow for the jitter", timeout >= 25 && timeout <= 60);
+      }
+
+   public void testBounds()
+      {
+      final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(50);
+      for (int i = 0; i < 10; i++)
+         {
+         estimator.recordRoundTrip(NANOS_PER_MILLI);
+         }
+      assertEquals(50, estimator.getTimeoutMillis(1000));
+      assertEquals(20, estimator.getTimeoutMillis(20));
+      }
+
+   public void testTimeoutBackoff()
+      {
+      final RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(1);
+      for (int i = 0; i < 100; i++)
+         {
+         estimator.recordRoundTrip(10 * NANOS_PER_MILLI);
+         }
+      final long timeout = estimator.getTimeoutMillis(10000);
+      assertEquals(11, timeout);
+
+      // the estimate (just over 10 ms) is doubled before being rounded up
+      estimator.recordTimeout();
+      assertEquals(21, estimator.getTimeoutMillis(10000));
+      estimator.recordTimeout();
+      assertEquals(41, estimator.getTimeoutMillis(10000));
+
+      // the backoff is capped
+      for (int i = 0; i < 100; i++)
+         {
+         estimator.recordTimeout();
+         }
+      final long cappedTimeout = estimator.getTimeoutMillis(10000);
+      assertEquals(641, cappedTimeout);
+      assertEquals(500, estimator.getTimeoutMillis(500));
+
+      // and cancelled by the next successful round trip
+      estimator.recordRoundTrip(10 * NANOS_PER_MILLI);
+      assertEquals(timeout, estimator.getTimeoutMillis(10000));
+      }
+
+   public void testInvalidMinTimeout()
+      {
+      try
+         {
+         new RoundTripTimeEstimator(-1);
+         fail("The constructor should throw an IllegalArgumentException for a negative minimum timeout");
+         }
+      catch (IllegalArgumentException e)
+         {
+         // expected
+         }
+      }
+   }
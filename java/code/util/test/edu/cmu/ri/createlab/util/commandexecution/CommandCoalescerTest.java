@@ -0,0 +1,166 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>CommandCoalescerTest</code> tests the {@link CommandCoalescer} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandCoalescerTest extends TestCase
+   {
+   private final List<String> executedCommands = Collections.synchronizedList(new ArrayList<String>());
+   private ExecutorService executor;
+   private CountDownLatch latch;
+
+   public CommandCoalescerTest(final String test)
+      {
+      super(test);
+      }
+
+   protected void setUp() throws Exception
+      {
+      executedCommands.clear();
+      executor = Executors.newSingleThreadExecutor();
+      latch = new CountDownLatch(1);
+
+      // occupy the executor so that submitted commands stay queued until the latch is released
+      executor.execute(new Runnable()
+      {
+      public void run()
+         {
+         try
+            {
+            latch.await();
+            }
+         catch (InterruptedException ignored)
+            {
+            Thread.currentThread().interrupt();
+            }
+         }
+      });
+      }
+
+   protected void tearDown() throws Exception
+      {
+      latch.countDown();
+      executor.shutdownNow();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      }
+
+   public void testIsCoalescable()
+      {
+      assertTrue(CommandCoalescer.isCoalescable(new SetValueStrategy("led1", "a")));
+      assertFalse(CommandCoalescer.isCoalescable(new SetValueStrategy(null, "a")));
+      assertFalse(CommandCoalescer.isCoalescable(new CommandStrategy<Object, TestResponse>()
+      {
+      public TestResponse execute(final Object o)
+         {
+         return null;
+         }
+      }));
+      }
+
+   public void testCoalescing() throws Exception
+      {
+      final CommandCoalescer<Object, TestResponse> coalescer = new CommandCoalescer<Object, TestResponse>();
+
+      final Future<TestResponse> led1a = coalescer.submit(new SetValueStrategy("led1", "1a"), null, null, executor);
+      final Future<TestResponse> led2a = coalescer.submit(new SetValueStrategy("led2", "2a"), null, null, executor);
+      final Future<TestResponse> led1b = coalescer.submit(new SetValueStrategy("led1", "1b"), null, null, executor);
+      final Future<TestResponse> led1c = coalescer.submit(new SetValueStrategy("led1", "1c"), null, null, executor);
+      assertEquals(2, coalescer.getNumberOfPendingCommands());
+
+      latch.countDown();
+
+      assertEquals("1c", led1a.get(5, TimeUnit.SECONDS).value);
+      assertEquals("2a", led2a.get(5, TimeUnit.SECONDS).value);
+      assertEquals("1c", led1b.get(5, TimeUnit.SECONDS).value);
+      assertEquals("1c", led1c.get(5, TimeUnit.SECONDS).value);
+
+      // the coalesced command keeps the position of the original
+      assertEquals(2, executedCommands.size());
+      assertEquals("1c", executedCommands.get(0));
+      assertEquals("2a", executedCommands.get(1));
+      assertEquals(0, coalescer.getNumberOfPendingCommands());
+
+      // now that the command has been executed, a new one is queued rather than coalesced
+      assertEquals("1d", coalescer.submit(new SetValueStrategy("led1", "1d"), null, null, executor).get(5, TimeUnit.SECONDS).value);
+      assertEquals(3, executedCommands.size());
+      }
+
+   public void testCancellation() throws Exception
+      {
+      final CommandCoalescer<Object, TestResponse> coalescer = new CommandCoalescer<Object, TestResponse>();
+
+      final Future<TestResponse> first = coalescer.submit(new SetValueStrategy("led1", "1a"), null, null, executor);
+      final Future<TestResponse> second = coalescer.submit(new SetValueStrategy("led1", "1b"), null, null, executor);
+      assertTrue(first.cancel(false));
+      latch.countDown();
+
+      try
+         {
+         second.get(5, TimeUnit.SECONDS);
+         fail("A command coalesced into a cancelled command should also be cancelled");
+         }
+      catch (CancellationException e)
+         {
+         assertTrue(true);
+         }
+      assertEquals(0, coalescer.getNumberOfPendingCommands());
+      }
+
+   private static final class TestResponse implements CommandResponse
+      {
+      private final String value;
+
+      private TestResponse(final String value)
+         {
+         this.value = value;
+         }
+
+      public boolean wasSuccessful()
+         {
+         return true;
+         }
+
+      public byte[] getData()
+         {
+         return null;
+         }
+      }
+
+   private final class SetValueStrategy implements CommandStrategy<Object, TestResponse>, CoalescableCommandStrategy
+      {
+      private final String key;
+      private final String value;
+
+      private SetValueStrategy(final String key, final String value)
+         {
+         this.key = key;
+         this.value = value;
+         }
+
+      public Object getCoalescingKey()
+         {
+         return key;
+         }
+
+      public TestResponse execute(final Object o)
+         {
+         executedCommands.add(value);
+         return new TestResponse(value);
+         }
+      }
+   }
@@ -0,0 +1,176 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>CommandExecutionMetricsTest</code> tests the {@link CommandExecutionMetrics} and {@link InstrumentedCommand}
+ * classes.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandExecutionMetricsTest extends TestCase
+   {
+   private static final CommandResponse SUCCESSFUL_RESPONSE = new Response(true);
+   private static final CommandResponse UNSUCCESSFUL_RESPONSE = new Response(false);
+
+   public CommandExecutionMetricsTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testExecutedCommandsAreCountedPerStrategyClass() throws Exception
+      {
+      final CommandExecutionMetrics metrics = new CommandExecutionMetrics();
+
+      new InstrumentedCommand<CommandResponse>(new FixedCommand(SUCCESSFUL_RESPONSE, 0), String.class, metrics).call();
+      new InstrumentedCommand<CommandResponse>(new FixedCommand(UNSUCCESSFUL_RESPONSE, 0), String.class, metrics).call();
+      new InstrumentedCommand<CommandResponse>(new FixedCommand(null, 0), Integer.class, metrics).call();
+
+      assertEquals(3, metrics.getTotalStatistics().getExecutedCount());
+      assertEquals(1, metrics.getTotalStatistics().getSuccessfulCount());
+      assertEquals(2, metrics.getTotalStatistics().getUnsuccessfulCount());
+
+      assertEquals(2, metrics.getStatistics(String.class).getExecutedCount());
+      assertEquals(1, metrics.getStatistics(String.class).getSuccessfulCount());
+      assertEquals(1, metrics.getStatistics(Integer.class).getUnsuccessfulCount());
+      assertNull(metrics.getStatistics(Long.class));
+      assertEquals(2, metrics.getStatisticsByStrategyClassName().size());
+      }
+
+   public void testRetriesAndFailures() throws Exception
+      {
+      final CommandExecutionMetrics metrics = new CommandExecutionMetrics();
+
+      new InstrumentedCommand<CommandResponse>(new FixedCommand(SUCCESSFUL_RESPONSE, 2), String.class, metrics).call();
+
+      final IllegalStateException exception = new IllegalStateException("expected");
+      try
+         {
+         new InstrumentedCommand<CommandResponse>(
+               new Callable<CommandResponse>()
+               {
+               public CommandResponse call()
+                  {
+                  InstrumentedCommand.recordRetry();
+                  throw exception;
+                  }
+               },
+               String.class,
+               metrics).call();
+         fail("The exception thrown by the command should be rethrown");
+         }
+      catch (IllegalStateException e)
+         {
+         assertSame(exception, e);
+         }
+
+      final CommandStatistics statistics = metrics.getStatistics(String.class);
+      assertEquals(1, statistics.getExecutedCount());
+      assertEquals(1, statistics.getFailedCount());
+      assertEquals(3, statistics.getRetryCount());
+
+      metrics.handleCommandTimedOut(String.class);
+      assertEquals(1, statistics.getTimedOutCount());
+      assertEquals(1, metrics.getTotalStatistics().getTimedOutCount());
+
+      metrics.reset();
+      assertEquals(0, statistics.getExecutedCount());
+      assertEquals(0, statistics.getRetryCount());
+      assertEquals(0, metrics.getTotalStatistics().getFailedCount());
+      }
+
+   public void testTimings() throws Exception
+      {
+      final CommandExecutionMetrics metrics = new CommandExecutionMetrics();
+      final InstrumentedCommand<CommandResponse> command = new InstrumentedCommand<CommandResponse>(
+            new Callable<CommandResponse>()
+            {
+            public CommandResponse call() throws Exception
+               {
+               Thread.sleep(20);
+               return SUCCESSFUL_RESPONSE;
+               }
+            },
+            String.class,
+            metrics);
+      Thread.sleep(20);
+      command.call();
+
+      final CommandStatistics statistics = metrics.getTotalStatistics();
+      assertTrue(statistics.getMeanQueueWaitMicros() >= 15000);
+      assertTrue(statistics.getMeanExecutionMicros() >= 15000);
+      assertEquals(statistics.getMeanExecutionMicros(), statistics.getMaxExecutionMicros(), 0.001);
+      }
+
+   public void testMBeanRegistration() throws Exception
+      {
+      final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      final CommandExecutionMetrics metrics = new CommandExecutionMetrics();
+      new InstrumentedCommand<CommandResponse>(new FixedCommand(SUCCESSFUL_RESPONSE, 0), String.class, metrics).call();
+
+      metrics.registerMBeans("test");
+      try
+         {
+         // strategies seen after registration should be registered too
+         new InstrumentedCommand<CommandResponse>(new FixedCommand(SUCCESSFUL_RESPONSE, 0), Integer.class, metrics).call();
+
+         final ObjectName allName = new ObjectName("edu.cmu.ri.createlab:type=CommandExecutionMetrics,queue=\"test\",strategy=\"all\"");
+         final ObjectName integerName = new ObjectName("edu.cmu.ri.createlab:type=CommandExecutionMetrics,queue=\"test\",strategy=\"java.lang.Integer\"");
+         assertEquals(2L, mbeanServer.getAttribute(allName, "ExecutedCount"));
+         assertEquals(1L, mbeanServer.getAttribute(integerName, "SuccessfulCount"));
+         assertEquals(3, mbeanServer.queryNames(new ObjectName("edu.cmu.ri.createlab:type=CommandExecutionMetrics,queue=\"test\",*"), null).size());
+         }
+      finally
+         {
+         metrics.unregisterMBeans();
+         }
+      assertTrue(mbeanServer.queryNames(new ObjectName("edu.cmu.ri.createlab:type=CommandExecutionMetrics,*"), null).isEmpty());
+      }
+
+   private static final class FixedCommand implements Callable<CommandResponse>
+      {
+      private final CommandResponse response;
+      private final int numberOfRetries;
+
+      private FixedCommand(final CommandResponse response, final int numberOfRetries)
+         {
+         this.response = response;
+         this.numberOfRetries = numberOfRetries;
+         }
+
+      public CommandResponse call()
+         {
+         for (int i = 0; i < numberOfRetries; i++)
+            {
+            InstrumentedCommand.recordRetry();
+            }
+         return response;
+         }
+      }
+
+   private static final class Response implements CommandResponse
+      {
+      private final boolean wasSuccessful;
+
+      private Response(final boolean wasSuccessful)
+         {
+         this.wasSuccessful = wasSuccessful;
+         }
+
+      public boolean wasSuccessful()
+         {
+         return wasSuccessful;
+         }
+
+      public byte[] getData()
+         {
+         return null;
+         }
+      }
+   }
@@ -0,0 +1,222 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.thread.SerialExecutor;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>CommandFutureTaskTest</code> tests the {@link CommandFutureTask} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandFutureTaskTest extends TestCase
+   {
+   private static final CommandResponse RESPONSE = new CommandResponse()
+   {
+   public boolean wasSuccessful()
+      {
+      return true;
+      }
+
+   public byte[] getData()
+      {
+      return new byte[]{1, 2, 3};
+      }
+   };
+
+   public CommandFutureTaskTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testCompletion() throws Exception
+      {
+      final RecordingCompletionHandler handler = new RecordingCompletionHandler();
+      final CommandFutureTask<CommandResponse> task = new CommandFutureTask<CommandResponse>(
+            new Callable<CommandResponse>()
+            {
+            public CommandResponse call()
+               {
+               return RESPONSE;
+               }
+            },
+            handler);
+
+      assertEquals(0, handler.numCalls);
+      task.run();
+      assertSame(RESPONSE, task.get());
+      assertEquals(1, handler.numCalls);
+      assertSame(RESPONSE, handler.response);
+      assertNull(handler.cause);
+      }
+
+   public void testFailure() throws Exception
+      {
+      final RecordingCompletionHandler handler = new RecordingCompletionHandler();
+      final IllegalStateException exception = new IllegalStateException("expected");
+      final CommandFutureTask<CommandResponse> task = new CommandFutureTask<CommandResponse>(
+            new Callable<CommandResponse>()
+            {
+            public CommandResponse call()
+               {
+               throw exception;
+               }
+            },
+            handler);
+
+      task.run();
+      try
+         {
+         task.get();
+         fail("get() should throw an ExecutionException if the command failed");
+         }
+      catch (ExecutionException e)
+         {
+         assertSame(exception, e.getCause());
+         }
+      assertEquals(1, handler.numCalls);
+      assertNull(handler.response);
+      assertSame(exception, handler.cause);
+      }
+
+   public void testCancellation()
+      {
+      final RecordingCompletionHandler handler = new RecordingCompletionHandler();
+      final CommandFutureTask<CommandResponse> task = new CommandFutureTask<CommandResponse>(
+            new Callable<CommandResponse>()
+            {
+            public CommandResponse call()
+               {
+               return RESPONSE;
+               }
+            },
+            handler);
+
+      assertTrue(task.cancel(false));
+      task.run();
+      assertEquals(1, handler.numCalls);
+      assertTrue(handler.cause instanceof CancellationException);
+      }
+
+   public void testPendingCommandCompletesAfterShutdown() throws Exception
+      {
+      final ExecutorService workerPool = Executors.newSingleThreadExecutor();
+      try
+         {
+         final SerialExecutor executor = new SerialExecutor(workerPool);
+         final CountDownLatch isBlocking = new CountDownLatch(1);
+         final CountDownLatch release = new CountDownLatch(1);
+         executor.execute(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  isBlocking.countDown();
+                  try
+                     {
+                     release.await();
+                     }
+                  catch (InterruptedException ignored)
+                     {
+                     Thread.currentThread().interrupt();
+                     }
+                  }
+               });
+         assertTrue(isBlocking.await(5, TimeUnit.SECONDS));
+
+         // queue a command behind the blocking task, then shut down before it gets a chance to run
+         final RecordingCompletionHandler handler = new RecordingCompletionHandler();
+         final CommandFutureTask<CommandResponse> pending = new CommandFutureTask<CommandResponse>(
+               new Callable<CommandResponse>()
+               {
+               public CommandResponse call()
+                  {
+                  return RESPONSE;
+                  }
+               },
+               handler);
+         executor.execute(pending);
+
+         final List<Runnable> unexecutedTasks = executor.shutdownNow();
+         assertTrue(unexecutedTasks.contains(pending));
+         assertEquals(1, CommandFutureTask.cancelAll(unexecutedTasks));
+         release.countDown();
+
+         try
+            {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("get() should throw a CancellationException if the command was drained on shutdown");
+            }
+         catch (CancellationException e)
+            {
+            // expected
+            }
+         assertTrue(pending.isDone());
+         assertEquals(1, handler.numCalls);
+         assertTrue(handler.cause instanceof CancellationException);
+         assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+         }
+      finally
+         {
+         workerPool.shutdownNow();
+         }
+      }
+
+   public void testCancelAllIgnoresNonFutures()
+      {
+      assertEquals(0, CommandFutureTask.cancelAll(null));
+      final Runnable runnable =
+            new Runnable()
+            {
+            public void run()
+               {
+               }
+            };
+      assertEquals(0, CommandFutureTask.cancelAll(Collections.singletonList(runnable)));
+      }
+
+   public void testNullHandler() throws Exception
+      {
+      final CommandFutureTask<CommandResponse> task = new CommandFutureTask<CommandResponse>(
+            new Callable<CommandResponse>()
+            {
+            public CommandResponse call()
+               {
+               return RESPONSE;
+               }
+            },
+            null);
+
+      task.run();
+      assertSame(RESPONSE, task.get());
+      }
+
+   private static final class RecordingCompletionHandler implements CommandCompletionHandler<CommandResponse>
+      {
+      private int numCalls = 0;
+      private CommandResponse response = null;
+      private Throwable cause = null;
+
+      public void handleCompletion(final CommandResponse response)
+         {
+         numCalls++;
+         this.response = response;
+         }
+
+      public void handleFailure(final Throwable cause)
+         {
+         numCalls++;
+         this.cause = cause;
+         }
+      }
+   }
@@ -0,0 +1,174 @@
+package edu.cmu.ri.createlab.util.commandexecution;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.thread.SerialExecutor;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>CommandQueueOverflowPolicyTest</code> tests the {@link CommandQueueOverflowPolicy} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandQueueOverflowPolicyTest extends TestCase
+   {
+   private ExecutorService workerPool;
+
+   public CommandQueueOverflowPolicyTest(final String test)
+      {
+      super(test);
+      }
+
+   protected void setUp()
+      {
+      workerPool = Executors.newSingleThreadExecutor();
+      }
+
+   protected void tearDown() throws InterruptedException
+      {
+      workerPool.shutdownNow();
+      workerPool.awaitTermination(5, TimeUnit.SECONDS);
+      }
+
+   public void testReject() throws Exception
+      {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final SerialExecutor executor = createExecutor(CommandQueueOverflowPolicy.REJECT);
+      try
+         {
+         startBlocking(executor, latch);
+         executor.execute(new FutureTask<Object>(new Blocker(latch), null));
+         try
+            {
+            executor.execute(new FutureTask<Object>(new Blocker(latch), null));
+            fail("Adding to a full queue should throw a RejectedExecutionException");
+            }
+         catch (RejectedExecutionException e)
+            {
+            assertTrue(true);
+            }
+         assertEquals(1, executor.getQueue().size());
+         }
+      finally
+         {
+         latch.countDown();
+         shutdown(executor);
+         }
+      }
+
+   public void testDropOldest() throws Exception
+      {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final SerialExecutor executor = createExecutor(CommandQueueOverflowPolicy.DROP_OLDEST);
+      try
+         {
+         startBlocking(executor, latch);
+         final FutureTask<Object> oldest = new FutureTask<Object>(new Blocker(latch), null);
+         final FutureTask<Object> newest = new FutureTask<Object>(new Blocker(latch), null);
+         executor.execute(oldest);
+         executor.execute(newest);
+
+         assertTrue("The oldest waiting command should have been cancelled", oldest.isCancelled());
+         assertFalse(newest.isCancelled());
+         assertEquals(1, executor.getQueue().size());
+         assertSame(newest, executor.getQueue().peek());
+         }
+      finally
+         {
+         latch.countDown();
+         shutdown(executor);
+         }
+      }
+
+   public void testBlock() throws Exception
+      {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final SerialExecutor executor = createExecutor(CommandQueueOverflowPolicy.BLOCK);
+      try
+         {
+         startBlocking(executor, latch);
+         executor.execute(new FutureTask<Object>(new Blocker(latch), null));
+
+         final FutureTask<Object> blocked = new FutureTask<Object>(new Blocker(latch), null);
+         final Thread producer = new Thread(new Runnable()
+         {
+         public void run()
+            {
+            executor.execute(blocked);
+            }
+         });
+         producer.start();
+         producer.join(200);
+         assertTrue("The producer should block while the queue is full", producer.isAlive());
+
+         latch.countDown();
+         producer.join(5000);
+         assertFalse(producer.isAlive());
+         blocked.get(5, TimeUnit.SECONDS);
+         assertTrue(blocked.isDone());
+         }
+      finally
+         {
+         latch.countDown();
+         shutdown(executor);
+         }
+      }
+
+   private SerialExecutor createExecutor(final CommandQueueOverflowPolicy policy)
+      {
+      return new SerialExecutor(workerPool, new ArrayBlockingQueue<Runnable>(1), policy.getRejectedTaskHandler());
+      }
+
+   /**
+    * Runs a task which blocks until the given latch is released, and waits for it to start so that the work queue is
+    * empty again when this method returns.
+    */
+   private static void startBlocking(final SerialExecutor executor, final CountDownLatch latch) throws InterruptedException
+      {
+      final CountDownLatch started = new CountDownLatch(1);
+      executor.execute(new FutureTask<Object>(new Runnable()
+      {
+      public void run()
+         {
+         started.countDown();
+         new Blocker(latch).run();
+         }
+      }, null));
+      assertTrue("The blocking task should have started", started.await(5, TimeUnit.SECONDS));
+      }
+
+   private static void shutdown(final SerialExecutor executor) throws InterruptedException
+      {
+      executor.shutdownNow();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      }
+
+   private static final class Blocker implements Runnable
+      {
+      private final CountDownLatch latch;
+
+      private Blocker(final CountDownLatch latch)
+         {
+         this.latch = latch;
+         }
+
+      public void run()
+         {
+         try
+            {
+            latch.await();
+            }
+         catch (InterruptedException ignored)
+            {
+            Thread.currentThread().interrupt();
+            }
+         }
+      }
+   }
@@ -0,0 +1,204 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>SerialExecutorTest</code> tests the {@link SerialExecutor} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialExecutorTest extends TestCase
+   {
+   private static final int NUMBER_OF_EXECUTORS = 20;
+   private static final int NUMBER_OF_TASKS_PER_EXECUTOR = 500;
+
+   public SerialExecutorTest(final String test)
+      {
+      super(test);
+      }
+
+   public void testTasksRunInOrderOneAtATime() throws Exception
+      {
+      final ExecutorService workerPool = Executors.newFixedThreadPool(3, new DaemonThreadFactory("SerialExecutorTest"));
+      try
+         {
+         final List<SerialExecutor> executors = new ArrayList<SerialExecutor>();
+         final List<List<Integer>> results = new ArrayList<List<Integer>>();
+         final List<AtomicInteger> numbersOfRunningTasks = new ArrayList<AtomicInteger>();
+         final AtomicInteger numberOfOverlappingTasks = new AtomicInteger(0);
+         for (int i = 0; i < NUMBER_OF_EXECUTORS; i++)
+            {
+            executors.add(new SerialExecutor(workerPool));
+            results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            numbersOfRunningTasks.add(new AtomicInteger(0));
+            }
+
+         // submit from several threads at once, but each executor only ever gets tasks from one thread
+         final Thread[] submitters = new Thread[4];
+         for (int t = 0; t < submitters.length; t++)
+            {
+            final int firstExecutor = t;
+            submitters[t] = new Thread(
+                  new Runnable()
+                  {
+                  public void run()
+                     {
+                     for (int j = 0; j < NUMBER_OF_TASKS_PER_EXECUTOR; j++)
+                        {
+                        for (int e = firstExecutor; e < NUMBER_OF_EXECUTORS; e += submitters.length)
+                           {
+                           final List<Integer> result = results.get(e);
+                           final AtomicInteger numberOfRunningTasks = numbersOfRunningTasks.get(e);
+                           final int value = j;
+                           executors.get(e).execute(
+                                 new Runnable()
+                                 {
+                                 public void run()
+                                    {
+                                    if (numberOfRunningTasks.incrementAndGet() > 1)
+                                       {
+                                       numberOfOverlappingTasks.incrementAndGet();
+                                       }
+                                    result.add(value);
+                                    numberOfRunningTasks.decrementAndGet();
+                                    }
+                                 });
+                           }
+                        }
+                     }
+                  });
+            submitters[t].start();
+            }
+         for (final Thread submitter : submitters)
+            {
+            submitter.join();
+            }
+
+         for (int i = 0; i < NUMBER_OF_EXECUTORS; i++)
+            {
+            executors.get(i).shutdown();
+            assertTrue(executors.get(i).awaitTermination(10, TimeUnit.SECONDS));
+            final List<Integer> result = results.get(i);
+            assertEquals(NUMBER_OF_TASKS_PER_EXECUTOR, result.size());
+            for (int j = 0; j < NUMBER_OF_TASKS_PER_EXECUTOR; j++)
+               {
+               assertEquals(Integer.valueOf(j), result.get(j));
+               }
+            }
+         assertEquals("An executor ran more than one task at a time", 0, numberOfOverlappingTasks.get());
+         }
+      finally
+         {
+         workerPool.shutdownNow();
+         }
+      }
+
+   public void testBoundedQueueRejectsWhenFull() throws Exception
+      {
+      final ExecutorService workerPool = Executors.newSingleThreadExecutor(new DaemonThreadFactory("SerialExecutorTest"));
+      final CountDownLatch latch = new CountDownLatch(1);
+      try
+         {
+         final SerialExecutor executor = new SerialExecutor(workerPool, new ArrayBlockingQueue<Runnable>(1), SerialExecutor.ABORT_POLICY);
+         final CountDownLatch started = new CountDownLatch(1);
+         executor.execute(new Blocker(started, latch));
+         assertTrue(started.await(10, TimeUnit.SECONDS));
+         executor.execute(new Blocker(new CountDownLatch(1), latch));
+         try
+            {
+            executor.execute(new Blocker(new CountDownLatch(1), latch));
+            fail("Adding to a full queue should throw a RejectedExecutionException");
+            }
+         catch (RejectedExecutionException e)
+            {
+            // expected
+            }
+         assertEquals(1, executor.getQueue().size());
+         }
+      finally
+         {
+         latch.countDown();
+         workerPool.shutdownNow();
+         }
+      }
+
+   public void testShutdownNowInterruptsOnlyTheRunningTask() throws Exception
+      {
+      final ExecutorService workerPool = Executors.newSingleThreadExecutor(new DaemonThreadFactory("SerialExecutorTest"));
+      try
+         {
+         final SerialExecutor executor = new SerialExecutor(workerPool);
+         final CountDownLatch started = new CountDownLatch(1);
+         executor.execute(new Blocker(started, new CountDownLatch(1)));
+         executor.execute(new Blocker(new CountDownLatch(1), new CountDownLatch(1)));
+         assertTrue(started.await(10, TimeUnit.SECONDS));
+
+         assertEquals(1, executor.shutdownNow().size());
+         assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+         assertTrue(executor.isTerminated());
+
+         // the worker thread must not still be interrupted once it moves on to other work
+         final boolean[] wasInterrupted = {true};
+         workerPool.submit(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  wasInterrupted[0] = Thread.currentThread().isInterrupted();
+                  }
+               }).get();
+         assertFalse(wasInterrupted[0]);
+
+         try
+            {
+            executor.execute(new Blocker(new CountDownLatch(1), new CountDownLatch(1)));
+            fail("Adding to a shut down executor should throw a RejectedExecutionException");
+            }
+         catch (RejectedExecutionException e)
+            {
+            // expected
+            }
+         }
+      finally
+         {
+         workerPool.shutdownNow();
+         }
+      }
+
+   private static final class Blocker implements Runnable
+      {
+      private final CountDownLatch started;
+      private final CountDownLatch latch;
+
+      private Blocker(final CountDownLatch started, final CountDownLatch latch)
+         {
+         this.started = started;
+         this.latch = latch;
+         }
+
+      public void run()
+         {
+         started.countDown();
+         try
+            {
+            latch.await();
+            }
+         catch (InterruptedException e)
+            {
+            Thread.currentThread().interrupt();
+            }
+         }
+      }
+   }
@@ -0,0 +1,143 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>SerialScheduledExecutorTest</code> tests the {@link SerialScheduledExecutor} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SerialScheduledExecutorTest extends TestCase
+   {
+   private ExecutorService workerPool;
+   private ScheduledExecutorService timer;
+
+   public SerialScheduledExecutorTest(final String test)
+      {
+      super(test);
+      }
+
+   protected void setUp()
+      {
+      workerPool = Executors.newFixedThreadPool(2, new DaemonThreadFactory("SerialScheduledExecutorTest.workerPool"));
+      timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SerialScheduledExecutorTest.timer"));
+      }
+
+   protected void tearDown()
+      {
+      workerPool.shutdownNow();
+      timer.shutdownNow();
+      }
+
+   public void testScheduledTasksRunInOrderOfDueTime() throws Exception
+      {
+      final SerialScheduledExecutor executor = new SerialScheduledExecutor(workerPool, timer);
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      final ScheduledFuture<Integer> later = executor.schedule(new Recorder(order, 3), 150, TimeUnit.MILLISECONDS);
+      final ScheduledFuture<Integer> sooner = executor.schedule(new Recorder(order, 2), 50, TimeUnit.MILLISECONDS);
+      executor.submit(new Recorder(order, 1));
+
+      assertEquals(Integer.valueOf(3), later.get(10, TimeUnit.SECONDS));
+      assertEquals(Integer.valueOf(2), sooner.get(10, TimeUnit.SECONDS));
+      assertEquals(3, order.size());
+      assertEquals(Integer.valueOf(1), order.get(0));
+      assertEquals(Integer.valueOf(2), order.get(1));
+      assertEquals(Integer.valueOf(3), order.get(2));
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      }
+
+   public void testPeriodicTasksRepeatUntilCancelled() throws Exception
+      {
+      final SerialScheduledExecutor executor = new SerialScheduledExecutor(workerPool, timer);
+      final AtomicInteger fixedRateCount = new AtomicInteger(0);
+      final AtomicInteger fixedDelayCount = new AtomicInteger(0);
+      final CountDownLatch latch = new CountDownLatch(10);
+      final ScheduledFuture<?> fixedRate = executor.scheduleAtFixedRate(new Counter(fixedRateCount, latch), 0, 5, TimeUnit.MILLISECONDS);
+      final ScheduledFuture<?> fixedDelay = executor.scheduleWithFixedDelay(new Counter(fixedDelayCount, latch), 0, 5, TimeUnit.MILLISECONDS);
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+      assertTrue(fixedRate.cancel(false));
+      assertTrue(fixedDelay.cancel(false));
+      Thread.sleep(50);
+      final int fixedRateCountAfterCancel = fixedRateCount.get();
+      final int fixedDelayCountAfterCancel = fixedDelayCount.get();
+      Thread.sleep(100);
+      assertEquals(fixedRateCountAfterCancel, fixedRateCount.get());
+      assertEquals(fixedDelayCountAfterCancel, fixedDelayCount.get());
+      assertTrue(fixedRate.isCancelled());
+
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      }
+
+   public void testShutdownCancelsTasksWhichArentDue() throws Exception
+      {
+      final SerialScheduledExecutor executor = new SerialScheduledExecutor(workerPool, timer);
+      final ScheduledFuture<Integer> future = executor.schedule(new Recorder(new ArrayList<Integer>(), 1), 1, TimeUnit.HOURS);
+      final ScheduledFuture<?> periodic = executor.scheduleWithFixedDelay(new Counter(new AtomicInteger(0), new CountDownLatch(1)), 1, 1, TimeUnit.HOURS);
+      executor.shutdown();
+      assertTrue(future.isCancelled());
+      assertTrue(periodic.isCancelled());
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      try
+         {
+         executor.schedule(new Recorder(new ArrayList<Integer>(), 1), 1, TimeUnit.SECONDS);
+         fail("Scheduling on a shut down executor should throw a RejectedExecutionException");
+         }
+      catch (RejectedExecutionException e)
+         {
+         // expected
+         }
+      }
+
+   private static final class Recorder implements Callable<Integer>
+      {
+      private final List<Integer> order;
+      private final int value;
+
+      private Recorder(final List<Integer> order, final int value)
+         {
+         this.order = order;
+         this.value = value;
+         }
+
+      public Integer call()
+         {
+         order.add(value);
+         return value;
+         }
+      }
+
+   private static final class Counter implements Runnable
+      {
+      private final AtomicInteger count;
+      private final CountDownLatch latch;
+
+      private Counter(final AtomicInteger count, final CountDownLatch latch)
+         {
+         this.count = count;
+         this.latch = latch;
+         }
+
+      public void run()
+         {
+         count.incrementAndGet();
+         latch.countDown();
+         }
+      }
+   }
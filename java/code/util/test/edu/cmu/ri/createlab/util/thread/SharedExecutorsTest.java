@@ -0,0 +1,80 @@
+package edu.cmu.ri.createlab.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * <code>SharedExecutorsTest</code> tests the {@link SharedExecutors} class.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SharedExecutorsTest extends TestCase
+   {
+   /** Comfortably more than the number of threads a fixed-size worker pool would sensibly have */
+   private static final int NUMBER_OF_BLOCKING_CALLERS = 4 * Runtime.getRuntime().availableProcessors() + 32;
+
+   public SharedExecutorsTest(final String test)
+      {
+      super(test);
+      }
+
+   /**
+    * Mimics many connectivity managers, each of which blocks on a command queue while pinging its device.  Every caller
+    * blocks on the same command executor, whose command doesn't complete until every caller is blocked, so this only
+    * completes if the worker pool runs all the callers and the command at once.
+    */
+   public void testMoreBlockingCallersThanWorkerThreads() throws Exception
+      {
+      final SerialExecutor commandExecutor = new SerialExecutor(SharedExecutors.getWorkerPool());
+      final CountDownLatch allCallersBlocked = new CountDownLatch(NUMBER_OF_BLOCKING_CALLERS);
+      final List<SerialExecutor> callerExecutors = new ArrayList<SerialExecutor>();
+      final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      try
+         {
+         for (int i = 0; i < NUMBER_OF_BLOCKING_CALLERS; i++)
+            {
+            final Integer callerId = i;
+            final SerialExecutor callerExecutor = new SerialExecutor(SharedExecutors.getWorkerPool());
+            callerExecutors.add(callerExecutor);
+            results.add(callerExecutor.submit(
+                  new Callable<Integer>()
+                  {
+                  public Integer call() throws Exception
+                     {
+                     final Future<Integer> command = commandExecutor.submit(
+                           new Callable<Integer>()
+                           {
+                           public Integer call() throws Exception
+                              {
+                              assertTrue("Every caller should be blocked at once", allCallersBlocked.await(10, TimeUnit.SECONDS));
+                              return callerId;
+                              }
+                           });
+                     allCallersBlocked.countDown();
+                     return command.get();
+                     }
+                  }));
+            }
+
+         for (int i = 0; i < NUMBER_OF_BLOCKING_CALLERS; i++)
+            {
+            assertEquals(Integer.valueOf(i), results.get(i).get(20, TimeUnit.SECONDS));
+            }
+         }
+      finally
+         {
+         commandExecutor.shutdownNow();
+         for (final SerialExecutor callerExecutor : callerExecutors)
+            {
+            callerExecutor.shutdownNow();
+            }
+         }
+      }
+   }